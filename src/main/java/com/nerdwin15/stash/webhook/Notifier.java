@@ -1,9 +1,20 @@
 package com.nerdwin15.stash.webhook;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -11,16 +22,40 @@ import javax.annotation.Nullable;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.repository.RefChange;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.user.StashUser;
 import com.google.common.base.Charsets;
-import com.google.common.io.CharStreams;
+import com.google.common.base.Strings;
 import com.nerdwin15.stash.webhook.service.HttpClientFactory;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
 import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.catchup.RefSnapshotStore;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetter;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetterStore;
+import com.nerdwin15.stash.webhook.service.failover.EndpointSelector;
+import com.nerdwin15.stash.webhook.service.health.HostHealthService;
+import com.nerdwin15.stash.webhook.service.history.Delivery;
+import com.nerdwin15.stash.webhook.service.history.DeliveryHistory;
+import com.nerdwin15.stash.webhook.service.limit.ConcurrencyLimiter;
+import com.nerdwin15.stash.webhook.service.limit.ConcurrencyLimiterService;
+import com.nerdwin15.stash.webhook.service.payload.PayloadEntity;
+import com.nerdwin15.stash.webhook.service.payload.PayloadWriter;
+import com.nerdwin15.stash.webhook.service.record.TrafficRecorder;
+import com.nerdwin15.stash.webhook.service.route.RoutingService;
+import com.nerdwin15.stash.webhook.service.template.TemplateContext;
+import com.nerdwin15.stash.webhook.service.template.WebhookTemplate;
+import com.nerdwin15.stash.webhook.service.template.WebhookTemplateService;
+import com.nerdwin15.stash.webhook.service.trace.Span;
+import com.nerdwin15.stash.webhook.service.trace.TraceContext;
+import com.nerdwin15.stash.webhook.service.trace.Tracer;
 
 /**
  * Service object that does the actual notification.
@@ -41,6 +76,31 @@ public class Notifier {
    */
   public static final String JENKINS_BASE = "jenkinsBase";
 
+  /**
+   * Field name for the alternate Jenkins URLs property
+   */
+  public static final String JENKINS_ALTERNATES = "jenkinsAlternates";
+
+  /**
+   * Field name for the ref routing rules property
+   */
+  public static final String REF_ROUTES = "refRoutes";
+
+  /**
+   * Field name for the generic webhook URL template property
+   */
+  public static final String WEBHOOK_URL = "webhookUrl";
+
+  /**
+   * Field name for the generic webhook headers template property
+   */
+  public static final String WEBHOOK_HEADERS = "webhookHeaders";
+
+  /**
+   * Field name for the generic webhook body template property
+   */
+  public static final String WEBHOOK_BODY = "webhookBody";
+
   /**
    * Field name for the Repo Clone Url property
    */
@@ -56,23 +116,92 @@ public class Notifier {
    */
   public static final String IGNORE_COMMITTERS = "ignoreCommitters";
 
+  /**
+   * Field name for the post payload property
+   */
+  public static final String POST_PAYLOAD = "postPayload";
+
+  /**
+   * Field name for the payload path property
+   */
+  public static final String PAYLOAD_PATH = "payloadPath";
+
+  /**
+   * Field name for the max commits property
+   */
+  public static final String MAX_COMMITS = "maxCommits";
+
+  /**
+   * Property holding the number of seconds after which a response still
+   * being received from Jenkins is abandoned
+   */
+  public static final String RESPONSE_DEADLINE_PROPERTY =
+      "jenkins.webhook.http.deadline";
+
+  /**
+   * The number of characters of a response body that are kept. The rest of
+   * a longer body isn't read.
+   */
+  public static final int RESPONSE_LIMIT = 16 * 1024;
+
   private static final Logger LOGGER = 
       LoggerFactory.getLogger(Notifier.class);
   private static final String URL = "%s/git/notifyCommit?url=%s";
 
   private final HttpClientFactory httpClientFactory;
   private final SettingsService settingsService;
+  private final PayloadWriter payloadWriter;
+  private final ConcurrencyLimiterService limiterService;
+  private final DeliveryHistory deliveryHistory;
+  private final DeadLetterStore deadLetterStore;
+  private final Tracer tracer;
+  private final TrafficRecorder recorder;
+  private final HostHealthService healthService;
+  private final EndpointSelector endpointSelector;
+  private final RoutingService routingService;
+  private final WebhookTemplateService templateService;
+  private final RefSnapshotStore snapshotStore;
+  private final long responseDeadlineNanos = TimeUnit.SECONDS.toNanos(
+      PluginProperties.getLong(RESPONSE_DEADLINE_PROPERTY, 60));
 
   /**
    * Create a new instance
    * @param settingsService Service used to get webhook settings
    * @param httpClientFactory Factory to generate HttpClients
+   * @param payloadWriter Writer used to render POST payloads
+   * @param limiterService Service limiting the concurrent requests per host
+   * @param deliveryHistory History recording the notification attempts
+   * @param deadLetterStore Store keeping the failed notifications
+   * @param tracer Tracer timing the stages of a notification
+   * @param recorder Recorder of the traffic, when enabled
+   * @param healthService Service telling which Jenkins hosts are down
+   * @param endpointSelector Service ordering the endpoints of a Jenkins
+   * @param routingService Service routing refs to Jenkins instances
+   * @param templateService Service compiling generic webhooks
+   * @param snapshotStore Snapshot of the refs Jenkins was notified of
    */
   public Notifier(SettingsService settingsService,
-      HttpClientFactory httpClientFactory) {
+      HttpClientFactory httpClientFactory, PayloadWriter payloadWriter,
+      ConcurrencyLimiterService limiterService,
+      DeliveryHistory deliveryHistory, DeadLetterStore deadLetterStore,
+      Tracer tracer, TrafficRecorder recorder,
+      HostHealthService healthService, EndpointSelector endpointSelector,
+      RoutingService routingService, WebhookTemplateService templateService,
+      RefSnapshotStore snapshotStore) {
     
     this.httpClientFactory = httpClientFactory;
     this.settingsService = settingsService;
+    this.payloadWriter = payloadWriter;
+    this.limiterService = limiterService;
+    this.deliveryHistory = deliveryHistory;
+    this.deadLetterStore = deadLetterStore;
+    this.tracer = tracer;
+    this.recorder = recorder;
+    this.healthService = healthService;
+    this.endpointSelector = endpointSelector;
+    this.routingService = routingService;
+    this.templateService = templateService;
+    this.snapshotStore = snapshotStore;
   }
 
   /**
@@ -81,20 +210,223 @@ public class Notifier {
    * @return Text result from Jenkins
    */
   public @Nullable String notify(@Nonnull Repository repo) { //CHECKSTYLE:annot
-    final RepositoryHook hook = settingsService.getRepositoryHook(repo);
-    final Settings settings = settingsService.getSettings(repo);
+    return notify(repo, null, Collections.<RefChange>emptyList());
+  }
+
+  /**
+   * Send notification of a push to each of its {@link #getTargets targets}:
+   * the Jenkins instances its refs are routed to, then the generic webhook.
+   * Each attempt is recorded in the delivery history of the repository, and
+   * kept as a dead letter unless the target accepted it.
+   * @param repo The repository to base the notification on.
+   * @param user The user that made the changes. May be null.
+   * @param refChanges The refs that were changed
+   * @return Text result from the last Jenkins notified
+   */
+  public @Nullable String notify(@Nonnull Repository repo, //CHECKSTYLE:annot
+      @Nullable StashUser user, @Nonnull Collection<RefChange> refChanges) {
+    String result = null;
+    for (Target target : getTargets(repo, user, refChanges)) {
+      final String response = notify(repo, target);
+      if (target.isJenkins())
+        result = response;
+    }
+    return result;
+  }
+
+  /**
+   * Find the targets to notify of a push, each with the requests to send it
+   * and the ref changes it is notified of: every Jenkins instance the refs
+   * are routed to, then the generic webhook if one is configured.
+   * @param repo The repository that was pushed to
+   * @param user The user that made the changes. May be null.
+   * @param refChanges The refs that were changed
+   * @return The targets, empty if the hook isn't enabled
+   */
+  public List<Target> getTargets(Repository repo, StashUser user,
+      Collection<RefChange> refChanges) {
+    final Span span = tracer.startSpan("settings");
+    final RepositoryHook hook;
+    final Settings settings;
+    try {
+      hook = settingsService.getRepositoryHook(repo);
+      settings = settingsService.getSettings(repo);
+    } finally {
+      span.end();
+    }
     if (hook == null || !hook.isEnabled() || settings == null) {
       LOGGER.debug("Hook not configured correctly or not enabled, returning.");
+      return Collections.emptyList();
+    }
+
+    final Span routing = tracer.startSpan("routing");
+    final Map<String, Collection<RefChange>> routes;
+    try {
+      routes = routingService.route(settings, refChanges);
+    } finally {
+      routing.end();
+    }
+    final List<Target> targets = new ArrayList<Target>(routes.size() + 1);
+    for (Entry<String, Collection<RefChange>> route : routes.entrySet()) {
+      targets.add(getJenkinsTarget(repo, user, route.getValue(), settings,
+          route.getKey()));
+    }
+    final WebhookTemplate webhook = templateService.getTemplate(settings);
+    if (webhook != null && !routes.isEmpty()) {
+      final Target target = getWebhookTarget(repo, user, routes, settings,
+          webhook);
+      if (target != null)
+        targets.add(target);
+    }
+    return targets;
+  }
+
+  /**
+   * Send notification to a single target of a push.
+   * @param repo The repository to base the notification on.
+   * @param target The target, as found by {@link #getTargets}
+   * @return The response body, or null if the request failed
+   */
+  public @Nullable String notify(@Nonnull Repository repo, //CHECKSTYLE:annot
+      @Nonnull Target target) {
+    return bodyOf(execute(target.requests, target.ignoreCerts, repo,
+        target.refChanges, target.jenkins));
+  }
+
+  /**
+   * Find the target a dead letter was meant for under the current settings:
+   * the one with an endpoint at the URL of the letter, or else at its host.
+   * @param repo The repository of the dead letter
+   * @param letter The dead letter
+   * @return The target, notified of the ref changes of the letter, or null
+   * if no target of the repository matches
+   */
+  public @Nullable Target getTarget(@Nonnull Repository repo, //CHECKSTYLE:annot
+      @Nonnull DeadLetter letter) {
+    final List<Target> targets = getTargets(repo, null,
+        letter.getRefChanges());
+    for (Target target : targets) {
+      for (HttpUriRequest request : target.requests) {
+        if (request.getURI().toString().equals(letter.getUrl()))
+          return target;
+      }
+    }
+    for (Target target : targets) {
+      for (HttpUriRequest request : target.requests) {
+        if (hostOf(request.getURI()).equals(letter.getHost()))
+          return target;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Send a dead letter again, to its target only. If the target still
+   * fails, the notification is kept as a new dead letter.
+   * @param repo The repository of the dead letter
+   * @param target The target of the dead letter, as found by
+   * {@link #getTarget(Repository, DeadLetter)}
+   * @return The response body if the target accepted the notification, or
+   * null if it failed
+   */
+  public @Nullable String replay(@Nonnull Repository repo, //CHECKSTYLE:annot
+      @Nonnull Target target) {
+    final Attempt attempt = execute(target.requests, target.ignoreCerts,
+        repo, target.refChanges, target.jenkins);
+    return attempt == null || !isAccepted(attempt.status) ? null
+        : attempt.body;
+  }
+
+  /**
+   * Record that a notification to a target was dropped without being sent,
+   * in the delivery history and as a dead letter, as when the concurrency
+   * limit of its host is reached.
+   * @param repo The repository the notification is for
+   * @param target The target
+   * @param reason Why the notification was dropped
+   */
+  public void drop(@Nonnull Repository repo, //CHECKSTYLE:annot
+      @Nonnull Target target, String reason) {
+    record(repo, target.refChanges, target.requests.get(0).getURI(),
+        Delivery.STATUS_DROPPED, 0, reason, target.jenkins);
+  }
+
+  /**
+   * Create the target notifying the generic webhook of the routed ref
+   * changes of a push.
+   * @param repo The repository to base the notification on.
+   * @param user The user that made the changes. May be null.
+   * @param routes The ref changes routed to each Jenkins instance
+   * @param settings The hook settings
+   * @param webhook The compiled webhook
+   * @return The target, or null if its URL couldn't be rendered
+   */
+  private Target getWebhookTarget(Repository repo, StashUser user,
+      Map<String, Collection<RefChange>> routes, Settings settings,
+      WebhookTemplate webhook) {
+    Collection<RefChange> refChanges = routes.values().iterator().next();
+    if (routes.size() > 1) {
+      refChanges = new ArrayList<RefChange>();
+      for (Collection<RefChange> routed : routes.values()) {
+        refChanges.addAll(routed);
+      }
+    }
+    final HttpUriRequest request;
+    try {
+      request = webhook.createRequest(new TemplateContext(repo, user,
+          refChanges, settings.getString(CLONE_URL)));
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("Unable to render the webhook url of repository {}: {}",
+          repo.getId(), e.getMessage());
       return null;
     }
+    return new Target(Collections.singletonList(request),
+        settings.getBoolean(IGNORE_CERTS, false), refChanges, false);
+  }
 
-    return notify(repo, settings.getString(JENKINS_BASE), 
-        settings.getBoolean(IGNORE_CERTS, false),
-        settings.getString(CLONE_URL));
+  /**
+   * Create the target notifying a Jenkins instance of some of the ref
+   * changes of a push.
+   * @param repo The repository to base the notification on.
+   * @param user The user that made the changes. May be null.
+   * @param refChanges The refs routed to the Jenkins instance
+   * @param settings The hook settings
+   * @param target The base URL of the Jenkins instance
+   * @return The target
+   */
+  private Target getJenkinsTarget(Repository repo, StashUser user,
+      Collection<RefChange> refChanges, Settings settings, String target) {
+    final boolean ignoreCerts = settings.getBoolean(IGNORE_CERTS, false);
+    final String cloneUrl = settings.getString(CLONE_URL);
+    final boolean postPayload = settings.getBoolean(POST_PAYLOAD, false);
+    final String path = settings.getString(PAYLOAD_PATH);
+    final String jenkinsBase = maybeReplaceSlash(
+        settings.getString(JENKINS_BASE));
+    final List<String> bases = target == null
+        || maybeReplaceSlash(target).equals(jenkinsBase)
+        ? parseJenkinsBases(jenkinsBase,
+            settings.getString(JENKINS_ALTERNATES))
+        : Collections.singletonList(maybeReplaceSlash(target));
+    final List<HttpUriRequest> requests = new ArrayList<HttpUriRequest>();
+    for (String base : bases) {
+      if (!postPayload) {
+        requests.add(new HttpGet(getUrl(repo, base, cloneUrl)));
+        continue;
+      }
+      final String url = Strings.isNullOrEmpty(path) 
+          ? getUrl(repo, base, cloneUrl)
+          : base + (path.startsWith("/") ? path : "/" + path);
+      final HttpPost post = new HttpPost(url);
+      post.setEntity(new PayloadEntity(payloadWriter, repo, user, refChanges,
+          parseMaxCommits(settings.getString(MAX_COMMITS))));
+      requests.add(post);
+    }
+    return new Target(requests, ignoreCerts, refChanges, true);
   }
 
   /**
-   * Send notification to Jenkins using the provided settings
+   * Send notification to Jenkins using the provided settings. The attempt
+   * isn't recorded in the delivery history.
    * @param repo The repository to base the notification on.
    * @param jenkinsBase Base URL for Jenkins instance
    * @param ignoreCerts True if all certs should be allowed
@@ -103,29 +435,266 @@ public class Notifier {
    */
   public @Nullable String notify(@Nonnull Repository repo, //CHECKSTYLE:annot
       String jenkinsBase, boolean ignoreCerts, String cloneUrl) {
-    
-    HttpClient client = null;
-    final String url = getUrl(repo, maybeReplaceSlash(jenkinsBase),
-        cloneUrl);
+    return notify(repo, createTestRequest(repo, jenkinsBase, cloneUrl),
+        ignoreCerts);
+  }
 
+  /**
+   * Create the request sent to Jenkins to test the provided settings.
+   * Callers that keep the request can {@link HttpUriRequest#abort() abort}
+   * it from another thread while it is sent.
+   * @param repo The repository to base the notification on.
+   * @param jenkinsBase Base URL for Jenkins instance
+   * @param cloneUrl The repository url
+   * @return The request
+   */
+  public HttpUriRequest createTestRequest(Repository repo, 
+      String jenkinsBase, String cloneUrl) {
+    return new HttpGet(getUrl(repo, maybeReplaceSlash(jenkinsBase), 
+        cloneUrl));
+  }
+
+  /**
+   * Send a request created by {@link #createTestRequest}. The attempt isn't
+   * recorded in the delivery history.
+   * @param repo The repository the request is for
+   * @param request The request
+   * @param ignoreCerts True if all certs should be allowed
+   * @return The response body for the notification.
+   */
+  public @Nullable String notify(@Nonnull Repository repo, //CHECKSTYLE:annot
+      HttpUriRequest request, boolean ignoreCerts) {
+    return bodyOf(execute(Collections.singletonList(request), ignoreCerts,
+        repo, null, false));
+  }
+
+  /**
+   * Execute a notification, failing over across the requests to equivalent
+   * endpoints in the order preferred by the {@link EndpointSelector}.
+   * @param requests The requests, one per endpoint in the configured order
+   * @param ignoreCerts True if all certs should be allowed
+   * @param repo The repository the notification is for
+   * @param refChanges The refs that were changed, or null if the attempt
+   * isn't recorded in the delivery history
+   * @param jenkins True if the endpoints are Jenkins, whose accepted ref
+   * changes are applied to the snapshot
+   * @return The outcome of the last request, or null if interrupted
+   */
+  private Attempt execute(List<HttpUriRequest> requests, boolean ignoreCerts,
+      Repository repo, Collection<RefChange> refChanges, boolean jenkins) {
+    final Map<String, HttpUriRequest> endpoints =
+        new LinkedHashMap<String, HttpUriRequest>();
+    for (HttpUriRequest request : requests) {
+      if (!endpoints.containsKey(endpointOf(request.getURI())))
+        endpoints.put(endpointOf(request.getURI()), request);
+    }
+
+    final long start = System.nanoTime();
+    Attempt attempt = null;
+    for (String endpoint : endpointSelector.order(
+        new ArrayList<String>(endpoints.keySet()))) {
+      if (attempt != null) {
+        if (System.nanoTime() - start >= responseDeadlineNanos)
+          break;
+        LOGGER.info("Failing over from {} to {}", 
+            hostOf(attempt.uri), endpoint);
+      }
+      attempt = execute(endpoints.get(endpoint), ignoreCerts, 
+          refChanges != null, start);
+      if (attempt == null)
+        return null;
+      if (!attempt.isFailed())
+        break;
+    }
+    record(repo, refChanges, attempt.uri, attempt.status,
+        TimeUnit.NANOSECONDS.toMillis(attempt.elapsedNanos), attempt.result,
+        jenkins);
+    return attempt;
+  }
+
+  /**
+   * Execute a notification request to a single endpoint.
+   * @param request The request
+   * @param ignoreCerts True if all certs should be allowed
+   * @param skipDown True if the request isn't sent to a host known to be
+   * down
+   * @param start The time the notification was started at, in nanoseconds
+   * @return The outcome of the request, or null if interrupted
+   */
+  private Attempt execute(HttpUriRequest request, boolean ignoreCerts,
+      boolean skipDown, long start) {
+    final String url = request.getURI().toString();
+    final String host = hostOf(request.getURI());
+    final String endpoint = endpointOf(request.getURI());
+    if (skipDown && healthService.isDown(host)) {
+      LOGGER.warn("Jenkins host {} is down, skipping notification to '{}'",
+          host, url);
+      return new Attempt(request.getURI(), Delivery.STATUS_DROPPED, 0,
+          "Jenkins host is down", null);
+    }
+    final ConcurrencyLimiter limiter = limiterService.getLimiter(host);
+    final Span wait = tracer.startSpan("limiter");
+    try {
+      if (!limiter.acquire(limiterService.getWaitMillis(), 
+          TimeUnit.MILLISECONDS)) {
+        LOGGER.warn("Concurrency limit of {} reached for {}, dropping "
+            + "notification to '{}'", 
+            new Object[] { limiter.getLimit(), limiter.getKey(), url });
+        wait.setError("Concurrency limit reached");
+        return new Attempt(request.getURI(), Delivery.STATUS_DROPPED, 0,
+            "Concurrency limit reached", null);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      wait.end();
+    }
+
+    HttpClient client = null;
+    boolean success = false;
+    int status = Delivery.STATUS_ERROR;
+    String result = null;
+    String body = null;
+    final long sent = System.nanoTime();
+    final Span http = tracer.startSpan("http").setAttribute("url", url);
+    if (http.getContext() != null) {
+      request.setHeader(TraceContext.TRACEPARENT,
+          http.getContext().toTraceparent());
+    }
+    Span stage = tracer.startSpan("http.client");
     try {
       client = httpClientFactory.getHttpClient(url.startsWith("https"), 
           ignoreCerts);
+      stage.end();
 
-      HttpResponse response = client.execute(new HttpGet(url));
+      stage = tracer.startSpan("http.request");
+      HttpResponse response = client.execute(request);
+      stage.end();
       LOGGER.debug("Successfully triggered jenkins with url '{}': ", url);
-      InputStream content = response.getEntity().getContent();
-      return CharStreams.toString(
-          new InputStreamReader(content, Charsets.UTF_8));
+      stage = tracer.startSpan("http.response");
+      body = read(request, response, start);
+      status = response.getStatusLine().getStatusCode();
+      success = !isOverloaded(status);
+      result = body;
     } catch (Exception e) {
       LOGGER.error("Error triggering jenkins with url '" + url + "'", e);
+      request.abort();
+      result = e.toString();
+      stage.setError(result);
+      http.setError(result);
     } finally {
+      stage.end();
+      http.setAttribute("status", status).end();
+      final long elapsed = System.nanoTime() - sent;
+      limiter.release(elapsed, success);
+      if (success)
+        endpointSelector.recordSuccess(endpoint, elapsed);
+      else
+        endpointSelector.recordFailure(endpoint);
       if (client != null) {
-        client.getConnectionManager().shutdown();
-        LOGGER.debug("Successfully shutdown connection");
+        httpClientFactory.releaseHttpClient(client);
+        LOGGER.debug("Successfully released connection");
       }
     }
-    return null;
+    return new Attempt(request.getURI(), status, System.nanoTime() - sent,
+        result, body);
+  }
+
+  /**
+   * Read the body of a response, up to {@link #RESPONSE_LIMIT} characters
+   * and until the response deadline. A Jenkins answering with a huge body,
+   * or trickling it, can't hold the notification thread and its memory for
+   * longer: the request is aborted and what was read is kept.
+   * @param request The request
+   * @param response The response to the request
+   * @param start The time the request was started at, in nanoseconds
+   * @return The response body, possibly truncated
+   * @throws IOException If the body can't be read
+   */
+  private String read(HttpUriRequest request, HttpResponse response,
+      long start) throws IOException {
+    if (response.getEntity() == null)
+      return "";
+    final InputStream content = response.getEntity().getContent();
+    final Reader reader = new InputStreamReader(content, Charsets.UTF_8);
+    final StringBuilder body = new StringBuilder();
+    final char[] buffer = new char[4096];
+    int read;
+    while ((read = reader.read(buffer)) != -1) {
+      body.append(buffer, 0, Math.min(read, RESPONSE_LIMIT - body.length()));
+      if (body.length() >= RESPONSE_LIMIT
+          || System.nanoTime() - start > responseDeadlineNanos) {
+        LOGGER.warn("Abandoning the response of '{}' after {} characters",
+            request.getURI(), body.length());
+        request.abort();
+        break;
+      }
+    }
+    return body.toString();
+  }
+
+  private void record(Repository repo, Collection<RefChange> refChanges,
+      URI uri, int status, long latencyMillis, String response,
+      boolean jenkins) {
+    if (refChanges == null)
+      return;
+    final String url = uri.toString();
+    try {
+      deliveryHistory.record(repo, refChanges, url, status, latencyMillis,
+          response);
+      recorder.recordDelivery(repo, hostOf(uri), status, latencyMillis);
+      if (isAccepted(status)) {
+        if (jenkins)
+          snapshotStore.apply(repo.getId(), refChanges);
+      } else {
+        deadLetterStore.add(repo, refChanges, hostOf(uri), url,
+            status > 0 ? "HTTP " + status + ": " + response : response);
+      }
+    } catch (RuntimeException e) {
+      LOGGER.warn("Unable to record notification to '{}'", url, e);
+    }
+  }
+
+  /**
+   * Determine whether a status code shows that the notification was
+   * accepted.
+   * @param statusCode The HTTP status code
+   * @return True for success and redirect statuses
+   */
+  static boolean isAccepted(int statusCode) {
+    return statusCode >= 200 && statusCode < 400;
+  }
+
+  /**
+   * Determine whether a status code shows that Jenkins is struggling, in
+   * which case the concurrency limit of the host backs off.
+   * @param statusCode The HTTP status code
+   * @return True for server errors and 429 Too Many Requests
+   */
+  static boolean isOverloaded(int statusCode) {
+    return statusCode >= 500 || statusCode == 429;
+  }
+
+  /**
+   * Get the Jenkins host of a request URI, as known to the concurrency
+   * limiters and health probes.
+   * @param uri The request URI
+   * @return The scheme, host and port of the URI
+   */
+  public static String hostOf(URI uri) {
+    return uri.getScheme() + "://" + uri.getHost() 
+        + (uri.getPort() < 0 ? "" : ":" + uri.getPort());
+  }
+
+  /**
+   * Get the endpoint a notification is sent to, as its url without the
+   * query. Alternates on the same host stay distinct endpoints.
+   * @param uri The notification url
+   * @return The endpoint
+   */
+  public static String endpointOf(URI uri) {
+    return hostOf(uri) + (uri.getRawPath() == null ? "" : uri.getRawPath());
   }
 
   /**
@@ -140,6 +709,43 @@ public class Notifier {
     return String.format(URL, jenkinsBase, urlEncode(cloneUrl));
   }
   
+  /**
+   * Parse the Jenkins base URL and its alternates into the distinct base
+   * URLs of the equivalent endpoints, without trailing slashes.
+   * @param jenkinsBase The Jenkins base URL setting
+   * @param alternates The alternate URLs setting, separated by whitespace or
+   * commas. May be null.
+   * @return The base URLs, the Jenkins base URL first
+   */
+  public static List<String> parseJenkinsBases(String jenkinsBase,
+      String alternates) {
+    final List<String> bases = new ArrayList<String>();
+    bases.add(maybeReplaceSlash(jenkinsBase));
+    if (Strings.isNullOrEmpty(alternates))
+      return bases;
+    for (String alternate : alternates.trim().split("[\\s,]+")) {
+      final String base = maybeReplaceSlash(alternate);
+      if (base.length() > 0 && !bases.contains(base))
+        bases.add(base);
+    }
+    return bases;
+  }
+
+  /**
+   * Parse the max commits setting, defaulting to no commits.
+   * @param maxCommits The raw setting value
+   * @return The number of commits to include in a payload
+   */
+  static int parseMaxCommits(String maxCommits) {
+    if (Strings.isNullOrEmpty(maxCommits))
+      return 0;
+    try {
+      return Math.max(0, Integer.parseInt(maxCommits.trim()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+  
   private static String urlEncode(String string) {
     try {
       return URLEncoder.encode(string, "UTF-8");
@@ -148,7 +754,95 @@ public class Notifier {
     }
   }
 
-  private String maybeReplaceSlash(String string) {
+  private static String bodyOf(Attempt attempt) {
+    return attempt == null ? null : attempt.body;
+  }
+
+  private static String maybeReplaceSlash(String string) {
     return string == null ? null : string.replaceFirst("/$", "");
   }
+
+  /**
+   * A Jenkins instance or generic webhook a push is delivered to: the
+   * requests to its equivalent endpoints, in the configured order, and the
+   * ref changes it is notified of.
+   */
+  public static final class Target {
+
+    private final List<HttpUriRequest> requests;
+    private final boolean ignoreCerts;
+    private final Collection<RefChange> refChanges;
+    private final boolean jenkins;
+
+    /**
+     * Create a new instance
+     * @param requests The requests, one per endpoint. Must not be empty.
+     * @param ignoreCerts True if all certs should be allowed
+     * @param refChanges The refs the target is notified of
+     * @param jenkins True for a Jenkins instance, false for the generic
+     * webhook
+     */
+    public Target(List<HttpUriRequest> requests, boolean ignoreCerts,
+        Collection<RefChange> refChanges, boolean jenkins) {
+      this.requests = requests;
+      this.ignoreCerts = ignoreCerts;
+      this.refChanges = refChanges;
+      this.jenkins = jenkins;
+    }
+
+    /**
+     * Get the host of the first endpoint, as known to the concurrency
+     * limiters and health probes.
+     * @return The scheme, host and port of the target
+     */
+    public String getHost() {
+      return hostOf(requests.get(0).getURI());
+    }
+
+    /**
+     * Get the ref changes the target is notified of.
+     * @return The ref changes
+     */
+    public Collection<RefChange> getRefChanges() {
+      return refChanges;
+    }
+
+    /**
+     * Whether the target is a Jenkins instance.
+     * @return True for a Jenkins instance, false for the generic webhook
+     */
+    public boolean isJenkins() {
+      return jenkins;
+    }
+  }
+
+  /**
+   * The outcome of a notification request to a single endpoint.
+   */
+  private static class Attempt {
+
+    private final URI uri;
+    private final int status;
+    private final long elapsedNanos;
+    private final String result;
+    private final String body;
+
+    Attempt(URI uri, int status, long elapsedNanos, String result,
+        String body) {
+      this.uri = uri;
+      this.status = status;
+      this.elapsedNanos = elapsedNanos;
+      this.result = result;
+      this.body = body;
+    }
+
+    /**
+     * Determine whether another endpoint should be tried.
+     * @return True if the request wasn't sent, failed, or Jenkins answered
+     * with a server error
+     */
+    boolean isFailed() {
+      return status <= 0 || isOverloaded(status);
+    }
+  }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.nerdwin15.stash.webhook;
 
 import java.util.Collection;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 
@@ -11,13 +12,26 @@ import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.RepositorySettingsValidator;
 import com.atlassian.stash.setting.Settings;
 import com.atlassian.stash.setting.SettingsValidationErrors;
-import com.google.common.base.Strings;
+import com.nerdwin15.stash.webhook.service.DefaultSettingsService;
+import com.nerdwin15.stash.webhook.service.HookSettingsValidator;
 
 /**
  * Note that hooks can implement RepositorySettingsValidator directly.
  */
 public class PostReceiveHook implements AsyncPostReceiveRepositoryHook, 
     RepositorySettingsValidator {
+
+  private final HookSettingsValidator validator = new HookSettingsValidator();
+  private final DefaultSettingsService defaultSettingsService;
+
+  /**
+   * Create a new instance
+   * @param defaultSettingsService The service providing the defaults the
+   * repository settings inherit
+   */
+  public PostReceiveHook(DefaultSettingsService defaultSettingsService) {
+    this.defaultSettingsService = defaultSettingsService;
+  }
   
   @Override
   public void postReceive(@Nonnull RepositoryHookContext ctx, 
@@ -30,17 +44,8 @@ public class PostReceiveHook implements AsyncPostReceiveRepositoryHook,
   public void validate(@Nonnull Settings settings, 
       @Nonnull SettingsValidationErrors errors, 
       @Nonnull Repository repository) {
-    
-    final String jenkinsUrl = settings.getString(Notifier.JENKINS_BASE);
-    if (Strings.isNullOrEmpty(jenkinsUrl)) {
-      errors.addFieldError(Notifier.JENKINS_BASE, 
-          "The url for your Jenkins instance is required.");
-    }
-    
-    final String cloneType = settings.getString(Notifier.CLONE_URL);
-    if (Strings.isNullOrEmpty(cloneType)) {
-      errors.addFieldError(Notifier.CLONE_URL, 
-          "The repository clone url is required");
-    }
+    final Map<String, String> defaults =
+        defaultSettingsService.getDefaults(repository);
+    validator.validate(settings, defaults, errors);
   }
 }
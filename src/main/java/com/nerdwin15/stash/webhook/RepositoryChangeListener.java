@@ -1,9 +1,18 @@
 package com.nerdwin15.stash.webhook;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.atlassian.event.api.EventListener;
 import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.nerdwin15.stash.webhook.service.RecentRefChangeIndex;
 import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.catchup.RefSnapshotStore;
+import com.nerdwin15.stash.webhook.service.dispatch.NotificationDispatcher;
 import com.nerdwin15.stash.webhook.service.eligibility.EligibilityFilterChain;
+import com.nerdwin15.stash.webhook.service.record.TrafficRecorder;
+import com.nerdwin15.stash.webhook.service.trace.Span;
+import com.nerdwin15.stash.webhook.service.trace.Tracer;
 
 /**
  * Listener for repository change events.
@@ -12,21 +21,38 @@ import com.nerdwin15.stash.webhook.service.eligibility.EligibilityFilterChain;
  */
 public class RepositoryChangeListener {
 
+  private static final Logger LOGGER = 
+      LoggerFactory.getLogger(RepositoryChangeListener.class);
+
   private final EligibilityFilterChain filterChain;
-  private final Notifier notifier;
+  private final NotificationDispatcher dispatcher;
   private final SettingsService settingsService;
+  private final RecentRefChangeIndex recentRefChanges;
+  private final RefSnapshotStore snapshotStore;
+  private final Tracer tracer;
+  private final TrafficRecorder recorder;
 
   /**
    * Construct a new instance.
    * @param filterChain The filter chain to test for eligibility
-   * @param notifier The notifier service
+   * @param dispatcher The dispatcher queueing notifications
    * @param settingsService Service to be used to get the Settings
+   * @param recentRefChanges Index of the ref changes notified recently
+   * @param snapshotStore Snapshot of the refs Jenkins knows about
+   * @param tracer Tracer of the notification path
+   * @param recorder Recorder of the traffic, when enabled
    */
   public RepositoryChangeListener(EligibilityFilterChain filterChain,
-      Notifier notifier, SettingsService settingsService) {
+      NotificationDispatcher dispatcher, SettingsService settingsService,
+      RecentRefChangeIndex recentRefChanges, RefSnapshotStore snapshotStore,
+      Tracer tracer, TrafficRecorder recorder) {
     this.filterChain = filterChain;
-    this.notifier = notifier;
+    this.dispatcher = dispatcher;
     this.settingsService = settingsService;
+    this.recentRefChanges = recentRefChanges;
+    this.snapshotStore = snapshotStore;
+    this.tracer = tracer;
+    this.recorder = recorder;
   }
 
   /**
@@ -35,11 +61,57 @@ public class RepositoryChangeListener {
    */
   @EventListener
   public void onRefsChangedEvent(RepositoryRefsChangedEvent event) {
-    if (settingsService.getSettings(event.getRepository()) == null) {
-      return;
+    final Span trace = tracer.startTrace("refs-changed")
+        .setAttribute("repository", event.getRepository().getId())
+        .setAttribute("refs", event.getRefChanges().size());
+    try {
+      final String outcome = handle(event);
+      trace.setAttribute("outcome", outcome);
+      recorder.recordEvent(event.getRepository(), event.getRefChanges(),
+          outcome);
+    } catch (RuntimeException e) {
+      trace.setError(e.toString());
+      throw e;
+    } finally {
+      trace.end();
+    }
+  }
+
+  private String handle(RepositoryRefsChangedEvent event) {
+    final Span settings = tracer.startSpan("settings");
+    try {
+      if (settingsService.getSettings(event.getRepository()) == null)
+        return "disabled";
+    } finally {
+      settings.end();
+    }
+    final Span eligibility = tracer.startSpan("eligibility");
+    try {
+      if (!filterChain.shouldDeliverNotification(event)) {
+        // Delivered pushes are recorded by the notifier. Filtered ones are
+        // recorded here, so the catch-up scan doesn't notify Jenkins of
+        // pushes it was meant to ignore
+        snapshotStore.apply(event.getRepository().getId(),
+            event.getRefChanges());
+        return "filtered";
+      }
+    } finally {
+      eligibility.end();
+    }
+    if (!recentRefChanges.markNew(event.getRepository(), 
+        event.getRefChanges())) {
+      LOGGER.debug("Ignoring duplicate ref changes for repository {}",
+          event.getRepository().getId());
+      return "duplicate";
+    }
+    final Span dispatch = tracer.startSpan("dispatch");
+    try {
+      dispatcher.dispatch(event.getRepository(), event.getUser(), 
+          event.getRefChanges());
+    } finally {
+      dispatch.end();
     }
-    if (filterChain.shouldDeliverNotification(event))
-      notifier.notify(event.getRepository());
+    return "dispatched";
   }
   
 }
\ No newline at end of file
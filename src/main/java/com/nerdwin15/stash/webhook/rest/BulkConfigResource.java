@@ -0,0 +1,167 @@
+package com.nerdwin15.stash.webhook.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.atlassian.plugins.rest.common.security.AnonymousAllowed;
+import com.atlassian.stash.i18n.I18nService;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.atlassian.stash.rest.util.RestResource;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionValidationService;
+import com.nerdwin15.stash.webhook.service.bulk.BulkConfigurator;
+import com.nerdwin15.stash.webhook.service.bulk.ConfigTemplate;
+import com.nerdwin15.stash.webhook.service.bulk.ProgressWriter;
+import com.sun.jersey.spi.resource.Singleton;
+
+/**
+ * REST resource used to apply the same hook settings to many repositories,
+ * for example when moving every repository to a new Jenkins instance. The
+ * request body holds the settings, and the clone url can be derived for each
+ * repository. Progress is streamed back as newline delimited JSON.
+ */
+@Path("configure")
+@Consumes({ MediaType.APPLICATION_JSON })
+@Produces({ ProgressWriter.MEDIA_TYPE })
+@Singleton
+@AnonymousAllowed
+public class BulkConfigResource extends RestResource {
+
+  private static final int MAX_PARALLELISM = 16;
+  private static final int MAX_BATCH_SIZE = 500;
+
+  private final BulkConfigurator configurator;
+  private final ProjectService projectService;
+  private final RepositoryService repositoryService;
+  private final PermissionValidationService permissionService;
+
+  /**
+   * Creates the bulk configuration resource
+   * @param configurator The service configuring the repositories
+   * @param projectService Service used to find the project to configure
+   * @param repositoryService Service used to find the repositories to
+   * configure
+   * @param permissionValidationService A permission validation service
+   * @param i18nService i18n Service
+   */
+  public BulkConfigResource(BulkConfigurator configurator,
+      ProjectService projectService, RepositoryService repositoryService,
+      PermissionValidationService permissionValidationService,
+      I18nService i18nService) {
+    super(i18nService);
+    this.configurator = configurator;
+    this.projectService = projectService;
+    this.repositoryService = repositoryService;
+    this.permissionService = permissionValidationService;
+  }
+
+  /**
+   * Apply the provided settings to the selected repositories. Configuring
+   * the repositories of a single project requires project admin permission,
+   * configuring the whole instance requires admin permission.
+   * @param projectKey The project to configure, or null for every project
+   * @param slugs The slugs of the repositories of the project to configure,
+   * or empty for every repository of the project
+   * @param cloneType The clone url to derive for each repository, either
+   * "http" or "ssh", or null to take it from the settings
+   * @param merge True to keep existing values the settings don't override
+   * @param enable True to also enable the hook
+   * @param parallelism The number of batches saved concurrently
+   * @param batchSize The number of repositories saved per transaction
+   * @param settings The settings to apply
+   * @return A response streaming the progress
+   */
+  @PUT
+  public Response configure(@QueryParam("projectKey") final String projectKey,
+      @QueryParam("repository") List<String> slugs,
+      @QueryParam("cloneType") String cloneType,
+      @QueryParam("merge") @DefaultValue("true") boolean merge,
+      @QueryParam("enable") @DefaultValue("false") boolean enable,
+      @QueryParam("parallelism") @DefaultValue("4") final int parallelism,
+      @QueryParam("batchSize") @DefaultValue("50") final int batchSize,
+      Map<String, Object> settings) {
+    if (parallelism < 1 || parallelism > MAX_PARALLELISM || batchSize < 1
+        || batchSize > MAX_BATCH_SIZE)
+      return Response.status(Status.BAD_REQUEST).build();
+    final boolean selected = slugs != null && !slugs.isEmpty();
+    if (selected && projectKey == null)
+      return Response.status(Status.BAD_REQUEST).build();
+
+    if (projectKey == null) {
+      permissionService.validateForGlobal(Permission.ADMIN);
+    } else {
+      final Project project = projectService.getByKey(projectKey);
+      if (project == null)
+        return Response.status(Status.NOT_FOUND).build();
+      permissionService.validateForProject(project, Permission.PROJECT_ADMIN);
+    }
+
+    final ConfigTemplate.CloneType type;
+    try {
+      type = cloneType == null ? null
+          : ConfigTemplate.CloneType.valueOf(cloneType.toUpperCase(
+              Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      return Response.status(Status.BAD_REQUEST).build();
+    }
+    final ConfigTemplate template = new ConfigTemplate(settings == null
+        ? Collections.<String, Object>emptyMap() : settings, type, merge,
+        enable);
+    final Map<String, String> errors = configurator.validate(template);
+    if (!errors.isEmpty()) {
+      return Response.status(Status.BAD_REQUEST).type(MediaType
+          .APPLICATION_JSON).entity(Collections.singletonMap("errors",
+              errors)).build();
+    }
+
+    final List<Repository> repositories = new ArrayList<Repository>();
+    if (selected) {
+      for (String slug : slugs) {
+        final Repository repository =
+            repositoryService.getBySlug(projectKey, slug);
+        if (repository == null)
+          return Response.status(Status.NOT_FOUND).build();
+        repositories.add(repository);
+      }
+    }
+
+    return Response.ok(new StreamingOutput() {
+      @Override
+      public void write(OutputStream output) throws IOException {
+        final ProgressWriter progress = new ProgressWriter(output);
+        try {
+          if (repositories.isEmpty()) {
+            configurator.configure(projectKey, template, parallelism,
+                batchSize, progress);
+          } else {
+            configurator.configure(repositories, template, parallelism,
+                batchSize, progress);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new WebApplicationException(e);
+        }
+      }
+    }).build();
+  }
+}
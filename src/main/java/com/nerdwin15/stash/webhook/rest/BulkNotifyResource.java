@@ -0,0 +1,101 @@
+package com.nerdwin15.stash.webhook.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.atlassian.plugins.rest.common.security.AnonymousAllowed;
+import com.atlassian.stash.i18n.I18nService;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.rest.util.RestResource;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionValidationService;
+import com.nerdwin15.stash.webhook.service.bulk.BulkNotifier;
+import com.nerdwin15.stash.webhook.service.bulk.ProgressWriter;
+import com.sun.jersey.spi.resource.Singleton;
+
+/**
+ * REST resource used to notify Jenkins of every repository with the hook
+ * enabled, for example after Jenkins was rebuilt or migrated. Progress is
+ * streamed back as newline delimited JSON while the notifications are sent.
+ */
+@Path("notify")
+@Consumes({ MediaType.APPLICATION_JSON })
+@Produces({ ProgressWriter.MEDIA_TYPE })
+@Singleton
+@AnonymousAllowed
+public class BulkNotifyResource extends RestResource {
+
+  private static final int MAX_PARALLELISM = 16;
+
+  private final BulkNotifier bulkNotifier;
+  private final ProjectService projectService;
+  private final PermissionValidationService permissionService;
+
+  /**
+   * Creates the bulk notification resource
+   * @param bulkNotifier The service notifying the repositories
+   * @param projectService Service used to find the project to notify
+   * @param permissionValidationService A permission validation service
+   * @param i18nService i18n Service
+   */
+  public BulkNotifyResource(BulkNotifier bulkNotifier, 
+      ProjectService projectService,
+      PermissionValidationService permissionValidationService,
+      I18nService i18nService) {
+    super(i18nService);
+    this.bulkNotifier = bulkNotifier;
+    this.projectService = projectService;
+    this.permissionService = permissionValidationService;
+  }
+
+  /**
+   * Notify Jenkins of every repository with the hook enabled. Notifying a 
+   * single project requires project admin permission, notifying the whole
+   * instance requires admin permission.
+   * @param projectKey The project to notify, or null for every project
+   * @param parallelism The number of notifications sent concurrently
+   * @param rate The maximum number of notifications sent per second
+   * @return A response streaming the progress
+   */
+  @POST
+  public Response notifyAll(@QueryParam("projectKey") final String projectKey,
+      @QueryParam("parallelism") @DefaultValue("4") final int parallelism,
+      @QueryParam("rate") @DefaultValue("5") final double rate) {
+    if (parallelism < 1 || parallelism > MAX_PARALLELISM || rate <= 0)
+      return Response.status(Status.BAD_REQUEST).build();
+    if (projectKey == null) {
+      permissionService.validateForGlobal(Permission.ADMIN);
+    } else {
+      final Project project = projectService.getByKey(projectKey);
+      if (project == null)
+        return Response.status(Status.NOT_FOUND).build();
+      permissionService.validateForProject(project, Permission.PROJECT_ADMIN);
+    }
+
+    return Response.ok(new StreamingOutput() {
+      @Override
+      public void write(OutputStream output) throws IOException {
+        try {
+          bulkNotifier.notifyAll(projectKey, parallelism, rate, 
+              new ProgressWriter(output));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new WebApplicationException(e);
+        }
+      }
+    }).build();
+  }
+}
@@ -0,0 +1,208 @@
+package com.nerdwin15.stash.webhook.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.atlassian.plugins.rest.common.security.AnonymousAllowed;
+import com.atlassian.stash.i18n.I18nService;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.rest.util.RestResource;
+import com.atlassian.stash.rest.util.RestUtils;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionValidationService;
+import com.nerdwin15.stash.webhook.service.bulk.BulkReplayer;
+import com.nerdwin15.stash.webhook.service.bulk.ProgressWriter;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetter;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetterStore;
+import com.sun.jersey.spi.resource.Singleton;
+
+/**
+ * REST resource used to list the notifications Jenkins couldn't be reached
+ * for, and to replay them once Jenkins is healthy again. Dead letters of a
+ * single project require project admin permission, the others require admin
+ * permission.
+ */
+@Path("dead-letters")
+@Consumes({ MediaType.APPLICATION_JSON })
+@Produces({ RestUtils.APPLICATION_JSON_UTF8 })
+@Singleton
+@AnonymousAllowed
+public class DeadLetterResource extends RestResource {
+
+  private static final int MAX_LIMIT = 500;
+  private static final int MAX_PARALLELISM = 16;
+
+  private final DeadLetterStore deadLetterStore;
+  private final BulkReplayer bulkReplayer;
+  private final ProjectService projectService;
+  private final PermissionValidationService permissionService;
+
+  /**
+   * Creates the dead letter resource
+   * @param deadLetterStore The store of the failed notifications
+   * @param bulkReplayer The service replaying the failed notifications
+   * @param projectService Service used to find the project to filter on
+   * @param permissionValidationService A permission validation service
+   * @param i18nService i18n Service
+   */
+  public DeadLetterResource(DeadLetterStore deadLetterStore,
+      BulkReplayer bulkReplayer, ProjectService projectService,
+      PermissionValidationService permissionValidationService,
+      I18nService i18nService) {
+    super(i18nService);
+    this.deadLetterStore = deadLetterStore;
+    this.bulkReplayer = bulkReplayer;
+    this.projectService = projectService;
+    this.permissionService = permissionValidationService;
+  }
+
+  /**
+   * Get a page of the dead letters, oldest first.
+   * @param host The scheme, host and port of the Jenkins instance to filter
+   * on, for example <code>https://jenkins:8443</code>. May be null.
+   * @param projectKey The project to filter on. May be null.
+   * @param start The index of the first dead letter to return
+   * @param limit The maximum number of dead letters to return
+   * @return A response
+   */
+  @GET
+  public Response list(@QueryParam("host") String host,
+      @QueryParam("projectKey") String projectKey,
+      @QueryParam("start") @DefaultValue("0") int start,
+      @QueryParam("limit") @DefaultValue("25") int limit) {
+    final Response denied = validate(projectKey);
+    if (denied != null)
+      return denied;
+    final int first = Math.max(0, start);
+    final List<DeadLetter> letters = deadLetterStore.find(host, projectKey,
+        first, Math.max(1, Math.min(MAX_LIMIT, limit)));
+    final int total = deadLetterStore.count(host, projectKey);
+    final boolean lastPage = first + letters.size() >= total;
+
+    List<Map<String, Object>> values = new ArrayList<Map<String, Object>>();
+    for (DeadLetter letter : letters) {
+      values.add(toMap(letter));
+    }
+    Map<String, Object> data = new HashMap<String, Object>();
+    data.put("start", first);
+    data.put("size", values.size());
+    data.put("total", total);
+    data.put("isLastPage", lastPage);
+    if (!lastPage)
+      data.put("nextPageStart", first + values.size());
+    data.put("values", values);
+    return Response.ok(data).build();
+  }
+
+  /**
+   * Replay the dead letters, oldest first. Progress is streamed back as
+   * newline delimited JSON while the notifications are sent.
+   * @param host The scheme, host and port of the Jenkins instance to filter
+   * on. May be null.
+   * @param projectKey The project to filter on. May be null.
+   * @param parallelism The number of notifications sent concurrently
+   * @param rate The maximum number of notifications sent per second
+   * @return A response streaming the progress
+   */
+  @POST
+  @Path("replay")
+  @Produces({ ProgressWriter.MEDIA_TYPE })
+  public Response replay(@QueryParam("host") final String host,
+      @QueryParam("projectKey") final String projectKey,
+      @QueryParam("parallelism") @DefaultValue("4") final int parallelism,
+      @QueryParam("rate") @DefaultValue("5") final double rate) {
+    if (parallelism < 1 || parallelism > MAX_PARALLELISM || rate <= 0)
+      return Response.status(Status.BAD_REQUEST).build();
+    final Response denied = validate(projectKey);
+    if (denied != null)
+      return denied;
+
+    return Response.ok(new StreamingOutput() {
+      @Override
+      public void write(OutputStream output) throws IOException {
+        try {
+          bulkReplayer.replay(host, projectKey, parallelism, rate,
+              new ProgressWriter(output));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new WebApplicationException(e);
+        }
+      }
+    }).build();
+  }
+
+  /**
+   * Discard a dead letter without replaying it.
+   * @param id The ID of the dead letter
+   * @return A response
+   */
+  @DELETE
+  @Path("{id}")
+  public Response discard(@PathParam("id") long id) {
+    final DeadLetter letter = deadLetterStore.get(id);
+    if (letter == null)
+      return Response.status(Status.NOT_FOUND).build();
+    final Response denied = validate(letter.getProjectKey());
+    if (denied != null)
+      return denied;
+    deadLetterStore.remove(id);
+    return Response.noContent().build();
+  }
+
+  private Response validate(String projectKey) {
+    if (projectKey == null) {
+      permissionService.validateForGlobal(Permission.ADMIN);
+      return null;
+    }
+    final Project project = projectService.getByKey(projectKey);
+    if (project == null)
+      return Response.status(Status.NOT_FOUND).build();
+    permissionService.validateForProject(project, Permission.PROJECT_ADMIN);
+    return null;
+  }
+
+  private static Map<String, Object> toMap(DeadLetter letter) {
+    List<Map<String, String>> refChanges =
+        new ArrayList<Map<String, String>>();
+    for (RefChange refChange : letter.getRefChanges()) {
+      Map<String, String> data = new HashMap<String, String>();
+      data.put("refId", refChange.getRefId());
+      data.put("fromHash", refChange.getFromHash());
+      data.put("toHash", refChange.getToHash());
+      data.put("type", refChange.getType() == null ? null
+          : refChange.getType().name());
+      refChanges.add(data);
+    }
+    Map<String, Object> data = new HashMap<String, Object>();
+    data.put("id", letter.getId());
+    data.put("timestamp", letter.getTimestamp());
+    data.put("repository", letter.getProjectKey() + "/"
+        + letter.getRepositorySlug());
+    data.put("host", letter.getHost());
+    data.put("url", letter.getUrl());
+    data.put("error", letter.getError());
+    data.put("refChanges", refChanges);
+    return data;
+  }
+}
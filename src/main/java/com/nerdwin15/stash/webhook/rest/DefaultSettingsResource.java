@@ -0,0 +1,176 @@
+package com.nerdwin15.stash.webhook.rest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import com.atlassian.plugins.rest.common.security.AnonymousAllowed;
+import com.atlassian.stash.i18n.I18nService;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.rest.util.RestResource;
+import com.atlassian.stash.rest.util.RestUtils;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionValidationService;
+import com.nerdwin15.stash.webhook.service.DefaultSettingsService;
+import com.nerdwin15.stash.webhook.service.HookSettingsValidator;
+import com.nerdwin15.stash.webhook.service.ResolvedSettings;
+import com.sun.jersey.spi.resource.Singleton;
+
+/**
+ * REST resource used to manage the instance and project defaults that
+ * repositories inherit for the settings they leave blank.
+ */
+@Path("defaults")
+@Consumes({ MediaType.APPLICATION_JSON })
+@Produces({ RestUtils.APPLICATION_JSON_UTF8 })
+@Singleton
+@AnonymousAllowed
+public class DefaultSettingsResource extends RestResource {
+
+  private final DefaultSettingsService defaultSettingsService;
+  private final ProjectService projectService;
+  private final PermissionValidationService permissionService;
+  private final HookSettingsValidator validator = new HookSettingsValidator();
+
+  /**
+   * Creates the defaults resource
+   * @param defaultSettingsService The service storing the defaults
+   * @param projectService Service used to find projects
+   * @param permissionValidationService A permission validation service
+   * @param i18nService i18n Service
+   */
+  public DefaultSettingsResource(
+      DefaultSettingsService defaultSettingsService,
+      ProjectService projectService,
+      PermissionValidationService permissionValidationService,
+      I18nService i18nService) {
+    super(i18nService);
+    this.defaultSettingsService = defaultSettingsService;
+    this.projectService = projectService;
+    this.permissionService = permissionValidationService;
+  }
+
+  /**
+   * Get the instance defaults.
+   * @return A response containing the defaults
+   */
+  @GET
+  public Response getInstanceDefaults() {
+    permissionService.validateForGlobal(Permission.ADMIN);
+    return Response.ok(defaultSettingsService.getInstanceDefaults()).build();
+  }
+
+  /**
+   * Replace the instance defaults.
+   * @param values The defaults, keyed by field name
+   * @return A response containing the stored defaults, or BAD_REQUEST with
+   * the error of each invalid field
+   */
+  @PUT
+  public Response setInstanceDefaults(Map<String, Object> values) {
+    permissionService.validateForGlobal(Permission.ADMIN);
+    final Map<String, String> defaults = toDefaults(values);
+    if (defaults == null)
+      return Response.status(Status.BAD_REQUEST).build();
+    final Map<String, String> errors = validate(defaults);
+    if (!errors.isEmpty())
+      return invalid(errors);
+    defaultSettingsService.setInstanceDefaults(defaults);
+    return getInstanceDefaults();
+  }
+
+  /**
+   * Get the defaults of a project.
+   * @param projectKey The key of the project
+   * @return A response containing the defaults
+   */
+  @GET
+  @Path("projects/{projectKey}")
+  public Response getProjectDefaults(
+      @PathParam("projectKey") String projectKey) {
+    final Project project = projectService.getByKey(projectKey);
+    if (project == null)
+      return Response.status(Status.NOT_FOUND).build();
+    permissionService.validateForProject(project, Permission.PROJECT_ADMIN);
+    return Response.ok(defaultSettingsService.getProjectDefaults(
+        project.getKey())).build();
+  }
+
+  /**
+   * Replace the defaults of a project.
+   * @param projectKey The key of the project
+   * @param values The defaults, keyed by field name
+   * @return A response containing the stored defaults, or BAD_REQUEST with
+   * the error of each invalid field
+   */
+  @PUT
+  @Path("projects/{projectKey}")
+  public Response setProjectDefaults(
+      @PathParam("projectKey") String projectKey, Map<String, Object> values) {
+    final Project project = projectService.getByKey(projectKey);
+    if (project == null)
+      return Response.status(Status.NOT_FOUND).build();
+    permissionService.validateForProject(project, Permission.PROJECT_ADMIN);
+    final Map<String, String> defaults = toDefaults(values);
+    if (defaults == null)
+      return Response.status(Status.BAD_REQUEST).build();
+    final Map<String, String> errors = validate(defaults);
+    if (!errors.isEmpty())
+      return invalid(errors);
+    defaultSettingsService.setProjectDefaults(project.getKey(), defaults);
+    return getProjectDefaults(projectKey);
+  }
+
+  /**
+   * Convert the request body to defaults.
+   * @return The defaults, or null if a field can't be inherited
+   */
+  private static Map<String, String> toDefaults(Map<String, Object> values) {
+    final Map<String, String> defaults = new HashMap<String, String>();
+    if (values == null)
+      return defaults;
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      if (!ResolvedSettings.INHERITED_FIELDS.contains(entry.getKey()))
+        return null;
+      if (entry.getValue() != null)
+        defaults.put(entry.getKey(), entry.getValue().toString());
+    }
+    return defaults;
+  }
+
+  /**
+   * Validate the defaults with the rules of the hook settings. Blank
+   * defaults leave the field blank, so they aren't validated.
+   * @return The error of each invalid field
+   */
+  private Map<String, String> validate(Map<String, String> defaults) {
+    final Map<String, String> errors = new HashMap<String, String>();
+    for (Map.Entry<String, String> entry : defaults.entrySet()) {
+      if (!HookSettingsValidator.FIELDS.contains(entry.getKey())
+          || ResolvedSettings.isBlank(entry.getValue()))
+        continue;
+      final String error = validator.validate(entry.getKey(),
+          entry.getValue());
+      if (error != null)
+        errors.put(entry.getKey(), error);
+    }
+    return errors;
+  }
+
+  private static Response invalid(Map<String, String> errors) {
+    return Response.status(Status.BAD_REQUEST).type(MediaType
+        .APPLICATION_JSON).entity(Collections.singletonMap("errors",
+            errors)).build();
+  }
+}
@@ -1,15 +1,24 @@
 package com.nerdwin15.stash.webhook.rest;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -20,17 +29,20 @@ import org.slf4j.LoggerFactory;
 import com.atlassian.plugins.rest.common.interceptor.InterceptorChain;
 import com.atlassian.plugins.rest.common.security.AnonymousAllowed;
 import com.atlassian.stash.i18n.I18nService;
-import com.atlassian.stash.nav.NavBuilder;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.rest.interceptor.ResourceContextInterceptor;
 import com.atlassian.stash.rest.util.ResourcePatterns;
-import com.atlassian.stash.rest.util.ResponseFactory;
 import com.atlassian.stash.rest.util.RestResource;
 import com.atlassian.stash.rest.util.RestUtils;
-import com.atlassian.stash.ssh.api.SshCloneUrlResolver;
 import com.atlassian.stash.user.Permission;
 import com.atlassian.stash.user.PermissionValidationService;
 import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.CloneUrlService;
+import com.nerdwin15.stash.webhook.service.CloneUrls;
+import com.nerdwin15.stash.webhook.service.ConnectionTest;
+import com.nerdwin15.stash.webhook.service.ConnectionTestService;
+import com.nerdwin15.stash.webhook.service.history.Delivery;
+import com.nerdwin15.stash.webhook.service.history.DeliveryHistory;
 import com.sun.jersey.spi.resource.Singleton;
 
 /**
@@ -49,34 +61,36 @@ public class JenkinsResource extends RestResource {
 
   private static final Logger log = //CHECKSTYLE:doesntMatter
       LoggerFactory.getLogger(JenkinsResource.class);
+  private static final int MAX_HISTORY_LIMIT = 100;
 
-  private final Notifier notifier;
+  private final ConnectionTestService testService;
   private final PermissionValidationService permissionService;
-  private final NavBuilder navBuilder;
-  private final SshCloneUrlResolver sshCloneUrlResolver;
+  private final CloneUrlService cloneUrlService;
+  private final DeliveryHistory deliveryHistory;
 
   /**
    * Creates Rest resource for testing the Jenkins configuration
-   * @param notifier The service to send Jenkins notifications
+   * @param testService The service running tests of the Jenkins configuration
    * @param permissionValidationService A permission validation service 
    * @param i18nService i18n Service
-   * @param navBuilder Builder to generate the default HTTP clone url
-   * @param sshCloneUrlResolver Resolver for generating default SSH clone url
+   * @param cloneUrlService Service resolving the default clone urls
+   * @param deliveryHistory History of the recent notification attempts
    */
-  public JenkinsResource(Notifier notifier, 
+  public JenkinsResource(ConnectionTestService testService, 
       PermissionValidationService permissionValidationService, 
       I18nService i18nService, 
-      NavBuilder navBuilder, 
-      SshCloneUrlResolver sshCloneUrlResolver) {
+      CloneUrlService cloneUrlService,
+      DeliveryHistory deliveryHistory) {
     super(i18nService);
-    this.notifier = notifier;
+    this.testService = testService;
     this.permissionService = permissionValidationService;
-    this.navBuilder = navBuilder;
-    this.sshCloneUrlResolver = sshCloneUrlResolver;
+    this.cloneUrlService = cloneUrlService;
+    this.deliveryHistory = deliveryHistory;
   }
 
   /**
-   * Fire off the test of the Jenkins configuration
+   * Fire off the test of the Jenkins configuration in the background. The
+   * response carries the ID of the test, to be polled for its result.
    * @param repository The repository to base the notification on
    * @param jenkinsBase The base URL for the Jenkins instance
    * @param cloneUrl The url used for repository cloning
@@ -97,36 +111,117 @@ public class JenkinsResource extends RestResource {
     log.debug("Triggering jenkins notification for repository {}/{}", 
         repository.getProject().getKey(), repository.getSlug());
 
-    final String response = notifier.notify(repository, jenkinsBase, 
-        ignoreCerts, cloneUrl);
-    log.debug("Got response from jenkins: {}", response);
-    if (response == null || !response.startsWith("Scheduled")) {
-      return fail(repository);
-    }
-    log.info("Successfully triggered jenkins for repository {}/{}", 
-        repository.getProject().getKey(), repository.getSlug());
-    return Response.ok().build();
+    final ConnectionTest test = testService.start(repository, jenkinsBase, 
+        cloneUrl, ignoreCerts);
+    return Response.status(Status.ACCEPTED).entity(toMap(test)).build();
+  }
+
+  /**
+   * Get the result of a test of the Jenkins configuration.
+   * @param repository The repository the test was started for
+   * @param testId The ID of the test
+   * @return The state of the test, or NOT_FOUND if it is unknown
+   */
+  @GET
+  @Path(value = "test/{testId}")
+  public Response testResult(@Context Repository repository,
+      @PathParam("testId") String testId) {
+    permissionService.validateForRepository(repository, Permission.REPO_ADMIN);
+    final ConnectionTest test = testService.getTest(testId);
+    if (test == null || !repository.getId().equals(test.getRepositoryId()))
+      return Response.status(Status.NOT_FOUND).build();
+    return Response.ok(toMap(test)).build();
   }
   
   /**
-   * Get the default clone urls for a repository.
+   * Get the default clone urls for a repository. The response carries an
+   * ETag, and NOT_MODIFIED is returned if the client already has the urls.
    * @param repository The repository to get clone urls for
+   * @param ifNoneMatch The entity tags the client has cached. May be null.
    * @return A response
    */
   @GET
   @Path(value = "config")
-  public Response config(@Context Repository repository) {
+  public Response config(@Context Repository repository,
+      @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
+    final CloneUrls urls = cloneUrlService.getCloneUrls(repository);
+    final EntityTag etag = new EntityTag(urls.getETag().replace("\"", ""));
+    final CacheControl cacheControl = new CacheControl();
+    cacheControl.setPrivate(true);
+    cacheControl.setNoCache(true);
+    if (matches(ifNoneMatch, urls.getETag())) {
+      return Response.notModified(etag).cacheControl(cacheControl).build();
+    }
+
     Map<String, String> data = new HashMap<String, String>();
-    data.put("ssh", sshCloneUrlResolver.getCloneUrl(repository));
-    data.put("http", navBuilder.repo(repository).clone("git")
-        .buildAbsoluteWithoutUsername());
+    data.put("ssh", urls.getSsh());
+    data.put("http", urls.getHttp());
+    return Response.ok(data).tag(etag).cacheControl(cacheControl).build();
+  }
+
+  /**
+   * Get a page of the recent notification attempts of a repository, newest
+   * first. The history is kept in memory, so it starts empty after a
+   * restart.
+   * @param repository The repository to get the attempts of
+   * @param start The index of the first attempt to return
+   * @param limit The maximum number of attempts to return
+   * @return A response
+   */
+  @GET
+  @Path(value = "history")
+  public Response history(@Context Repository repository,
+      @QueryParam("start") @DefaultValue("0") int start,
+      @QueryParam("limit") @DefaultValue("25") int limit) {
+    permissionService.validateForRepository(repository, Permission.REPO_ADMIN);
+    final int first = Math.max(0, start);
+    final List<Delivery> deliveries = deliveryHistory.getDeliveries(
+        repository, first, Math.max(1, Math.min(MAX_HISTORY_LIMIT, limit)));
+    final boolean lastPage =
+        first + deliveries.size() >= deliveryHistory.getSize(repository);
+
+    List<Map<String, Object>> values = new ArrayList<Map<String, Object>>();
+    for (Delivery delivery : deliveries) {
+      values.add(toMap(delivery));
+    }
+    Map<String, Object> data = new HashMap<String, Object>();
+    data.put("start", first);
+    data.put("size", values.size());
+    data.put("isLastPage", lastPage);
+    if (!lastPage)
+      data.put("nextPageStart", first + values.size());
+    data.put("values", values);
     return Response.ok(data).build();
   }
 
-  private Response fail(final Repository repository) {
-    log.info("Triggering jenkins failed for repository {}/{}", 
-        repository.getProject().getKey(), repository.getSlug());
-    return ResponseFactory.ok("FAIL").build();
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null)
+      return false;
+    for (String candidate : ifNoneMatch.split(",")) {
+      final String tag = candidate.trim();
+      if (tag.equals("*") || tag.equals(etag))
+        return true;
+    }
+    return false;
+  }
+
+  private Map<String, Object> toMap(Delivery delivery) {
+    Map<String, Object> data = new HashMap<String, Object>();
+    data.put("timestamp", delivery.getTimestamp());
+    data.put("refs", delivery.getRefs());
+    data.put("url", delivery.getUrl());
+    data.put("status", delivery.getStatus());
+    data.put("success", delivery.isSuccess());
+    data.put("latencyMillis", delivery.getLatencyMillis());
+    data.put("response", delivery.getResponse());
+    return data;
+  }
+
+  private Map<String, String> toMap(ConnectionTest test) {
+    Map<String, String> data = new HashMap<String, String>();
+    data.put("id", test.getId());
+    data.put("state", test.getState().name());
+    return data;
   }
   
 }
\ No newline at end of file
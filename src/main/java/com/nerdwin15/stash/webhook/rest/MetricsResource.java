@@ -0,0 +1,184 @@
+package com.nerdwin15.stash.webhook.rest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.atlassian.plugins.rest.common.security.AnonymousAllowed;
+import com.atlassian.stash.i18n.I18nService;
+import com.atlassian.stash.rest.util.RestResource;
+import com.atlassian.stash.rest.util.RestUtils;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.PermissionValidationService;
+import com.nerdwin15.stash.webhook.service.dispatch.Bulkhead;
+import com.nerdwin15.stash.webhook.service.dispatch.LaneStatistics;
+import com.nerdwin15.stash.webhook.service.dispatch.NotificationDispatcher;
+import com.nerdwin15.stash.webhook.service.dispatch.RepositoryBacklog;
+import com.nerdwin15.stash.webhook.service.failover.EndpointScore;
+import com.nerdwin15.stash.webhook.service.failover.EndpointSelector;
+import com.nerdwin15.stash.webhook.service.health.HostHealth;
+import com.nerdwin15.stash.webhook.service.health.HostHealthService;
+import com.nerdwin15.stash.webhook.service.limit.ConcurrencyLimiter;
+import com.nerdwin15.stash.webhook.service.limit.ConcurrencyLimiterService;
+import com.sun.jersey.spi.resource.Singleton;
+
+/**
+ * REST resource exposing the runtime metrics of the notification pipeline to
+ * system administrators.
+ */
+@Path("metrics")
+@Consumes({ MediaType.APPLICATION_JSON })
+@Produces({ RestUtils.APPLICATION_JSON_UTF8 })
+@Singleton
+@AnonymousAllowed
+public class MetricsResource extends RestResource {
+
+  private static final int BACKLOG_LIMIT = 20;
+
+  private final NotificationDispatcher dispatcher;
+  private final ConcurrencyLimiterService limiterService;
+  private final HostHealthService healthService;
+  private final EndpointSelector endpointSelector;
+  private final PermissionValidationService permissionService;
+
+  /**
+   * Creates the metrics resource
+   * @param dispatcher The dispatcher delivering notifications
+   * @param limiterService The service limiting concurrent requests per host
+   * @param healthService The service probing the Jenkins hosts
+   * @param endpointSelector The service scoring the Jenkins endpoints
+   * @param permissionValidationService A permission validation service
+   * @param i18nService i18n Service
+   */
+  public MetricsResource(NotificationDispatcher dispatcher,
+      ConcurrencyLimiterService limiterService,
+      HostHealthService healthService, EndpointSelector endpointSelector,
+      PermissionValidationService permissionValidationService,
+      I18nService i18nService) {
+    super(i18nService);
+    this.dispatcher = dispatcher;
+    this.limiterService = limiterService;
+    this.healthService = healthService;
+    this.endpointSelector = endpointSelector;
+    this.permissionService = permissionValidationService;
+  }
+
+  /**
+   * Get the current metrics of the notification pipeline.
+   * @return A response
+   */
+  @GET
+  public Response metrics() {
+    permissionService.validateForGlobal(Permission.SYS_ADMIN);
+    Map<String, Object> data = new HashMap<String, Object>();
+    data.put("lanes", laneMetrics());
+    data.put("repositories", backlogMetrics());
+    data.put("bulkheads", bulkheadMetrics());
+    data.put("hosts", limiterMetrics());
+    data.put("health", healthMetrics());
+    data.put("endpoints", endpointMetrics());
+    return Response.ok(data).build();
+  }
+
+  private List<Map<String, Object>> healthMetrics() {
+    List<Map<String, Object>> hosts = new ArrayList<Map<String, Object>>();
+    for (HostHealth health : healthService.getHosts()) {
+      Map<String, Object> host = new HashMap<String, Object>();
+      host.put("host", health.getHost());
+      host.put("down", health.isDown());
+      host.put("failures", health.getFailures());
+      host.put("status", health.getStatus());
+      host.put("latencyMillis", health.getLatencyMillis());
+      host.put("probedAt", health.getProbedAt());
+      host.put("error", health.getError());
+      hosts.add(host);
+    }
+    return hosts;
+  }
+
+  private List<Map<String, Object>> endpointMetrics() {
+    List<Map<String, Object>> endpoints =
+        new ArrayList<Map<String, Object>>();
+    for (EndpointScore score : endpointSelector.getEndpoints()) {
+      Map<String, Object> endpoint = new HashMap<String, Object>();
+      endpoint.put("endpoint", score.getEndpoint());
+      endpoint.put("latencyMillis", score.getLatencyMillis());
+      endpoint.put("ejected", score.isEjected());
+      endpoint.put("ejections", score.getEjections());
+      endpoint.put("successes", score.getSuccesses());
+      endpoint.put("failures", score.getFailures());
+      endpoints.add(endpoint);
+    }
+    return endpoints;
+  }
+
+  private List<Map<String, Object>> limiterMetrics() {
+    List<Map<String, Object>> hosts = new ArrayList<Map<String, Object>>();
+    for (ConcurrencyLimiter limiter : limiterService.getLimiters()) {
+      Map<String, Object> host = new HashMap<String, Object>();
+      host.put("host", limiter.getKey());
+      host.put("limit", limiter.getLimit());
+      host.put("inFlight", limiter.getInFlight());
+      host.put("minRttMillis", limiter.getMinRttMillis());
+      host.put("rttMillis", limiter.getRttMillis());
+      host.put("successes", limiter.getSuccesses());
+      host.put("failures", limiter.getFailures());
+      hosts.add(host);
+    }
+    return hosts;
+  }
+
+  private List<Map<String, Object>> bulkheadMetrics() {
+    List<Map<String, Object>> bulkheads = 
+        new ArrayList<Map<String, Object>>();
+    for (Bulkhead bulkhead : dispatcher.getBulkheads()) {
+      Map<String, Object> data = new HashMap<String, Object>();
+      data.put("jenkinsBase", bulkhead.getKey());
+      data.put("threads", bulkhead.getThreads());
+      data.put("active", bulkhead.getActive());
+      data.put("queued", bulkhead.getQueue().size());
+      data.put("capacity", bulkhead.getCapacity());
+      data.put("completed", bulkhead.getCompleted());
+      data.put("rejected", bulkhead.getRejected());
+      bulkheads.add(data);
+    }
+    return bulkheads;
+  }
+
+  private List<Map<String, Object>> backlogMetrics() {
+    List<Map<String, Object>> repositories = 
+        new ArrayList<Map<String, Object>>();
+    for (RepositoryBacklog backlog : dispatcher.getBacklog(BACKLOG_LIMIT)) {
+      Map<String, Object> repository = new HashMap<String, Object>();
+      repository.put("repository", backlog.getRepository());
+      repository.put("queued", backlog.getQueued());
+      repository.put("inFlight", backlog.getInFlight());
+      repositories.add(repository);
+    }
+    return repositories;
+  }
+
+  private List<Map<String, Object>> laneMetrics() {
+    List<Map<String, Object>> lanes = new ArrayList<Map<String, Object>>();
+    int index = 0;
+    for (LaneStatistics statistics : dispatcher.getLaneStatistics()) {
+      Map<String, Object> lane = new HashMap<String, Object>();
+      lane.put("name", statistics.getLane().getName());
+      lane.put("weight", statistics.getLane().getWeight());
+      lane.put("queued", dispatcher.getQueued(index++));
+      lane.put("dispatched", statistics.getDispatched());
+      lane.put("meanWaitMillis", statistics.getMeanWaitMillis());
+      lane.put("maxWaitMillis", statistics.getMaxWaitMillis());
+      lanes.add(lane);
+    }
+    return lanes;
+  }
+}
@@ -0,0 +1,145 @@
+package com.nerdwin15.stash.webhook.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A {@link DnsResolver} caching the addresses of each Jenkins host, so a
+ * slow DNS server doesn't add to the latency of every notification. Cached
+ * addresses are fresh for a TTL. Once stale, they are still served while
+ * they are resolved again in the background, up to a maximum age after
+ * which the host is resolved on the calling thread. A failed background
+ * resolution keeps the stale addresses.
+ *
+ * Every address of the host (A and AAAA records) is returned, and the
+ * connection operator of HttpClient tries them in turn when connecting to
+ * one fails.
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+  /**
+   * Property holding the number of seconds resolved addresses are fresh
+   */
+  public static final String TTL_PROPERTY = "jenkins.webhook.dns.ttl";
+
+  /**
+   * Property holding the number of seconds stale addresses are still served
+   * while resolving them again
+   */
+  public static final String STALE_PROPERTY = "jenkins.webhook.dns.stale";
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(CachingDnsResolver.class);
+
+  private final DnsResolver delegate;
+  private final long ttlNanos;
+  private final long maxAgeNanos;
+  private final Ticker ticker;
+  private final ConcurrentMap<String, Entry> entries =
+      new ConcurrentHashMap<String, Entry>();
+  private final ExecutorService refresher = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-dns")
+          .setDaemon(true).build());
+
+  /**
+   * Create a new instance using the configured system properties
+   */
+  public CachingDnsResolver() {
+    this(new SystemDefaultDnsResolver(),
+        TimeUnit.SECONDS.toMillis(PluginProperties.getLong(TTL_PROPERTY, 60)),
+        TimeUnit.SECONDS.toMillis(PluginProperties.getLong(STALE_PROPERTY,
+            600)), Ticker.systemTicker());
+  }
+
+  /**
+   * Create a new instance
+   * @param delegate The resolver looking the hosts up
+   * @param ttlMillis The time resolved addresses are fresh
+   * @param staleMillis The time stale addresses are still served while
+   * resolving them again
+   * @param ticker The source of time
+   */
+  public CachingDnsResolver(DnsResolver delegate, long ttlMillis,
+      long staleMillis, Ticker ticker) {
+    this.delegate = delegate;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttlMillis));
+    this.maxAgeNanos = ttlNanos
+        + TimeUnit.MILLISECONDS.toNanos(Math.max(0, staleMillis));
+    this.ticker = ticker;
+  }
+
+  @Override
+  public InetAddress[] resolve(String host) throws UnknownHostException {
+    final Entry entry = entries.get(host);
+    final long now = ticker.read();
+    if (entry == null || now - entry.resolvedAt >= maxAgeNanos)
+      return lookup(host).addresses.clone();
+    if (now - entry.resolvedAt >= ttlNanos
+        && entry.refreshing.compareAndSet(false, true))
+      refresh(host, entry);
+    return entry.addresses.clone();
+  }
+
+  /**
+   * Stop resolving stale addresses in the background.
+   */
+  public void shutdown() {
+    refresher.shutdownNow();
+  }
+
+  private Entry lookup(String host) throws UnknownHostException {
+    final Entry entry = new Entry(delegate.resolve(host), ticker.read());
+    entries.put(host, entry);
+    return entry;
+  }
+
+  private void refresh(final String host, final Entry entry) {
+    try {
+      refresher.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            lookup(host);
+          } catch (UnknownHostException e) {
+            LOGGER.warn("Unable to resolve {} again, serving its stale "
+                + "addresses: {}", host, e.getMessage());
+          } finally {
+            entry.refreshing.set(false);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      entry.refreshing.set(false);
+    }
+  }
+
+  /**
+   * The addresses of a host, and the time they were resolved.
+   */
+  private static class Entry {
+
+    private final InetAddress[] addresses;
+    private final long resolvedAt;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    Entry(InetAddress[] addresses, long resolvedAt) {
+      this.addresses = addresses;
+      this.resolvedAt = resolvedAt;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.nerdwin15.stash.webhook.service;
+
+import com.atlassian.stash.content.Changeset;
+import com.atlassian.stash.history.HistoryService;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.util.PageRequestImpl;
+
+/**
+ * Pages through the changesets introduced by a {@link RefChange}, handing
+ * them one at a time to a callback. Only a single page is held in memory at
+ * any time and the scan never goes past the provided limit, so a push of
+ * several thousand commits costs no more than the limit allows.
+ */
+public class ChangesetScanner {
+
+  /**
+   * The hash Stash reports for the missing side of an added or deleted ref
+   */
+  public static final String ZERO_HASH =
+      "0000000000000000000000000000000000000000";
+
+  private static final int PAGE_SIZE = 100;
+
+  private final HistoryService historyService;
+
+  /**
+   * Callback receiving each scanned changeset.
+   */
+  public interface Callback {
+
+    /**
+     * Handle a single changeset.
+     * @param changeset The changeset
+     * @return True if the scan should continue, false to stop early
+     */
+    boolean onChangeset(Changeset changeset);
+  }
+
+  /**
+   * Create a new instance
+   * @param historyService Service used to page through changesets
+   */
+  public ChangesetScanner(HistoryService historyService) {
+    this.historyService = historyService;
+  }
+
+  /**
+   * Scan the changesets added by the ref change, newest first.
+   * @param repository The repository the change was made in
+   * @param refChange The ref change to scan
+   * @param limit The maximum number of changesets to hand to the callback
+   * @param callback The callback to receive the changesets
+   * @return The number of changesets handed to the callback
+   */
+  public int scan(Repository repository, RefChange refChange, int limit,
+      Callback callback) {
+    if (limit <= 0 || refChange.getType() == RefChangeType.DELETE)
+      return 0;
+
+    final String since = isZeroHash(refChange.getFromHash()) ? null
+        : refChange.getFromHash();
+    int scanned = 0;
+    PageRequest request = new PageRequestImpl(0, Math.min(limit, PAGE_SIZE));
+    while (request != null) {
+      Page<Changeset> page = historyService.getChangesetsBetween(repository,
+          since, refChange.getToHash(), request);
+      for (Changeset changeset : page.getValues()) {
+        scanned++;
+        if (!callback.onChangeset(changeset) || scanned >= limit)
+          return scanned;
+      }
+      if (page.getIsLastPage())
+        break;
+      request = new PageRequestImpl(page.getStart() + page.getSize(),
+          Math.min(limit - scanned, PAGE_SIZE));
+    }
+    return scanned;
+  }
+
+  /**
+   * Determine whether the provided hash is the all-zero hash.
+   * @param hash The hash to check
+   * @return True if the hash is null or all zeroes
+   */
+  public static boolean isZeroHash(String hash) {
+    return hash == null || ZERO_HASH.equals(hash);
+  }
+}
@@ -0,0 +1,16 @@
+package com.nerdwin15.stash.webhook.service;
+
+import com.atlassian.stash.repository.Repository;
+
+/**
+ * Service resolving the default clone urls of repositories.
+ */
+public interface CloneUrlService {
+
+  /**
+   * Get the default clone urls of a repository.
+   * @param repository The repository
+   * @return The clone urls
+   */
+  CloneUrls getCloneUrls(Repository repository);
+}
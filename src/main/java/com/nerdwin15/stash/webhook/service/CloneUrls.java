@@ -0,0 +1,50 @@
+package com.nerdwin15.stash.webhook.service;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * The default clone urls of a repository.
+ */
+public class CloneUrls {
+
+  private final String ssh;
+  private final String http;
+  private final String etag;
+
+  /**
+   * Create a new instance
+   * @param ssh The SSH clone url
+   * @param http The HTTP clone url
+   */
+  public CloneUrls(String ssh, String http) {
+    this.ssh = ssh;
+    this.http = http;
+    this.etag = "\"" + Hashing.sha1().hashString(ssh + "\n" + http, 
+        Charsets.UTF_8) + "\"";
+  }
+
+  /**
+   * Get the SSH clone url.
+   * @return The SSH clone url
+   */
+  public String getSsh() {
+    return ssh;
+  }
+
+  /**
+   * Get the HTTP clone url.
+   * @return The HTTP clone url
+   */
+  public String getHttp() {
+    return http;
+  }
+
+  /**
+   * Get a strong entity tag identifying these urls.
+   * @return The quoted entity tag
+   */
+  public String getETag() {
+    return etag;
+  }
+}
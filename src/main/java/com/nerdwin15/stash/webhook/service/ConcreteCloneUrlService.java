@@ -0,0 +1,95 @@
+package com.nerdwin15.stash.webhook.service;
+
+import java.util.concurrent.TimeUnit;
+
+import com.atlassian.event.api.EventListener;
+import com.atlassian.stash.event.RepositoryDeletedEvent;
+import com.atlassian.stash.event.RepositoryModifiedEvent;
+import com.atlassian.stash.nav.NavBuilder;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.ssh.api.SshCloneUrlResolver;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Implementation of the {@link CloneUrlService} that caches the resolved
+ * urls per repository. An entry is only used while the repository's slug and
+ * project and the Stash base URL are unchanged, and is dropped when the 
+ * repository is modified or deleted. Entries also expire after an hour, to
+ * pick up changes to the SSH configuration.
+ */
+public class ConcreteCloneUrlService implements CloneUrlService {
+
+  private static final int MAXIMUM_SIZE = 10000;
+  private static final long EXPIRY_MINUTES = 60;
+
+  private final NavBuilder navBuilder;
+  private final SshCloneUrlResolver sshCloneUrlResolver;
+  private final Cache<Integer, Entry> cache = CacheBuilder.newBuilder()
+      .maximumSize(MAXIMUM_SIZE)
+      .expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES).build();
+
+  /**
+   * Create a new instance
+   * @param navBuilder Builder to generate the default HTTP clone url
+   * @param sshCloneUrlResolver Resolver for generating default SSH clone url
+   */
+  public ConcreteCloneUrlService(NavBuilder navBuilder,
+      SshCloneUrlResolver sshCloneUrlResolver) {
+    this.navBuilder = navBuilder;
+    this.sshCloneUrlResolver = sshCloneUrlResolver;
+  }
+
+  @Override
+  public CloneUrls getCloneUrls(Repository repository) {
+    final String version = version(repository);
+    final Entry entry = cache.getIfPresent(repository.getId());
+    if (entry != null && entry.version.equals(version))
+      return entry.urls;
+
+    final CloneUrls urls = new CloneUrls(
+        sshCloneUrlResolver.getCloneUrl(repository),
+        navBuilder.repo(repository).clone("git")
+            .buildAbsoluteWithoutUsername());
+    cache.put(repository.getId(), new Entry(version, urls));
+    return urls;
+  }
+
+  /**
+   * Drop the cached urls of a renamed or moved repository.
+   * @param event The event
+   */
+  @EventListener
+  public void onRepositoryModified(RepositoryModifiedEvent event) {
+    if (event.getOldValue() != null)
+      cache.invalidate(event.getOldValue().getId());
+  }
+
+  /**
+   * Drop the cached urls of a deleted repository.
+   * @param event The event
+   */
+  @EventListener
+  public void onRepositoryDeleted(RepositoryDeletedEvent event) {
+    if (event.getRepository() != null)
+      cache.invalidate(event.getRepository().getId());
+  }
+
+  private String version(Repository repository) {
+    return navBuilder.buildBaseUrl() + "\n" 
+        + repository.getProject().getKey() + "/" + repository.getSlug();
+  }
+
+  /**
+   * The cached urls of a repository, along with what they were built from.
+   */
+  private static class Entry {
+    private final String version;
+    private final CloneUrls urls;
+
+    Entry(String version, CloneUrls urls) {
+      this.version = version;
+      this.urls = urls;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package com.nerdwin15.stash.webhook.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.stash.repository.Repository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.ConnectionTest.State;
+
+/**
+ * Default implementation of the {@link ConnectionTestService}. Tests run on a
+ * small pool of their own and are failed once their deadline passes. The
+ * request still waiting on Jenkins is then aborted, since interrupting the
+ * worker doesn't unblock a socket read. Only one test runs per repository
+ * and settings at a time, so repeated clicks don't stack up, while a test
+ * of changed settings isn't answered with the result of the old ones.
+ */
+public class ConcreteConnectionTestService implements ConnectionTestService,
+    DisposableBean {
+
+  /**
+   * Property holding the seconds after which a test is failed
+   */
+  public static final String DEADLINE_PROPERTY = 
+      "jenkins.webhook.test.deadline";
+
+  private static final Logger LOGGER = 
+      LoggerFactory.getLogger(ConcreteConnectionTestService.class);
+  private static final int THREADS = 2;
+  private static final int QUEUE_CAPACITY = 20;
+  private static final long RETENTION_MINUTES = 10;
+
+  private final Notifier notifier;
+  private final long deadlineMillis;
+  private final ThreadPoolExecutor executor;
+  private final ScheduledExecutorService watchdog;
+  private final Cache<String, ConnectionTest> tests = CacheBuilder.newBuilder()
+      .expireAfterWrite(RETENTION_MINUTES, TimeUnit.MINUTES).build();
+  private final Map<List<?>, ConnectionTest> running = 
+      new HashMap<List<?>, ConnectionTest>();
+
+  /**
+   * Create a new instance using the configured system properties
+   * @param notifier The service to send Jenkins notifications
+   */
+  public ConcreteConnectionTestService(Notifier notifier) {
+    this(notifier, PluginProperties.getLong(DEADLINE_PROPERTY, 20) * 1000L);
+  }
+
+  /**
+   * Create a new instance
+   * @param notifier The service to send Jenkins notifications
+   * @param deadlineMillis The time after which a test is failed
+   */
+  public ConcreteConnectionTestService(Notifier notifier, 
+      long deadlineMillis) {
+    this.notifier = notifier;
+    this.deadlineMillis = deadlineMillis;
+    this.executor = new ThreadPoolExecutor(THREADS, THREADS, 60L, 
+        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+        new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-test-%d")
+            .setDaemon(true).build());
+    this.watchdog = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-watchdog")
+            .setDaemon(true).build());
+  }
+
+  @Override
+  public ConnectionTest start(final Repository repository, 
+      final String jenkinsBase, final String cloneUrl, 
+      final boolean ignoreCerts) {
+    final int repositoryId = repository.getId();
+    final List<?> key = Arrays.asList(repositoryId, jenkinsBase, cloneUrl,
+        ignoreCerts);
+    final ConnectionTest test;
+    synchronized (running) {
+      final ConnectionTest existing = running.get(key);
+      if (existing != null && !existing.isDone()) {
+        LOGGER.debug("Test already running for repository {}", repositoryId);
+        return existing;
+      }
+      test = new ConnectionTest(UUID.randomUUID().toString(), repositoryId);
+      running.put(key, test);
+    }
+    tests.put(test.getId(), test);
+
+    final HttpUriRequest request = notifier.createTestRequest(repository,
+        jenkinsBase, cloneUrl);
+    final Future<?> future;
+    try {
+      future = executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            final String response = notifier.notify(repository, request,
+                ignoreCerts);
+            LOGGER.debug("Got response from jenkins: {}", response);
+            final boolean success = response != null 
+                && response.startsWith("Scheduled");
+            if (test.complete(success ? State.SUCCESS : State.FAILED,
+                response)) {
+              LOGGER.info(success ? "Successfully triggered jenkins for "
+                  + "repository {}" : "Triggering jenkins failed for "
+                  + "repository {}", repositoryId);
+            }
+          } finally {
+            finish(key, test);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LOGGER.warn("Too many Jenkins tests running, failing test for "
+          + "repository {}", repositoryId);
+      test.complete(State.FAILED, null);
+      finish(key, test);
+      return test;
+    }
+
+    watchdog.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (test.complete(State.TIMED_OUT, null)) {
+          LOGGER.info("Jenkins test for repository {} timed out", 
+              repositoryId);
+          request.abort();
+          future.cancel(true);
+          finish(key, test);
+        }
+      }
+    }, deadlineMillis, TimeUnit.MILLISECONDS);
+    return test;
+  }
+
+  @Override
+  public ConnectionTest getTest(String id) {
+    return id == null ? null : tests.getIfPresent(id);
+  }
+
+  @Override
+  public void destroy() {
+    watchdog.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  private void finish(List<?> key, ConnectionTest test) {
+    synchronized (running) {
+      if (running.get(key) == test)
+        running.remove(key);
+    }
+  }
+}
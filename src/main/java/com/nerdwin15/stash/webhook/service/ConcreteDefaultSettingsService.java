@@ -0,0 +1,122 @@
+package com.nerdwin15.stash.webhook.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.Notifier;
+
+/**
+ * Implementation of the {@link DefaultSettingsService} that stores the
+ * defaults in the global plugin settings. Defaults are kept in memory once
+ * read, and a {@link DefaultSettingsChangedEvent} is published whenever
+ * they change.
+ */
+public class ConcreteDefaultSettingsService implements DefaultSettingsService {
+
+  private static final String KEY_PREFIX = Notifier.KEY + ":defaults";
+  private static final String INSTANCE = "";
+
+  private final PluginSettingsFactory pluginSettingsFactory;
+  private final EventPublisher eventPublisher;
+  private final ConcurrentMap<String, Map<String, String>> loaded =
+      new ConcurrentHashMap<String, Map<String, String>>();
+
+  /**
+   * Create a new instance
+   * @param pluginSettingsFactory Factory for the plugin settings storage
+   * @param eventPublisher Publisher of the change events
+   */
+  public ConcreteDefaultSettingsService(
+      PluginSettingsFactory pluginSettingsFactory,
+      EventPublisher eventPublisher) {
+    this.pluginSettingsFactory = pluginSettingsFactory;
+    this.eventPublisher = eventPublisher;
+  }
+
+  @Override
+  public Map<String, String> getInstanceDefaults() {
+    return load(INSTANCE);
+  }
+
+  @Override
+  public void setInstanceDefaults(Map<String, String> defaults) {
+    store(INSTANCE, defaults);
+    eventPublisher.publish(new DefaultSettingsChangedEvent(null));
+  }
+
+  @Override
+  public Map<String, String> getProjectDefaults(String projectKey) {
+    return load(projectKey);
+  }
+
+  @Override
+  public void setProjectDefaults(String projectKey,
+      Map<String, String> defaults) {
+    store(projectKey, defaults);
+    eventPublisher.publish(new DefaultSettingsChangedEvent(projectKey));
+  }
+
+  @Override
+  public Map<String, String> getDefaults(Repository repository) {
+    final Map<String, String> instance = load(INSTANCE);
+    if (repository.getProject() == null)
+      return instance;
+    final Map<String, String> project =
+        load(repository.getProject().getKey());
+    if (project.isEmpty())
+      return instance;
+    final Map<String, String> defaults = new HashMap<String, String>(instance);
+    defaults.putAll(project);
+    return defaults;
+  }
+
+  private Map<String, String> load(String scope) {
+    Map<String, String> defaults = loaded.get(scope);
+    if (defaults == null) {
+      final Object stored = settings().get(storageKey(scope));
+      defaults = sanitize(stored instanceof Map ? (Map<?, ?>) stored
+          : Collections.emptyMap());
+      final Map<String, String> raced = loaded.putIfAbsent(scope, defaults);
+      if (raced != null)
+        defaults = raced;
+    }
+    return defaults;
+  }
+
+  private synchronized void store(String scope, Map<String, String> values) {
+    final Map<String, String> defaults = sanitize(values);
+    if (defaults.isEmpty())
+      settings().remove(storageKey(scope));
+    else
+      settings().put(storageKey(scope), new HashMap<String, String>(defaults));
+    loaded.put(scope, defaults);
+  }
+
+  private PluginSettings settings() {
+    return pluginSettingsFactory.createGlobalSettings();
+  }
+
+  private static String storageKey(String scope) {
+    return INSTANCE.equals(scope) ? KEY_PREFIX : KEY_PREFIX + ":" + scope;
+  }
+
+  /**
+   * Keep the non-blank values of the fields that can be inherited.
+   */
+  private static Map<String, String> sanitize(Map<?, ?> values) {
+    final Map<String, String> defaults = new HashMap<String, String>();
+    for (String field : ResolvedSettings.INHERITED_FIELDS) {
+      final Object value = values.get(field);
+      if (!ResolvedSettings.isBlank(value))
+        defaults.put(field, value.toString().trim());
+    }
+    return Collections.unmodifiableMap(defaults);
+  }
+}
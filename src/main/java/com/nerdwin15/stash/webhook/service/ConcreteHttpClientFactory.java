@@ -3,16 +3,22 @@ package com.nerdwin15.stash.webhook.service;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.HttpClientParams;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.BasicClientConnectionManager;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * An implementation of the {@link HttpClientFactory} that returns a
@@ -23,19 +29,96 @@ import org.apache.http.impl.conn.BasicClientConnectionManager;
  * If setup of the "trust-all" HttpClient fails, a non-configured HttpClient
  * is returned.
  * 
+ * Every client gives up connecting to or waiting on Jenkins after the number
+ * of seconds in the <code>jenkins.webhook.http.timeout</code> system property
+ * (30 by default), so an unreachable Jenkins can't hold a thread for the full
+ * TCP timeout.
+ * 
+ * Clients share a pool of keep-alive connections, up to the number in the
+ * <code>jenkins.webhook.http.pool</code> system property (32 by default) per
+ * Jenkins host, so a notification doesn't pay for DNS, TCP and TLS setup
+ * when a warm connection is available. Host names are resolved through a
+ * {@link CachingDnsResolver}.
+ * 
  * @author Michael Irwin (mikesir87)
  *
  */
-public class ConcreteHttpClientFactory implements HttpClientFactory {
+public class ConcreteHttpClientFactory implements HttpClientFactory,
+    DisposableBean {
+
+  /**
+   * Property holding the connect and read timeout in seconds
+   */
+  public static final String TIMEOUT_PROPERTY = "jenkins.webhook.http.timeout";
+
+  /**
+   * Property holding the maximum pooled connections per Jenkins host
+   */
+  public static final String POOL_PROPERTY = "jenkins.webhook.http.pool";
 
   private static final Integer SSL_PORT = 443;
+
+  private final int timeoutMillis = 
+      PluginProperties.getInt(TIMEOUT_PROPERTY, 30) * 1000;
+  private final int poolSize =
+      Math.max(1, PluginProperties.getInt(POOL_PROPERTY, 32));
+  private final CachingDnsResolver dnsResolver = new CachingDnsResolver();
+  private final PoolingClientConnectionManager connectionManager =
+      createConnectionManager(new PoolingClientConnectionManager(
+          SchemeRegistryFactory.createDefault(), dnsResolver));
+  private PoolingClientConnectionManager trustAllConnectionManager;
   
   /**
    * {@inheritDoc}
    */
   public HttpClient getHttpClient(Boolean usingSsl, Boolean trustAllCerts) 
       throws Exception {
-    return createHttpClient(usingSsl && trustAllCerts);
+    final HttpClient client = createHttpClient(usingSsl && trustAllCerts);
+    applyTimeouts(client.getParams());
+    return client;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void releaseHttpClient(HttpClient client) {
+    if (client.getConnectionManager() != connectionManager
+        && client.getConnectionManager() != trustAllConnectionManager())
+      client.getConnectionManager().shutdown();
+  }
+
+  /**
+   * {@inheritDoc} Connections Jenkins asked to be kept alive for less are
+   * closed as well.
+   */
+  public void closeIdleConnections(long idleMillis) {
+    for (PoolingClientConnectionManager manager : new 
+        PoolingClientConnectionManager[] { connectionManager, 
+            trustAllConnectionManager() }) {
+      if (manager != null) {
+        manager.closeExpiredConnections();
+        manager.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+    connectionManager.shutdown();
+    if (trustAllConnectionManager() != null)
+      trustAllConnectionManager().shutdown();
+    dnsResolver.shutdown();
+  }
+
+  /**
+   * Apply the connect, read and pooled connection timeouts to the
+   * parameters of a client.
+   * @param params The client parameters
+   */
+  protected void applyTimeouts(HttpParams params) {
+    HttpConnectionParams.setConnectionTimeout(params, timeoutMillis);
+    HttpConnectionParams.setSoTimeout(params, timeoutMillis);
+    HttpClientParams.setConnectionManagerTimeout(params, timeoutMillis);
   }
 
   /**
@@ -49,7 +132,7 @@ public class ConcreteHttpClientFactory implements HttpClientFactory {
       throws Exception {
     if (useConfigured)
       return configuredClient();
-    return new DefaultHttpClient();
+    return new DefaultHttpClient(connectionManager);
   }
 
   /**
@@ -57,11 +140,26 @@ public class ConcreteHttpClientFactory implements HttpClientFactory {
    * @return The configured certificate
    * @throws Exception
    */
-  protected HttpClient configuredClient() throws Exception {
-    SSLContext sslContext = createContext();
-    SchemeRegistry schemeRegistry = createScheme(sslContext);
-    return new DefaultHttpClient(
-        new BasicClientConnectionManager(schemeRegistry));
+  protected synchronized HttpClient configuredClient() throws Exception {
+    if (trustAllConnectionManager == null) {
+      SSLContext sslContext = createContext();
+      SchemeRegistry schemeRegistry = createScheme(sslContext);
+      trustAllConnectionManager = createConnectionManager(
+          new PoolingClientConnectionManager(schemeRegistry, dnsResolver));
+    }
+    return new DefaultHttpClient(trustAllConnectionManager);
+  }
+
+  private synchronized PoolingClientConnectionManager 
+      trustAllConnectionManager() {
+    return trustAllConnectionManager;
+  }
+
+  private PoolingClientConnectionManager createConnectionManager(
+      PoolingClientConnectionManager manager) {
+    manager.setDefaultMaxPerRoute(poolSize);
+    manager.setMaxTotal(poolSize * 8);
+    return manager;
   }
 
   /**
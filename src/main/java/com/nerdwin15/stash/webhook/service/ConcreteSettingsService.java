@@ -1,21 +1,37 @@
 package com.nerdwin15.stash.webhook.service;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.atlassian.event.api.EventListener;
+import com.atlassian.stash.event.RepositoryDeletedEvent;
+import com.atlassian.stash.event.RepositoryModifiedEvent;
+import com.atlassian.stash.event.hook.RepositoryHookSettingsChangedEvent;
 import com.atlassian.stash.hook.repository.RepositoryHook;
 import com.atlassian.stash.hook.repository.RepositoryHookService;
+import com.atlassian.stash.project.Project;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.Settings;
 import com.atlassian.stash.user.Permission;
 import com.atlassian.stash.user.SecurityService;
 import com.atlassian.stash.util.Operation;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.nerdwin15.stash.webhook.Notifier;
 
 /**
  * Default implementation of the {@link SettingsService} interface that uses
  * a SecurityService to ensure that the current user has the ability to retrieve
  * the webhook settings.
+ *
+ * The settings returned are the effective settings of the repository, with
+ * blank fields inherited from the project and instance defaults. They are
+ * cached per repository until the repository's settings or any of its
+ * defaults change, so the common case is a single cache lookup.
  * 
  * @author Michael Irwin (mikesir87)
  */
@@ -24,18 +40,27 @@ public class ConcreteSettingsService implements SettingsService {
   private static final Logger LOGGER = 
       LoggerFactory.getLogger(Notifier.class);
 
+  private static final int MAXIMUM_SIZE = 10000;
+
   private RepositoryHookService hookService;
   private SecurityService securityService;
+  private DefaultSettingsService defaultSettingsService;
+  private final Cache<Integer, Entry> cache = CacheBuilder.newBuilder()
+      .maximumSize(MAXIMUM_SIZE).build();
+  private final AtomicLong invalidations = new AtomicLong();
   
   /**
    * Create a new instance.
    * @param hookService The repository hook service
    * @param securityService The security service
+   * @param defaultSettingsService The service providing the defaults
    */
   public ConcreteSettingsService(RepositoryHookService hookService,
-      SecurityService securityService) {
+      SecurityService securityService,
+      DefaultSettingsService defaultSettingsService) {
     this.hookService = hookService;
     this.securityService = securityService;
+    this.defaultSettingsService = defaultSettingsService;
   }
   
   /**
@@ -62,17 +87,110 @@ public class ConcreteSettingsService implements SettingsService {
    */
   @Override
   public Settings getSettings(final Repository repository) {
+    final Integer id = repository.getId();
+    final Entry cached = id == null ? null : cache.getIfPresent(id);
+    if (cached != null)
+      return cached.settings;
+
+    final long generation = invalidations.get();
+    final Settings stored;
     try {
-      return securityService.doWithPermission("Retrieving settings", 
-          Permission.REPO_ADMIN, new Operation<Settings, Exception>() {
-        @Override
-        public Settings perform() throws Exception {
-          return hookService.getSettings(repository, Notifier.KEY);
-        } 
-      });
+      stored = getStoredSettings(repository);
     } catch (Exception e) {
       LOGGER.error("Unexpected exception trying to get webhook settings", e);
       return null;
     }
+    final Settings settings = stored == null ? null : ResolvedSettings
+        .resolve(defaultSettingsService.getDefaults(repository),
+            stored.asMap());
+    // Don't cache a snapshot that was resolved while something it was
+    // resolved from was being changed
+    if (id != null && invalidations.get() == generation)
+      cache.put(id, new Entry(projectKeyOf(repository), settings));
+    return settings;
+  }
+
+  /**
+   * Forget the effective settings of the repositories inheriting the
+   * changed defaults.
+   * @param event The event
+   */
+  @EventListener
+  public void onDefaultsChanged(DefaultSettingsChangedEvent event) {
+    invalidations.incrementAndGet();
+    if (event.getProjectKey() == null) {
+      cache.invalidateAll();
+      return;
+    }
+    final Iterator<Map.Entry<Integer, Entry>> iterator =
+        cache.asMap().entrySet().iterator();
+    while (iterator.hasNext()) {
+      if (event.getProjectKey().equals(iterator.next().getValue().projectKey))
+        iterator.remove();
+    }
+  }
+
+  /**
+   * Forget the effective settings of a repository whose settings changed.
+   * @param event The event
+   */
+  @EventListener
+  public void onSettingsChanged(RepositoryHookSettingsChangedEvent event) {
+    if (Notifier.KEY.equals(event.getRepositoryHookKey()))
+      invalidate(event.getRepository());
+  }
+
+  /**
+   * Forget the effective settings of a repository that may have moved to
+   * another project.
+   * @param event The event
+   */
+  @EventListener
+  public void onRepositoryModified(RepositoryModifiedEvent event) {
+    invalidate(event.getOldValue());
+  }
+
+  /**
+   * Forget the effective settings of a deleted repository.
+   * @param event The event
+   */
+  @EventListener
+  public void onRepositoryDeleted(RepositoryDeletedEvent event) {
+    invalidate(event.getRepository());
+  }
+
+  private void invalidate(Repository repository) {
+    invalidations.incrementAndGet();
+    if (repository != null && repository.getId() != null)
+      cache.invalidate(repository.getId());
+  }
+
+  private static String projectKeyOf(Repository repository) {
+    final Project project = repository.getProject();
+    return project == null ? null : project.getKey();
+  }
+
+  private Settings getStoredSettings(final Repository repository)
+      throws Exception {
+    return securityService.doWithPermission("Retrieving settings", 
+        Permission.REPO_ADMIN, new Operation<Settings, Exception>() {
+      @Override
+      public Settings perform() throws Exception {
+        return hookService.getSettings(repository, Notifier.KEY);
+      } 
+    });
+  }
+
+  /**
+   * The cached effective settings of a repository.
+   */
+  private static class Entry {
+    private final String projectKey;
+    private final Settings settings;
+
+    Entry(String projectKey, Settings settings) {
+      this.projectKey = projectKey;
+      this.settings = settings;
+    }
   }
 }
@@ -0,0 +1,91 @@
+package com.nerdwin15.stash.webhook.service;
+
+/**
+ * A background test of the Jenkins configuration of a repository, started
+ * from the hook settings dialog.
+ */
+public class ConnectionTest {
+
+  /**
+   * The states of a test
+   */
+  public enum State {
+    /** The notification hasn't completed yet */
+    RUNNING,
+    /** Jenkins scheduled a poll */
+    SUCCESS,
+    /** Jenkins couldn't be reached or gave an unexpected response */
+    FAILED,
+    /** Jenkins didn't answer before the deadline */
+    TIMED_OUT
+  }
+
+  private final String id;
+  private final int repositoryId;
+  private volatile State state = State.RUNNING;
+  private volatile String response;
+
+  /**
+   * Create a new, running, test
+   * @param id The ID of the test
+   * @param repositoryId The ID of the repository being tested
+   */
+  public ConnectionTest(String id, int repositoryId) {
+    this.id = id;
+    this.repositoryId = repositoryId;
+  }
+
+  /**
+   * Complete the test, unless it has already completed.
+   * @param result The final state
+   * @param body The response from Jenkins. May be null.
+   * @return True if the test was still running
+   */
+  public synchronized boolean complete(State result, String body) {
+    if (state != State.RUNNING)
+      return false;
+    this.response = body;
+    this.state = result;
+    return true;
+  }
+
+  /**
+   * Get the ID of the test.
+   * @return The ID
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Get the ID of the repository being tested.
+   * @return The repository ID
+   */
+  public int getRepositoryId() {
+    return repositoryId;
+  }
+
+  /**
+   * Get the current state of the test.
+   * @return The state
+   */
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Determine whether the test has completed.
+   * @return True if the test is no longer running
+   */
+  public boolean isDone() {
+    return state != State.RUNNING;
+  }
+
+  /**
+   * Get the response from Jenkins.
+   * @return The response, or null if there is none (yet)
+   */
+  public String getResponse() {
+    return response;
+  }
+}
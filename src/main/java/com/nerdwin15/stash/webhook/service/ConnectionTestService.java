@@ -0,0 +1,30 @@
+package com.nerdwin15.stash.webhook.service;
+
+import com.atlassian.stash.repository.Repository;
+
+/**
+ * Service running tests of the Jenkins configuration in the background, so
+ * that an unreachable Jenkins doesn't hold a request thread.
+ */
+public interface ConnectionTestService {
+
+  /**
+   * Start testing a Jenkins configuration. If a test of the same settings
+   * is already running for the repository, that test is returned instead of
+   * starting another one.
+   * @param repository The repository to base the notification on
+   * @param jenkinsBase The base URL for the Jenkins instance
+   * @param cloneUrl The url used for repository cloning
+   * @param ignoreCerts True if all certs should be accepted
+   * @return The test
+   */
+  ConnectionTest start(Repository repository, String jenkinsBase,
+      String cloneUrl, boolean ignoreCerts);
+
+  /**
+   * Get a recently started test.
+   * @param id The ID of the test
+   * @return The test, or null if it is unknown or has expired
+   */
+  ConnectionTest getTest(String id);
+}
@@ -0,0 +1,142 @@
+package com.nerdwin15.stash.webhook.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.google.common.io.Closeables;
+
+/**
+ * A small binary file in the plugin's data directory, starting with a magic
+ * number and a format version, that is always replaced as a whole.
+ *
+ * A new version is written to a temporary file and synced before it takes
+ * the place of the current one. Where the platform can't rename over an
+ * existing file, the current file is first moved aside as a backup, which
+ * is read instead if the file itself is missing. Either way, a crash leaves
+ * a complete previous or new version behind.
+ */
+public class DataFile {
+
+  /**
+   * Writes the contents of the file.
+   */
+  public interface Writer {
+
+    /**
+     * Write the contents, after the header.
+     * @param out The stream to write to
+     * @throws IOException If the stream couldn't be written to
+     */
+    void writeTo(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Reads the contents of the file.
+   */
+  public interface Reader {
+
+    /**
+     * Read the contents, after the header.
+     * @param in The stream to read from
+     * @throws IOException If the stream couldn't be read or is malformed
+     */
+    void readFrom(DataInputStream in) throws IOException;
+  }
+
+  private final File file;
+  private final File temp;
+  private final File backup;
+  private final int magic;
+  private final int version;
+
+  /**
+   * Create a new instance
+   * @param file The file
+   * @param magic The magic number identifying the kind of file
+   * @param version The version of the format
+   */
+  public DataFile(File file, int magic, int version) {
+    this.file = file;
+    this.temp = new File(file.getPath() + ".tmp");
+    this.backup = new File(file.getPath() + ".bak");
+    this.magic = magic;
+    this.version = version;
+  }
+
+  /**
+   * Get the file.
+   * @return The file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Read the file, or its backup if only the backup exists.
+   * @param reader Reads the contents
+   * @return True if the contents were read, false if there is no file
+   * @throws IOException If the file couldn't be read, is malformed or has
+   * another format
+   */
+  public boolean read(Reader reader) throws IOException {
+    final File source = file.isFile() ? file
+        : (backup.isFile() ? backup : null);
+    if (source == null)
+      return false;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(source)));
+      if (in.readInt() != magic || in.readInt() != version)
+        throw new IOException("Unknown format of " + source);
+      reader.readFrom(in);
+      return true;
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Replace the file with new contents.
+   * @param writer Writes the contents
+   * @throws IOException If the file couldn't be written or replaced
+   */
+  public void write(Writer writer) throws IOException {
+    file.getParentFile().mkdirs();
+    final FileOutputStream stream = new FileOutputStream(temp);
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.writeInt(magic);
+      out.writeInt(version);
+      writer.writeTo(out);
+      out.flush();
+      stream.getFD().sync();
+    } finally {
+      Closeables.closeQuietly(out);
+      Closeables.closeQuietly(stream);
+    }
+
+    if (temp.renameTo(file)) {
+      backup.delete();
+      return;
+    }
+    // Renaming over an existing file isn't supported everywhere. Keep the
+    // current version as a backup until the new one is in place.
+    if (file.exists()) {
+      if (backup.exists() && !backup.delete())
+        throw new IOException("Unable to delete " + backup);
+      if (!file.renameTo(backup))
+        throw new IOException("Unable to back up " + file);
+    }
+    if (!temp.renameTo(file))
+      throw new IOException("Unable to replace " + file);
+    backup.delete();
+  }
+}
@@ -0,0 +1,28 @@
+package com.nerdwin15.stash.webhook.service;
+
+/**
+ * Published when the instance or project defaults of the hook settings
+ * change, so the effective settings of the affected repositories can be
+ * resolved again.
+ */
+public class DefaultSettingsChangedEvent {
+
+  private final String projectKey;
+
+  /**
+   * Create a new instance
+   * @param projectKey The key of the project whose defaults changed, or null
+   * if the instance defaults changed
+   */
+  public DefaultSettingsChangedEvent(String projectKey) {
+    this.projectKey = projectKey;
+  }
+
+  /**
+   * Get the key of the project whose defaults changed.
+   * @return The project key, or null if the instance defaults changed
+   */
+  public String getProjectKey() {
+    return projectKey;
+  }
+}
@@ -0,0 +1,47 @@
+package com.nerdwin15.stash.webhook.service;
+
+import java.util.Map;
+
+import com.atlassian.stash.repository.Repository;
+
+/**
+ * Service managing the instance and project defaults of the hook settings.
+ * Repositories inherit the {@link ResolvedSettings#INHERITED_FIELDS} they
+ * leave blank from their project, and the project from the instance.
+ */
+public interface DefaultSettingsService {
+
+  /**
+   * Get the instance defaults.
+   * @return The default values, keyed by field name
+   */
+  Map<String, String> getInstanceDefaults();
+
+  /**
+   * Replace the instance defaults.
+   * @param defaults The default values, keyed by field name
+   */
+  void setInstanceDefaults(Map<String, String> defaults);
+
+  /**
+   * Get the defaults of a project, without those of the instance.
+   * @param projectKey The key of the project
+   * @return The default values, keyed by field name
+   */
+  Map<String, String> getProjectDefaults(String projectKey);
+
+  /**
+   * Replace the defaults of a project.
+   * @param projectKey The key of the project
+   * @param defaults The default values, keyed by field name
+   */
+  void setProjectDefaults(String projectKey, Map<String, String> defaults);
+
+  /**
+   * Get the defaults a repository inherits: those of its project, falling
+   * back to those of the instance.
+   * @param repository The repository
+   * @return The default values, keyed by field name
+   */
+  Map<String, String> getDefaults(Repository repository);
+}
@@ -0,0 +1,105 @@
+package com.nerdwin15.stash.webhook.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.setting.SettingsValidationErrors;
+import com.google.common.base.Strings;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.route.RouteTable;
+import com.nerdwin15.stash.webhook.service.template.Template;
+import com.nerdwin15.stash.webhook.service.template.WebhookTemplate;
+
+/**
+ * The validation rules of the hook settings. Each rule only looks at the
+ * value of a single field, so callers applying the same values to many
+ * repositories can validate each distinct value once.
+ */
+public class HookSettingsValidator {
+
+  /**
+   * The fields that have validation rules
+   */
+  public static final List<String> FIELDS = Collections.unmodifiableList(
+      Arrays.asList(Notifier.JENKINS_BASE, Notifier.JENKINS_ALTERNATES,
+          Notifier.REF_ROUTES, Notifier.WEBHOOK_URL, Notifier.WEBHOOK_HEADERS,
+          Notifier.WEBHOOK_BODY, Notifier.CLONE_URL, Notifier.MAX_COMMITS));
+
+  /**
+   * The URL the webhook headers are validated with, since each field is
+   * validated on its own
+   */
+  private static final String WEBHOOK_URL_PLACEHOLDER = "http://localhost";
+
+  /**
+   * Validate all fields of the settings, with the fields they leave blank
+   * inherited from the defaults.
+   * @param settings The settings
+   * @param defaults The defaults the settings inherit
+   * @param errors Receives an error for each invalid field
+   */
+  public void validate(Settings settings, Map<String, ?> defaults,
+      SettingsValidationErrors errors) {
+    for (String field : FIELDS) {
+      String value = settings.getString(field);
+      if (ResolvedSettings.isBlank(value)
+          && ResolvedSettings.INHERITED_FIELDS.contains(field)
+          && defaults.get(field) != null)
+        value = defaults.get(field).toString();
+      final String error = validate(field, value);
+      if (error != null)
+        errors.addFieldError(field, error);
+    }
+  }
+
+  /**
+   * Validate the value of a single field.
+   * @param field The field name
+   * @param value The value, may be null
+   * @return The error message, or null if the value is valid
+   */
+  public String validate(String field, String value) {
+    if (Notifier.JENKINS_BASE.equals(field)) {
+      if (Strings.isNullOrEmpty(value))
+        return "The url for your Jenkins instance is required.";
+    } else if (Notifier.JENKINS_ALTERNATES.equals(field)) {
+      if (ResolvedSettings.isBlank(value))
+        return null;
+      for (String url : value.trim().split("[\\s,]+")) {
+        if (!url.matches("(?i)https?://[^/]+.*"))
+          return "Each alternate url must be an http or https url";
+      }
+    } else if (Notifier.REF_ROUTES.equals(field)) {
+      try {
+        RouteTable.compile(value);
+      } catch (IllegalArgumentException e) {
+        return e.getMessage();
+      }
+    } else if (Notifier.WEBHOOK_URL.equals(field)
+        || Notifier.WEBHOOK_HEADERS.equals(field)
+        || Notifier.WEBHOOK_BODY.equals(field)) {
+      if (ResolvedSettings.isBlank(value))
+        return null;
+      try {
+        if (Notifier.WEBHOOK_URL.equals(field))
+          WebhookTemplate.compile(value, null, null);
+        else if (Notifier.WEBHOOK_HEADERS.equals(field))
+          WebhookTemplate.compile(WEBHOOK_URL_PLACEHOLDER, value, null);
+        else
+          Template.compile(value, Template.Escape.RAW);
+      } catch (IllegalArgumentException e) {
+        return e.getMessage();
+      }
+    } else if (Notifier.CLONE_URL.equals(field)) {
+      if (Strings.isNullOrEmpty(value))
+        return "The repository clone url is required";
+    } else if (Notifier.MAX_COMMITS.equals(field)) {
+      if (!Strings.isNullOrEmpty(value) && !value.trim().matches("\\d+"))
+        return "The maximum number of commits must be a non-negative number";
+    }
+    return null;
+  }
+}
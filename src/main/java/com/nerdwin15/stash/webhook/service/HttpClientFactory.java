@@ -19,4 +19,17 @@ public interface HttpClientFactory {
    */
   HttpClient getHttpClient(Boolean usingSsl, Boolean trustAllCerts)
       throws Exception;
+
+  /**
+   * Release a client once its request completed. Pooled connections are
+   * kept for the next request, other connections are closed.
+   * @param client The client
+   */
+  void releaseHttpClient(HttpClient client);
+
+  /**
+   * Close the pooled connections that have been idle for the provided time.
+   * @param idleMillis The idle time in milliseconds
+   */
+  void closeIdleConnections(long idleMillis);
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package com.nerdwin15.stash.webhook.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access to the instance-wide tuning properties of the plugin. Properties are
+ * read from the system properties of the Stash JVM (for example
+ * <code>-Djenkins.webhook.dispatch.threads=8</code>), falling back to the
+ * provided default when missing or malformed.
+ */
+public final class PluginProperties {
+
+  private static final Logger LOGGER = 
+      LoggerFactory.getLogger(PluginProperties.class);
+
+  private PluginProperties() {
+  }
+
+  /**
+   * Get a string property.
+   * @param key The property key
+   * @param defaultValue The value to use if the property isn't set
+   * @return The property value
+   */
+  public static String getString(String key, String defaultValue) {
+    final String value = System.getProperty(key);
+    return value == null || value.trim().isEmpty() ? defaultValue 
+        : value.trim();
+  }
+
+  /**
+   * Get an integer property.
+   * @param key The property key
+   * @param defaultValue The value to use if the property isn't set or invalid
+   * @return The property value
+   */
+  public static int getInt(String key, int defaultValue) {
+    return (int) getLong(key, defaultValue);
+  }
+
+  /**
+   * Get a long property.
+   * @param key The property key
+   * @param defaultValue The value to use if the property isn't set or invalid
+   * @return The property value
+   */
+  public static long getLong(String key, long defaultValue) {
+    final String value = getString(key, null);
+    if (value == null)
+      return defaultValue;
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Ignoring invalid value '{}' for property {}", value, key);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Get a decimal property.
+   * @param key The property key
+   * @param defaultValue The value to use if the property isn't set or invalid
+   * @return The property value
+   */
+  public static double getDouble(String key, double defaultValue) {
+    final String value = getString(key, null);
+    if (value == null)
+      return defaultValue;
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Ignoring invalid value '{}' for property {}", value, key);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Get a boolean property.
+   * @param key The property key
+   * @param defaultValue The value to use if the property isn't set
+   * @return The property value
+   */
+  public static boolean getBoolean(String key, boolean defaultValue) {
+    final String value = getString(key, null);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+}
@@ -0,0 +1,141 @@
+package com.nerdwin15.stash.webhook.service;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A bounded, time-windowed index of the ref changes notified recently, used
+ * to suppress duplicate events for a ref moving to the same hash.
+ *
+ * Each (repository, ref, new hash) triple is stored as a 64 bit fingerprint
+ * in an open addressing table of primitive arrays, along with the time it
+ * expires. Lookups probe a small fixed window of slots; when a window is
+ * full the entry expiring first is overwritten, so the table never grows
+ * and never needs cleaning up.
+ */
+public class RecentRefChangeIndex {
+
+  /**
+   * Property holding the seconds during which a ref change is remembered
+   */
+  public static final String WINDOW_PROPERTY = "jenkins.webhook.dedup.window";
+
+  /**
+   * Property holding the number of ref changes that can be remembered
+   */
+  public static final String CAPACITY_PROPERTY = 
+      "jenkins.webhook.dedup.capacity";
+
+  private static final int PROBES = 8;
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final long[] keys;
+  private final long[] expiries;
+  private final int mask;
+  private final long windowNanos;
+  private final Ticker ticker;
+  private long suppressed;
+
+  /**
+   * Create a new instance using the configured system properties
+   */
+  public RecentRefChangeIndex() {
+    this(PluginProperties.getInt(CAPACITY_PROPERTY, 65536),
+        TimeUnit.SECONDS.toMillis(
+            PluginProperties.getLong(WINDOW_PROPERTY, 60)),
+        Ticker.systemTicker());
+  }
+
+  /**
+   * Create a new instance
+   * @param capacity The number of ref changes that can be remembered,
+   * rounded up to a power of two
+   * @param windowMillis The time during which a ref change is remembered
+   * @param ticker The time source
+   */
+  public RecentRefChangeIndex(int capacity, long windowMillis, 
+      Ticker ticker) {
+    int size = PROBES;
+    while (size < capacity)
+      size <<= 1;
+    this.keys = new long[size];
+    this.expiries = new long[size];
+    this.mask = size - 1;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.ticker = ticker;
+  }
+
+  /**
+   * Record the ref changes of an event, and determine whether any of them
+   * is new. Events without ref changes, or for repositories without an ID, 
+   * are always considered new.
+   * @param repository The repository of the event
+   * @param refChanges The ref changes of the event
+   * @return False if every ref change was already recorded within the window
+   */
+  public synchronized boolean markNew(Repository repository, 
+      Collection<RefChange> refChanges) {
+    final Integer repositoryId = repository.getId();
+    if (repositoryId == null || refChanges.isEmpty())
+      return true;
+
+    final long now = ticker.read();
+    boolean fresh = false;
+    for (RefChange refChange : refChanges) {
+      if (put(fingerprint(repositoryId, refChange), now))
+        fresh = true;
+    }
+    if (!fresh)
+      suppressed++;
+    return fresh;
+  }
+
+  /**
+   * Get the number of events found to be duplicates.
+   * @return The number of suppressed events
+   */
+  public synchronized long getSuppressed() {
+    return suppressed;
+  }
+
+  /**
+   * Store a fingerprint, unless it is already present. The window of a
+   * fingerprint starts when it is first stored and isn't extended by
+   * duplicates.
+   * @return True if the fingerprint wasn't present
+   */
+  private boolean put(long key, long now) {
+    final int start = (int) (key ^ (key >>> 32)) & mask;
+    int free = -1;
+    int oldest = start;
+    for (int i = 0; i < PROBES; i++) {
+      final int slot = (start + i) & mask;
+      final boolean live = keys[slot] != 0 && expiries[slot] - now > 0;
+      if (live && keys[slot] == key)
+        return false;
+      if (!live && free < 0)
+        free = slot;
+      else if (live && expiries[slot] - expiries[oldest] < 0)
+        oldest = slot;
+    }
+    final int victim = free < 0 ? oldest : free;
+    keys[victim] = key;
+    expiries[victim] = now + windowNanos;
+    return true;
+  }
+
+  private static long fingerprint(int repositoryId, RefChange refChange) {
+    final long key = HASH.newHasher().putInt(repositoryId)
+        .putString(refChange.getRefId(), Charsets.UTF_8)
+        .putString(String.valueOf(refChange.getToHash()), Charsets.UTF_8)
+        .hash().asLong();
+    return key == 0 ? 1 : key;
+  }
+}
@@ -0,0 +1,84 @@
+package com.nerdwin15.stash.webhook.service;
+
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.util.PageRequestImpl;
+
+/**
+ * Pages through every repository of the instance, project by project, 
+ * handing them one at a time to a callback. Only a single page of 
+ * repositories is held in memory at any time.
+ *
+ * The current user must be allowed to see the repositories, so background
+ * callers should elevate their permissions first.
+ */
+public class RepositoryEnumerator {
+
+  private static final int PAGE_SIZE = 100;
+
+  private final ProjectService projectService;
+  private final RepositoryService repositoryService;
+
+  /**
+   * Callback receiving each repository.
+   */
+  public interface Callback {
+
+    /**
+     * Handle a single repository.
+     * @param repository The repository
+     * @return True if the enumeration should continue, false to stop early
+     */
+    boolean onRepository(Repository repository);
+  }
+
+  /**
+   * Create a new instance
+   * @param projectService Service used to list the projects
+   * @param repositoryService Service used to page through repositories
+   */
+  public RepositoryEnumerator(ProjectService projectService,
+      RepositoryService repositoryService) {
+    this.projectService = projectService;
+    this.repositoryService = repositoryService;
+  }
+
+  /**
+   * Enumerate every repository.
+   * @param callback The callback to receive the repositories
+   * @return False if the callback stopped the enumeration early
+   */
+  public boolean forEach(Callback callback) {
+    for (String projectKey : projectService.findAllKeys()) {
+      if (!forEach(projectKey, callback))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Enumerate the repositories of a project.
+   * @param projectKey The key of the project
+   * @param callback The callback to receive the repositories
+   * @return False if the callback stopped the enumeration early
+   */
+  public boolean forEach(String projectKey, Callback callback) {
+    PageRequest request = new PageRequestImpl(0, PAGE_SIZE);
+    while (request != null) {
+      final Page<Repository> page = 
+          repositoryService.findAllByProjectKey(projectKey, request);
+      for (Repository repository : page.getValues()) {
+        if (!callback.onRepository(repository))
+          return false;
+      }
+      if (page.getIsLastPage())
+        break;
+      request = new PageRequestImpl(page.getStart() + page.getSize(),
+          PAGE_SIZE);
+    }
+    return true;
+  }
+}
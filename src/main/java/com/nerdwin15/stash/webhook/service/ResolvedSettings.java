@@ -0,0 +1,121 @@
+package com.nerdwin15.stash.webhook.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.atlassian.stash.setting.Settings;
+import com.nerdwin15.stash.webhook.Notifier;
+
+/**
+ * The immutable effective settings of a repository: the values stored for
+ * the repository, with the {@link #INHERITED_FIELDS} it leaves blank taken
+ * from the project and instance defaults.
+ */
+public class ResolvedSettings implements Settings {
+
+  /**
+   * The fields that can be inherited from the project and instance defaults
+   */
+  public static final List<String> INHERITED_FIELDS =
+      Collections.unmodifiableList(Arrays.asList(Notifier.JENKINS_BASE,
+          Notifier.IGNORE_CERTS, Notifier.IGNORE_COMMITTERS,
+          Notifier.REF_ROUTES));
+
+  private final Map<String, Object> values;
+
+  private ResolvedSettings(Map<String, Object> values) {
+    this.values = Collections.unmodifiableMap(values);
+  }
+
+  /**
+   * Resolve the effective settings of a repository.
+   * @param defaults The merged project and instance defaults
+   * @param values The values stored for the repository
+   * @return The effective settings
+   */
+  public static ResolvedSettings resolve(Map<String, ?> defaults,
+      Map<String, ?> values) {
+    final Map<String, Object> resolved = new HashMap<String, Object>();
+    if (values != null)
+      resolved.putAll(values);
+    for (String field : INHERITED_FIELDS) {
+      final Object inherited = defaults.get(field);
+      if (inherited != null && isBlank(resolved.get(field)))
+        resolved.put(field, inherited);
+    }
+    return new ResolvedSettings(resolved);
+  }
+
+  /**
+   * Determine whether a value leaves a field to be inherited.
+   * @param value The value
+   * @return True if the value is missing or empty
+   */
+  public static boolean isBlank(Object value) {
+    return value == null || value.toString().trim().length() == 0;
+  }
+
+  @Override
+  public String getString(String key) {
+    final Object value = values.get(key);
+    return value == null ? null : value.toString();
+  }
+
+  @Override
+  public String getString(String key, String defaultValue) {
+    final String value = getString(key);
+    return value == null ? defaultValue : value;
+  }
+
+  @Override
+  public Boolean getBoolean(String key) {
+    final Object value = values.get(key);
+    if (value == null || value instanceof Boolean)
+      return (Boolean) value;
+    return Boolean.valueOf(value.toString().trim());
+  }
+
+  @Override
+  public boolean getBoolean(String key, boolean defaultValue) {
+    final Boolean value = getBoolean(key);
+    return value == null ? defaultValue : value;
+  }
+
+  @Override
+  public Integer getInt(String key) {
+    final Long value = getLong(key);
+    return value == null ? null : value.intValue();
+  }
+
+  @Override
+  public int getInt(String key, int defaultValue) {
+    final Integer value = getInt(key);
+    return value == null ? defaultValue : value;
+  }
+
+  @Override
+  public Long getLong(String key) {
+    final Object value = values.get(key);
+    if (value == null || value instanceof Number)
+      return value == null ? null : ((Number) value).longValue();
+    try {
+      return Long.valueOf(value.toString().trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public long getLong(String key, long defaultValue) {
+    final Long value = getLong(key);
+    return value == null ? defaultValue : value;
+  }
+
+  @Override
+  public Map<String, Object> asMap() {
+    return values;
+  }
+}
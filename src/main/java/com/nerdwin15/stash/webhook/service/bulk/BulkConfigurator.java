@@ -0,0 +1,379 @@
+package com.nerdwin15.stash.webhook.service.bulk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import com.atlassian.stash.hook.repository.RepositoryHookService;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.Operation;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.CloneUrlService;
+import com.nerdwin15.stash.webhook.service.CloneUrls;
+import com.nerdwin15.stash.webhook.service.DefaultSettingsService;
+import com.nerdwin15.stash.webhook.service.HookSettingsValidator;
+import com.nerdwin15.stash.webhook.service.RepositoryEnumerator;
+import com.nerdwin15.stash.webhook.service.ResolvedSettings;
+
+/**
+ * Applies a {@link ConfigTemplate} to many repositories at once.
+ * Repositories are grouped into batches that are each saved in a single
+ * transaction, and several batches are saved concurrently. Each distinct
+ * field value is only validated once per run.
+ *
+ * If a batch fails, its repositories are retried one transaction each so a
+ * single bad repository doesn't take the rest of its batch down with it.
+ */
+public class BulkConfigurator {
+
+  /**
+   * Status of a repository whose settings were saved
+   */
+  public static final String UPDATED = "UPDATED";
+
+  /**
+   * Status of a repository whose resulting settings weren't valid
+   */
+  public static final String INVALID = "INVALID";
+
+  /**
+   * Status of a repository whose settings couldn't be saved
+   */
+  public static final String FAILED = "FAILED";
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(BulkConfigurator.class);
+
+  private final RepositoryEnumerator enumerator;
+  private final RepositoryHookService hookService;
+  private final SecurityService securityService;
+  private final TransactionTemplate transactionTemplate;
+  private final CloneUrlService cloneUrlService;
+  private final DefaultSettingsService defaultSettingsService;
+  private final HookSettingsValidator validator = new HookSettingsValidator();
+
+  /**
+   * Create a new instance
+   * @param enumerator Enumerates the repositories
+   * @param hookService The repository hook service
+   * @param securityService The security service
+   * @param transactionTemplate Runs each batch in a transaction
+   * @param cloneUrlService Service deriving the clone urls of repositories
+   * @param defaultSettingsService The service providing the defaults the
+   * repository settings inherit
+   */
+  public BulkConfigurator(RepositoryEnumerator enumerator,
+      RepositoryHookService hookService, SecurityService securityService,
+      TransactionTemplate transactionTemplate,
+      CloneUrlService cloneUrlService,
+      DefaultSettingsService defaultSettingsService) {
+    this.enumerator = enumerator;
+    this.hookService = hookService;
+    this.securityService = securityService;
+    this.transactionTemplate = transactionTemplate;
+    this.cloneUrlService = cloneUrlService;
+    this.defaultSettingsService = defaultSettingsService;
+  }
+
+  /**
+   * Validate the values of a template before applying it. Fields the
+   * template doesn't set are only checked when it replaces the settings
+   * entirely and they can't be inherited, as they may otherwise come from
+   * each repository or its defaults.
+   * @param template The template
+   * @return The error message of each invalid field, empty if valid
+   */
+  public Map<String, String> validate(ConfigTemplate template) {
+    final Map<String, String> errors = new LinkedHashMap<String, String>();
+    for (String field : HookSettingsValidator.FIELDS) {
+      if (Notifier.CLONE_URL.equals(field) && template.getCloneType() != null)
+        continue;
+      final String value = valueOf(template.getSettings().get(field));
+      if (ResolvedSettings.isBlank(value)
+          && ResolvedSettings.INHERITED_FIELDS.contains(field))
+        continue;
+      if (!template.isMerge() || template.getSettings().containsKey(field)) {
+        final String error = validator.validate(field, value);
+        if (error != null)
+          errors.put(field, error);
+      }
+    }
+    return errors;
+  }
+
+  /**
+   * Apply a template to the repositories of a project, or to every
+   * repository of the instance. Repositories are enumerated as the current
+   * user, so only those the user can see are configured. Returns once every
+   * batch has been saved, or the progress writer was closed.
+   * @param projectKey The project to configure, or null for every project
+   * @param template The template to apply
+   * @param parallelism The number of batches saved concurrently
+   * @param batchSize The number of repositories saved per transaction
+   * @param progress Receives the outcome for each repository
+   * @throws InterruptedException If interrupted while configuring
+   */
+  public void configure(String projectKey, ConfigTemplate template,
+      int parallelism, int batchSize, ProgressWriter progress)
+      throws InterruptedException {
+    final Run run = new Run(template, parallelism, batchSize, progress);
+    final RepositoryEnumerator.Callback callback =
+        new RepositoryEnumerator.Callback() {
+      @Override
+      public boolean onRepository(Repository repository) {
+        return run.add(repository);
+      }
+    };
+    boolean completed = false;
+    try {
+      completed = projectKey == null ? enumerator.forEach(callback)
+          : enumerator.forEach(projectKey, callback);
+    } finally {
+      run.finish(completed);
+    }
+    LOGGER.info("Bulk configuration of {} finished: {} updated, {} invalid, "
+        + "{} failed", new Object[] {
+            projectKey == null ? "all projects" : projectKey,
+            progress.getCount(UPDATED), progress.getCount(INVALID),
+            progress.getCount(FAILED) });
+  }
+
+  /**
+   * Apply a template to the provided repositories.
+   * @param repositories The repositories to configure
+   * @param template The template to apply
+   * @param parallelism The number of batches saved concurrently
+   * @param batchSize The number of repositories saved per transaction
+   * @param progress Receives the outcome for each repository
+   * @throws InterruptedException If interrupted while configuring
+   */
+  public void configure(Collection<Repository> repositories,
+      ConfigTemplate template, int parallelism, int batchSize,
+      ProgressWriter progress) throws InterruptedException {
+    final Run run = new Run(template, parallelism, batchSize, progress);
+    boolean completed = false;
+    try {
+      completed = run.addAll(repositories);
+    } finally {
+      run.finish(completed);
+    }
+  }
+
+  private void save(List<Repository> batch, ConfigTemplate template,
+      ValueCheck check, ProgressWriter progress) {
+    if (progress.isClosed())
+      return;
+    final List<Outcome> outcomes;
+    try {
+      outcomes = saveInTransaction(batch, template, check);
+    } catch (RuntimeException e) {
+      if (batch.size() == 1) {
+        LOGGER.warn("Unable to configure repository {}",
+            batch.get(0).getId(), e);
+        progress.item(batch.get(0), FAILED, e.getMessage());
+        return;
+      }
+      LOGGER.debug("Batch of {} repositories failed, saving them one by one",
+          batch.size(), e);
+      for (Repository repository : batch) {
+        save(Collections.singletonList(repository), template, check,
+            progress);
+      }
+      return;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      final Outcome outcome = outcomes.get(i);
+      progress.item(batch.get(i), outcome.status, outcome.message);
+    }
+  }
+
+  private List<Outcome> saveInTransaction(final List<Repository> batch,
+      final ConfigTemplate template, final ValueCheck check) {
+    return securityService.doWithPermission("Configuring Jenkins webhook",
+        Permission.REPO_ADMIN, new Operation<List<Outcome>,
+            RuntimeException>() {
+      @Override
+      public List<Outcome> perform() {
+        return transactionTemplate.execute(
+            new TransactionCallback<List<Outcome>>() {
+          @Override
+          public List<Outcome> doInTransaction() {
+            final List<Outcome> outcomes =
+                new ArrayList<Outcome>(batch.size());
+            for (Repository repository : batch) {
+              outcomes.add(save(repository, template, check));
+            }
+            return outcomes;
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Save the settings of a single repository. Must be called inside a
+   * transaction.
+   * @return The outcome
+   */
+  private Outcome save(Repository repository, ConfigTemplate template,
+      ValueCheck check) {
+    final Map<String, Object> values = new HashMap<String, Object>();
+    if (template.isMerge()) {
+      final Settings existing = hookService.getSettings(repository,
+          Notifier.KEY);
+      if (existing != null)
+        values.putAll(existing.asMap());
+    }
+    values.putAll(template.getSettings());
+    if (template.getCloneType() != null) {
+      final CloneUrls urls = cloneUrlService.getCloneUrls(repository);
+      values.put(Notifier.CLONE_URL,
+          template.getCloneType() == ConfigTemplate.CloneType.SSH
+              ? urls.getSsh() : urls.getHttp());
+    }
+
+    final String error = check.validate(ResolvedSettings.resolve(
+        defaultSettingsService.getDefaults(repository), values).asMap());
+    if (error != null)
+      return new Outcome(INVALID, error);
+    hookService.setSettings(repository, Notifier.KEY,
+        hookService.createSettingsBuilder().addAll(values).build());
+    if (template.isEnable())
+      hookService.enable(repository, Notifier.KEY);
+    return new Outcome(UPDATED, null);
+  }
+
+  private static String valueOf(Object value) {
+    return value == null ? null : value.toString();
+  }
+
+  /**
+   * The outcome of saving the settings of a repository.
+   */
+  private static class Outcome {
+    private final String status;
+    private final String message;
+
+    Outcome(String status, String message) {
+      this.status = status;
+      this.message = message;
+    }
+  }
+
+  /**
+   * Remembers the outcome of validating each distinct field value.
+   */
+  private class ValueCheck {
+    private final ConcurrentMap<String, String> results =
+        new ConcurrentHashMap<String, String>();
+
+    /**
+     * Validate the values of every field.
+     * @return The first error found, or null if the values are valid
+     */
+    String validate(Map<String, Object> values) {
+      for (String field : HookSettingsValidator.FIELDS) {
+        final String value = valueOf(values.get(field));
+        final String key = field + '\n' + value;
+        String result = results.get(key);
+        if (result == null) {
+          final String error = validator.validate(field, value);
+          result = error == null ? "" : error;
+          results.putIfAbsent(key, result);
+        }
+        if (result.length() > 0)
+          return result;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A single bulk configuration, collecting repositories into batches and
+   * handing full batches to the executor.
+   */
+  private class Run {
+    private final ConfigTemplate template;
+    private final int batchSize;
+    private final ProgressWriter progress;
+    private final BulkExecutor executor;
+    private final ValueCheck check = new ValueCheck();
+    private List<Repository> batch;
+
+    Run(ConfigTemplate template, int parallelism, int batchSize,
+        ProgressWriter progress) {
+      this.template = template;
+      this.batchSize = batchSize;
+      this.progress = progress;
+      this.executor = new BulkExecutor("jenkins-webhook-configure",
+          parallelism);
+      this.batch = new ArrayList<Repository>(batchSize);
+    }
+
+    /**
+     * Add a repository to the current batch.
+     * @return False if the run should stop early
+     */
+    boolean add(Repository repository) {
+      if (progress.isClosed() || Thread.currentThread().isInterrupted())
+        return false;
+      batch.add(repository);
+      if (batch.size() >= batchSize)
+        flush();
+      return true;
+    }
+
+    /**
+     * Add repositories to the current batch.
+     * @return False if the run stopped early
+     */
+    boolean addAll(Collection<Repository> repositories) {
+      for (Repository repository : repositories) {
+        if (!add(repository))
+          return false;
+      }
+      return true;
+    }
+
+    /**
+     * Save the last batch, wait for every batch to finish and write the
+     * summary.
+     */
+    void finish(boolean completed) throws InterruptedException {
+      try {
+        if (completed)
+          flush();
+        executor.finish();
+      } finally {
+        progress.summary(completed);
+      }
+    }
+
+    private void flush() {
+      if (batch.isEmpty())
+        return;
+      final List<Repository> full = batch;
+      batch = new ArrayList<Repository>(batchSize);
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          save(full, template, check, progress);
+        }
+      });
+    }
+  }
+}
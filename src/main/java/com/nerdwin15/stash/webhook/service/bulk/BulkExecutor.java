@@ -0,0 +1,52 @@
+package com.nerdwin15.stash.webhook.service.bulk;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A short-lived pool running the items of a bulk operation with bounded
+ * parallelism. The queue is kept small and the submitting thread runs items
+ * itself when it is full, so enumerating thousands of repositories never
+ * queues more than a few of them.
+ */
+class BulkExecutor {
+
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * Create a new instance
+   * @param name The thread name prefix
+   * @param parallelism The number of items run concurrently
+   */
+  BulkExecutor(String name, int parallelism) {
+    this.executor = new ThreadPoolExecutor(parallelism, parallelism, 0L,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(parallelism * 2),
+        new ThreadFactoryBuilder().setNameFormat(name + "-%d")
+            .setDaemon(true).build(),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * Run an item.
+   * @param item The item
+   */
+  void execute(Runnable item) {
+    executor.execute(item);
+  }
+
+  /**
+   * Wait for every submitted item to finish and stop the pool.
+   * @throws InterruptedException If interrupted while waiting
+   */
+  void finish() throws InterruptedException {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
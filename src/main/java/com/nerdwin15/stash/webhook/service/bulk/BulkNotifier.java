@@ -0,0 +1,122 @@
+package com.nerdwin15.stash.webhook.service.bulk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.RepositoryEnumerator;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.catchup.Throttle;
+
+/**
+ * Notifies Jenkins of every repository with the hook enabled, in a project
+ * or across the instance, with bounded parallelism and rate.
+ */
+public class BulkNotifier {
+
+  /**
+   * Status of a repository Jenkins scheduled a poll for
+   */
+  public static final String SCHEDULED = "SCHEDULED";
+
+  /**
+   * Status of a repository Jenkins answered for without scheduling a poll
+   */
+  public static final String NOT_SCHEDULED = "NOT_SCHEDULED";
+
+  /**
+   * Status of a repository Jenkins couldn't be notified of
+   */
+  public static final String FAILED = "FAILED";
+
+  private static final Logger LOGGER = 
+      LoggerFactory.getLogger(BulkNotifier.class);
+
+  private final RepositoryEnumerator enumerator;
+  private final SettingsService settingsService;
+  private final Notifier notifier;
+
+  /**
+   * Create a new instance
+   * @param enumerator Enumerates the repositories
+   * @param settingsService Service used to find enabled hooks
+   * @param notifier The service to send Jenkins notifications
+   */
+  public BulkNotifier(RepositoryEnumerator enumerator, 
+      SettingsService settingsService, Notifier notifier) {
+    this.enumerator = enumerator;
+    this.settingsService = settingsService;
+    this.notifier = notifier;
+  }
+
+  /**
+   * Notify Jenkins of every repository with the hook enabled. Repositories
+   * are enumerated as the current user, so only those the user can see are
+   * notified. Returns once every notification has completed, or the 
+   * progress writer was closed.
+   * @param projectKey The project to notify, or null for every project
+   * @param parallelism The number of notifications sent concurrently
+   * @param rate The maximum number of notifications started per second
+   * @param progress Receives the outcome for each repository
+   * @throws InterruptedException If interrupted while notifying
+   */
+  public void notifyAll(String projectKey, int parallelism, double rate,
+      final ProgressWriter progress) throws InterruptedException {
+    final Throttle throttle = new Throttle(rate);
+    final BulkExecutor executor = new BulkExecutor("jenkins-webhook-bulk",
+        parallelism);
+    final RepositoryEnumerator.Callback callback = 
+        new RepositoryEnumerator.Callback() {
+      @Override
+      public boolean onRepository(final Repository repository) {
+        if (progress.isClosed() || Thread.currentThread().isInterrupted())
+          return false;
+        final RepositoryHook hook = 
+            settingsService.getRepositoryHook(repository);
+        if (hook == null || !hook.isEnabled())
+          return true;
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            deliver(repository, throttle, progress);
+          }
+        });
+        return true;
+      }
+    };
+
+    boolean completed = false;
+    try {
+      completed = projectKey == null ? enumerator.forEach(callback)
+          : enumerator.forEach(projectKey, callback);
+    } finally {
+      executor.finish();
+      progress.summary(completed);
+    }
+    LOGGER.info("Bulk notification of {} finished: {} scheduled, {} failed", 
+        new Object[] { projectKey == null ? "all projects" : projectKey, 
+            progress.getCount(SCHEDULED), progress.getCount(FAILED) });
+  }
+
+  private void deliver(Repository repository, Throttle throttle, 
+      ProgressWriter progress) {
+    if (progress.isClosed())
+      return;
+    try {
+      throttle.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    final String response = notifier.notify(repository);
+    if (response == null) {
+      progress.item(repository, FAILED, null);
+    } else if (response.startsWith("Scheduled")) {
+      progress.item(repository, SCHEDULED, null);
+    } else {
+      progress.item(repository, NOT_SCHEDULED, response.trim());
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.nerdwin15.stash.webhook.service.bulk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.catchup.Throttle;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetter;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetterStore;
+
+/**
+ * Sends the notifications kept in the {@link DeadLetterStore} again, with
+ * bounded parallelism and rate.
+ *
+ * A dead letter is only sent again to the target it was kept for, Jenkins
+ * instance or generic webhook, and removed from the store when it is
+ * replayed. If the target still can't be reached, the {@link Notifier} keeps
+ * the notification as a new dead letter with the latest error.
+ */
+public class BulkReplayer {
+
+  /**
+   * Status of a dead letter its target accepted. The answer is reported
+   * unless Jenkins scheduled a poll.
+   */
+  public static final String DELIVERED = "DELIVERED";
+
+  /**
+   * Status of a dead letter its target still couldn't be notified of
+   */
+  public static final String FAILED = "FAILED";
+
+  /**
+   * Status of a dead letter that was kept, as the hook of its repository is
+   * disabled or its target is no longer configured
+   */
+  public static final String SKIPPED = "SKIPPED";
+
+  /**
+   * Status of a dead letter that was dropped, as its repository no longer
+   * exists or can't be seen by the current user
+   */
+  public static final String DROPPED = "DROPPED";
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(BulkReplayer.class);
+  private static final int PAGE_SIZE = 500;
+
+  private final DeadLetterStore deadLetterStore;
+  private final RepositoryService repositoryService;
+  private final SettingsService settingsService;
+  private final Notifier notifier;
+
+  /**
+   * Create a new instance
+   * @param deadLetterStore The store of the failed notifications
+   * @param repositoryService Service used to find the repositories
+   * @param settingsService Service used to find enabled hooks
+   * @param notifier The service to send Jenkins notifications
+   */
+  public BulkReplayer(DeadLetterStore deadLetterStore,
+      RepositoryService repositoryService, SettingsService settingsService,
+      Notifier notifier) {
+    this.deadLetterStore = deadLetterStore;
+    this.repositoryService = repositoryService;
+    this.settingsService = settingsService;
+    this.notifier = notifier;
+  }
+
+  /**
+   * Replay the dead letters for a Jenkins instance or project, oldest first.
+   * Returns once every dead letter has been replayed, or the progress
+   * writer was closed.
+   * @param host The scheme, host and port of the Jenkins instance, or null
+   * for every instance
+   * @param projectKey The key of the project, or null for every project
+   * @param parallelism The number of notifications sent concurrently
+   * @param rate The maximum number of notifications started per second
+   * @param progress Receives the outcome for each dead letter
+   * @throws InterruptedException If interrupted while replaying
+   */
+  public void replay(String host, String projectKey, int parallelism,
+      double rate, ProgressWriter progress) throws InterruptedException {
+    // Only the dead letters present now are replayed, not those added by
+    // failing replays
+    final List<DeadLetter> letters = new ArrayList<DeadLetter>();
+    List<DeadLetter> page;
+    do {
+      page = deadLetterStore.find(host, projectKey, letters.size(),
+          PAGE_SIZE);
+      letters.addAll(page);
+    } while (page.size() == PAGE_SIZE);
+    replay(letters, parallelism, rate, progress);
+  }
+
+  /**
+   * Replay the provided dead letters.
+   * @param letters The dead letters
+   * @param parallelism The number of notifications sent concurrently
+   * @param rate The maximum number of notifications started per second
+   * @param progress Receives the outcome for each dead letter
+   * @throws InterruptedException If interrupted while replaying
+   */
+  public void replay(Collection<DeadLetter> letters, int parallelism,
+      double rate, final ProgressWriter progress)
+      throws InterruptedException {
+    final Throttle throttle = new Throttle(rate);
+    final BulkExecutor executor = new BulkExecutor(
+        "jenkins-webhook-replay", parallelism);
+    boolean completed = false;
+    try {
+      for (final DeadLetter letter : letters) {
+        if (progress.isClosed() || Thread.currentThread().isInterrupted())
+          return;
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            deliver(letter, throttle, progress);
+          }
+        });
+      }
+      completed = true;
+    } finally {
+      executor.finish();
+      progress.summary(completed);
+      LOGGER.info("Replay of {} dead letters finished: {} delivered, {} "
+          + "failed", new Object[] { letters.size(),
+              progress.getCount(DELIVERED), progress.getCount(FAILED) });
+    }
+  }
+
+  private void deliver(DeadLetter letter, Throttle throttle,
+      ProgressWriter progress) {
+    if (progress.isClosed())
+      return;
+    final String name = letter.getProjectKey() + "/"
+        + letter.getRepositorySlug() + "#" + letter.getId();
+    final Repository repository =
+        repositoryService.getById(letter.getRepositoryId());
+    if (repository == null) {
+      deadLetterStore.remove(letter.getId());
+      progress.item(name, DROPPED, null);
+      return;
+    }
+    final RepositoryHook hook = settingsService.getRepositoryHook(repository);
+    if (hook == null || !hook.isEnabled()) {
+      progress.item(name, SKIPPED, "Hook disabled");
+      return;
+    }
+    final Notifier.Target target = notifier.getTarget(repository, letter);
+    if (target == null) {
+      progress.item(name, SKIPPED, "Target no longer configured");
+      return;
+    }
+    try {
+      throttle.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (!deadLetterStore.remove(letter.getId())) {
+      // Replayed or dropped by someone else in the meantime
+      return;
+    }
+    final String response = notifier.replay(repository, target);
+    if (response == null) {
+      progress.item(name, FAILED, null);
+    } else {
+      progress.item(name, DELIVERED,
+          response.startsWith("Scheduled") ? null : response.trim());
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.nerdwin15.stash.webhook.service.bulk;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The hook settings applied to every repository of a bulk configuration.
+ * The clone url differs per repository, so it can be derived from each
+ * repository instead of being part of the settings.
+ */
+public class ConfigTemplate {
+
+  /**
+   * The clone url derived for each repository
+   */
+  public enum CloneType {
+    /**
+     * The HTTP clone url
+     */
+    HTTP,
+    /**
+     * The SSH clone url
+     */
+    SSH
+  }
+
+  private final Map<String, Object> settings;
+  private final CloneType cloneType;
+  private final boolean merge;
+  private final boolean enable;
+
+  /**
+   * Create a new instance
+   * @param settings The settings values, keyed by field name
+   * @param cloneType The clone url to derive for each repository, or null to
+   * take it from the settings
+   * @param merge True to keep the existing values of fields that aren't part
+   * of the settings, false to replace the settings entirely
+   * @param enable True to also enable the hook
+   */
+  public ConfigTemplate(Map<String, ?> settings, CloneType cloneType,
+      boolean merge, boolean enable) {
+    this.settings = Collections.unmodifiableMap(
+        new LinkedHashMap<String, Object>(settings));
+    this.cloneType = cloneType;
+    this.merge = merge;
+    this.enable = enable;
+  }
+
+  /**
+   * Get the settings values.
+   * @return The values, keyed by field name
+   */
+  public Map<String, Object> getSettings() {
+    return settings;
+  }
+
+  /**
+   * Get the clone url to derive for each repository.
+   * @return The clone type, or null if taken from the settings
+   */
+  public CloneType getCloneType() {
+    return cloneType;
+  }
+
+  /**
+   * Determine whether existing values are kept.
+   * @return True if the settings are merged into the existing ones
+   */
+  public boolean isMerge() {
+    return merge;
+  }
+
+  /**
+   * Determine whether the hook is enabled as well.
+   * @return True if the hook is enabled
+   */
+  public boolean isEnable() {
+    return enable;
+  }
+}
@@ -0,0 +1,129 @@
+package com.nerdwin15.stash.webhook.service.bulk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.atlassian.stash.repository.Repository;
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams the progress of a bulk operation as newline delimited JSON: one
+ * object per repository as soon as it is done, followed by a summary of the
+ * number of repositories per status. Each line is flushed immediately, and
+ * nothing but the counts is kept in memory.
+ *
+ * Once the client goes away, {@link #isClosed()} returns true so the
+ * operation can stop early. Safe for use by multiple threads.
+ */
+public class ProgressWriter {
+
+  /**
+   * The media type of the stream
+   */
+  public static final String MEDIA_TYPE = "application/x-ndjson";
+
+  private final Writer writer;
+  private final JsonWriter json;
+  private final Map<String, Integer> counts = 
+      new LinkedHashMap<String, Integer>();
+  private final long startMillis = System.currentTimeMillis();
+  private boolean closed;
+
+  /**
+   * Create a new instance
+   * @param out The stream to write to
+   */
+  public ProgressWriter(OutputStream out) {
+    this.writer = new OutputStreamWriter(out, Charsets.UTF_8);
+    this.json = new JsonWriter(writer);
+    this.json.setLenient(true);
+  }
+
+  /**
+   * Report the outcome for a repository.
+   * @param repository The repository
+   * @param status The outcome
+   * @param message Details of the outcome. May be null.
+   */
+  public void item(Repository repository, String status, String message) {
+    item(repository.getProject().getKey() + "/" + repository.getSlug(),
+        status, message);
+  }
+
+  /**
+   * Report the outcome for an item that isn't a live repository, such as a
+   * repository that was deleted.
+   * @param name The name of the item
+   * @param status The outcome
+   * @param message Details of the outcome. May be null.
+   */
+  public synchronized void item(String name, String status, String message) {
+    final Integer count = counts.get(status);
+    counts.put(status, count == null ? 1 : count + 1);
+    if (closed)
+      return;
+    try {
+      json.beginObject();
+      json.name("repository").value(name);
+      json.name("status").value(status);
+      if (message != null)
+        json.name("message").value(message);
+      json.endObject();
+      endLine();
+    } catch (IOException e) {
+      closed = true;
+    }
+  }
+
+  /**
+   * Write the summary of the operation.
+   * @param completed False if the operation was stopped early
+   */
+  public synchronized void summary(boolean completed) {
+    if (closed)
+      return;
+    try {
+      json.beginObject();
+      json.name("completed").value(completed);
+      json.name("elapsedMillis")
+          .value(System.currentTimeMillis() - startMillis);
+      json.name("counts").beginObject();
+      for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+        json.name(entry.getKey()).value(entry.getValue());
+      }
+      json.endObject();
+      json.endObject();
+      endLine();
+    } catch (IOException e) {
+      closed = true;
+    }
+  }
+
+  /**
+   * Get the number of repositories reported with a status.
+   * @param status The status
+   * @return The number of repositories
+   */
+  public synchronized int getCount(String status) {
+    final Integer count = counts.get(status);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * Determine whether the client has gone away.
+   * @return True if the stream can no longer be written to
+   */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  private void endLine() throws IOException {
+    writer.write('\n');
+    writer.flush();
+  }
+}
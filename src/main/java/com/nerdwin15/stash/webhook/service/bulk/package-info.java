@@ -0,0 +1,5 @@
+/**
+ * Operations applied to many repositories at once, streaming their progress
+ * back to the caller as they go.
+ */
+package com.nerdwin15.stash.webhook.service.bulk;
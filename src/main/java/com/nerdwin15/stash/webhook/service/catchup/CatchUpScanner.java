@@ -0,0 +1,286 @@
+package com.nerdwin15.stash.webhook.service.catchup;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.repository.Ref;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefOrder;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryMetadataService;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.Operation;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.util.PageRequestImpl;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+import com.nerdwin15.stash.webhook.service.RepositoryEnumerator;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.dispatch.NotificationDispatcher;
+
+/**
+ * Startup job that notifies Jenkins of the pushes it missed while the plugin
+ * wasn't running. The current refs of every repository with the hook 
+ * enabled are compared, on a few threads, against the {@link RefSnapshotStore}
+ * and Jenkins is notified of each repository that diverged. Notifications
+ * are throttled so a large instance doesn't flood Jenkins at boot.
+ *
+ * The first scan of a repository only records its snapshot.
+ */
+public class CatchUpScanner implements LifecycleAware, DisposableBean {
+
+  /**
+   * Property that disables the scan when set to false
+   */
+  public static final String ENABLED_PROPERTY = 
+      "jenkins.webhook.catchup.enabled";
+
+  /**
+   * Property holding the number of repositories compared concurrently
+   */
+  public static final String THREADS_PROPERTY = 
+      "jenkins.webhook.catchup.threads";
+
+  /**
+   * Property holding the maximum catch-up notifications per second
+   */
+  public static final String RATE_PROPERTY = "jenkins.webhook.catchup.rate";
+
+  private static final Logger LOGGER = 
+      LoggerFactory.getLogger(CatchUpScanner.class);
+  private static final int PAGE_SIZE = 500;
+
+  private final RepositoryEnumerator enumerator;
+  private final RepositoryMetadataService metadataService;
+  private final SecurityService securityService;
+  private final SettingsService settingsService;
+  private final NotificationDispatcher dispatcher;
+  private final RefSnapshotStore snapshotStore;
+  private final int threads;
+  private final Throttle throttle;
+  private final ExecutorService runner = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-catchup")
+          .setDaemon(true).build());
+
+  /**
+   * Create a new instance using the configured system properties
+   * @param enumerator Enumerates the repositories to scan
+   * @param metadataService Service used to page through refs
+   * @param securityService Service used to scan as a system user
+   * @param settingsService Service used to find enabled hooks
+   * @param dispatcher The dispatcher queueing notifications
+   * @param snapshotStore The snapshot of the notified refs
+   */
+  public CatchUpScanner(RepositoryEnumerator enumerator,
+      RepositoryMetadataService metadataService, 
+      SecurityService securityService, SettingsService settingsService,
+      NotificationDispatcher dispatcher, RefSnapshotStore snapshotStore) {
+    this(enumerator, metadataService, securityService, settingsService,
+        dispatcher, snapshotStore, 
+        Math.max(1, PluginProperties.getInt(THREADS_PROPERTY, 4)),
+        new Throttle(Math.max(1, PluginProperties.getInt(RATE_PROPERTY, 2))));
+  }
+
+  /**
+   * Create a new instance
+   * @param enumerator Enumerates the repositories to scan
+   * @param metadataService Service used to page through refs
+   * @param securityService Service used to scan as a system user
+   * @param settingsService Service used to find enabled hooks
+   * @param dispatcher The dispatcher queueing notifications
+   * @param snapshotStore The snapshot of the notified refs
+   * @param threads The number of repositories compared concurrently
+   * @param throttle Throttle for the catch-up notifications
+   */
+  public CatchUpScanner(RepositoryEnumerator enumerator,
+      RepositoryMetadataService metadataService, 
+      SecurityService securityService, SettingsService settingsService,
+      NotificationDispatcher dispatcher, RefSnapshotStore snapshotStore,
+      int threads, Throttle throttle) {
+    this.enumerator = enumerator;
+    this.metadataService = metadataService;
+    this.securityService = securityService;
+    this.settingsService = settingsService;
+    this.dispatcher = dispatcher;
+    this.snapshotStore = snapshotStore;
+    this.threads = threads;
+    this.throttle = throttle;
+  }
+
+  @Override
+  public void onStart() {
+    if (!PluginProperties.getBoolean(ENABLED_PROPERTY, true))
+      return;
+    runner.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          scan();
+        } catch (InterruptedException e) {
+          LOGGER.info("Catch-up scan interrupted");
+        } catch (RuntimeException e) {
+          LOGGER.error("Catch-up scan failed", e);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void destroy() {
+    runner.shutdownNow();
+  }
+
+  /**
+   * Compare every repository with the hook enabled against its snapshot.
+   * @return The number of repositories Jenkins was notified of
+   * @throws InterruptedException If interrupted while scanning
+   */
+  int scan() throws InterruptedException {
+    final long start = System.currentTimeMillis();
+    final Set<Integer> enabled = 
+        Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    final AtomicInteger checked = new AtomicInteger();
+    final AtomicInteger notified = new AtomicInteger();
+    final ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, 
+        threads, 0L, TimeUnit.SECONDS, 
+        new ArrayBlockingQueue<Runnable>(threads * 2),
+        new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-catchup-%d")
+            .setDaemon(true).build(), 
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    try {
+      final boolean completed = asSystem(new Operation<Boolean, 
+          RuntimeException>() {
+        @Override
+        public Boolean perform() {
+          return enumerator.forEach(new RepositoryEnumerator.Callback() {
+            @Override
+            public boolean onRepository(final Repository repository) {
+              if (Thread.currentThread().isInterrupted())
+                return false;
+              checked.incrementAndGet();
+              workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                  if (reconcile(repository, enabled)) 
+                    notified.incrementAndGet();
+                }
+              });
+              return true;
+            }
+          });
+        }
+      });
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      if (!completed)
+        throw new InterruptedException();
+    } finally {
+      workers.shutdownNow();
+    }
+
+    snapshotStore.retain(enabled);
+    snapshotStore.save();
+    LOGGER.info("Catch-up scan checked {} repositories in {} ms, notified {}",
+        new Object[] { checked.get(), 
+            System.currentTimeMillis() - start, notified.get() });
+    return notified.get();
+  }
+
+  /**
+   * Compare a repository against its snapshot, notifying Jenkins if they
+   * differ.
+   * @param repository The repository
+   * @param enabled The repositories found with the hook enabled
+   * @return True if Jenkins was notified
+   */
+  private boolean reconcile(final Repository repository, 
+      Set<Integer> enabled) {
+    final RepositoryHook hook = settingsService.getRepositoryHook(repository);
+    if (hook == null || !hook.isEnabled())
+      return false;
+    enabled.add(repository.getId());
+    final long current;
+    try {
+      current = asSystem(new Operation<Long, RuntimeException>() {
+        @Override
+        public Long perform() {
+          return digest(repository);
+        }
+      });
+    } catch (RuntimeException e) {
+      LOGGER.warn("Unable to read the refs of repository " 
+          + repository.getId(), e);
+      return false;
+    }
+
+    final Long previous = snapshotStore.get(repository.getId());
+    snapshotStore.put(repository.getId(), current);
+    if (previous == null || previous == current)
+      return false;
+
+    try {
+      throttle.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    LOGGER.info("Refs of repository {}/{} changed while the hook wasn't "
+        + "running, notifying Jenkins", repository.getProject().getKey(),
+        repository.getSlug());
+    dispatcher.dispatch(repository, null, 
+        Collections.<RefChange>emptyList());
+    return true;
+  }
+
+  private long digest(Repository repository) {
+    long digest = 0;
+    PageRequest request = new PageRequestImpl(0, PAGE_SIZE);
+    while (request != null) {
+      final Page<? extends Ref> page = metadataService.getBranches(repository,
+          request, null, RefOrder.ALPHABETICAL);
+      digest ^= digest(page);
+      request = next(page);
+    }
+    request = new PageRequestImpl(0, PAGE_SIZE);
+    while (request != null) {
+      final Page<? extends Ref> page = metadataService.getTags(repository,
+          request, null, RefOrder.ALPHABETICAL);
+      digest ^= digest(page);
+      request = next(page);
+    }
+    return digest;
+  }
+
+  private static long digest(Page<? extends Ref> page) {
+    long digest = 0;
+    for (Ref ref : page.getValues()) {
+      digest ^= RefDigest.of(ref.getId(), ref.getLatestChangeset());
+    }
+    return digest;
+  }
+
+  private static PageRequest next(Page<?> page) {
+    return page.getIsLastPage() ? null 
+        : new PageRequestImpl(page.getStart() + page.getSize(), PAGE_SIZE);
+  }
+
+  private <T> T asSystem(Operation<T, RuntimeException> operation) {
+    return securityService.doWithPermission("Jenkins catch-up scan",
+        Permission.REPO_READ, operation);
+  }
+}
@@ -0,0 +1,51 @@
+package com.nerdwin15.stash.webhook.service.catchup;
+
+import java.util.Collection;
+
+import com.atlassian.stash.repository.RefChange;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.nerdwin15.stash.webhook.service.ChangesetScanner;
+
+/**
+ * An order-independent 64 bit digest of the refs of a repository: the XOR of
+ * the hashes of every (ref ID, commit) pair. Because XOR is its own inverse,
+ * a ref change is applied by removing the old pair and adding the new one,
+ * without having to look at any other ref.
+ */
+public final class RefDigest {
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private RefDigest() {
+  }
+
+  /**
+   * Get the digest contribution of a single ref.
+   * @param refId The ref ID
+   * @param hash The commit the ref points to
+   * @return The contribution
+   */
+  public static long of(String refId, String hash) {
+    return HASH.newHasher().putString(refId, Charsets.UTF_8).putByte((byte) 0)
+        .putString(hash, Charsets.UTF_8).hash().asLong();
+  }
+
+  /**
+   * Apply ref changes to a digest.
+   * @param digest The digest before the changes
+   * @param refChanges The ref changes
+   * @return The digest after the changes
+   */
+  public static long apply(long digest, Collection<RefChange> refChanges) {
+    long result = digest;
+    for (RefChange refChange : refChanges) {
+      if (!ChangesetScanner.isZeroHash(refChange.getFromHash()))
+        result ^= of(refChange.getRefId(), refChange.getFromHash());
+      if (!ChangesetScanner.isZeroHash(refChange.getToHash()))
+        result ^= of(refChange.getRefId(), refChange.getToHash());
+    }
+    return result;
+  }
+}
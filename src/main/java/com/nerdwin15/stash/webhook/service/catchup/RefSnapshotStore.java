@@ -0,0 +1,186 @@
+package com.nerdwin15.stash.webhook.service.catchup;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.sal.api.ApplicationProperties;
+import com.atlassian.stash.repository.RefChange;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nerdwin15.stash.webhook.service.DataFile;
+
+/**
+ * Persistent snapshot of the refs Jenkins was last notified of, as one
+ * {@link RefDigest} per repository. The snapshot is kept in memory and 
+ * written to <code>data/jenkins-webhook/ref-snapshot.dat</code> in the Stash 
+ * home directory, 12 bytes per repository, once a minute if it changed and 
+ * when the plugin stops.
+ */
+public class RefSnapshotStore implements DisposableBean {
+
+  private static final Logger LOGGER = 
+      LoggerFactory.getLogger(RefSnapshotStore.class);
+  private static final int MAGIC = 0x4a57524b;
+  private static final int VERSION = 1;
+  private static final long FLUSH_SECONDS = 60;
+
+  private final DataFile dataFile;
+  private final Object saveLock = new Object();
+  private final Map<Integer, Long> digests = new HashMap<Integer, Long>();
+  private final ScheduledExecutorService flusher;
+  private boolean dirty;
+
+  /**
+   * Create a new instance storing the snapshot in the Stash home directory
+   * @param applicationProperties Provides the Stash home directory
+   */
+  public RefSnapshotStore(ApplicationProperties applicationProperties) {
+    this(new File(applicationProperties.getHomeDirectory(), 
+        "data/jenkins-webhook/ref-snapshot.dat"));
+    flusher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        save();
+      }
+    }, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Create a new instance storing the snapshot in the provided file. The
+   * snapshot is only saved when {@link #save()} is called.
+   * @param file The snapshot file
+   */
+  public RefSnapshotStore(File file) {
+    this.dataFile = new DataFile(file, MAGIC, VERSION);
+    this.flusher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-snapshot")
+            .setDaemon(true).build());
+    load();
+  }
+
+  /**
+   * Get the digest of the refs Jenkins was last notified of.
+   * @param repositoryId The repository ID
+   * @return The digest, or null if the repository has no snapshot
+   */
+  public synchronized Long get(int repositoryId) {
+    return digests.get(repositoryId);
+  }
+
+  /**
+   * Replace the snapshot of a repository.
+   * @param repositoryId The repository ID
+   * @param digest The digest of the refs Jenkins was notified of
+   */
+  public synchronized void put(int repositoryId, long digest) {
+    final Long previous = digests.put(repositoryId, digest);
+    dirty |= previous == null || previous != digest;
+  }
+
+  /**
+   * Apply notified ref changes to the snapshot of a repository. Nothing
+   * happens if the repository has no snapshot yet.
+   * @param repositoryId The repository ID. May be null.
+   * @param refChanges The ref changes Jenkins was notified of
+   */
+  public synchronized void apply(Integer repositoryId, 
+      Collection<RefChange> refChanges) {
+    final Long digest = repositoryId == null ? null 
+        : digests.get(repositoryId);
+    if (digest != null && !refChanges.isEmpty())
+      put(repositoryId, RefDigest.apply(digest, refChanges));
+  }
+
+  /**
+   * Forget the snapshots of every repository not in the provided set.
+   * @param repositoryIds The repositories to keep
+   */
+  public synchronized void retain(Set<Integer> repositoryIds) {
+    final Iterator<Integer> iterator = digests.keySet().iterator();
+    while (iterator.hasNext()) {
+      if (!repositoryIds.contains(iterator.next())) {
+        iterator.remove();
+        dirty = true;
+      }
+    }
+  }
+
+  /**
+   * Get the number of repositories with a snapshot.
+   * @return The number of repositories
+   */
+  public synchronized int size() {
+    return digests.size();
+  }
+
+  /**
+   * Write the snapshot to disk if it changed since it was last written. The
+   * snapshot is copied under the store lock and written outside of it. The
+   * file is replaced as a whole, see {@link DataFile}.
+   */
+  public void save() {
+    synchronized (saveLock) {
+      final Map<Integer, Long> saved;
+      synchronized (this) {
+        if (!dirty)
+          return;
+        saved = new HashMap<Integer, Long>(digests);
+        dirty = false;
+      }
+      try {
+        dataFile.write(new DataFile.Writer() {
+          @Override
+          public void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(saved.size());
+            for (Map.Entry<Integer, Long> entry : saved.entrySet()) {
+              out.writeInt(entry.getKey());
+              out.writeLong(entry.getValue());
+            }
+          }
+        });
+      } catch (IOException e) {
+        LOGGER.warn("Unable to save ref snapshot to " + dataFile.getFile(),
+            e);
+        synchronized (this) {
+          dirty = true;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+    flusher.shutdownNow();
+    save();
+  }
+
+  private synchronized void load() {
+    try {
+      dataFile.read(new DataFile.Reader() {
+        @Override
+        public void readFrom(DataInputStream in) throws IOException {
+          final int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            digests.put(in.readInt(), in.readLong());
+          }
+        }
+      });
+    } catch (IOException e) {
+      LOGGER.warn("Unable to read ref snapshot " + dataFile.getFile(), e);
+      digests.clear();
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package com.nerdwin15.stash.webhook.service.catchup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out operations so that no more than a fixed number start per
+ * second, however many threads are asking.
+ */
+public class Throttle {
+
+  private final long intervalNanos;
+  private long nextNanos = System.nanoTime();
+
+  /**
+   * Create a new instance
+   * @param permitsPerSecond The number of operations allowed per second.
+   * Must be positive.
+   */
+  public Throttle(double permitsPerSecond) {
+    if (permitsPerSecond <= 0)
+      throw new IllegalArgumentException("Rate must be positive");
+    this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) 
+        / permitsPerSecond);
+  }
+
+  /**
+   * Wait until the next operation may start.
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public void acquire() throws InterruptedException {
+    final long wait;
+    synchronized (this) {
+      final long now = System.nanoTime();
+      final long start = Math.max(now, nextNanos);
+      nextNanos = start + intervalNanos;
+      wait = start - now;
+    }
+    if (wait > 0)
+      TimeUnit.NANOSECONDS.sleep(wait);
+  }
+}
@@ -0,0 +1,6 @@
+/**
+ * Reconciliation of the refs Jenkins was notified of with the current refs
+ * of each repository, so that pushes made while the plugin wasn't running
+ * still reach Jenkins.
+ */
+package com.nerdwin15.stash.webhook.service.catchup;
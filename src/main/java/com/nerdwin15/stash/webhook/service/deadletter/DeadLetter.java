@@ -0,0 +1,214 @@
+package com.nerdwin15.stash.webhook.service.deadletter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+
+/**
+ * A notification Jenkins couldn't be reached for, with what is needed to
+ * send it again.
+ */
+public class DeadLetter {
+
+  private static final int HASH_BYTES = 20;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final long id;
+  private final long timestamp;
+  private final int repositoryId;
+  private final String projectKey;
+  private final String repositorySlug;
+  private final String host;
+  private final String url;
+  private final String error;
+  private final List<RefChange> refChanges;
+
+  /**
+   * Create a new instance
+   * @param id The ID of the dead letter
+   * @param timestamp The time of the failure, in milliseconds since the epoch
+   * @param repositoryId The ID of the repository
+   * @param projectKey The key of the project of the repository
+   * @param repositorySlug The slug of the repository
+   * @param host The scheme, host and port of the Jenkins instance
+   * @param url The URL that was notified
+   * @param error The last error
+   * @param refChanges The refs that were changed
+   */
+  public DeadLetter(long id, long timestamp, int repositoryId,
+      String projectKey, String repositorySlug, String host, String url,
+      String error, List<RefChange> refChanges) {
+    this.id = id;
+    this.timestamp = timestamp;
+    this.repositoryId = repositoryId;
+    this.projectKey = projectKey;
+    this.repositorySlug = repositorySlug;
+    this.host = host;
+    this.url = url;
+    this.error = error;
+    this.refChanges = Collections.unmodifiableList(refChanges);
+  }
+
+  /**
+   * Get the ID of the dead letter.
+   * @return The ID
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * Get the time of the failure.
+   * @return The time in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Get the ID of the repository.
+   * @return The repository ID
+   */
+  public int getRepositoryId() {
+    return repositoryId;
+  }
+
+  /**
+   * Get the key of the project of the repository.
+   * @return The project key
+   */
+  public String getProjectKey() {
+    return projectKey;
+  }
+
+  /**
+   * Get the slug of the repository.
+   * @return The repository slug
+   */
+  public String getRepositorySlug() {
+    return repositorySlug;
+  }
+
+  /**
+   * Get the Jenkins instance that couldn't be reached.
+   * @return The scheme, host and port of the Jenkins instance
+   */
+  public String getHost() {
+    return host;
+  }
+
+  /**
+   * Get the URL that was notified.
+   * @return The URL
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Get the last error.
+   * @return The error message or HTTP status
+   */
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * Get the refs that were changed.
+   * @return The ref changes. Empty for a manual notification.
+   */
+  public List<RefChange> getRefChanges() {
+    return refChanges;
+  }
+
+  /**
+   * Write the dead letter in the format of the store. Full commit hashes
+   * are written as 20 raw bytes.
+   * @param out The output
+   * @throws IOException If the output fails
+   */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeLong(id);
+    out.writeLong(timestamp);
+    out.writeInt(repositoryId);
+    out.writeUTF(projectKey);
+    out.writeUTF(repositorySlug);
+    out.writeUTF(host);
+    out.writeUTF(url);
+    out.writeUTF(error);
+    out.writeShort(refChanges.size());
+    for (RefChange refChange : refChanges) {
+      out.writeUTF(refChange.getRefId());
+      writeHash(out, refChange.getFromHash());
+      writeHash(out, refChange.getToHash());
+      out.writeByte(refChange.getType() == null ? -1
+          : refChange.getType().ordinal());
+    }
+  }
+
+  /**
+   * Read a dead letter written by {@link #writeTo(DataOutput)}.
+   * @param in The input
+   * @return The dead letter
+   * @throws IOException If the input fails or is malformed
+   */
+  static DeadLetter readFrom(DataInput in) throws IOException {
+    final long id = in.readLong();
+    final long timestamp = in.readLong();
+    final int repositoryId = in.readInt();
+    final String projectKey = in.readUTF();
+    final String repositorySlug = in.readUTF();
+    final String host = in.readUTF();
+    final String url = in.readUTF();
+    final String error = in.readUTF();
+    final int count = in.readUnsignedShort();
+    final List<RefChange> refChanges = new ArrayList<RefChange>(count);
+    for (int i = 0; i < count; i++) {
+      final String refId = in.readUTF();
+      final String fromHash = readHash(in);
+      final String toHash = readHash(in);
+      final int type = in.readByte();
+      if (type >= RefChangeType.values().length)
+        throw new IOException("Unknown ref change type " + type);
+      refChanges.add(new StoredRefChange(refId, fromHash, toHash,
+          type < 0 ? null : RefChangeType.values()[type]));
+    }
+    return new DeadLetter(id, timestamp, repositoryId, projectKey,
+        repositorySlug, host, url, error, refChanges);
+  }
+
+  private static void writeHash(DataOutput out, String hash)
+      throws IOException {
+    if (hash == null || !hash.matches("[0-9a-f]{40}")) {
+      out.writeByte(0);
+      out.writeUTF(hash == null ? "" : hash);
+      return;
+    }
+    out.writeByte(HASH_BYTES);
+    for (int i = 0; i < hash.length(); i += 2) {
+      out.writeByte(Character.digit(hash.charAt(i), 16) << 4
+          | Character.digit(hash.charAt(i + 1), 16));
+    }
+  }
+
+  private static String readHash(DataInput in) throws IOException {
+    final int length = in.readByte();
+    if (length == 0)
+      return in.readUTF();
+    if (length != HASH_BYTES)
+      throw new IOException("Unexpected hash length " + length);
+    final char[] hash = new char[HASH_BYTES * 2];
+    for (int i = 0; i < HASH_BYTES; i++) {
+      final int b = in.readUnsignedByte();
+      hash[2 * i] = HEX[b >> 4];
+      hash[2 * i + 1] = HEX[b & 0xf];
+    }
+    return new String(hash);
+  }
+}
@@ -0,0 +1,338 @@
+package com.nerdwin15.stash.webhook.service.deadletter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.sal.api.ApplicationProperties;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nerdwin15.stash.webhook.service.DataFile;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * Persistent store of the {@link DeadLetter}s of notifications Jenkins
+ * couldn't be reached for.
+ *
+ * Dead letters are kept in memory in their encoded form, oldest first, and
+ * written to <code>data/jenkins-webhook/dead-letters.dat</code> in the Stash
+ * home directory once a minute if they changed and when the plugin stops.
+ * Once the encoded dead letters exceed the size cap, the oldest ones are
+ * evicted.
+ */
+public class DeadLetterStore implements DisposableBean {
+
+  /**
+   * Property holding the size cap of the store, in kilobytes
+   */
+  public static final String SIZE_PROPERTY = "jenkins.webhook.deadletter.size";
+
+  static final int MAX_REF_CHANGES = 1000;
+  static final int MAX_URL = 2000;
+  static final int MAX_ERROR = 500;
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(DeadLetterStore.class);
+  private static final int MAGIC = 0x4a57444c;
+  private static final int VERSION = 1;
+  private static final long FLUSH_SECONDS = 60;
+
+  private final DataFile dataFile;
+  private final Object saveLock = new Object();
+  private final long maxBytes;
+  private final LinkedHashMap<Long, byte[]> letters =
+      new LinkedHashMap<Long, byte[]>();
+  private final ScheduledExecutorService flusher;
+  private long totalBytes;
+  private long nextId = 1;
+  private long evicted;
+  private boolean dirty;
+
+  /**
+   * Create a new instance storing the dead letters in the Stash home
+   * directory
+   * @param applicationProperties Provides the Stash home directory
+   */
+  public DeadLetterStore(ApplicationProperties applicationProperties) {
+    this(new File(applicationProperties.getHomeDirectory(),
+        "data/jenkins-webhook/dead-letters.dat"),
+        PluginProperties.getLong(SIZE_PROPERTY, 8192) * 1024);
+    flusher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        save();
+      }
+    }, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Create a new instance storing the dead letters in the provided file.
+   * They are only saved when {@link #save()} is called.
+   * @param file The store file
+   * @param maxBytes The size cap of the encoded dead letters
+   */
+  public DeadLetterStore(File file, long maxBytes) {
+    this.dataFile = new DataFile(file, MAGIC, VERSION);
+    this.maxBytes = maxBytes;
+    this.flusher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-deadletter")
+            .setDaemon(true).build());
+    load();
+  }
+
+  /**
+   * Add the dead letter of a failed notification, evicting the oldest dead
+   * letters if the store is full.
+   * @param repository The repository the notification was for
+   * @param refChanges The refs that were changed
+   * @param host The scheme, host and port of the Jenkins instance
+   * @param url The URL that was notified
+   * @param error The error. May be null.
+   * @return The dead letter, or null if it couldn't be encoded
+   */
+  public DeadLetter add(Repository repository,
+      Collection<RefChange> refChanges, String host, String url,
+      String error) {
+    if (repository.getId() == null)
+      return null;
+    final Project project = repository.getProject();
+    final List<RefChange> kept = new ArrayList<RefChange>(
+        Math.min(refChanges.size(), MAX_REF_CHANGES));
+    for (RefChange refChange : refChanges) {
+      if (kept.size() == MAX_REF_CHANGES)
+        break;
+      kept.add(refChange);
+    }
+
+    synchronized (this) {
+      final DeadLetter letter = new DeadLetter(nextId,
+          System.currentTimeMillis(), repository.getId(),
+          project == null ? "" : Strings.nullToEmpty(project.getKey()),
+          Strings.nullToEmpty(repository.getSlug()),
+          Strings.nullToEmpty(host), cut(url, MAX_URL), cut(error, MAX_ERROR),
+          kept);
+      final byte[] encoded;
+      try {
+        encoded = encode(letter);
+      } catch (IOException e) {
+        LOGGER.warn("Unable to store dead letter for repository {}",
+            repository.getId(), e);
+        return null;
+      }
+      nextId++;
+      letters.put(letter.getId(), encoded);
+      totalBytes += encoded.length;
+      final Iterator<byte[]> oldest = letters.values().iterator();
+      while (totalBytes > maxBytes && oldest.hasNext()) {
+        totalBytes -= oldest.next().length;
+        oldest.remove();
+        evicted++;
+      }
+      dirty = true;
+      return letters.containsKey(letter.getId()) ? letter : null;
+    }
+  }
+
+  /**
+   * Get a dead letter.
+   * @param id The ID of the dead letter
+   * @return The dead letter, or null if there is none with that ID
+   */
+  public synchronized DeadLetter get(long id) {
+    final byte[] encoded = letters.get(id);
+    return encoded == null ? null : decode(encoded);
+  }
+
+  /**
+   * Remove a dead letter.
+   * @param id The ID of the dead letter
+   * @return True if it was removed
+   */
+  public synchronized boolean remove(long id) {
+    final byte[] encoded = letters.remove(id);
+    if (encoded == null)
+      return false;
+    totalBytes -= encoded.length;
+    dirty = true;
+    return true;
+  }
+
+  /**
+   * Find the dead letters for a Jenkins instance or project, oldest first.
+   * @param host The scheme, host and port of the Jenkins instance, or null
+   * for every instance
+   * @param projectKey The key of the project, or null for every project
+   * @param start The index of the first matching dead letter to return
+   * @param limit The maximum number of dead letters to return
+   * @return The dead letters
+   */
+  public synchronized List<DeadLetter> find(String host, String projectKey,
+      int start, int limit) {
+    final List<DeadLetter> found = new ArrayList<DeadLetter>();
+    int index = 0;
+    for (byte[] encoded : letters.values()) {
+      if (found.size() >= limit)
+        break;
+      final DeadLetter letter = decode(encoded);
+      if (letter != null && matches(letter, host, projectKey)
+          && index++ >= start)
+        found.add(letter);
+    }
+    return found;
+  }
+
+  /**
+   * Count the dead letters for a Jenkins instance or project.
+   * @param host The scheme, host and port of the Jenkins instance, or null
+   * for every instance
+   * @param projectKey The key of the project, or null for every project
+   * @return The number of dead letters
+   */
+  public synchronized int count(String host, String projectKey) {
+    if (host == null && projectKey == null)
+      return letters.size();
+    int count = 0;
+    for (byte[] encoded : letters.values()) {
+      final DeadLetter letter = decode(encoded);
+      if (letter != null && matches(letter, host, projectKey))
+        count++;
+    }
+    return count;
+  }
+
+  /**
+   * Get the size of the encoded dead letters.
+   * @return The size in bytes
+   */
+  public synchronized long getBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * Get the number of dead letters evicted because the store was full,
+   * since the plugin started.
+   * @return The number of evicted dead letters
+   */
+  public synchronized long getEvicted() {
+    return evicted;
+  }
+
+  /**
+   * Write the dead letters to disk if they changed since they were last
+   * written. The dead letters are copied under the store lock and written
+   * outside of it, so adding dead letters never waits on the disk. The file
+   * is replaced as a whole, see {@link DataFile}.
+   */
+  public void save() {
+    synchronized (saveLock) {
+      final long savedNextId;
+      final List<byte[]> saved;
+      synchronized (this) {
+        if (!dirty)
+          return;
+        savedNextId = nextId;
+        saved = new ArrayList<byte[]>(letters.values());
+        dirty = false;
+      }
+      try {
+        dataFile.write(new DataFile.Writer() {
+          @Override
+          public void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(savedNextId);
+            out.writeInt(saved.size());
+            for (byte[] encoded : saved) {
+              out.writeInt(encoded.length);
+              out.write(encoded);
+            }
+          }
+        });
+      } catch (IOException e) {
+        LOGGER.warn("Unable to save dead letters to " + dataFile.getFile(),
+            e);
+        synchronized (this) {
+          dirty = true;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+    flusher.shutdownNow();
+    save();
+  }
+
+  private synchronized void load() {
+    try {
+      dataFile.read(new DataFile.Reader() {
+        @Override
+        public void readFrom(DataInputStream in) throws IOException {
+          nextId = in.readLong();
+          final int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            final byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            final DeadLetter letter = decode(encoded);
+            if (letter == null)
+              throw new IOException("Malformed dead letter");
+            letters.put(letter.getId(), encoded);
+            totalBytes += encoded.length;
+          }
+        }
+      });
+    } catch (IOException e) {
+      LOGGER.warn("Unable to read dead letters " + dataFile.getFile(), e);
+      letters.clear();
+      totalBytes = 0;
+    }
+  }
+
+  private static boolean matches(DeadLetter letter, String host,
+      String projectKey) {
+    return (host == null || host.equalsIgnoreCase(letter.getHost()))
+        && (projectKey == null
+            || projectKey.equalsIgnoreCase(letter.getProjectKey()));
+  }
+
+  private static byte[] encode(DeadLetter letter) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    final DataOutputStream out = new DataOutputStream(bytes);
+    letter.writeTo(out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static DeadLetter decode(byte[] encoded) {
+    try {
+      return DeadLetter.readFrom(new DataInputStream(
+          new ByteArrayInputStream(encoded)));
+    } catch (IOException e) {
+      LOGGER.warn("Ignoring malformed dead letter", e);
+      return null;
+    }
+  }
+
+  private static String cut(String value, int max) {
+    if (value == null)
+      return "";
+    return value.length() <= max ? value : value.substring(0, max);
+  }
+}
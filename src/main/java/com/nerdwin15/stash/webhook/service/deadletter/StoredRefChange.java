@@ -0,0 +1,50 @@
+package com.nerdwin15.stash.webhook.service.deadletter;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+
+/**
+ * A ref change read back from the {@link DeadLetterStore}.
+ */
+public class StoredRefChange implements RefChange {
+
+  private final String refId;
+  private final String fromHash;
+  private final String toHash;
+  private final RefChangeType type;
+
+  /**
+   * Create a new instance
+   * @param refId The ID of the ref
+   * @param fromHash The hash the ref pointed to before the change
+   * @param toHash The hash the ref points to after the change
+   * @param type The type of the change
+   */
+  public StoredRefChange(String refId, String fromHash, String toHash,
+      RefChangeType type) {
+    this.refId = refId;
+    this.fromHash = fromHash;
+    this.toHash = toHash;
+    this.type = type;
+  }
+
+  @Override
+  public String getRefId() {
+    return refId;
+  }
+
+  @Override
+  public String getFromHash() {
+    return fromHash;
+  }
+
+  @Override
+  public String getToHash() {
+    return toHash;
+  }
+
+  @Override
+  public RefChangeType getType() {
+    return type;
+  }
+}
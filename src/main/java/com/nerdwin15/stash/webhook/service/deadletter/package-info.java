@@ -0,0 +1,5 @@
+/**
+ * Persistent store of the notifications Jenkins couldn't be reached for, so
+ * they can be replayed once Jenkins is healthy again.
+ */
+package com.nerdwin15.stash.webhook.service.deadletter;
@@ -0,0 +1,180 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An isolated executor delivering the notifications of a single Jenkins
+ * instance. Every bulkhead has its own worker threads and its own bounded
+ * {@link LaneQueue}, so a slow or unreachable Jenkins can only exhaust its
+ * own capacity.
+ *
+ * Submission and reclamation share a lock, so a task is either queued before
+ * the bulkhead closes, and delivered, or refused with a
+ * {@link RejectedExecutionException} and free to go to a new bulkhead.
+ */
+public class Bulkhead {
+
+  private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+  private final String key;
+  private final LaneQueue queue;
+  private final ThreadPoolExecutor executor;
+  private final int capacity;
+  private final AtomicLong rejected = new AtomicLong();
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile long lastUsedNanos = System.nanoTime();
+
+  /**
+   * Create a new instance
+   * @param key The Jenkins base URL the bulkhead is for
+   * @param configuration The dispatcher configuration
+   */
+  public Bulkhead(String key, DispatcherConfiguration configuration) {
+    this.key = key;
+    this.capacity = configuration.getQueueCapacity();
+    this.queue = new LaneQueue(configuration.getLanes(), 
+        configuration.getShare(), capacity, configuration.getMaxInFlight());
+    this.executor = new ThreadPoolExecutor(configuration.getThreads(), 
+        configuration.getThreads(), 60L, TimeUnit.SECONDS, queue, 
+        new ThreadFactoryBuilder()
+            .setNameFormat("jenkins-webhook-" + SEQUENCE.incrementAndGet() 
+                + "-%d")
+            .setDaemon(true).build()) {
+      @Override
+      protected void afterExecute(Runnable runnable, Throwable t) {
+        lastUsedNanos = System.nanoTime();
+        queue.release(runnable);
+      }
+    };
+    // Workers must always take tasks from the queue, so that the in-flight
+    // limits are applied to every notification
+    this.executor.prestartAllCoreThreads();
+  }
+
+  /**
+   * Queue a task.
+   * @param task The task
+   * @return True if the task was queued, false if the bulkhead is saturated
+   * @throws RejectedExecutionException If the bulkhead has been shut down
+   */
+  public boolean submit(NotificationTask task) {
+    lock.lock();
+    try {
+      lastUsedNanos = System.nanoTime();
+      if (executor.isShutdown())
+        throw new RejectedExecutionException("Bulkhead " + key + " is closed");
+      if (!queue.offer(task)) {
+        rejected.incrementAndGet();
+        return false;
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Determine whether the bulkhead has been unused for the provided time.
+   * @param idleMillis The idle time
+   * @return True if nothing is queued or running and the bulkhead hasn't 
+   * been used for at least the idle time
+   */
+  public boolean isIdle(long idleMillis) {
+    return queue.isDrained() && executor.getActiveCount() == 0
+        && System.nanoTime() - lastUsedNanos 
+            >= TimeUnit.MILLISECONDS.toNanos(idleMillis);
+  }
+
+  /**
+   * Stop the bulkhead if it has been unused for the provided time. No task
+   * can be submitted between the idle check and the shutdown.
+   * @param idleMillis The idle time
+   * @return True if the bulkhead was idle and has been stopped
+   */
+  public boolean shutdownIfIdle(long idleMillis) {
+    lock.lock();
+    try {
+      if (!isIdle(idleMillis))
+        return false;
+      executor.shutdownNow();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stop the bulkhead, discarding anything still queued.
+   */
+  public void shutdown() {
+    lock.lock();
+    try {
+      executor.shutdownNow();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the Jenkins base URL the bulkhead is for.
+   * @return The key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Get the queue of the bulkhead.
+   * @return The queue
+   */
+  public LaneQueue getQueue() {
+    return queue;
+  }
+
+  /**
+   * Get the maximum number of queued notifications.
+   * @return The queue capacity
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Get the number of worker threads.
+   * @return The number of threads
+   */
+  public int getThreads() {
+    return executor.getPoolSize();
+  }
+
+  /**
+   * Get the number of workers currently delivering a notification.
+   * @return The number of active workers
+   */
+  public int getActive() {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * Get the number of delivered notifications.
+   * @return The number of completed tasks
+   */
+  public long getCompleted() {
+    return executor.getCompletedTaskCount();
+  }
+
+  /**
+   * Get the number of notifications rejected because the queue was full.
+   * @return The number of rejected notifications
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+}
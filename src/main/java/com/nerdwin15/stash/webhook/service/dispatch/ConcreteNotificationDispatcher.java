@@ -0,0 +1,223 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashUser;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.trace.Tracer;
+
+/**
+ * Default implementation of the {@link NotificationDispatcher} that splits
+ * each push by the targets the {@link Notifier} finds for it, classifies the
+ * notification of each target into a priority {@link Lane} by its ref IDs
+ * and hands it to the {@link Bulkhead} of the target's host.
+ * Within each lane, repositories and projects are served fairly and each
+ * repository may only have a few notifications in flight.
+ *
+ * Bulkheads are created when a Jenkins instance is first notified and
+ * reclaimed once they have been idle for a while. See
+ * {@link DispatcherConfiguration} for the tuning properties.
+ */
+public class ConcreteNotificationDispatcher implements NotificationDispatcher,
+    DisposableBean {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(ConcreteNotificationDispatcher.class);
+
+  private final Notifier notifier;
+  private final DispatcherConfiguration configuration;
+  private final Tracer tracer;
+  private final List<Lane> lanes;
+  private final List<LaneStatistics> statistics;
+  private final ConcurrentMap<String, Bulkhead> bulkheads =
+      new ConcurrentHashMap<String, Bulkhead>();
+  private final ScheduledExecutorService reaper;
+
+  /**
+   * Create a new instance using the configured system properties
+   * @param notifier The notifier used to deliver notifications
+   * @param tracer Tracer continuing the trace of each push on the worker
+   * threads
+   */
+  public ConcreteNotificationDispatcher(Notifier notifier, Tracer tracer) {
+    this(notifier, DispatcherConfiguration.fromSystemProperties(), tracer);
+  }
+
+  /**
+   * Create a new instance
+   * @param notifier The notifier used to deliver notifications
+   * @param configuration The dispatcher configuration
+   * @param tracer Tracer continuing the trace of each push on the worker
+   * threads
+   */
+  public ConcreteNotificationDispatcher(Notifier notifier,
+      DispatcherConfiguration configuration, Tracer tracer) {
+    this.notifier = notifier;
+    this.configuration = configuration;
+    this.tracer = tracer;
+    this.lanes = configuration.getLanes();
+    List<LaneStatistics> laneStatistics =
+        new ArrayList<LaneStatistics>(lanes.size());
+    for (Lane lane : lanes) {
+      laneStatistics.add(new LaneStatistics(lane));
+    }
+    this.statistics = Collections.unmodifiableList(laneStatistics);
+    this.reaper = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-reaper")
+            .setDaemon(true).build());
+    final long period = Math.max(1000L, configuration.getIdleMillis() / 2);
+    this.reaper.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        reclaimIdle(ConcreteNotificationDispatcher.this.configuration
+            .getIdleMillis());
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void dispatch(Repository repository, StashUser user,
+      Collection<RefChange> refChanges) {
+    for (Notifier.Target target :
+        notifier.getTargets(repository, user, refChanges)) {
+      dispatch(repository, target);
+    }
+  }
+
+  private void dispatch(Repository repository, Notifier.Target target) {
+    final int lane = classify(target.getRefChanges());
+    final String key = target.getHost().toLowerCase(Locale.ENGLISH);
+    final NotificationTask task = new NotificationTask(notifier, repository,
+        target, lane, statistics.get(lane), tracer, tracer.currentContext());
+    LOGGER.debug("Queueing notification for repository {} in lane {} of {}",
+        new Object[] { repository.getId(), lanes.get(lane), key });
+
+    boolean queued;
+    while (true) {
+      final Bulkhead bulkhead = getBulkhead(key);
+      try {
+        queued = bulkhead.submit(task);
+        break;
+      } catch (RejectedExecutionException e) {
+        // The bulkhead was reclaimed between lookup and submission
+        bulkheads.remove(key, bulkhead);
+      }
+    }
+    if (!queued) {
+      LOGGER.warn("Notification queue for {} is full, dropping notification "
+          + "for repository {}", key, repository.getId());
+      notifier.drop(repository, target, "Notification queue full");
+    }
+  }
+
+  @Override
+  public List<LaneStatistics> getLaneStatistics() {
+    return statistics;
+  }
+
+  @Override
+  public int getQueued(int lane) {
+    int queued = 0;
+    for (Bulkhead bulkhead : bulkheads.values()) {
+      queued += bulkhead.getQueue().size(lane);
+    }
+    return queued;
+  }
+
+  @Override
+  public List<RepositoryBacklog> getBacklog(int limit) {
+    Map<String, RepositoryBacklog> merged =
+        new HashMap<String, RepositoryBacklog>();
+    for (Bulkhead bulkhead : bulkheads.values()) {
+      for (RepositoryBacklog backlog : bulkhead.getQueue().getBacklog(limit)) {
+        RepositoryBacklog existing = merged.get(backlog.getRepository());
+        merged.put(backlog.getRepository(), existing == null ? backlog
+            : new RepositoryBacklog(backlog.getRepository(),
+                existing.getQueued() + backlog.getQueued(),
+                existing.getInFlight() + backlog.getInFlight()));
+      }
+    }
+    List<RepositoryBacklog> backlog =
+        new ArrayList<RepositoryBacklog>(merged.values());
+    Collections.sort(backlog);
+    return backlog.size() > limit ? backlog.subList(0, limit) : backlog;
+  }
+
+  @Override
+  public Collection<Bulkhead> getBulkheads() {
+    return Collections.unmodifiableCollection(bulkheads.values());
+  }
+
+  /**
+   * Find the highest priority lane matched by any of the ref changes.
+   * @param refChanges The ref changes of a push
+   * @return The lane index
+   */
+  int classify(Collection<RefChange> refChanges) {
+    for (int i = 0; i < lanes.size() - 1; i++) {
+      for (RefChange refChange : refChanges) {
+        if (lanes.get(i).matches(refChange.getRefId()))
+          return i;
+      }
+    }
+    return lanes.size() - 1;
+  }
+
+  /**
+   * Shut down and forget the bulkheads that have been idle for the provided
+   * time. A dispatch racing with the shutdown is refused by the bulkhead and
+   * retried on a new one.
+   * @param idleMillis The idle time
+   */
+  void reclaimIdle(long idleMillis) {
+    for (Bulkhead bulkhead : bulkheads.values()) {
+      if (bulkhead.shutdownIfIdle(idleMillis)) {
+        LOGGER.debug("Reclaiming idle bulkhead for {}", bulkhead.getKey());
+        bulkheads.remove(bulkhead.getKey(), bulkhead);
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+    reaper.shutdownNow();
+    for (Bulkhead bulkhead : bulkheads.values()) {
+      bulkhead.shutdown();
+    }
+    bulkheads.clear();
+  }
+
+  private Bulkhead getBulkhead(String key) {
+    Bulkhead bulkhead = bulkheads.get(key);
+    if (bulkhead == null) {
+      final Bulkhead created = new Bulkhead(key, configuration);
+      bulkhead = bulkheads.putIfAbsent(key, created);
+      if (bulkhead == null) {
+        LOGGER.debug("Created bulkhead for {}", key);
+        bulkhead = created;
+      } else {
+        created.shutdown();
+      }
+    }
+    return bulkhead;
+  }
+}
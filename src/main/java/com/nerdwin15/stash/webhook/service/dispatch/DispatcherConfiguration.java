@@ -0,0 +1,152 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * The tuning parameters of the {@link ConcreteNotificationDispatcher}.
+ */
+public class DispatcherConfiguration {
+
+  /**
+   * Property holding the lane specification
+   */
+  public static final String LANES_PROPERTY = "jenkins.webhook.lanes";
+
+  /**
+   * Property holding the number of worker threads per Jenkins instance
+   */
+  public static final String THREADS_PROPERTY = 
+      "jenkins.webhook.dispatch.threads";
+
+  /**
+   * Property holding the fair share weights of projects and repositories
+   */
+  public static final String WEIGHTS_PROPERTY = "jenkins.webhook.fair.weights";
+
+  /**
+   * Property holding the maximum notifications in flight per repository
+   */
+  public static final String IN_FLIGHT_PROPERTY = 
+      "jenkins.webhook.repository.inflight";
+
+  /**
+   * Property holding the maximum queued notifications per Jenkins instance
+   */
+  public static final String QUEUE_PROPERTY = 
+      "jenkins.webhook.bulkhead.queue";
+
+  /**
+   * Property holding the seconds after which an idle bulkhead is reclaimed
+   */
+  public static final String IDLE_PROPERTY = "jenkins.webhook.bulkhead.idle";
+
+  private static final Logger LOGGER = 
+      LoggerFactory.getLogger(DispatcherConfiguration.class);
+
+  private final List<Lane> lanes;
+  private final FairShare share;
+  private final int threads;
+  private final int maxInFlight;
+  private final int queueCapacity;
+  private final long idleMillis;
+
+  /**
+   * Create a new instance
+   * @param lanes The lanes, highest priority first
+   * @param share The weights of projects and repositories within a lane
+   * @param threads The number of worker threads per Jenkins instance
+   * @param maxInFlight The maximum notifications in flight per repository
+   * @param queueCapacity The maximum queued notifications per Jenkins 
+   * instance
+   * @param idleMillis The time after which an idle bulkhead is reclaimed
+   */
+  public DispatcherConfiguration(List<Lane> lanes, FairShare share,
+      int threads, int maxInFlight, int queueCapacity, long idleMillis) {
+    this.lanes = lanes;
+    this.share = share;
+    this.threads = threads;
+    this.maxInFlight = maxInFlight;
+    this.queueCapacity = queueCapacity;
+    this.idleMillis = idleMillis;
+  }
+
+  /**
+   * Create the configuration from the system properties.
+   * @return The configuration
+   */
+  public static DispatcherConfiguration fromSystemProperties() {
+    return new DispatcherConfiguration(configuredLanes(),
+        FairShare.parse(PluginProperties.getString(WEIGHTS_PROPERTY, null)),
+        PluginProperties.getInt(THREADS_PROPERTY, 4),
+        PluginProperties.getInt(IN_FLIGHT_PROPERTY, 2),
+        PluginProperties.getInt(QUEUE_PROPERTY, 1000),
+        TimeUnit.SECONDS.toMillis(PluginProperties.getLong(IDLE_PROPERTY, 
+            300)));
+  }
+
+  /**
+   * Get the lanes.
+   * @return The lanes, highest priority first
+   */
+  public List<Lane> getLanes() {
+    return lanes;
+  }
+
+  /**
+   * Get the weights of projects and repositories within a lane.
+   * @return The fair share
+   */
+  public FairShare getShare() {
+    return share;
+  }
+
+  /**
+   * Get the number of worker threads per Jenkins instance.
+   * @return The number of threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Get the maximum notifications in flight per repository.
+   * @return The in-flight limit
+   */
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Get the maximum queued notifications per Jenkins instance.
+   * @return The queue capacity
+   */
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * Get the time after which an idle bulkhead is reclaimed.
+   * @return The idle time in milliseconds
+   */
+  public long getIdleMillis() {
+    return idleMillis;
+  }
+
+  private static List<Lane> configuredLanes() {
+    final String spec = PluginProperties.getString(LANES_PROPERTY, 
+        Lane.DEFAULT_SPEC);
+    try {
+      return Lane.parse(spec);
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("Invalid lane specification '" + spec 
+          + "', using the default lanes", e);
+      return Lane.parse(Lane.DEFAULT_SPEC);
+    }
+  }
+}
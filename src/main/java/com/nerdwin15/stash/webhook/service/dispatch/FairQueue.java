@@ -0,0 +1,319 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A two-level weighted fair queue: projects share the queue according to
+ * their weights, and repositories share their project's portion according
+ * to theirs. Selection uses start-time fair queueing, so a repository that
+ * floods the queue only delays its own notifications, and a newly active
+ * repository is served right away instead of waiting behind the backlog.
+ *
+ * Not thread-safe; the owning {@link LaneQueue} guards all access.
+ */
+class FairQueue {
+
+  /**
+   * Decides whether a repository may currently be served.
+   */
+  interface Gate {
+
+    /**
+     * Determine whether a repository may be served.
+     * @param repositoryId The repository ID
+     * @return True if a notification for the repository may be handed out
+     */
+    boolean allows(int repositoryId);
+  }
+
+  private final FairShare share;
+  private final Map<String, ProjectFlow> projects =
+      new LinkedHashMap<String, ProjectFlow>();
+  private double virtualTime;
+  private int size;
+
+  /**
+   * Create a new instance
+   * @param share The weights of projects and repositories
+   */
+  FairQueue(FairShare share) {
+    this.share = share;
+  }
+
+  /**
+   * Add a runnable to the queue of its repository.
+   * @param runnable The runnable
+   */
+  void add(Runnable runnable) {
+    final String projectKey = projectKeyOf(runnable);
+    ProjectFlow project = projects.get(projectKey);
+    if (project == null) {
+      project = new ProjectFlow(virtualTime,
+          share.getProjectWeight(projectKey));
+      projects.put(projectKey, project);
+    }
+    project.add(runnable, share);
+    size++;
+  }
+
+  /**
+   * Remove the next runnable from the project and repository with the
+   * earliest virtual start time that the gate allows.
+   * @param gate The gate deciding which repositories may be served
+   * @return The runnable, or null if nothing can be served
+   */
+  Runnable poll(Gate gate) {
+    String selectedKey = null;
+    ProjectFlow selected = null;
+    RepositoryFlow selectedFlow = null;
+    for (Map.Entry<String, ProjectFlow> entry : projects.entrySet()) {
+      final ProjectFlow project = entry.getValue();
+      if (selected != null && project.start >= selected.start)
+        continue;
+      final RepositoryFlow flow = project.next(gate);
+      if (flow != null) {
+        selectedKey = entry.getKey();
+        selected = project;
+        selectedFlow = flow;
+      }
+    }
+    if (selected == null)
+      return null;
+
+    virtualTime = Math.max(virtualTime, selected.start);
+    selected.start += 1.0 / selected.weight;
+    final Runnable runnable = selected.poll(selectedFlow);
+    if (selected.isEmpty())
+      projects.remove(selectedKey);
+    size--;
+    return runnable;
+  }
+
+  /**
+   * Determine whether the gate allows anything in the queue to be served.
+   * @param gate The gate deciding which repositories may be served
+   * @return True if a call to poll would return a runnable
+   */
+  boolean hasEligible(Gate gate) {
+    for (ProjectFlow project : projects.values()) {
+      if (project.next(gate) != null)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Remove a specific runnable from the queue.
+   * @param o The runnable to remove
+   * @return True if the runnable was queued
+   */
+  boolean remove(Object o) {
+    final Iterator<ProjectFlow> iterator = projects.values().iterator();
+    while (iterator.hasNext()) {
+      final ProjectFlow project = iterator.next();
+      if (project.remove(o)) {
+        if (project.isEmpty())
+          iterator.remove();
+        size--;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the number of queued runnables.
+   * @return The size of the queue
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Get the first queued runnable without removing it.
+   * @return The runnable, or null if the queue is empty
+   */
+  Runnable peek() {
+    for (ProjectFlow project : projects.values()) {
+      for (RepositoryFlow flow : project.flows.values()) {
+        return flow.tasks.peekFirst();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Copy every queued runnable into the collection.
+   * @param target The collection to copy into
+   */
+  void copyTo(Collection<? super Runnable> target) {
+    for (ProjectFlow project : projects.values()) {
+      for (RepositoryFlow flow : project.flows.values()) {
+        target.addAll(flow.tasks);
+      }
+    }
+  }
+
+  /**
+   * Add the number of queued runnables per repository to the provided map.
+   * @param backlog The backlog, keyed by repository ID
+   */
+  void addBacklog(Map<Integer, RepositoryCounts> backlog) {
+    for (ProjectFlow project : projects.values()) {
+      for (Map.Entry<Integer, RepositoryFlow> entry
+          : project.flows.entrySet()) {
+        RepositoryCounts counts = backlog.get(entry.getKey());
+        if (counts == null) {
+          counts = new RepositoryCounts(entry.getValue().label);
+          backlog.put(entry.getKey(), counts);
+        }
+        counts.queued += entry.getValue().tasks.size();
+      }
+    }
+  }
+
+  /**
+   * Get the label a task's repository is reported under.
+   * @param task The task
+   * @return The repository, as PROJECT/slug
+   */
+  static String labelOf(NotificationTask task) {
+    return task.getProjectKey() + "/" + task.getRepositorySlug();
+  }
+
+  private static String projectKeyOf(Runnable runnable) {
+    return runnable instanceof NotificationTask
+        ? ((NotificationTask) runnable).getProjectKey() : "";
+  }
+
+  private static int repositoryIdOf(Runnable runnable) {
+    return runnable instanceof NotificationTask
+        ? ((NotificationTask) runnable).getRepositoryId() : -1;
+  }
+
+  /**
+   * Mutable per-repository counters used to build backlog reports.
+   */
+  static class RepositoryCounts {
+    private final String label;
+    private int queued;
+    private int inFlight;
+
+    /**
+     * Create a new instance
+     * @param label The repository label
+     */
+    RepositoryCounts(String label) {
+      this.label = label;
+    }
+
+    /**
+     * Add to the in flight count.
+     * @param count The number of notifications in flight
+     */
+    void addInFlight(int count) {
+      inFlight += count;
+    }
+
+    /**
+     * Create the backlog report.
+     * @return The backlog
+     */
+    RepositoryBacklog toBacklog() {
+      return new RepositoryBacklog(label, queued, inFlight);
+    }
+  }
+
+  /**
+   * The queued runnables of one project.
+   */
+  private static class ProjectFlow {
+    private final Map<Integer, RepositoryFlow> flows =
+        new LinkedHashMap<Integer, RepositoryFlow>();
+    private final int weight;
+    private double start;
+    private double virtualTime;
+
+    ProjectFlow(double start, int weight) {
+      this.start = start;
+      this.weight = weight;
+    }
+
+    void add(Runnable runnable, FairShare share) {
+      final int repositoryId = repositoryIdOf(runnable);
+      RepositoryFlow flow = flows.get(repositoryId);
+      if (flow == null) {
+        String label = "";
+        int weight = 1;
+        if (runnable instanceof NotificationTask) {
+          final NotificationTask task = (NotificationTask) runnable;
+          label = labelOf(task);
+          weight = share.getRepositoryWeight(task.getProjectKey(),
+              task.getRepositorySlug());
+        }
+        flow = new RepositoryFlow(repositoryId, label, virtualTime, weight);
+        flows.put(repositoryId, flow);
+      }
+      flow.tasks.addLast(runnable);
+    }
+
+    RepositoryFlow next(Gate gate) {
+      RepositoryFlow selected = null;
+      for (RepositoryFlow flow : flows.values()) {
+        if ((selected == null || flow.start < selected.start)
+            && (flow.repositoryId < 0 || gate.allows(flow.repositoryId)))
+          selected = flow;
+      }
+      return selected;
+    }
+
+    Runnable poll(RepositoryFlow flow) {
+      virtualTime = Math.max(virtualTime, flow.start);
+      flow.start += 1.0 / flow.weight;
+      final Runnable runnable = flow.tasks.pollFirst();
+      if (flow.tasks.isEmpty())
+        flows.remove(flow.repositoryId);
+      return runnable;
+    }
+
+    boolean remove(Object o) {
+      final Iterator<RepositoryFlow> iterator = flows.values().iterator();
+      while (iterator.hasNext()) {
+        final RepositoryFlow flow = iterator.next();
+        if (flow.tasks.remove(o)) {
+          if (flow.tasks.isEmpty())
+            iterator.remove();
+          return true;
+        }
+      }
+      return false;
+    }
+
+    boolean isEmpty() {
+      return flows.isEmpty();
+    }
+  }
+
+  /**
+   * The queued runnables of one repository.
+   */
+  private static class RepositoryFlow {
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+    private final int repositoryId;
+    private final String label;
+    private final int weight;
+    private double start;
+
+    RepositoryFlow(int repositoryId, String label, double start,
+        int weight) {
+      this.repositoryId = repositoryId;
+      this.label = label;
+      this.start = start;
+      this.weight = weight;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Splitter;
+
+/**
+ * The relative shares of projects and repositories in the fair queue. Every
+ * project and repository has a weight of 1 unless overridden with a
+ * specification of the form <code>PROJECT=2,PROJECT/repo=4</code>.
+ */
+public class FairShare {
+
+  private final Map<String, Integer> weights;
+
+  /**
+   * Create a new instance
+   * @param weights The weights keyed by project key or project key and
+   * repository slug separated by a slash
+   */
+  public FairShare(Map<String, Integer> weights) {
+    this.weights = weights;
+  }
+
+  /**
+   * Get the weight of a project.
+   * @param projectKey The project key
+   * @return The weight
+   */
+  public int getProjectWeight(String projectKey) {
+    return weightOf(projectKey);
+  }
+
+  /**
+   * Get the weight of a repository within its project.
+   * @param projectKey The project key
+   * @param slug The repository slug
+   * @return The weight
+   */
+  public int getRepositoryWeight(String projectKey, String slug) {
+    return weightOf(projectKey + "/" + slug);
+  }
+
+  private int weightOf(String key) {
+    final Integer weight = weights.get(key);
+    return weight == null ? 1 : weight;
+  }
+
+  /**
+   * Parse a weight specification. Malformed entries are ignored.
+   * @param spec The specification
+   * @return The fair share
+   */
+  public static FairShare parse(String spec) {
+    Map<String, Integer> weights = new HashMap<String, Integer>();
+    if (spec != null) {
+      for (String entry : Splitter.on(',').trimResults().omitEmptyStrings()
+          .split(spec)) {
+        final int split = entry.lastIndexOf('=');
+        if (split <= 0)
+          continue;
+        try {
+          final int weight = Integer.parseInt(entry.substring(split + 1)
+              .trim());
+          if (weight > 0)
+            weights.put(entry.substring(0, split).trim(), weight);
+        } catch (NumberFormatException e) {
+          continue;
+        }
+      }
+    }
+    return new FairShare(weights);
+  }
+}
@@ -0,0 +1,131 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Splitter;
+
+/**
+ * A priority lane for notifications. A lane is selected by matching the ref
+ * IDs of a push against its patterns, and is drained with a share of the
+ * dispatch capacity proportional to its weight.
+ *
+ * Lanes are configured with a specification of the form
+ * <code>name:weight:pattern,pattern;name:weight:pattern</code>, listed from
+ * highest to lowest priority. In a pattern, <code>*</code> matches any
+ * sequence of characters. The last lane also receives every push that
+ * matches no lane at all.
+ */
+public class Lane {
+
+  /**
+   * The default lane specification: master and release branches ahead of
+   * everything else.
+   */
+  public static final String DEFAULT_SPEC =
+      "high:4:refs/heads/master,refs/heads/release/*;default:1:*";
+
+  private final String name;
+  private final int weight;
+  private final List<Pattern> patterns;
+
+  /**
+   * Create a new instance
+   * @param name The name of the lane
+   * @param weight The relative dispatch weight. Must be positive.
+   * @param globs The ref ID patterns selecting the lane
+   */
+  public Lane(String name, int weight, List<String> globs) {
+    if (weight <= 0)
+      throw new IllegalArgumentException("Lane weight must be positive");
+    this.name = name;
+    this.weight = weight;
+    List<Pattern> compiled = new ArrayList<Pattern>(globs.size());
+    for (String glob : globs) {
+      compiled.add(compileGlob(glob));
+    }
+    this.patterns = Collections.unmodifiableList(compiled);
+  }
+
+  /**
+   * Get the name of the lane.
+   * @return The name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the relative dispatch weight.
+   * @return The weight
+   */
+  public int getWeight() {
+    return weight;
+  }
+
+  /**
+   * Determine whether the ref belongs in this lane.
+   * @param refId The ref ID
+   * @return True if any of the patterns match the ref ID
+   */
+  public boolean matches(String refId) {
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(refId).matches())
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Parse a lane specification.
+   * @param spec The specification
+   * @return The lanes, highest priority first
+   * @throws IllegalArgumentException If the specification is malformed
+   */
+  public static List<Lane> parse(String spec) {
+    List<Lane> lanes = new ArrayList<Lane>();
+    for (String laneSpec : Splitter.on(';').trimResults().omitEmptyStrings()
+        .split(spec)) {
+      String[] parts = laneSpec.split(":", 3);
+      if (parts.length != 3) {
+        throw new IllegalArgumentException("Invalid lane specification '"
+            + laneSpec + "'");
+      }
+      List<String> globs = new ArrayList<String>();
+      for (String glob : Splitter.on(',').trimResults().omitEmptyStrings()
+          .split(parts[2])) {
+        globs.add(glob);
+      }
+      try {
+        lanes.add(new Lane(parts[0].trim(), Integer.parseInt(parts[1].trim()),
+            globs));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid lane weight in '"
+            + laneSpec + "'", e);
+      }
+    }
+    if (lanes.isEmpty())
+      throw new IllegalArgumentException("No lanes configured");
+    return lanes;
+  }
+
+  private static Pattern compileGlob(String glob) {
+    StringBuilder regex = new StringBuilder();
+    boolean first = true;
+    for (String part : Splitter.on('*').split(glob)) {
+      if (!first)
+        regex.append(".*");
+      if (!part.isEmpty())
+        regex.append(Pattern.quote(part));
+      first = false;
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  @Override
+  public String toString() {
+    return name + "(" + weight + ")";
+  }
+}
@@ -0,0 +1,383 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A blocking work queue made of one {@link FairQueue} per {@link Lane}.
+ * Elements are taken from the non-empty lanes using smooth weighted
+ * round-robin, so a lane with weight 4 is drained four times as often as one
+ * with weight 1 while both have work, and no non-empty lane is ever starved.
+ * Within a lane, projects and repositories get their fair share.
+ *
+ * Each repository may only have a limited number of notifications in flight.
+ * A {@link NotificationTask} counts as in flight from the moment it is taken
+ * from the queue until it is passed to {@link #release(Runnable)}.
+ *
+ * Runnables that aren't {@link NotificationTask}s are placed in the last
+ * lane and aren't subject to the in-flight limit.
+ */
+public class LaneQueue extends AbstractQueue<Runnable>
+    implements BlockingQueue<Runnable>, FairQueue.Gate {
+
+  private final FairQueue[] queues;
+  private final int[] weights;
+  private final int[] current;
+  private final int capacity;
+  private final int maxInFlight;
+  private final Map<Integer, InFlight> inFlight = 
+      new HashMap<Integer, InFlight>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private int count;
+
+  /**
+   * Create a new instance
+   * @param lanes The lanes, highest priority first
+   * @param share The weights of projects and repositories within a lane
+   * @param capacity The maximum number of queued elements across all lanes
+   * @param maxInFlight The maximum number of notifications in flight per
+   * repository
+   */
+  public LaneQueue(List<Lane> lanes, FairShare share, int capacity,
+      int maxInFlight) {
+    this.queues = new FairQueue[lanes.size()];
+    this.weights = new int[lanes.size()];
+    this.current = new int[lanes.size()];
+    this.capacity = capacity;
+    this.maxInFlight = maxInFlight;
+    for (int i = 0; i < queues.length; i++) {
+      queues[i] = new FairQueue(share);
+      weights[i] = lanes.get(i).getWeight();
+    }
+  }
+
+  /**
+   * Release a runnable taken from the queue once it has finished, freeing
+   * its slot in the in-flight limit of its repository.
+   * @param runnable The finished runnable
+   */
+  public void release(Runnable runnable) {
+    if (!(runnable instanceof NotificationTask))
+      return;
+    final NotificationTask task = (NotificationTask) runnable;
+    lock.lock();
+    try {
+      if (!task.isAcquired())
+        return;
+      task.setAcquired(false);
+      final InFlight running = inFlight.get(task.getRepositoryId());
+      if (running == null || running.count <= 1)
+        inFlight.remove(task.getRepositoryId());
+      else
+        running.count--;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the repositories with the largest backlog of queued and in flight
+   * notifications.
+   * @param limit The maximum number of repositories to report
+   * @return The backlogs, largest first
+   */
+  public List<RepositoryBacklog> getBacklog(int limit) {
+    Map<Integer, FairQueue.RepositoryCounts> counts = 
+        new HashMap<Integer, FairQueue.RepositoryCounts>();
+    lock.lock();
+    try {
+      for (FairQueue queue : queues) {
+        queue.addBacklog(counts);
+      }
+      for (Map.Entry<Integer, InFlight> entry : inFlight.entrySet()) {
+        FairQueue.RepositoryCounts repository = counts.get(entry.getKey());
+        if (repository == null) {
+          repository = new FairQueue.RepositoryCounts(
+              entry.getValue().label);
+          counts.put(entry.getKey(), repository);
+        }
+        repository.addInFlight(entry.getValue().count);
+      }
+    } finally {
+      lock.unlock();
+    }
+    List<RepositoryBacklog> backlog = 
+        new ArrayList<RepositoryBacklog>(counts.size());
+    for (FairQueue.RepositoryCounts repository : counts.values()) {
+      backlog.add(repository.toBacklog());
+    }
+    Collections.sort(backlog);
+    return backlog.size() > limit ? backlog.subList(0, limit) : backlog;
+  }
+
+  /**
+   * Determine whether nothing is queued and every task taken from the queue
+   * has been released.
+   * @return True if the queue is drained
+   */
+  public boolean isDrained() {
+    lock.lock();
+    try {
+      return count == 0 && inFlight.isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Determine whether a repository is below its in-flight limit. Must be
+   * called while holding the lock.
+   * @param repositoryId The repository ID
+   * @return True if another notification for the repository may start
+   */
+  @Override
+  public boolean allows(int repositoryId) {
+    final InFlight running = inFlight.get(repositoryId);
+    return running == null || running.count < maxInFlight;
+  }
+
+  /**
+   * Get the number of elements queued in a lane.
+   * @param lane The lane index
+   * @return The number of queued elements
+   */
+  public int size(int lane) {
+    lock.lock();
+    try {
+      return queues[lane].size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(Runnable runnable) {
+    if (runnable == null)
+      throw new NullPointerException();
+    lock.lock();
+    try {
+      if (count >= capacity)
+        return false;
+      queues[laneOf(runnable)].add(runnable);
+      count++;
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+    return offer(runnable);
+  }
+
+  @Override
+  public void put(Runnable runnable) throws InterruptedException {
+    if (!offer(runnable))
+      throw new IllegalStateException("Queue full");
+  }
+
+  @Override
+  public Runnable poll() {
+    lock.lock();
+    try {
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Runnable poll(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      Runnable runnable = dequeue();
+      while (runnable == null) {
+        if (nanos <= 0)
+          return null;
+        nanos = notEmpty.awaitNanos(nanos);
+        runnable = dequeue();
+      }
+      return runnable;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Runnable take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      Runnable runnable = dequeue();
+      while (runnable == null) {
+        notEmpty.await();
+        runnable = dequeue();
+      }
+      return runnable;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Runnable peek() {
+    lock.lock();
+    try {
+      for (FairQueue queue : queues) {
+        final Runnable runnable = queue.peek();
+        if (runnable != null)
+          return runnable;
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    lock.lock();
+    try {
+      for (FairQueue queue : queues) {
+        if (queue.remove(o)) {
+          count--;
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    lock.lock();
+    try {
+      return capacity - count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> c, int maxElements) {
+    lock.lock();
+    try {
+      int drained = 0;
+      Runnable runnable;
+      while (drained < maxElements && (runnable = dequeue()) != null) {
+        c.add(runnable);
+        drained++;
+      }
+      return drained;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns an iterator over a snapshot of the queued elements.
+   * @return The iterator
+   */
+  @Override
+  public Iterator<Runnable> iterator() {
+    lock.lock();
+    try {
+      List<Runnable> snapshot = new ArrayList<Runnable>(count);
+      for (FairQueue queue : queues) {
+        queue.copyTo(snapshot);
+      }
+      return snapshot.iterator();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove the next element using smooth weighted round-robin across the
+   * lanes that have an element that may be served. Must be called while 
+   * holding the lock.
+   */
+  private Runnable dequeue() {
+    if (count == 0)
+      return null;
+    int best = -1;
+    int total = 0;
+    for (int i = 0; i < queues.length; i++) {
+      if (queues[i].size() == 0 || !queues[i].hasEligible(this))
+        continue;
+      current[i] += weights[i];
+      total += weights[i];
+      if (best < 0 || current[i] > current[best])
+        best = i;
+    }
+    if (best < 0)
+      return null;
+    current[best] -= total;
+    count--;
+    final Runnable runnable = queues[best].poll(this);
+    if (runnable instanceof NotificationTask) {
+      final NotificationTask task = (NotificationTask) runnable;
+      InFlight running = inFlight.get(task.getRepositoryId());
+      if (running == null) {
+        running = new InFlight(FairQueue.labelOf(task));
+        inFlight.put(task.getRepositoryId(), running);
+      }
+      running.count++;
+      task.setAcquired(true);
+    }
+    return runnable;
+  }
+
+  private int laneOf(Runnable runnable) {
+    if (runnable instanceof NotificationTask) {
+      final int lane = ((NotificationTask) runnable).getLane();
+      if (lane >= 0 && lane < queues.length)
+        return lane;
+    }
+    return queues.length - 1;
+  }
+
+  /**
+   * The notifications of one repository that are in flight.
+   */
+  private static class InFlight {
+    private final String label;
+    private int count;
+
+    InFlight(String label) {
+      this.label = label;
+    }
+  }
+}
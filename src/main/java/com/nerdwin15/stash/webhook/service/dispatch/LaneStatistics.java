@@ -0,0 +1,70 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue wait time counters for a single {@link Lane}.
+ */
+public class LaneStatistics {
+
+  private final Lane lane;
+  private final AtomicLong dispatched = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  /**
+   * Create a new instance
+   * @param lane The lane the statistics are for
+   */
+  public LaneStatistics(Lane lane) {
+    this.lane = lane;
+  }
+
+  /**
+   * Get the lane the statistics are for.
+   * @return The lane
+   */
+  public Lane getLane() {
+    return lane;
+  }
+
+  /**
+   * Record the time a notification spent waiting before it was dispatched.
+   * @param waitNanos The time waited, in nanoseconds
+   */
+  public void recordWait(long waitNanos) {
+    dispatched.incrementAndGet();
+    totalWaitNanos.addAndGet(waitNanos);
+    long max = maxWaitNanos.get();
+    while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+      max = maxWaitNanos.get();
+    }
+  }
+
+  /**
+   * Get the number of notifications dispatched from the lane.
+   * @return The number of dispatched notifications
+   */
+  public long getDispatched() {
+    return dispatched.get();
+  }
+
+  /**
+   * Get the mean time spent waiting in the lane.
+   * @return The mean wait time in milliseconds
+   */
+  public long getMeanWaitMillis() {
+    final long count = dispatched.get();
+    return count == 0 ? 0 
+        : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count);
+  }
+
+  /**
+   * Get the longest time a notification spent waiting in the lane.
+   * @return The maximum wait time in milliseconds
+   */
+  public long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+  }
+}
@@ -0,0 +1,51 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashUser;
+
+/**
+ * Defines the asynchronous stage between the event listener and the
+ * {@link com.nerdwin15.stash.webhook.Notifier}. Pushes are queued and
+ * delivered by worker threads, so the event thread never waits on Jenkins.
+ */
+public interface NotificationDispatcher {
+
+  /**
+   * Queue a notification for the provided push.
+   * @param repository The repository that was pushed to
+   * @param user The user that pushed. May be null.
+   * @param refChanges The refs that were changed
+   */
+  void dispatch(Repository repository, StashUser user,
+      Collection<RefChange> refChanges);
+
+  /**
+   * Get the statistics of each priority lane.
+   * @return The lane statistics, highest priority first
+   */
+  List<LaneStatistics> getLaneStatistics();
+
+  /**
+   * Get the number of notifications waiting in a lane.
+   * @param lane The lane index
+   * @return The number of queued notifications
+   */
+  int getQueued(int lane);
+
+  /**
+   * Get the repositories with the largest notification backlog.
+   * @param limit The maximum number of repositories to report
+   * @return The backlogs, largest first
+   */
+  List<RepositoryBacklog> getBacklog(int limit);
+
+  /**
+   * Get the bulkheads of the Jenkins instances currently being notified.
+   * @return The bulkheads
+   */
+  Collection<Bulkhead> getBulkheads();
+}
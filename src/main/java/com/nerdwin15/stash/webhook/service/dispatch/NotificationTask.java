@@ -0,0 +1,130 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.trace.Span;
+import com.nerdwin15.stash.webhook.service.trace.TraceContext;
+import com.nerdwin15.stash.webhook.service.trace.Tracer;
+
+/**
+ * A queued notification of a push to one of its targets.
+ */
+public class NotificationTask implements Runnable {
+
+  private static final Logger LOGGER = 
+      LoggerFactory.getLogger(NotificationTask.class);
+
+  private final Notifier notifier;
+  private final Repository repository;
+  private final Notifier.Target target;
+  private final int lane;
+  private final LaneStatistics statistics;
+  private final Tracer tracer;
+  private final TraceContext trace;
+  private final long createdNanos = System.nanoTime();
+  private boolean acquired;
+
+  /**
+   * Create a new instance
+   * @param notifier The notifier used to deliver the notification
+   * @param repository The repository that was pushed to
+   * @param target The target to notify
+   * @param lane The index of the lane the task was classified into
+   * @param statistics The statistics of that lane
+   * @param tracer Tracer continuing the trace of the push
+   * @param trace The context of the span that queued the task. May be null.
+   */
+  public NotificationTask(Notifier notifier, Repository repository,
+      Notifier.Target target, int lane, LaneStatistics statistics,
+      Tracer tracer, TraceContext trace) {
+    this.notifier = notifier;
+    this.repository = repository;
+    this.target = target;
+    this.lane = lane;
+    this.statistics = statistics;
+    this.tracer = tracer;
+    this.trace = trace;
+  }
+
+  /**
+   * Get the repository that was pushed to.
+   * @return The repository
+   */
+  public Repository getRepository() {
+    return repository;
+  }
+
+  /**
+   * Get the ID of the repository that was pushed to.
+   * @return The repository ID, or -1 if unknown
+   */
+  public int getRepositoryId() {
+    final Integer id = repository.getId();
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Get the slug of the repository that was pushed to.
+   * @return The repository slug
+   */
+  public String getRepositorySlug() {
+    return repository.getSlug();
+  }
+
+  /**
+   * Get the key of the project the repository belongs to.
+   * @return The project key, or an empty string if unknown
+   */
+  public String getProjectKey() {
+    final Project project = repository.getProject();
+    return project == null ? "" : project.getKey();
+  }
+
+  /**
+   * Get the index of the lane the task was classified into.
+   * @return The lane index
+   */
+  public int getLane() {
+    return lane;
+  }
+
+  /**
+   * Whether the task was handed out by a {@link LaneQueue} and counts 
+   * against the in-flight limit of its repository. Guarded by the lock of
+   * that queue.
+   * @return True if the task counts as in flight
+   */
+  boolean isAcquired() {
+    return acquired;
+  }
+
+  /**
+   * Mark whether the task counts as in flight. Guarded by the lock of the
+   * {@link LaneQueue} handing it out.
+   * @param acquired True if the task counts as in flight
+   */
+  void setAcquired(boolean acquired) {
+    this.acquired = acquired;
+  }
+
+  @Override
+  public void run() {
+    final long waitNanos = System.nanoTime() - createdNanos;
+    statistics.recordWait(waitNanos);
+    final Span span = tracer.resume(trace, "notify")
+        .setAttribute("lane", lane)
+        .setAttribute("waitMillis", waitNanos / 1000000);
+    try {
+      notifier.notify(repository, target);
+    } catch (RuntimeException e) {
+      span.setError(e.toString());
+      LOGGER.error("Unexpected error notifying Jenkins", e);
+    } finally {
+      span.end();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+/**
+ * The notification backlog of a single repository.
+ */
+public class RepositoryBacklog implements Comparable<RepositoryBacklog> {
+
+  private final String repository;
+  private final int queued;
+  private final int inFlight;
+
+  /**
+   * Create a new instance
+   * @param repository The repository, as PROJECT/slug
+   * @param queued The number of queued notifications
+   * @param inFlight The number of notifications being delivered
+   */
+  public RepositoryBacklog(String repository, int queued, int inFlight) {
+    this.repository = repository;
+    this.queued = queued;
+    this.inFlight = inFlight;
+  }
+
+  /**
+   * Get the repository, as PROJECT/slug.
+   * @return The repository
+   */
+  public String getRepository() {
+    return repository;
+  }
+
+  /**
+   * Get the number of queued notifications.
+   * @return The number of queued notifications
+   */
+  public int getQueued() {
+    return queued;
+  }
+
+  /**
+   * Get the number of notifications being delivered.
+   * @return The number of notifications in flight
+   */
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Orders backlogs from largest to smallest.
+   * @param other The backlog to compare to
+   * @return The comparison result
+   */
+  @Override
+  public int compareTo(RepositoryBacklog other) {
+    final int mine = queued + inFlight;
+    final int theirs = other.queued + other.inFlight;
+    return mine > theirs ? -1 : (mine == theirs ? 0 : 1);
+  }
+}
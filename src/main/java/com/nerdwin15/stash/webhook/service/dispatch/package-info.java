@@ -0,0 +1,4 @@
+/**
+ * Asynchronous dispatch of notifications to Jenkins
+ */
+package com.nerdwin15.stash.webhook.service.dispatch;
@@ -3,6 +3,8 @@ package com.nerdwin15.stash.webhook.service.eligibility;
 import java.util.List;
 
 import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.nerdwin15.stash.webhook.service.trace.Span;
+import com.nerdwin15.stash.webhook.service.trace.Tracer;
 
 /**
  * A concrete implementation of the EligiblityFilterChain.
@@ -12,20 +14,31 @@ import com.atlassian.stash.event.RepositoryRefsChangedEvent;
 public class ConcreteEligibilityFilterChain implements EligibilityFilterChain {
   
   private List<EligibilityFilter> filters;
+  private Tracer tracer;
   
   /**
    * Construct a new instance with the provided filters
    * @param filters The EligibilityFilters to be used.
+   * @param tracer Tracer timing each filter
    */
-  public ConcreteEligibilityFilterChain(List<EligibilityFilter> filters) {
+  public ConcreteEligibilityFilterChain(List<EligibilityFilter> filters,
+      Tracer tracer) {
     this.filters = filters;
+    this.tracer = tracer;
   }
   
   @Override
   public boolean shouldDeliverNotification(RepositoryRefsChangedEvent event) {
     for (EligibilityFilter filter : filters) {
-      if (!filter.shouldDeliverNotification(event))
-        return false;
+      final Span span = tracer.startSpan(filter.getClass().getSimpleName());
+      try {
+        if (!filter.shouldDeliverNotification(event)) {
+          span.setAttribute("rejected", true);
+          return false;
+        }
+      } finally {
+        span.end();
+      }
     }
     return true;
   }
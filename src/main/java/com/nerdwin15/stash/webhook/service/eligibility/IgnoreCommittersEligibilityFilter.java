@@ -1,9 +1,14 @@
 package com.nerdwin15.stash.webhook.service.eligibility;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.atlassian.event.api.EventListener;
 import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.atlassian.stash.event.hook.RepositoryHookSettingsChangedEvent;
 import com.atlassian.stash.setting.Settings;
 import com.nerdwin15.stash.webhook.Notifier;
 import com.nerdwin15.stash.webhook.service.SettingsService;
@@ -12,6 +17,10 @@ import com.nerdwin15.stash.webhook.service.SettingsService;
  * An EligibilityFilter that checks if the user that initiated the 
  * RepositoryRefsChangedEvent is a user that is in the ignores list for the 
  * hook configuration.
+ *
+ * Entries of the form <code>group:name</code> ignore every member of the
+ * group, as found in the {@link UserGroupIndex}. The groups of saved
+ * settings are preloaded into the index.
  * 
  * @author Michael Irwin (mikesir87)
  */
@@ -20,15 +29,23 @@ public class IgnoreCommittersEligibilityFilter implements EligibilityFilter {
   private static final Logger logger = // CHECKSTYLE:logger
   LoggerFactory.getLogger(IgnoreCommittersEligibilityFilter.class);
 
+  /**
+   * Prefix of the ignored committers entries naming a group
+   */
+  public static final String GROUP_PREFIX = "group:";
+
   private SettingsService settingsService;
+  private UserGroupIndex groupIndex;
 
   /**
    * Constructs a new instance
    * @param settingsService Service to get the webhook settings
+   * @param groupIndex Index of the groups of users
    */
   public IgnoreCommittersEligibilityFilter(
-      SettingsService settingsService) {
+      SettingsService settingsService, UserGroupIndex groupIndex) {
     this.settingsService = settingsService;
+    this.groupIndex = groupIndex;
   }
 
   @Override
@@ -42,7 +59,14 @@ public class IgnoreCommittersEligibilityFilter implements EligibilityFilter {
       return true;
 
     for (String committer : ignoreCommitters.split(" ")) {
-      if (committer.equalsIgnoreCase(eventUserName)) {
+      if (committer.startsWith(GROUP_PREFIX)) {
+        final String group = committer.substring(GROUP_PREFIX.length());
+        if (group.length() > 0 
+            && groupIndex.isMember(eventUserName, group)) {
+          logger.debug("Ignoring push event due to ignore group {}", group);
+          return false;
+        }
+      } else if (committer.equalsIgnoreCase(eventUserName)) {
         logger.debug("Ignoring push event due to ignore committer {}",
             committer);
         return false;
@@ -50,4 +74,39 @@ public class IgnoreCommittersEligibilityFilter implements EligibilityFilter {
     }
     return true;
   }
+
+  /**
+   * Preload the ignored groups of saved settings, including inherited ones,
+   * so the first push checked against them doesn't load them. A group missed
+   * here is still loaded on its first lookup.
+   * @param event The event
+   */
+  @EventListener
+  public void onSettingsChanged(RepositoryHookSettingsChangedEvent event) {
+    if (!Notifier.KEY.equals(event.getRepositoryHookKey()))
+      return;
+    final Settings settings = settingsService.getSettings(
+        event.getRepository());
+    if (settings != null) {
+      groupIndex.preload(groupsOf(
+          settings.getString(Notifier.IGNORE_COMMITTERS)));
+    }
+  }
+
+  /**
+   * Find the groups named in an ignored committers setting.
+   * @param ignoreCommitters The setting, may be null
+   * @return The group names
+   */
+  public static List<String> groupsOf(String ignoreCommitters) {
+    final List<String> groups = new ArrayList<String>();
+    if (ignoreCommitters == null)
+      return groups;
+    for (String committer : ignoreCommitters.split(" ")) {
+      if (committer.startsWith(GROUP_PREFIX)
+          && committer.length() > GROUP_PREFIX.length())
+        groups.add(committer.substring(GROUP_PREFIX.length()));
+    }
+    return groups;
+  }
 }
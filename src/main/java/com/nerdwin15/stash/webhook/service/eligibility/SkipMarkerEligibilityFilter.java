@@ -0,0 +1,165 @@
+package com.nerdwin15.stash.webhook.service.eligibility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.stash.content.Changeset;
+import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.nerdwin15.stash.webhook.service.ChangesetScanner;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * An EligibilityFilter that cancels the notification of a push when every
+ * commit it introduces asks to be skipped with a marker such as
+ * <code>[ci skip]</code> in its message.
+ *
+ * Commits are scanned newest first and the scan stops at the first commit
+ * without a marker. It is also capped in the number of commits and the size
+ * of the messages read; a push that hits either cap is notified, as it
+ * can't be shown to be skipped. The outcome is remembered per repository
+ * and hashes, so repeated events for the same commits aren't scanned again.
+ */
+public class SkipMarkerEligibilityFilter implements EligibilityFilter {
+
+  /**
+   * Property holding the comma separated skip markers
+   */
+  public static final String MARKERS_PROPERTY = "jenkins.webhook.skip.markers";
+
+  /**
+   * Property holding the maximum number of commits scanned per ref change
+   */
+  public static final String COMMITS_PROPERTY = "jenkins.webhook.skip.commits";
+
+  /**
+   * Property holding the maximum size of the messages scanned per ref
+   * change, counted in characters
+   */
+  public static final String BYTES_PROPERTY = "jenkins.webhook.skip.bytes";
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(SkipMarkerEligibilityFilter.class);
+  private static final int CACHE_SIZE = 4096;
+
+  private final ChangesetScanner changesetScanner;
+  private final List<String> markers;
+  private final int maxCommits;
+  private final long maxBytes;
+  private final Cache<String, Boolean> skipped =
+      CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+  /**
+   * Create a new instance using the configured system properties
+   * @param changesetScanner Scanner used to page through the commits
+   */
+  public SkipMarkerEligibilityFilter(ChangesetScanner changesetScanner) {
+    this(changesetScanner, parseMarkers(PluginProperties.getString(
+        MARKERS_PROPERTY, "[ci skip],[skip ci],[skip jenkins]")),
+        PluginProperties.getInt(COMMITS_PROPERTY, 100),
+        PluginProperties.getLong(BYTES_PROPERTY, 65536));
+  }
+
+  /**
+   * Create a new instance
+   * @param changesetScanner Scanner used to page through the commits
+   * @param markers The skip markers, matched regardless of case
+   * @param maxCommits The maximum number of commits scanned per ref change
+   * @param maxBytes The maximum size of the messages scanned per ref
+   * change, counted in characters
+   */
+  public SkipMarkerEligibilityFilter(ChangesetScanner changesetScanner,
+      List<String> markers, int maxCommits, long maxBytes) {
+    this.changesetScanner = changesetScanner;
+    this.markers = new ArrayList<String>(markers.size());
+    for (String marker : markers) {
+      this.markers.add(marker.toLowerCase(Locale.ENGLISH));
+    }
+    this.maxCommits = maxCommits;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public boolean shouldDeliverNotification(RepositoryRefsChangedEvent event) {
+    if (markers.isEmpty() || event.getRefChanges() == null
+        || event.getRefChanges().isEmpty())
+      return true;
+    for (RefChange refChange : event.getRefChanges()) {
+      if (!isSkipped(event.getRepository(), refChange))
+        return true;
+    }
+    LOGGER.debug("Ignoring push event to repository {} due to skip markers",
+        event.getRepository().getId());
+    return false;
+  }
+
+  /**
+   * Determine whether every commit introduced by a ref change is skipped.
+   * @param repository The repository
+   * @param refChange The ref change
+   * @return True if the ref change doesn't need to be notified
+   */
+  boolean isSkipped(Repository repository, RefChange refChange) {
+    if (refChange.getType() == RefChangeType.DELETE
+        || ChangesetScanner.isZeroHash(refChange.getToHash()))
+      return false;
+    final String key = repository.getId() + ":" + refChange.getToHash()
+        + ":" + refChange.getFromHash();
+    Boolean result = skipped.getIfPresent(key);
+    if (result == null) {
+      result = scan(repository, refChange);
+      skipped.put(key, result);
+    }
+    return result;
+  }
+
+  private boolean scan(Repository repository, RefChange refChange) {
+    final long[] bytes = new long[1];
+    final boolean[] notSkipped = new boolean[1];
+    // Ask for one more commit than the cap to tell whether there are more
+    final int scanned = changesetScanner.scan(repository, refChange,
+        maxCommits + 1, new ChangesetScanner.Callback() {
+      @Override
+      public boolean onChangeset(Changeset changeset) {
+        final String message = changeset.getMessage() == null ? ""
+            : changeset.getMessage();
+        bytes[0] += message.length();
+        if (bytes[0] > maxBytes || !hasMarker(message)) {
+          notSkipped[0] = true;
+          return false;
+        }
+        return true;
+      }
+    });
+    return scanned > 0 && scanned <= maxCommits && !notSkipped[0];
+  }
+
+  private boolean hasMarker(String message) {
+    final String lower = message.toLowerCase(Locale.ENGLISH);
+    for (String marker : markers) {
+      if (lower.contains(marker))
+        return true;
+    }
+    return false;
+  }
+
+  private static List<String> parseMarkers(String value) {
+    if (value == null)
+      return Collections.emptyList();
+    final List<String> markers = new ArrayList<String>();
+    for (String marker : value.split(",")) {
+      if (marker.trim().length() > 0)
+        markers.add(marker.trim());
+    }
+    return markers;
+  }
+}
@@ -0,0 +1,323 @@
+package com.nerdwin15.stash.webhook.service.eligibility;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.crowd.event.group.GroupMembershipCreatedEvent;
+import com.atlassian.crowd.event.group.GroupMembershipDeletedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.user.UserService;
+import com.atlassian.stash.util.Operation;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.util.PageRequestImpl;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * An in-memory index of the members of the groups named in the hook
+ * settings, so the push path can check group membership without paging
+ * through the user directory on every push.
+ *
+ * Groups are loaded when settings naming them are saved. A group that isn't
+ * indexed yet, for instance after a restart, is loaded once on its first
+ * lookup, with concurrent lookups waiting on the same load. Indexed groups
+ * are reloaded periodically, kept up to date by membership events in
+ * between, and forgotten once they haven't been looked up for a while.
+ */
+public class UserGroupIndex implements DisposableBean {
+
+  /**
+   * Property holding the seconds between reloads of the indexed groups
+   */
+  public static final String REFRESH_PROPERTY =
+      "jenkins.webhook.groups.refresh";
+
+  /**
+   * Property holding the seconds after which a group that isn't looked up
+   * is forgotten
+   */
+  public static final String EXPIRY_PROPERTY = "jenkins.webhook.groups.expiry";
+
+  /**
+   * Property holding the maximum number of indexed groups
+   */
+  public static final String CAPACITY_PROPERTY =
+      "jenkins.webhook.groups.capacity";
+
+  /**
+   * Property holding the maximum number of members indexed per group
+   */
+  public static final String MEMBERS_PROPERTY =
+      "jenkins.webhook.groups.members";
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(UserGroupIndex.class);
+  private static final int PAGE_SIZE = 100;
+
+  private final UserService userService;
+  private final SecurityService securityService;
+  private final long expiryMillis;
+  private final int maxMembers;
+  private final Cache<String, Entry> entries;
+  private final ScheduledExecutorService executor;
+
+  /**
+   * Create a new instance using the configured system properties
+   * @param userService Service used to find the members of groups
+   * @param securityService Service used to look up groups without a user
+   */
+  public UserGroupIndex(UserService userService,
+      SecurityService securityService) {
+    this(userService, securityService,
+        TimeUnit.SECONDS.toMillis(
+            PluginProperties.getLong(REFRESH_PROPERTY, 300)),
+        TimeUnit.SECONDS.toMillis(
+            PluginProperties.getLong(EXPIRY_PROPERTY, 86400)),
+        PluginProperties.getInt(CAPACITY_PROPERTY, 1000),
+        PluginProperties.getInt(MEMBERS_PROPERTY, 10000));
+  }
+
+  /**
+   * Create a new instance
+   * @param userService Service used to find the members of groups
+   * @param securityService Service used to look up groups without a user
+   * @param refreshMillis The time between reloads of the indexed groups
+   * @param expiryMillis The time after which a group that isn't looked up is
+   * forgotten
+   * @param capacity The maximum number of indexed groups
+   * @param maxMembers The maximum number of members indexed per group
+   */
+  public UserGroupIndex(UserService userService,
+      SecurityService securityService, long refreshMillis, long expiryMillis,
+      int capacity, int maxMembers) {
+    this.userService = userService;
+    this.securityService = securityService;
+    this.expiryMillis = expiryMillis;
+    this.maxMembers = maxMembers;
+    this.entries = CacheBuilder.newBuilder().maximumSize(capacity).build();
+    this.executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-groups")
+            .setDaemon(true).build());
+    this.executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        refresh();
+      }
+    }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Determine whether a user is a member of a group. A group that isn't
+   * indexed yet is loaded first.
+   * @param username The name of the user
+   * @param group The name of the group
+   * @return True if the user is a member of the group, false if it isn't or
+   * the group couldn't be loaded
+   */
+  public boolean isMember(String username, String group) {
+    final Entry entry = get(normalize(group));
+    if (entry == null)
+      return false;
+    entry.lastLookup = System.currentTimeMillis();
+    return entry.members.contains(normalize(username));
+  }
+
+  /**
+   * Load the groups that aren't indexed yet in the background, so the
+   * first push checked against them doesn't have to.
+   * @param groups The names of the groups
+   */
+  public void preload(Collection<String> groups) {
+    for (String group : groups) {
+      final String name = normalize(group);
+      if (entries.getIfPresent(name) != null)
+        continue;
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            get(name);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Add a member to an indexed group.
+   * @param event The event
+   */
+  @EventListener
+  public void onMembershipCreated(GroupMembershipCreatedEvent event) {
+    update(event.getEntityName(), event.getGroupName(), true);
+  }
+
+  /**
+   * Remove a member from an indexed group.
+   * @param event The event
+   */
+  @EventListener
+  public void onMembershipDeleted(GroupMembershipDeletedEvent event) {
+    update(event.getEntityName(), event.getGroupName(), false);
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdownNow();
+    entries.invalidateAll();
+  }
+
+  /**
+   * Reload the members of every indexed group that has been looked up
+   * recently, and forget the others. Membership events received while a
+   * group is reloaded are applied again to the reloaded members, which may
+   * have been read before them.
+   */
+  void refresh() {
+    final long expired = System.currentTimeMillis() - expiryMillis;
+    for (Map.Entry<String, Entry> entry : entries.asMap().entrySet()) {
+      if (Thread.currentThread().isInterrupted())
+        return;
+      if (entry.getValue().lastLookup < expired) {
+        entries.asMap().remove(entry.getKey(), entry.getValue());
+        continue;
+      }
+      reload(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private Entry get(final String group) {
+    try {
+      return entries.get(group, new Callable<Entry>() {
+        @Override
+        public Entry call() {
+          return new Entry(findMembers(group));
+        }
+      });
+    } catch (ExecutionException e) {
+      LOGGER.warn("Unable to find the members of group {}", group,
+          e.getCause());
+    } catch (UncheckedExecutionException e) {
+      LOGGER.warn("Unable to find the members of group {}", group,
+          e.getCause());
+    }
+    return null;
+  }
+
+  private void reload(String group, Entry entry) {
+    synchronized (this) {
+      entry.changes = new LinkedHashMap<String, Boolean>();
+    }
+    Set<String> members = null;
+    try {
+      members = findMembers(group);
+    } catch (RuntimeException e) {
+      LOGGER.warn("Unable to reload the members of group {}", group, e);
+    } finally {
+      synchronized (this) {
+        if (members != null)
+          entry.members = apply(members, entry.changes);
+        entry.changes = null;
+      }
+    }
+  }
+
+  private synchronized void update(String username, String group,
+      boolean member) {
+    if (username == null || group == null)
+      return;
+    final Entry entry = entries.getIfPresent(normalize(group));
+    if (entry == null)
+      return;
+    final Map<String, Boolean> change =
+        Collections.singletonMap(normalize(username), member);
+    entry.members = apply(entry.members, change);
+    if (entry.changes != null)
+      entry.changes.putAll(change);
+  }
+
+  private static Set<String> apply(Set<String> members,
+      Map<String, Boolean> changes) {
+    if (changes.isEmpty())
+      return members;
+    final Set<String> updated = new HashSet<String>(members);
+    for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+      if (change.getValue())
+        updated.add(change.getKey());
+      else
+        updated.remove(change.getKey());
+    }
+    return Collections.unmodifiableSet(updated);
+  }
+
+  private Set<String> findMembers(final String group) {
+    return securityService.doWithPermission("Indexing members of " + group,
+        Permission.ADMIN, new Operation<Set<String>, RuntimeException>() {
+      @Override
+      public Set<String> perform() {
+        final Set<String> found = new HashSet<String>();
+        PageRequest request = new PageRequestImpl(0, PAGE_SIZE);
+        while (request != null) {
+          final Page<StashUser> page =
+              userService.findUsersByGroup(group, request);
+          for (StashUser user : page.getValues()) {
+            if (found.size() >= maxMembers) {
+              LOGGER.warn("Group {} has more than {} members, only the "
+                  + "first are indexed", group, maxMembers);
+              return Collections.unmodifiableSet(found);
+            }
+            found.add(normalize(user.getName()));
+          }
+          if (page.getIsLastPage())
+            break;
+          request = new PageRequestImpl(page.getStart() + page.getSize(),
+              PAGE_SIZE);
+        }
+        return Collections.unmodifiableSet(found);
+      }
+    });
+  }
+
+  private static String normalize(String name) {
+    return name.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * The indexed members of a group. Reloads replace the members in place,
+   * so they don't count as a lookup.
+   */
+  private static class Entry {
+    private volatile Set<String> members;
+    private volatile long lastLookup = System.currentTimeMillis();
+    /** The membership events received during a reload, by user */
+    private Map<String, Boolean> changes;
+
+    Entry(Set<String> members) {
+      this.members = members;
+    }
+  }
+}
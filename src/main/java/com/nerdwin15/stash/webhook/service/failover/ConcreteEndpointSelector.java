@@ -0,0 +1,212 @@
+package com.nerdwin15.stash.webhook.service.failover;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Ticker;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * Default implementation of the {@link EndpointSelector}, keeping an
+ * {@link EndpointScore} per endpoint for the lifetime of the plugin.
+ * Endpoints are tried from the lowest average latency to the highest, with
+ * endpoints not measured yet tried first so that each is measured. Endpoints
+ * that failed their latest notification come after those, and ejected
+ * endpoints are tried last. Ties keep the configured order. The scores
+ * are tuned with the <code>jenkins.webhook.failover.*</code> system
+ * properties.
+ */
+public class ConcreteEndpointSelector implements EndpointSelector {
+
+  /**
+   * Property holding the weight of each new latency in the average
+   */
+  public static final String SMOOTHING_PROPERTY =
+      "jenkins.webhook.failover.smoothing";
+
+  /**
+   * Property holding the number of failures in a row ejecting an endpoint
+   */
+  public static final String FAILURES_PROPERTY =
+      "jenkins.webhook.failover.failures";
+
+  /**
+   * Property holding the number of seconds of the first ejection of an
+   * endpoint
+   */
+  public static final String EJECTION_PROPERTY =
+      "jenkins.webhook.failover.ejection";
+
+  /**
+   * Property holding the multiple of the lowest average latency above which
+   * an endpoint is an outlier
+   */
+  public static final String OUTLIER_PROPERTY =
+      "jenkins.webhook.failover.outlier";
+
+  /**
+   * The least an outlier lags behind the fastest endpoint, so that jitter
+   * between fast endpoints doesn't eject any
+   */
+  static final long OUTLIER_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(ConcreteEndpointSelector.class);
+
+  private final ConcurrentMap<String, EndpointScore> scores =
+      new ConcurrentHashMap<String, EndpointScore>();
+  private final double smoothing;
+  private final int threshold;
+  private final long ejectionNanos;
+  private final double outlierRatio;
+  private final Ticker ticker;
+
+  /**
+   * Create a new instance using the configured system properties
+   */
+  public ConcreteEndpointSelector() {
+    this(PluginProperties.getDouble(SMOOTHING_PROPERTY, 0.3),
+        PluginProperties.getInt(FAILURES_PROPERTY, 2),
+        TimeUnit.SECONDS.toMillis(PluginProperties.getLong(
+            EJECTION_PROPERTY, 30)),
+        PluginProperties.getDouble(OUTLIER_PROPERTY, 3.0),
+        Ticker.systemTicker());
+  }
+
+  /**
+   * Create a new instance
+   * @param smoothing The weight of each new latency in the average
+   * @param threshold The number of failures in a row ejecting an endpoint
+   * @param ejectionMillis The time of the first ejection of an endpoint
+   * @param outlierRatio The multiple of the lowest average latency above
+   * which an endpoint is an outlier
+   * @param ticker The time source
+   */
+  public ConcreteEndpointSelector(double smoothing, int threshold,
+      long ejectionMillis, double outlierRatio, Ticker ticker) {
+    this.smoothing = Math.min(1.0, Math.max(0.01, smoothing));
+    this.threshold = Math.max(1, threshold);
+    this.ejectionNanos =
+        TimeUnit.MILLISECONDS.toNanos(Math.max(0, ejectionMillis));
+    this.outlierRatio = Math.max(1.0, outlierRatio);
+    this.ticker = ticker;
+  }
+
+  @Override
+  public List<String> order(List<String> endpoints) {
+    if (endpoints.size() < 2)
+      return new ArrayList<String>(endpoints);
+    final long now = ticker.read();
+    final List<EndpointScore> available = new ArrayList<EndpointScore>();
+    final List<EndpointScore> ejected = new ArrayList<EndpointScore>();
+    for (String endpoint : endpoints) {
+      final EndpointScore score = getScore(endpoint);
+      (score.isEjected(now) ? ejected : available).add(score);
+    }
+    ejectOutliers(available, ejected, now);
+
+    final List<Candidate> candidates = new ArrayList<Candidate>();
+    for (EndpointScore score : available) {
+      candidates.add(new Candidate(score.getEndpoint(),
+          score.getFailuresInRow(), score.getLatencyNanos()));
+    }
+    Collections.sort(candidates);
+    final List<String> ordered = new ArrayList<String>(endpoints.size());
+    for (Candidate candidate : candidates) {
+      ordered.add(candidate.endpoint);
+    }
+    for (EndpointScore score : ejected) {
+      ordered.add(score.getEndpoint());
+    }
+    return ordered;
+  }
+
+  @Override
+  public void recordSuccess(String endpoint, long latencyNanos) {
+    getScore(endpoint).recordSuccess(latencyNanos, smoothing);
+  }
+
+  @Override
+  public void recordFailure(String endpoint) {
+    final EndpointScore score = getScore(endpoint);
+    if (score.recordFailure(ticker.read(), threshold, ejectionNanos)) {
+      LOGGER.warn("Ejecting Jenkins endpoint {} after {} failures in a row",
+          endpoint, threshold);
+    }
+  }
+
+  @Override
+  public Collection<EndpointScore> getEndpoints() {
+    return Collections.unmodifiableCollection(scores.values());
+  }
+
+  /**
+   * Eject the available endpoints lagging far behind the fastest one. The
+   * fastest endpoint is never ejected.
+   * @param available The endpoints not ejected, some moved to ejected
+   * @param ejected The ejected endpoints
+   * @param now The current time, in nanoseconds
+   */
+  private void ejectOutliers(List<EndpointScore> available,
+      List<EndpointScore> ejected, long now) {
+    double fastest = Double.MAX_VALUE;
+    for (EndpointScore score : available) {
+      if (score.isMeasured())
+        fastest = Math.min(fastest, score.getLatencyNanos());
+    }
+    for (int i = available.size() - 1; i >= 0; i--) {
+      final EndpointScore score = available.get(i);
+      final double latency = score.getLatencyNanos();
+      if (score.isMeasured() && latency > fastest * outlierRatio
+          && latency - fastest > OUTLIER_MARGIN_NANOS) {
+        score.eject(now, ejectionNanos);
+        ejected.add(0, available.remove(i));
+        LOGGER.warn("Ejecting Jenkins endpoint {}, answering in {}ms",
+            score.getEndpoint(), score.getLatencyMillis());
+      }
+    }
+  }
+
+  private EndpointScore getScore(String endpoint) {
+    EndpointScore score = scores.get(endpoint);
+    if (score == null) {
+      final EndpointScore created = new EndpointScore(endpoint);
+      score = scores.putIfAbsent(endpoint, created);
+      if (score == null)
+        score = created;
+    }
+    return score;
+  }
+
+  /**
+   * A snapshot of the score of an available endpoint, so that ordering
+   * isn't affected by notifications recorded meanwhile.
+   */
+  private static class Candidate implements Comparable<Candidate> {
+
+    private final String endpoint;
+    private final int failures;
+    private final double latencyNanos;
+
+    Candidate(String endpoint, int failures, double latencyNanos) {
+      this.endpoint = endpoint;
+      this.failures = failures;
+      this.latencyNanos = latencyNanos;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      if (failures != other.failures)
+        return failures < other.failures ? -1 : 1;
+      return Double.compare(latencyNanos, other.latencyNanos);
+    }
+  }
+}
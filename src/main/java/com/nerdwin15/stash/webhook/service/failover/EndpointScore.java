@@ -0,0 +1,174 @@
+package com.nerdwin15.stash.webhook.service.failover;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The score of a Jenkins endpoint: an exponentially weighted moving average
+ * of the time it took to answer notifications, and whether it is ejected.
+ * An endpoint is ejected for a cool-down period after failing a number of
+ * notifications in a row, or when its latency is an outlier among the
+ * endpoints it is equivalent to. Each ejection in a row lasts longer than the
+ * previous one, up to {@link #MAX_EJECTION_MULTIPLIER} times the base period.
+ * Once the cool-down is over, the latency measured before is forgotten so
+ * the endpoint is tried again.
+ */
+public class EndpointScore {
+
+  /**
+   * The most times the base ejection period an ejection may last
+   */
+  static final int MAX_EJECTION_MULTIPLIER = 10;
+
+  private final String endpoint;
+  private boolean measured;
+  private double latencyNanos;
+  private int failures;
+  private int ejections;
+  private boolean ejected;
+  private long ejectedUntil;
+  private long successes;
+  private long totalFailures;
+
+  /**
+   * Create a new instance, for an endpoint that hasn't been notified yet
+   * @param endpoint The endpoint, as <code>scheme://host:port</code>
+   */
+  public EndpointScore(String endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  /**
+   * Record a notification the endpoint answered.
+   * @param latencyNanos The time taken to answer
+   * @param smoothing The weight of the new latency in the average
+   */
+  synchronized void recordSuccess(long latencyNanos, double smoothing) {
+    this.latencyNanos = measured
+        ? latencyNanos * smoothing + this.latencyNanos * (1 - smoothing)
+        : latencyNanos;
+    this.measured = true;
+    this.failures = 0;
+    this.ejections = 0;
+    this.successes++;
+  }
+
+  /**
+   * Record a failed notification, ejecting the endpoint once it failed too
+   * many in a row.
+   * @param now The time of the failure, in nanoseconds
+   * @param threshold The number of failures in a row ejecting the endpoint
+   * @param ejectionNanos The base ejection period
+   * @return True if the endpoint was ejected by this failure
+   */
+  synchronized boolean recordFailure(long now, int threshold,
+      long ejectionNanos) {
+    this.totalFailures++;
+    this.failures++;
+    if (ejected || failures < threshold)
+      return false;
+    eject(now, ejectionNanos);
+    return true;
+  }
+
+  /**
+   * Eject the endpoint.
+   * @param now The current time, in nanoseconds
+   * @param ejectionNanos The base ejection period
+   */
+  synchronized void eject(long now, long ejectionNanos) {
+    this.ejections++;
+    this.ejected = true;
+    this.ejectedUntil = now
+        + ejectionNanos * Math.min(ejections, MAX_EJECTION_MULTIPLIER);
+    this.failures = 0;
+  }
+
+  /**
+   * Determine whether the endpoint is ejected, readmitting it once its
+   * cool-down period is over.
+   * @param now The current time, in nanoseconds
+   * @return True if the endpoint is ejected
+   */
+  synchronized boolean isEjected(long now) {
+    if (ejected && now - ejectedUntil >= 0) {
+      ejected = false;
+      measured = false;
+    }
+    return ejected;
+  }
+
+  /**
+   * Get the endpoint.
+   * @return The endpoint, as <code>scheme://host:port</code>
+   */
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /**
+   * Determine whether the latency of the endpoint was measured since it was
+   * last readmitted.
+   * @return True if the endpoint answered a notification
+   */
+  public synchronized boolean isMeasured() {
+    return measured;
+  }
+
+  /**
+   * Get the average latency of the endpoint.
+   * @return The latency in nanoseconds, or 0 if not measured
+   */
+  public synchronized double getLatencyNanos() {
+    return measured ? latencyNanos : 0;
+  }
+
+  /**
+   * Get the average latency of the endpoint.
+   * @return The latency in milliseconds, or 0 if not measured
+   */
+  public long getLatencyMillis() {
+    return TimeUnit.NANOSECONDS.toMillis((long) getLatencyNanos());
+  }
+
+  /**
+   * Determine whether the endpoint was ejected and not readmitted since.
+   * @return True if the endpoint is ejected
+   */
+  public synchronized boolean isEjected() {
+    return ejected;
+  }
+
+  /**
+   * Get the number of ejections in a row, without a notification answered
+   * in between.
+   * @return The number of ejections
+   */
+  public synchronized int getEjections() {
+    return ejections;
+  }
+
+  /**
+   * Get the number of notifications in a row the endpoint failed.
+   * @return The number of failures since the last answered notification or
+   * ejection
+   */
+  public synchronized int getFailuresInRow() {
+    return failures;
+  }
+
+  /**
+   * Get the number of notifications the endpoint answered.
+   * @return The number of successes
+   */
+  public synchronized long getSuccesses() {
+    return successes;
+  }
+
+  /**
+   * Get the number of notifications the endpoint failed.
+   * @return The number of failures
+   */
+  public synchronized long getFailures() {
+    return totalFailures;
+  }
+}
@@ -0,0 +1,45 @@
+package com.nerdwin15.stash.webhook.service.failover;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Service choosing the order in which the equivalent endpoints of a Jenkins
+ * instance are tried. Endpoints are notification urls without their query,
+ * so that alternates on the same host are told apart, and are scored by
+ * the outcome of the notifications sent to them.
+ *
+ * A notification is sent to the endpoint ordered first, and to the next one
+ * whenever an endpoint is down, at its concurrency limit, unreachable or
+ * answering with a server error, until the response deadline has passed.
+ * Only the last attempt is recorded.
+ */
+public interface EndpointSelector {
+
+  /**
+   * Order endpoints from the one to try first to the one to try last.
+   * @param endpoints The equivalent endpoints, in their configured order
+   * @return A new list holding the endpoints in the order to try them
+   */
+  List<String> order(List<String> endpoints);
+
+  /**
+   * Record a notification an endpoint answered.
+   * @param endpoint The endpoint
+   * @param latencyNanos The time taken to answer
+   */
+  void recordSuccess(String endpoint, long latencyNanos);
+
+  /**
+   * Record a notification an endpoint failed, either because it couldn't be
+   * reached or because it answered with a server error.
+   * @param endpoint The endpoint
+   */
+  void recordFailure(String endpoint);
+
+  /**
+   * Get the scores of every endpoint notified so far.
+   * @return The scores
+   */
+  Collection<EndpointScore> getEndpoints();
+}
@@ -0,0 +1,5 @@
+/**
+ * Selection among the equivalent endpoints of a Jenkins instance, preferring
+ * the fastest and ejecting those that fail or lag behind.
+ */
+package com.nerdwin15.stash.webhook.service.failover;
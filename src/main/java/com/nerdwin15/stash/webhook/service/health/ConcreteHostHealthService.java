@@ -0,0 +1,422 @@
+package com.nerdwin15.stash.webhook.service.health;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.Operation;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.HttpClientFactory;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+import com.nerdwin15.stash.webhook.service.RepositoryEnumerator;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.route.RouteTable;
+
+/**
+ * Background job keeping the Jenkins hosts configured in hooks warm and
+ * probed. The distinct hosts the repositories with the hook enabled notify
+ * are discovered when the plugin starts and then periodically: their
+ * Jenkins base URL and its alternates, the targets of their routing rules
+ * and the host of their generic webhook. Each
+ * host is sent a few concurrent <code>HEAD</code> requests on a schedule, so
+ * that as many keep-alive connections stay in the pool of the
+ * {@link HttpClientFactory} and the first push after a quiet period doesn't
+ * pay for DNS, TCP and TLS setup.
+ *
+ * A host is down once its probes failed a number of times in a row, and
+ * notifications to it are then skipped until a probe succeeds again. Any
+ * answer below 500 counts as a success, since Jenkins may refuse anonymous
+ * requests to its base URL.
+ *
+ * All hosts are probed at the same time and every probe is aborted once the
+ * probe timeout passes, so a black-holed Jenkins can't delay the health of
+ * the other hosts.
+ */
+public class ConcreteHostHealthService implements HostHealthService,
+    LifecycleAware, DisposableBean {
+
+  /**
+   * Property that disables the probes when set to false
+   */
+  public static final String ENABLED_PROPERTY =
+      "jenkins.webhook.health.enabled";
+
+  /**
+   * Property holding the number of seconds between probes
+   */
+  public static final String INTERVAL_PROPERTY =
+      "jenkins.webhook.health.interval";
+
+  /**
+   * Property holding the number of seconds between discoveries of the
+   * configured hosts
+   */
+  public static final String DISCOVERY_PROPERTY =
+      "jenkins.webhook.health.discovery";
+
+  /**
+   * Property holding the number of seconds after which a probe is aborted
+   */
+  public static final String TIMEOUT_PROPERTY =
+      "jenkins.webhook.health.timeout";
+
+  /**
+   * Property holding the number of connections kept warm per host
+   */
+  public static final String WARM_PROPERTY = "jenkins.webhook.health.warm";
+
+  /**
+   * Property holding the number of failed probes in a row marking a host
+   * down
+   */
+  public static final String FAILURES_PROPERTY =
+      "jenkins.webhook.health.failures";
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(ConcreteHostHealthService.class);
+  private static final int PROBE_THREADS = 32;
+
+  private final RepositoryEnumerator enumerator;
+  private final SecurityService securityService;
+  private final SettingsService settingsService;
+  private final HttpClientFactory httpClientFactory;
+  private final long intervalMillis;
+  private final long discoveryMillis;
+  private final long timeoutMillis;
+  private final int warm;
+  private final int threshold;
+  private final ConcurrentMap<String, HostHealth> hosts =
+      new ConcurrentHashMap<String, HostHealth>();
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("jenkins-webhook-health").setDaemon(true).build());
+  private final ThreadPoolExecutor probes;
+
+  /**
+   * Create a new instance using the configured system properties
+   * @param enumerator Enumerates the repositories to discover hosts in
+   * @param securityService Service used to discover as a system user
+   * @param settingsService Service used to find enabled hooks
+   * @param httpClientFactory Factory of the clients sending the probes
+   */
+  public ConcreteHostHealthService(RepositoryEnumerator enumerator,
+      SecurityService securityService, SettingsService settingsService,
+      HttpClientFactory httpClientFactory) {
+    this(enumerator, securityService, settingsService, httpClientFactory,
+        TimeUnit.SECONDS.toMillis(PluginProperties.getLong(
+            INTERVAL_PROPERTY, 20)),
+        TimeUnit.SECONDS.toMillis(PluginProperties.getLong(
+            DISCOVERY_PROPERTY, 300)),
+        TimeUnit.SECONDS.toMillis(PluginProperties.getLong(
+            TIMEOUT_PROPERTY, 10)),
+        PluginProperties.getInt(WARM_PROPERTY, 2),
+        PluginProperties.getInt(FAILURES_PROPERTY, 3));
+  }
+
+  /**
+   * Create a new instance
+   * @param enumerator Enumerates the repositories to discover hosts in
+   * @param securityService Service used to discover as a system user
+   * @param settingsService Service used to find enabled hooks
+   * @param httpClientFactory Factory of the clients sending the probes
+   * @param intervalMillis The time between probes
+   * @param discoveryMillis The time between discoveries of the hosts
+   * @param timeoutMillis The time after which a probe is aborted
+   * @param warm The number of connections kept warm per host
+   * @param threshold The number of failed probes in a row marking a host
+   * down
+   */
+  public ConcreteHostHealthService(RepositoryEnumerator enumerator,
+      SecurityService securityService, SettingsService settingsService,
+      HttpClientFactory httpClientFactory, long intervalMillis,
+      long discoveryMillis, long timeoutMillis, int warm, int threshold) {
+    this.enumerator = enumerator;
+    this.securityService = securityService;
+    this.settingsService = settingsService;
+    this.httpClientFactory = httpClientFactory;
+    this.intervalMillis = Math.max(1000L, intervalMillis);
+    this.discoveryMillis = Math.max(this.intervalMillis, discoveryMillis);
+    this.timeoutMillis = Math.max(1L, timeoutMillis);
+    this.warm = Math.max(1, warm);
+    this.threshold = Math.max(1, threshold);
+    final int threads = Math.max(this.warm, PROBE_THREADS);
+    this.probes = new ThreadPoolExecutor(threads, threads, 60L,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-probe-%d")
+            .setDaemon(true).build());
+    this.probes.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void onStart() {
+    if (!PluginProperties.getBoolean(ENABLED_PROPERTY, true))
+      return;
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          discover();
+        } catch (RuntimeException e) {
+          LOGGER.error("Discovery of the Jenkins hosts failed", e);
+        }
+      }
+    }, 0, discoveryMillis, TimeUnit.MILLISECONDS);
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          probe();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+          LOGGER.error("Probing the Jenkins hosts failed", e);
+        }
+      }
+    }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void destroy() {
+    scheduler.shutdownNow();
+    probes.shutdownNow();
+  }
+
+  @Override
+  public boolean isDown(String host) {
+    final HostHealth health = hosts.get(host);
+    return health != null && health.isDown();
+  }
+
+  @Override
+  public HostHealth getHealth(String host) {
+    return hosts.get(host);
+  }
+
+  @Override
+  public Collection<HostHealth> getHosts() {
+    return Collections.unmodifiableCollection(hosts.values());
+  }
+
+  /**
+   * Find the distinct Jenkins hosts of the repositories with the hook
+   * enabled. Hosts no longer configured stop being probed.
+   */
+  void discover() {
+    final Map<String, HostHealth> found = new HashMap<String, HostHealth>();
+    securityService.doWithPermission("Jenkins host discovery",
+        Permission.REPO_READ, new Operation<Boolean, RuntimeException>() {
+          @Override
+          public Boolean perform() {
+            return enumerator.forEach(new RepositoryEnumerator.Callback() {
+              @Override
+              public boolean onRepository(Repository repository) {
+                for (HostHealth health : targets(repository)) {
+                  if (!found.containsKey(health.getHost()))
+                    found.put(health.getHost(), health);
+                }
+                return !Thread.currentThread().isInterrupted();
+              }
+            });
+          }
+        });
+
+    hosts.keySet().retainAll(found.keySet());
+    for (HostHealth health : found.values()) {
+      final HostHealth existing = hosts.get(health.getHost());
+      if (existing == null
+          || !existing.getJenkinsBase().equals(health.getJenkinsBase())
+          || existing.isIgnoreCerts() != health.isIgnoreCerts())
+        hosts.put(health.getHost(), health);
+    }
+    LOGGER.debug("Discovered {} Jenkins hosts", hosts.size());
+  }
+
+  /**
+   * Probe every discovered host at the same time, waiting for each at most
+   * until the probe timeout.
+   * @throws InterruptedException If interrupted while probing
+   */
+  void probe() throws InterruptedException {
+    final Map<HostHealth, List<Probe>> sent =
+        new HashMap<HostHealth, List<Probe>>();
+    for (HostHealth health : hosts.values()) {
+      final List<Probe> attempts = new ArrayList<Probe>(warm);
+      for (int i = 0; i < warm; i++) {
+        final Probe probe = new Probe(health);
+        probe.answer = probes.submit(probe);
+        attempts.add(probe);
+      }
+      sent.put(health, attempts);
+    }
+    final long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    for (Map.Entry<HostHealth, List<Probe>> entry : sent.entrySet()) {
+      record(entry.getKey(), entry.getValue(), deadline);
+    }
+    httpClientFactory.closeIdleConnections(intervalMillis * 2);
+  }
+
+  private void record(HostHealth health, List<Probe> attempts,
+      long deadline) throws InterruptedException {
+    int status = 0;
+    String error = null;
+    long latency = 0;
+    boolean ran = false;
+    for (Probe probe : attempts) {
+      try {
+        status = Math.max(status, probe.answer.get(
+            Math.max(0L, deadline - System.nanoTime()),
+            TimeUnit.NANOSECONDS));
+        ran = true;
+      } catch (ExecutionException e) {
+        error = e.getCause().toString();
+        ran = true;
+      } catch (TimeoutException e) {
+        probe.request.abort();
+        probe.answer.cancel(true);
+        // A probe still waiting for a thread says nothing about the host
+        if (probe.started) {
+          error = "No answer within " + timeoutMillis + "ms";
+          ran = true;
+        }
+      }
+      latency = Math.max(latency, probe.elapsedMillis);
+    }
+    if (!ran)
+      return;
+
+    final boolean wasDown = health.isDown();
+    if (status > 0 && status < 500) {
+      health.recordSuccess(status, latency, System.currentTimeMillis());
+      if (wasDown)
+        LOGGER.info("Jenkins host {} is back up", health.getHost());
+    } else {
+      health.recordFailure(status, error != null ? error : "HTTP " + status,
+          System.currentTimeMillis(), threshold);
+      if (!wasDown && health.isDown()) {
+        LOGGER.warn("Jenkins host {} is down after {} failed probes: {}",
+            new Object[] { health.getHost(), health.getFailures(),
+                health.getError() });
+      }
+    }
+  }
+
+  /**
+   * A single <code>HEAD</code> request to a host, kept so it can be aborted
+   * once the probe timeout passes.
+   */
+  private class Probe implements Callable<Integer> {
+    private final HostHealth health;
+    private final HttpHead request;
+    private Future<Integer> answer;
+    private volatile boolean started;
+    private volatile long elapsedMillis;
+
+    Probe(HostHealth health) {
+      this.health = health;
+      this.request = new HttpHead(health.getJenkinsBase() + "/");
+    }
+
+    @Override
+    public Integer call() throws Exception {
+      started = true;
+      final long start = System.nanoTime();
+      final HttpClient client = httpClientFactory.getHttpClient(
+          health.getJenkinsBase().startsWith("https"),
+          health.isIgnoreCerts());
+      try {
+        final HttpResponse response = client.execute(request);
+        EntityUtils.consume(response.getEntity());
+        return response.getStatusLine().getStatusCode();
+      } catch (Exception e) {
+        request.abort();
+        throw e;
+      } finally {
+        elapsedMillis =
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        httpClientFactory.releaseHttpClient(client);
+      }
+    }
+  }
+
+  private List<HostHealth> targets(Repository repository) {
+    final List<HostHealth> targets = new ArrayList<HostHealth>();
+    final RepositoryHook hook = settingsService.getRepositoryHook(repository);
+    if (hook == null || !hook.isEnabled())
+      return targets;
+    final Settings settings = settingsService.getSettings(repository);
+    final String jenkinsBase = settings == null ? null
+        : settings.getString(Notifier.JENKINS_BASE);
+    if (jenkinsBase == null || jenkinsBase.trim().isEmpty())
+      return targets;
+    final boolean ignoreCerts =
+        settings.getBoolean(Notifier.IGNORE_CERTS, false);
+    final List<String> bases = new ArrayList<String>(
+        Notifier.parseJenkinsBases(jenkinsBase.trim(),
+            settings.getString(Notifier.JENKINS_ALTERNATES)));
+    try {
+      bases.addAll(RouteTable.compile(
+          settings.getString(Notifier.REF_ROUTES)).getTargets());
+    } catch (IllegalArgumentException e) {
+      LOGGER.debug("Ignoring invalid routing rules of repository {}",
+          repository.getId());
+    }
+    final String webhookUrl = settings.getString(Notifier.WEBHOOK_URL);
+    if (webhookUrl != null) {
+      // Only the scheme, host and port are probed, unless templated
+      final String origin = webhookUrl.trim().replaceFirst(
+          "^([^:/]+://[^/?#]*).*$", "$1");
+      if (!origin.contains("$"))
+        bases.add(origin);
+    }
+    for (String base : bases) {
+      final HostHealth health = target(base, ignoreCerts);
+      if (health != null)
+        targets.add(health);
+    }
+    return targets;
+  }
+
+  private HostHealth target(String jenkinsBase, boolean ignoreCerts) {
+    final String base = jenkinsBase.trim().replaceFirst("/$", "");
+    try {
+      final URI uri = URI.create(base);
+      if (uri.getHost() == null)
+        return null;
+      return new HostHealth(Notifier.hostOf(uri), base, ignoreCerts);
+    } catch (IllegalArgumentException e) {
+      LOGGER.debug("Ignoring invalid Jenkins base URL {}", base);
+      return null;
+    }
+  }
+}
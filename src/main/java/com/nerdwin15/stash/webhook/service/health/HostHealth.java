@@ -0,0 +1,134 @@
+package com.nerdwin15.stash.webhook.service.health;
+
+/**
+ * The health of a Jenkins host, as found by its latest probes. A host is
+ * down once a number of probes in a row failed, and up again as soon as a
+ * probe succeeds.
+ */
+public class HostHealth {
+
+  private final String host;
+  private final String jenkinsBase;
+  private final boolean ignoreCerts;
+  private boolean down;
+  private int failures;
+  private int status;
+  private long latencyMillis;
+  private long probedAt;
+  private String error;
+
+  /**
+   * Create a new instance, for a host that hasn't been probed yet
+   * @param host The host, as <code>scheme://host:port</code>
+   * @param jenkinsBase The Jenkins base URL probed
+   * @param ignoreCerts True if the certificate of the host isn't validated
+   */
+  public HostHealth(String host, String jenkinsBase, boolean ignoreCerts) {
+    this.host = host;
+    this.jenkinsBase = jenkinsBase;
+    this.ignoreCerts = ignoreCerts;
+  }
+
+  /**
+   * Record a probe Jenkins answered.
+   * @param status The HTTP status code
+   * @param latencyMillis The time taken to answer
+   * @param now The time of the probe
+   */
+  synchronized void recordSuccess(int status, long latencyMillis, long now) {
+    this.down = false;
+    this.failures = 0;
+    this.status = status;
+    this.latencyMillis = latencyMillis;
+    this.probedAt = now;
+    this.error = null;
+  }
+
+  /**
+   * Record a failed probe.
+   * @param status The HTTP status code, or 0 if Jenkins couldn't be reached
+   * @param error The reason of the failure
+   * @param now The time of the probe
+   * @param threshold The number of failures in a row marking the host down
+   */
+  synchronized void recordFailure(int status, String error, long now,
+      int threshold) {
+    this.failures++;
+    this.down = failures >= threshold;
+    this.status = status;
+    this.probedAt = now;
+    this.error = error;
+  }
+
+  /**
+   * Get the host.
+   * @return The host, as <code>scheme://host:port</code>
+   */
+  public String getHost() {
+    return host;
+  }
+
+  /**
+   * Get the Jenkins base URL probed.
+   * @return The base URL
+   */
+  public String getJenkinsBase() {
+    return jenkinsBase;
+  }
+
+  /**
+   * Determine whether the certificate of the host is validated.
+   * @return True if any certificate is accepted
+   */
+  public boolean isIgnoreCerts() {
+    return ignoreCerts;
+  }
+
+  /**
+   * Determine whether the host is down.
+   * @return True if the recent probes failed
+   */
+  public synchronized boolean isDown() {
+    return down;
+  }
+
+  /**
+   * Get the number of probes in a row that failed.
+   * @return The number of failures
+   */
+  public synchronized int getFailures() {
+    return failures;
+  }
+
+  /**
+   * Get the status of the latest probe.
+   * @return The HTTP status code, or 0 if Jenkins couldn't be reached
+   */
+  public synchronized int getStatus() {
+    return status;
+  }
+
+  /**
+   * Get the time Jenkins took to answer its latest successful probe.
+   * @return The latency in milliseconds
+   */
+  public synchronized long getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  /**
+   * Get the time of the latest probe.
+   * @return The time in milliseconds since the epoch, or 0 if never probed
+   */
+  public synchronized long getProbedAt() {
+    return probedAt;
+  }
+
+  /**
+   * Get the reason the latest probe failed.
+   * @return The reason, or null if it succeeded
+   */
+  public synchronized String getError() {
+    return error;
+  }
+}
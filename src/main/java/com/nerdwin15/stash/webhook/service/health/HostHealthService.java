@@ -0,0 +1,31 @@
+package com.nerdwin15.stash.webhook.service.health;
+
+import java.util.Collection;
+
+/**
+ * Service publishing the health of the Jenkins hosts configured in hooks,
+ * as found by probing them in the background.
+ */
+public interface HostHealthService {
+
+  /**
+   * Determine whether a host is known to be down. Hosts that haven't been
+   * probed are assumed to be up.
+   * @param host The host, as <code>scheme://host:port</code>
+   * @return True if the host failed its recent probes
+   */
+  boolean isDown(String host);
+
+  /**
+   * Get the health of a host.
+   * @param host The host, as <code>scheme://host:port</code>
+   * @return The health, or null if the host isn't probed
+   */
+  HostHealth getHealth(String host);
+
+  /**
+   * Get the health of every probed host.
+   * @return The health of the hosts
+   */
+  Collection<HostHealth> getHosts();
+}
@@ -0,0 +1,5 @@
+/**
+ * Background discovery and probing of the configured Jenkins hosts, keeping
+ * warm connections to each and publishing which are known to be down.
+ */
+package com.nerdwin15.stash.webhook.service.health;
@@ -0,0 +1,146 @@
+package com.nerdwin15.stash.webhook.service.history;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.atlassian.event.api.EventListener;
+import com.atlassian.stash.event.RepositoryDeletedEvent;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * Default implementation of the {@link DeliveryHistory}, keeping a
+ * {@link DeliveryRing} per repository.
+ *
+ * The text fields of an attempt are cut to a fixed length, so every ring
+ * has a known worst case footprint. The number of rings is derived from the
+ * memory budget; once it is reached, the history of the repository notified
+ * least recently is forgotten.
+ */
+public class ConcreteDeliveryHistory implements DeliveryHistory {
+
+  /**
+   * Property holding the number of attempts kept per repository
+   */
+  public static final String SIZE_PROPERTY = "jenkins.webhook.history.size";
+
+  /**
+   * Property holding the memory budget of the whole history, in kilobytes
+   */
+  public static final String MEMORY_PROPERTY =
+      "jenkins.webhook.history.memory";
+
+  static final int MAX_REFS = 200;
+  static final int MAX_URL = 500;
+  static final int MAX_RESPONSE = 300;
+
+  /**
+   * Worst case footprint of an attempt: the primitive slots, three string
+   * references and headers, and the characters of the cut text fields.
+   */
+  static final int ENTRY_BYTES = 20 + 3 * 44
+      + 2 * (MAX_REFS + MAX_URL + MAX_RESPONSE);
+
+  private final int size;
+  private final Cache<Integer, DeliveryRing> rings;
+
+  /**
+   * Create a new instance using the configured system properties
+   */
+  public ConcreteDeliveryHistory() {
+    this(PluginProperties.getInt(SIZE_PROPERTY, 20),
+        PluginProperties.getLong(MEMORY_PROPERTY, 32768) * 1024);
+  }
+
+  /**
+   * Create a new instance
+   * @param size The number of attempts kept per repository
+   * @param memoryBytes The memory budget of the whole history
+   */
+  public ConcreteDeliveryHistory(int size, long memoryBytes) {
+    this.size = Math.max(1, size);
+    final long ringBytes = (long) this.size * ENTRY_BYTES;
+    this.rings = CacheBuilder.newBuilder()
+        .maximumSize(Math.max(1, memoryBytes / ringBytes)).build();
+  }
+
+  @Override
+  public void record(Repository repository, Collection<RefChange> refChanges,
+      String url, int status, long latencyMillis, String response) {
+    final Integer id = repository.getId();
+    if (id == null)
+      return;
+    DeliveryRing ring = rings.getIfPresent(id);
+    if (ring == null) {
+      final DeliveryRing created = new DeliveryRing(size);
+      ring = rings.asMap().putIfAbsent(id, created);
+      if (ring == null)
+        ring = created;
+    }
+    ring.add(new Delivery(System.currentTimeMillis(),
+        cut(refIds(refChanges), MAX_REFS), cut(url, MAX_URL), status,
+        latencyMillis, cut(response, MAX_RESPONSE)));
+  }
+
+  @Override
+  public List<Delivery> getDeliveries(Repository repository, int start,
+      int limit) {
+    final DeliveryRing ring = getRing(repository);
+    return ring == null ? Collections.<Delivery>emptyList()
+        : ring.get(Math.max(0, start), limit);
+  }
+
+  @Override
+  public int getSize(Repository repository) {
+    final DeliveryRing ring = getRing(repository);
+    return ring == null ? 0 : ring.size();
+  }
+
+  /**
+   * Forget the history of a deleted repository.
+   * @param event The event
+   */
+  @EventListener
+  public void onRepositoryDeleted(RepositoryDeletedEvent event) {
+    if (event.getRepository() != null
+        && event.getRepository().getId() != null)
+      rings.invalidate(event.getRepository().getId());
+  }
+
+  private DeliveryRing getRing(Repository repository) {
+    final Integer id = repository.getId();
+    return id == null ? null : rings.getIfPresent(id);
+  }
+
+  private static String refIds(Collection<RefChange> refChanges) {
+    if (refChanges == null)
+      return "";
+    final StringBuilder builder = new StringBuilder();
+    for (RefChange refChange : refChanges) {
+      if (builder.length() > 0)
+        builder.append(',');
+      builder.append(refChange.getRefId());
+      if (builder.length() > MAX_REFS)
+        break;
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Cut a string to a maximum length. The result is copied, as a substring
+   * may share the characters of a much larger string.
+   * @param value The string. May be null.
+   * @param max The maximum length
+   * @return The cut string, never null
+   */
+  static String cut(String value, int max) {
+    if (value == null)
+      return "";
+    return value.length() <= max ? value
+        : new String(value.substring(0, max));
+  }
+}
@@ -0,0 +1,103 @@
+package com.nerdwin15.stash.webhook.service.history;
+
+/**
+ * A single recorded notification attempt.
+ */
+public class Delivery {
+
+  /**
+   * Status of an attempt that failed before Jenkins answered
+   */
+  public static final int STATUS_ERROR = -1;
+
+  /**
+   * Status of an attempt that was dropped before being sent, because the
+   * concurrency limit of the Jenkins host was reached
+   */
+  public static final int STATUS_DROPPED = 0;
+
+  private final long timestamp;
+  private final String refs;
+  private final String url;
+  private final int status;
+  private final long latencyMillis;
+  private final String response;
+
+  /**
+   * Create a new instance
+   * @param timestamp The time of the attempt, in milliseconds since the epoch
+   * @param refs The IDs of the changed refs, comma separated
+   * @param url The URL that was notified
+   * @param status The HTTP status code, {@link #STATUS_ERROR} or
+   * {@link #STATUS_DROPPED}
+   * @param latencyMillis The time taken by the request
+   * @param response The start of the response body, or the error message
+   */
+  public Delivery(long timestamp, String refs, String url, int status,
+      long latencyMillis, String response) {
+    this.timestamp = timestamp;
+    this.refs = refs;
+    this.url = url;
+    this.status = status;
+    this.latencyMillis = latencyMillis;
+    this.response = response;
+  }
+
+  /**
+   * Get the time of the attempt.
+   * @return The time in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Get the IDs of the changed refs.
+   * @return The ref IDs, comma separated. Empty for a manual notification.
+   */
+  public String getRefs() {
+    return refs;
+  }
+
+  /**
+   * Get the URL that was notified.
+   * @return The URL
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Get the outcome of the attempt.
+   * @return The HTTP status code, {@link #STATUS_ERROR} or
+   * {@link #STATUS_DROPPED}
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Whether Jenkins accepted the notification.
+   * @return True for a 2xx or 3xx status code
+   */
+  public boolean isSuccess() {
+    return status >= 200 && status < 400;
+  }
+
+  /**
+   * Get the time taken by the request.
+   * @return The latency in milliseconds
+   */
+  public long getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  /**
+   * Get the start of the response body, or the error message of a failed
+   * attempt.
+   * @return The response snippet. May be empty.
+   */
+  public String getResponse() {
+    return response;
+  }
+}
@@ -0,0 +1,44 @@
+package com.nerdwin15.stash.webhook.service.history;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+
+/**
+ * Defines the record of the recent notification attempts of each
+ * repository. Recording happens on the notification path, so it must stay
+ * in memory and never block for long.
+ */
+public interface DeliveryHistory {
+
+  /**
+   * Record a notification attempt.
+   * @param repository The repository that was notified for
+   * @param refChanges The refs that were changed. May be empty.
+   * @param url The URL that was notified
+   * @param status The HTTP status code, {@link Delivery#STATUS_ERROR} or
+   * {@link Delivery#STATUS_DROPPED}
+   * @param latencyMillis The time taken by the request
+   * @param response The response body or error message. May be null.
+   */
+  void record(Repository repository, Collection<RefChange> refChanges,
+      String url, int status, long latencyMillis, String response);
+
+  /**
+   * Get a page of the recorded attempts of a repository, newest first.
+   * @param repository The repository
+   * @param start The index of the first attempt to return
+   * @param limit The maximum number of attempts to return
+   * @return The attempts
+   */
+  List<Delivery> getDeliveries(Repository repository, int start, int limit);
+
+  /**
+   * Get the number of recorded attempts of a repository.
+   * @param repository The repository
+   * @return The number of attempts, at most the capacity of its history
+   */
+  int getSize(Repository repository);
+}
@@ -0,0 +1,77 @@
+package com.nerdwin15.stash.webhook.service.history;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A fixed size ring buffer of the most recent attempts of one repository.
+ * The fields of the attempts are kept in parallel arrays allocated up front,
+ * so recording an attempt only stores into existing slots.
+ */
+class DeliveryRing {
+
+  private final long[] timestamps;
+  private final int[] statuses;
+  private final long[] latencies;
+  private final String[] refs;
+  private final String[] urls;
+  private final String[] responses;
+  private int next;
+  private int size;
+
+  /**
+   * Create a new instance
+   * @param capacity The number of attempts kept
+   */
+  DeliveryRing(int capacity) {
+    timestamps = new long[capacity];
+    statuses = new int[capacity];
+    latencies = new long[capacity];
+    refs = new String[capacity];
+    urls = new String[capacity];
+    responses = new String[capacity];
+  }
+
+  /**
+   * Record an attempt, overwriting the oldest one when full.
+   * @param delivery The attempt
+   */
+  synchronized void add(Delivery delivery) {
+    timestamps[next] = delivery.getTimestamp();
+    statuses[next] = delivery.getStatus();
+    latencies[next] = delivery.getLatencyMillis();
+    refs[next] = delivery.getRefs();
+    urls[next] = delivery.getUrl();
+    responses[next] = delivery.getResponse();
+    next = (next + 1) % timestamps.length;
+    size = Math.min(size + 1, timestamps.length);
+  }
+
+  /**
+   * Get a page of the attempts, newest first.
+   * @param start The index of the first attempt to return
+   * @param limit The maximum number of attempts to return
+   * @return The attempts
+   */
+  synchronized List<Delivery> get(int start, int limit) {
+    if (start >= size || limit <= 0)
+      return Collections.emptyList();
+    final int end = Math.min(size, start + limit);
+    final List<Delivery> page = new ArrayList<Delivery>(end - start);
+    for (int i = start; i < end; i++) {
+      final int slot = (next - 1 - i + timestamps.length) % timestamps.length;
+      page.add(new Delivery(timestamps[slot], refs[slot], urls[slot],
+          statuses[slot], latencies[slot], responses[slot]));
+    }
+    return page;
+  }
+
+  /**
+   * Get the number of recorded attempts.
+   * @return The number of attempts
+   */
+  synchronized int size() {
+    return size;
+  }
+}
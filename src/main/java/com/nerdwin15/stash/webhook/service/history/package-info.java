@@ -0,0 +1,5 @@
+/**
+ * A bounded in-memory record of the recent notification attempts of each
+ * repository, so users can see whether Jenkins was notified of a push.
+ */
+package com.nerdwin15.stash.webhook.service.history;
@@ -0,0 +1,94 @@
+package com.nerdwin15.stash.webhook.service.limit;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * Default implementation of the {@link ConcurrencyLimiterService}, keeping
+ * one limiter per host for the lifetime of the plugin. The limits are tuned
+ * with the <code>jenkins.webhook.limit.*</code> system properties.
+ */
+public class ConcreteConcurrencyLimiterService 
+    implements ConcurrencyLimiterService {
+
+  /**
+   * Property holding the starting concurrency limit per host
+   */
+  public static final String INITIAL_PROPERTY = 
+      "jenkins.webhook.limit.initial";
+
+  /**
+   * Property holding the lowest concurrency limit per host
+   */
+  public static final String MIN_PROPERTY = "jenkins.webhook.limit.min";
+
+  /**
+   * Property holding the highest concurrency limit per host
+   */
+  public static final String MAX_PROPERTY = "jenkins.webhook.limit.max";
+
+  /**
+   * Property holding the seconds to wait for a free slot before dropping
+   * a notification
+   */
+  public static final String WAIT_PROPERTY = "jenkins.webhook.limit.wait";
+
+  private final ConcurrentMap<String, ConcurrencyLimiter> limiters =
+      new ConcurrentHashMap<String, ConcurrencyLimiter>();
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final long waitMillis;
+
+  /**
+   * Create a new instance using the configured system properties
+   */
+  public ConcreteConcurrencyLimiterService() {
+    this(PluginProperties.getInt(INITIAL_PROPERTY, 4),
+        Math.max(1, PluginProperties.getInt(MIN_PROPERTY, 1)),
+        PluginProperties.getInt(MAX_PROPERTY, 32),
+        PluginProperties.getLong(WAIT_PROPERTY, 30) * 1000L);
+  }
+
+  /**
+   * Create a new instance
+   * @param initialLimit The starting limit per host
+   * @param minLimit The lowest limit per host
+   * @param maxLimit The highest limit per host
+   * @param waitMillis The time to wait for a free slot
+   */
+  public ConcreteConcurrencyLimiterService(int initialLimit, int minLimit,
+      int maxLimit, long waitMillis) {
+    this.initialLimit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = Math.max(minLimit, maxLimit);
+    this.waitMillis = waitMillis;
+  }
+
+  @Override
+  public ConcurrencyLimiter getLimiter(String host) {
+    ConcurrencyLimiter limiter = limiters.get(host);
+    if (limiter == null) {
+      final ConcurrencyLimiter created = new ConcurrencyLimiter(host,
+          initialLimit, minLimit, maxLimit);
+      limiter = limiters.putIfAbsent(host, created);
+      if (limiter == null)
+        limiter = created;
+    }
+    return limiter;
+  }
+
+  @Override
+  public Collection<ConcurrencyLimiter> getLimiters() {
+    return Collections.unmodifiableCollection(limiters.values());
+  }
+
+  @Override
+  public long getWaitMillis() {
+    return waitMillis;
+  }
+}
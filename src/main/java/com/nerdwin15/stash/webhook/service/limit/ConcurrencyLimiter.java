@@ -0,0 +1,247 @@
+package com.nerdwin15.stash.webhook.service.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Ticker;
+
+/**
+ * An adaptive limit on the number of concurrent requests to a single Jenkins
+ * host. The limit grows additively while the observed latency stays close to
+ * the best latency seen recently, and shrinks multiplicatively when latency
+ * climbs or requests fail, at most once per round trip.
+ *
+ * Requests must {@link #acquire(long, TimeUnit)} a slot before being sent and
+ * {@link #release(long, boolean)} it with their outcome once done.
+ */
+public class ConcurrencyLimiter {
+
+  /**
+   * Latency above this multiple of the minimum latency counts as congestion
+   */
+  static final double TOLERANCE = 2.0;
+
+  /**
+   * Factor applied to the limit when latency climbs
+   */
+  static final double LATENCY_BACKOFF = 0.9;
+
+  /**
+   * Factor applied to the limit when a request fails
+   */
+  static final double ERROR_BACKOFF = 0.5;
+
+  /**
+   * Number of samples after which the minimum latency is measured afresh,
+   * so the baseline follows lasting changes in the Jenkins response time
+   */
+  static final int MIN_RTT_WINDOW = 500;
+
+  private static final double SMOOTHING = 0.2;
+
+  private final String key;
+  private final int minLimit;
+  private final int maxLimit;
+  private final Ticker ticker;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private double limit;
+  private int inFlight;
+  private long minRttNanos;
+  private double smoothedRttNanos;
+  private int samples;
+  private long lastDecreaseNanos;
+  private long successes;
+  private long failures;
+
+  /**
+   * Create a new instance
+   * @param key The host the limiter is for
+   * @param initialLimit The starting limit
+   * @param minLimit The lowest the limit may go. Must be positive.
+   * @param maxLimit The highest the limit may go
+   */
+  public ConcurrencyLimiter(String key, int initialLimit, int minLimit,
+      int maxLimit) {
+    this(key, initialLimit, minLimit, maxLimit, Ticker.systemTicker());
+  }
+
+  /**
+   * Create a new instance using the provided time source
+   * @param key The host the limiter is for
+   * @param initialLimit The starting limit
+   * @param minLimit The lowest the limit may go. Must be positive.
+   * @param maxLimit The highest the limit may go
+   * @param ticker The time source
+   */
+  ConcurrencyLimiter(String key, int initialLimit, int minLimit, 
+      int maxLimit, Ticker ticker) {
+    if (minLimit <= 0 || maxLimit < minLimit)
+      throw new IllegalArgumentException("Invalid limits " + minLimit + ".." 
+          + maxLimit);
+    this.key = key;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    this.ticker = ticker;
+    this.lastDecreaseNanos = ticker.read();
+  }
+
+  /**
+   * Wait for a free slot under the current limit.
+   * @param timeout The maximum time to wait
+   * @param unit The unit of the timeout
+   * @return True if a slot was acquired, false if the timeout elapsed
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public boolean acquire(long timeout, TimeUnit unit) 
+      throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (inFlight >= (int) limit) {
+        if (nanos <= 0)
+          return false;
+        nanos = available.awaitNanos(nanos);
+      }
+      inFlight++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Release a slot and adjust the limit according to the outcome of the
+   * request.
+   * @param rttNanos The time the request took
+   * @param success False if the request failed or Jenkins reported an error
+   */
+  public void release(long rttNanos, boolean success) {
+    lock.lock();
+    try {
+      inFlight = Math.max(0, inFlight - 1);
+      if (success) {
+        successes++;
+        onSample(rttNanos);
+      } else {
+        failures++;
+        decrease(ERROR_BACKOFF);
+      }
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the host the limiter is for.
+   * @return The key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Get the current limit.
+   * @return The number of requests allowed to run concurrently
+   */
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of requests currently running.
+   * @return The number of requests in flight
+   */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the minimum latency observed in the current window.
+   * @return The minimum latency in milliseconds, or 0 if none was observed
+   */
+  public double getMinRttMillis() {
+    lock.lock();
+    try {
+      return samples == 0 ? 0 : minRttNanos / 1e6;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the smoothed latency of successful requests.
+   * @return The smoothed latency in milliseconds
+   */
+  public double getRttMillis() {
+    lock.lock();
+    try {
+      return smoothedRttNanos / 1e6;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of successful requests.
+   * @return The number of successes
+   */
+  public long getSuccesses() {
+    lock.lock();
+    try {
+      return successes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of failed requests.
+   * @return The number of failures
+   */
+  public long getFailures() {
+    lock.lock();
+    try {
+      return failures;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void onSample(long rttNanos) {
+    if (samples % MIN_RTT_WINDOW == 0 || rttNanos < minRttNanos)
+      minRttNanos = rttNanos;
+    smoothedRttNanos = samples == 0 ? rttNanos 
+        : smoothedRttNanos + SMOOTHING * (rttNanos - smoothedRttNanos);
+    samples++;
+
+    if (smoothedRttNanos > TOLERANCE * minRttNanos) {
+      decrease(LATENCY_BACKOFF);
+    } else if (inFlight + 1 >= limit / 2) {
+      // Only grow while the limit is actually being used, so an idle host
+      // doesn't accumulate a limit it was never tested with
+      limit = Math.min(maxLimit, limit + 1.0 / limit);
+    }
+  }
+
+  private void decrease(double factor) {
+    final long now = ticker.read();
+    if (now - lastDecreaseNanos < (long) smoothedRttNanos)
+      return;
+    lastDecreaseNanos = now;
+    limit = Math.max(minLimit, limit * factor);
+  }
+}
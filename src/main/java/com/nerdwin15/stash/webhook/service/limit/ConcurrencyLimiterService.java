@@ -0,0 +1,28 @@
+package com.nerdwin15.stash.webhook.service.limit;
+
+import java.util.Collection;
+
+/**
+ * Service providing the {@link ConcurrencyLimiter} of each Jenkins host.
+ */
+public interface ConcurrencyLimiterService {
+
+  /**
+   * Get the limiter of a host, creating it if needed.
+   * @param host The host, as <code>scheme://host:port</code>
+   * @return The limiter
+   */
+  ConcurrencyLimiter getLimiter(String host);
+
+  /**
+   * Get the limiters of every host notified so far.
+   * @return The limiters
+   */
+  Collection<ConcurrencyLimiter> getLimiters();
+
+  /**
+   * Get the maximum time to wait for a free slot.
+   * @return The wait time in milliseconds
+   */
+  long getWaitMillis();
+}
@@ -0,0 +1,164 @@
+package com.nerdwin15.stash.webhook.service.payload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Collection;
+
+import com.atlassian.stash.content.Changeset;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.Person;
+import com.atlassian.stash.user.StashUser;
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonWriter;
+import com.nerdwin15.stash.webhook.service.ChangesetScanner;
+
+/**
+ * A {@link PayloadWriter} that streams a push as JSON. The document contains
+ * the repository, the pushing user and every ref change. If commits are
+ * requested, they are listed per ref change, with the total across all refs
+ * bounded by the provided maximum. Each list is flagged as truncated when the
+ * ref change added commits that were left out, including refs listed after
+ * the budget ran out.
+ */
+public class JsonPayloadWriter implements PayloadWriter {
+
+  /**
+   * Hard upper bound on the number of commits listed in one payload
+   */
+  public static final int MAX_COMMITS_LIMIT = 1000;
+
+  private static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+  private final ChangesetScanner changesetScanner;
+
+  /**
+   * Create a new instance
+   * @param changesetScanner Scanner used to page through commits
+   */
+  public JsonPayloadWriter(ChangesetScanner changesetScanner) {
+    this.changesetScanner = changesetScanner;
+  }
+
+  @Override
+  public String getContentType() {
+    return CONTENT_TYPE;
+  }
+
+  @Override
+  public void write(Repository repository, StashUser user,
+      Collection<RefChange> refChanges, int maxCommits, OutputStream out)
+      throws IOException {
+    final JsonWriter json = new JsonWriter(
+        new OutputStreamWriter(out, Charsets.UTF_8));
+    json.beginObject();
+    writeRepository(json, repository);
+    writePusher(json, user);
+
+    final boolean withCommits = maxCommits > 0;
+    int remaining = Math.min(maxCommits, MAX_COMMITS_LIMIT);
+    json.name("refChanges").beginArray();
+    for (RefChange refChange : refChanges) {
+      remaining -= writeRefChange(json, repository, refChange, withCommits,
+          Math.max(remaining, 0));
+    }
+    json.endArray();
+    json.endObject();
+    json.flush();
+  }
+
+  private void writeRepository(JsonWriter json, Repository repository)
+      throws IOException {
+    json.name("repository").beginObject();
+    json.name("id").value(repository.getId());
+    json.name("slug").value(repository.getSlug());
+    json.name("name").value(repository.getName());
+    final Project project = repository.getProject();
+    if (project != null) {
+      json.name("project").beginObject();
+      json.name("id").value(project.getId());
+      json.name("key").value(project.getKey());
+      json.name("name").value(project.getName());
+      json.endObject();
+    }
+    json.endObject();
+  }
+
+  private void writePusher(JsonWriter json, StashUser user)
+      throws IOException {
+    json.name("pusher");
+    if (user == null) {
+      json.nullValue();
+      return;
+    }
+    json.beginObject();
+    json.name("name").value(user.getName());
+    json.name("displayName").value(user.getDisplayName());
+    json.name("emailAddress").value(user.getEmailAddress());
+    json.endObject();
+  }
+
+  private int writeRefChange(final JsonWriter json, Repository repository,
+      RefChange refChange, boolean withCommits, final int budget)
+      throws IOException {
+    json.beginObject();
+    json.name("refId").value(refChange.getRefId());
+    json.name("fromHash").value(refChange.getFromHash());
+    json.name("toHash").value(refChange.getToHash());
+    json.name("type").value(refChange.getType().name());
+
+    int written = 0;
+    if (withCommits) {
+      // One commit past the budget is scanned, but not written, to tell a ref
+      // that exactly fits the budget from one that was cut short
+      json.name("commits").beginArray();
+      final IOException[] failure = new IOException[1];
+      final int[] count = new int[1];
+      final int scanned = changesetScanner.scan(repository, refChange,
+          budget + 1, new ChangesetScanner.Callback() {
+            @Override
+            public boolean onChangeset(Changeset changeset) {
+              if (count[0] >= budget)
+                return false;
+              try {
+                writeChangeset(json, changeset);
+                count[0]++;
+                return true;
+              } catch (IOException e) {
+                failure[0] = e;
+                return false;
+              }
+            }
+          });
+      if (failure[0] != null)
+        throw failure[0];
+      written = count[0];
+      json.endArray();
+      json.name("commitsTruncated").value(scanned > written);
+    }
+    json.endObject();
+    return written;
+  }
+
+  private void writeChangeset(JsonWriter json, Changeset changeset)
+      throws IOException {
+    json.beginObject();
+    json.name("id").value(changeset.getId());
+    json.name("displayId").value(changeset.getDisplayId());
+    json.name("message").value(changeset.getMessage());
+    final Person author = changeset.getAuthor();
+    if (author != null) {
+      json.name("author").beginObject();
+      json.name("name").value(author.getName());
+      json.name("emailAddress").value(author.getEmailAddress());
+      json.endObject();
+    }
+    if (changeset.getAuthorTimestamp() != null) {
+      json.name("authorTimestamp")
+          .value(changeset.getAuthorTimestamp().getTime());
+    }
+    json.endObject();
+  }
+}
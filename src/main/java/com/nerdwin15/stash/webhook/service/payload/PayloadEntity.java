@@ -0,0 +1,80 @@
+package com.nerdwin15.stash.webhook.service.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashUser;
+
+/**
+ * An HttpEntity that renders its payload straight into the request stream.
+ * The body is sent chunked, so nothing is buffered beyond the writer's own
+ * small output buffer.
+ */
+public class PayloadEntity extends AbstractHttpEntity {
+
+  private final PayloadWriter writer;
+  private final Repository repository;
+  private final StashUser user;
+  private final Collection<RefChange> refChanges;
+  private final int maxCommits;
+
+  /**
+   * Create a new instance
+   * @param writer The writer used to render the payload
+   * @param repository The repository that was pushed to
+   * @param user The user that pushed. May be null.
+   * @param refChanges The refs that were changed
+   * @param maxCommits The maximum number of commits to include
+   */
+  public PayloadEntity(PayloadWriter writer, Repository repository,
+      StashUser user, Collection<RefChange> refChanges, int maxCommits) {
+    this.writer = writer;
+    this.repository = repository;
+    this.user = user;
+    this.refChanges = refChanges;
+    this.maxCommits = maxCommits;
+    setContentType(writer.getContentType());
+    setChunked(true);
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  /**
+   * Renders the whole payload into memory. Only used if something asks for
+   * the content as a stream, which the request path never does.
+   * @return A stream over the rendered payload
+   * @throws IOException If rendering failed
+   */
+  @Override
+  public InputStream getContent() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeTo(out);
+    return new ByteArrayInputStream(out.toByteArray());
+  }
+
+  @Override
+  public void writeTo(OutputStream out) throws IOException {
+    writer.write(repository, user, refChanges, maxCommits, out);
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+}
@@ -0,0 +1,38 @@
+package com.nerdwin15.stash.webhook.service.payload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashUser;
+
+/**
+ * Defines a writer that serializes a push into a notification body.
+ * 
+ * Implementations write directly to the provided stream so that the body
+ * never has to be fully materialized in memory.
+ */
+public interface PayloadWriter {
+
+  /**
+   * The content type of the generated payload.
+   * @return The content type
+   */
+  String getContentType();
+
+  /**
+   * Write the payload for the provided push.
+   * @param repository The repository that was pushed to
+   * @param user The user that pushed. May be null.
+   * @param refChanges The refs that were changed
+   * @param maxCommits The maximum number of commits to include. Zero sends
+   *   no commits at all.
+   * @param out The stream to write to
+   * @throws IOException If the stream could not be written to
+   */
+  void write(Repository repository, StashUser user,
+      Collection<RefChange> refChanges, int maxCommits, OutputStream out)
+      throws IOException;
+}
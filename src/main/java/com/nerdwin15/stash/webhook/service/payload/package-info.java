@@ -0,0 +1,4 @@
+/**
+ * Payload generation for notifications that carry a request body
+ */
+package com.nerdwin15.stash.webhook.service.payload;
@@ -0,0 +1,79 @@
+package com.nerdwin15.stash.webhook.service.record;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Reads the {@link TrafficRecord}s of a log written by the
+ * {@link TrafficRecorder}. A record cut short at the end of the log, as
+ * left by a crash, is ignored.
+ */
+public class TrafficLogReader implements Closeable {
+
+  private final DataInputStream in;
+
+  /**
+   * Open a log.
+   * @param file The log file
+   * @throws IOException If the file can't be read or isn't a traffic log
+   */
+  public TrafficLogReader(File file) throws IOException {
+    this.in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      if (in.readInt() != TrafficRecorder.MAGIC
+          || in.readInt() != TrafficRecorder.VERSION)
+        throw new IOException(file + " isn't a traffic log");
+    } catch (IOException e) {
+      Closeables.closeQuietly(in);
+      throw e;
+    }
+  }
+
+  /**
+   * Read the next record.
+   * @return The record, or null at the end of the log
+   * @throws IOException If the log can't be read
+   */
+  public TrafficRecord next() throws IOException {
+    try {
+      return TrafficRecord.readFrom(in);
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Read every record of a log.
+   * @param file The log file
+   * @return The records, in the order they were recorded
+   * @throws IOException If the log can't be read
+   */
+  public static List<TrafficRecord> readAll(File file) throws IOException {
+    final List<TrafficRecord> records = new ArrayList<TrafficRecord>();
+    final TrafficLogReader reader = new TrafficLogReader(file);
+    try {
+      TrafficRecord record;
+      while ((record = reader.next()) != null) {
+        records.add(record);
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+
+  @Override
+  public void close() {
+    Closeables.closeQuietly(in);
+  }
+}
@@ -0,0 +1,298 @@
+package com.nerdwin15.stash.webhook.service.record;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * An anonymized entry of the traffic log: either a refs changed event seen
+ * by the listener, or a notification attempt made by the notifier.
+ *
+ * Ref names and Jenkins hosts are only kept as hashes, seeded with a salt
+ * that isn't recorded so they can't be looked up. The namespace of each ref
+ * (branch, tag or other) is kept, so replayed pushes are still classified
+ * into lanes of a similar priority.
+ */
+public final class TrafficRecord {
+
+  /**
+   * Type of a refs changed event
+   */
+  public static final byte EVENT = 1;
+
+  /**
+   * Type of a notification attempt
+   */
+  public static final byte DELIVERY = 2;
+
+  /**
+   * The outcomes of events, in the order they are encoded
+   */
+  public static final List<String> OUTCOMES = ImmutableList.of(
+      "dispatched", "filtered", "duplicate", "disabled");
+
+  static final int MAX_REFS = 0xffff;
+
+  private static final String[] NAMESPACES = {
+    "refs/heads/", "refs/tags/", "refs/"
+  };
+  private static final RefChangeType[] TYPES = RefChangeType.values();
+
+  private final byte type;
+  private final long timestamp;
+  private final int repositoryId;
+  private final int projectId;
+  private final int outcome;
+  private final byte[] refNamespaces;
+  private final int[] refHashes;
+  private final byte[] refTypes;
+  private final int hostHash;
+  private final int status;
+  private final int latencyMillis;
+
+  private TrafficRecord(byte type, long timestamp, int repositoryId,
+      int projectId, int outcome, byte[] refNamespaces, int[] refHashes,
+      byte[] refTypes, int hostHash, int status, int latencyMillis) {
+    this.type = type;
+    this.timestamp = timestamp;
+    this.repositoryId = repositoryId;
+    this.projectId = projectId;
+    this.outcome = outcome;
+    this.refNamespaces = refNamespaces;
+    this.refHashes = refHashes;
+    this.refTypes = refTypes;
+    this.hostHash = hostHash;
+    this.status = status;
+    this.latencyMillis = latencyMillis;
+  }
+
+  /**
+   * Create the record of a refs changed event.
+   * @param timestamp The time of the event
+   * @param repositoryId The repository ID
+   * @param projectId The project ID
+   * @param outcome What the listener did with the event, one of
+   * {@link #OUTCOMES}
+   * @param refChanges The changed refs. Only the first {@link #MAX_REFS}
+   * are kept.
+   * @param salt The seed of the ref name hashes
+   * @return The record
+   */
+  public static TrafficRecord event(long timestamp, int repositoryId,
+      int projectId, String outcome, Collection<RefChange> refChanges,
+      int salt) {
+    final HashFunction hash = Hashing.murmur3_32(salt);
+    final int count = Math.min(MAX_REFS, refChanges.size());
+    final byte[] namespaces = new byte[count];
+    final int[] hashes = new int[count];
+    final byte[] types = new byte[count];
+    int i = 0;
+    for (RefChange refChange : refChanges) {
+      if (i == count)
+        break;
+      final String refId = refChange.getRefId() == null ? ""
+          : refChange.getRefId();
+      namespaces[i] = namespaceOf(refId);
+      hashes[i] = hash.hashString(refId.substring(
+          namespaceLength(namespaces[i], refId)), Charsets.UTF_8).asInt();
+      types[i] = (byte) (refChange.getType() == null ? 0
+          : refChange.getType().ordinal());
+      i++;
+    }
+    return new TrafficRecord(EVENT, timestamp, repositoryId, projectId,
+        Math.max(0, OUTCOMES.indexOf(outcome)), namespaces, hashes, types,
+        0, 0, 0);
+  }
+
+  /**
+   * Create the record of a notification attempt.
+   * @param timestamp The time of the attempt
+   * @param repositoryId The repository ID
+   * @param host The scheme, host and port of the Jenkins instance
+   * @param status The HTTP status code, or the error statuses of
+   * {@link com.nerdwin15.stash.webhook.service.history.Delivery}
+   * @param latencyMillis The time the attempt took
+   * @param salt The seed of the host hash
+   * @return The record
+   */
+  public static TrafficRecord delivery(long timestamp, int repositoryId,
+      String host, int status, long latencyMillis, int salt) {
+    return new TrafficRecord(DELIVERY, timestamp, repositoryId, 0, 0,
+        new byte[0], new int[0], new byte[0], host == null ? 0
+            : Hashing.murmur3_32(salt).hashString(host, Charsets.UTF_8)
+                .asInt(), status,
+        (int) Math.min(Integer.MAX_VALUE, latencyMillis));
+  }
+
+  /**
+   * Get the type of the record.
+   * @return {@link #EVENT} or {@link #DELIVERY}
+   */
+  public byte getType() {
+    return type;
+  }
+
+  /**
+   * Get the time of the event or attempt.
+   * @return The time in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Get the ID of the repository.
+   * @return The repository ID
+   */
+  public int getRepositoryId() {
+    return repositoryId;
+  }
+
+  /**
+   * Get the ID of the project of the repository of an event.
+   * @return The project ID
+   */
+  public int getProjectId() {
+    return projectId;
+  }
+
+  /**
+   * Get what the listener did with an event.
+   * @return One of {@link #OUTCOMES}
+   */
+  public String getOutcome() {
+    return OUTCOMES.get(outcome);
+  }
+
+  /**
+   * Get the number of refs changed by an event.
+   * @return The number of refs
+   */
+  public int getRefCount() {
+    return refHashes.length;
+  }
+
+  /**
+   * Get an anonymized ref ID, in the namespace of the original ref.
+   * @param index The index of the ref
+   * @return The ref ID, such as <code>refs/heads/1f3a9c20</code>
+   */
+  public String getRefId(int index) {
+    return NAMESPACES[refNamespaces[index]]
+        + Integer.toHexString(refHashes[index]);
+  }
+
+  /**
+   * Get the type of a ref change.
+   * @param index The index of the ref
+   * @return The type of the change
+   */
+  public RefChangeType getRefType(int index) {
+    return TYPES[refTypes[index] % TYPES.length];
+  }
+
+  /**
+   * Get the anonymized Jenkins host of an attempt.
+   * @return The host, such as <code>host-5e0c1b2a</code>
+   */
+  public String getHost() {
+    return "host-" + Integer.toHexString(hostHash);
+  }
+
+  /**
+   * Get the status of an attempt.
+   * @return The HTTP status code, or the error statuses of
+   * {@link com.nerdwin15.stash.webhook.service.history.Delivery}
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Get the time an attempt took.
+   * @return The latency in milliseconds
+   */
+  public int getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  /**
+   * Encode the record: 20 bytes and 5 per ref for an event, 23 bytes for an
+   * attempt.
+   * @param out The output to write to
+   * @throws IOException If the record can't be written
+   */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeByte(type);
+    out.writeLong(timestamp);
+    out.writeInt(repositoryId);
+    if (type == EVENT) {
+      out.writeInt(projectId);
+      out.writeByte(outcome);
+      out.writeShort(refHashes.length);
+      for (int i = 0; i < refHashes.length; i++) {
+        out.writeByte(refNamespaces[i] << 4 | refTypes[i]);
+        out.writeInt(refHashes[i]);
+      }
+    } else {
+      out.writeInt(hostHash);
+      out.writeShort(status);
+      out.writeInt(latencyMillis);
+    }
+  }
+
+  /**
+   * Decode a record.
+   * @param in The input to read from
+   * @return The record
+   * @throws IOException If the record can't be read
+   */
+  static TrafficRecord readFrom(DataInput in) throws IOException {
+    final byte type = in.readByte();
+    final long timestamp = in.readLong();
+    final int repositoryId = in.readInt();
+    if (type == DELIVERY) {
+      return new TrafficRecord(type, timestamp, repositoryId, 0, 0,
+          new byte[0], new int[0], new byte[0], in.readInt(),
+          in.readShort(), in.readInt());
+    }
+    if (type != EVENT)
+      throw new IOException("Unknown record type " + type);
+    final int projectId = in.readInt();
+    final int outcome = Math.min(OUTCOMES.size() - 1, in.readUnsignedByte());
+    final int count = in.readUnsignedShort();
+    final byte[] namespaces = new byte[count];
+    final int[] hashes = new int[count];
+    final byte[] types = new byte[count];
+    for (int i = 0; i < count; i++) {
+      final int flags = in.readUnsignedByte();
+      namespaces[i] = (byte) Math.min(NAMESPACES.length - 1, flags >> 4);
+      types[i] = (byte) (flags & 0xf);
+      hashes[i] = in.readInt();
+    }
+    return new TrafficRecord(type, timestamp, repositoryId, projectId,
+        outcome, namespaces, hashes, types, 0, 0, 0);
+  }
+
+  private static byte namespaceOf(String refId) {
+    for (byte i = 0; i < NAMESPACES.length - 1; i++) {
+      if (refId.startsWith(NAMESPACES[i]))
+        return i;
+    }
+    return (byte) (NAMESPACES.length - 1);
+  }
+
+  private static int namespaceLength(byte namespace, String refId) {
+    return refId.startsWith(NAMESPACES[namespace])
+        ? NAMESPACES[namespace].length() : 0;
+  }
+}
@@ -0,0 +1,214 @@
+package com.nerdwin15.stash.webhook.service.record;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.sal.api.ApplicationProperties;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * Opt-in recorder of the refs changed events and notification attempts of
+ * the plugin, as anonymized {@link TrafficRecord}s appended to
+ * <code>data/jenkins-webhook/traffic.rec</code> in the Stash home
+ * directory. Recording is enabled with <code>jenkins.webhook.record</code>.
+ *
+ * Records are buffered and flushed every few seconds and when the plugin
+ * stops. Once the log reaches its size cap it is renamed with a
+ * <code>.1</code> suffix, replacing the previous one, and a new log is
+ * started. {@link TrafficLogReader} reads the log back.
+ */
+public class TrafficRecorder implements DisposableBean {
+
+  /**
+   * Property enabling the recorder
+   */
+  public static final String ENABLED_PROPERTY = "jenkins.webhook.record";
+
+  /**
+   * Property holding the size cap of the log, in megabytes
+   */
+  public static final String SIZE_PROPERTY = "jenkins.webhook.record.size";
+
+  static final int MAGIC = 0x4a575452;
+  static final int VERSION = 1;
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(TrafficRecorder.class);
+  private static final long FLUSH_SECONDS = 5;
+
+  private final File file;
+  private final long maxBytes;
+  private final int salt = new SecureRandom().nextInt();
+  private final ScheduledExecutorService flusher;
+  private DataOutputStream out;
+  private long appendedTo;
+
+  /**
+   * Create a new instance recording to the Stash home directory if enabled
+   * @param applicationProperties Provides the Stash home directory
+   */
+  public TrafficRecorder(ApplicationProperties applicationProperties) {
+    this(PluginProperties.getBoolean(ENABLED_PROPERTY, false)
+        ? new File(applicationProperties.getHomeDirectory(),
+            "data/jenkins-webhook/traffic.rec") : null,
+        PluginProperties.getLong(SIZE_PROPERTY, 64) * 1024 * 1024);
+    if (file != null) {
+      flusher.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      }, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Create a new instance recording to the provided file. Records are only
+   * flushed when {@link #flush()} is called.
+   * @param file The log file. May be null, in which case nothing is
+   * recorded.
+   * @param maxBytes The size at which the log is rolled over
+   */
+  public TrafficRecorder(File file, long maxBytes) {
+    this.file = file;
+    this.maxBytes = maxBytes;
+    this.flusher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("jenkins-webhook-recorder")
+            .setDaemon(true).build());
+  }
+
+  /**
+   * Whether traffic is recorded.
+   * @return True if the recorder is enabled
+   */
+  public boolean isEnabled() {
+    return file != null;
+  }
+
+  /**
+   * Record a refs changed event.
+   * @param repository The repository the refs changed in
+   * @param refChanges The changed refs
+   * @param outcome What the listener did with the event, one of
+   * {@link TrafficRecord#OUTCOMES}
+   */
+  public void recordEvent(Repository repository,
+      Collection<RefChange> refChanges, String outcome) {
+    if (file == null)
+      return;
+    final Integer projectId = repository.getProject() == null ? null
+        : repository.getProject().getId();
+    write(TrafficRecord.event(System.currentTimeMillis(), idOf(repository),
+        projectId == null ? 0 : projectId, outcome, refChanges, salt));
+  }
+
+  /**
+   * Record a notification attempt.
+   * @param repository The repository Jenkins was notified of
+   * @param host The scheme, host and port of the Jenkins instance
+   * @param status The HTTP status code, or the error statuses of
+   * {@link com.nerdwin15.stash.webhook.service.history.Delivery}
+   * @param latencyMillis The time the attempt took
+   */
+  public void recordDelivery(Repository repository, String host, int status,
+      long latencyMillis) {
+    if (file == null)
+      return;
+    write(TrafficRecord.delivery(System.currentTimeMillis(),
+        idOf(repository), host, status, latencyMillis, salt));
+  }
+
+  /**
+   * Write the buffered records to the log.
+   */
+  public synchronized void flush() {
+    if (out == null)
+      return;
+    try {
+      out.flush();
+    } catch (IOException e) {
+      LOGGER.warn("Unable to write traffic log " + file, e);
+      close();
+    }
+  }
+
+  @Override
+  public void destroy() {
+    flusher.shutdownNow();
+    flush();
+    close();
+  }
+
+  private synchronized void write(TrafficRecord record) {
+    try {
+      if (out == null)
+        open();
+      record.writeTo(out);
+      if (appendedTo + out.size() >= maxBytes)
+        roll();
+    } catch (IOException e) {
+      LOGGER.warn("Unable to write traffic log " + file, e);
+      close();
+    }
+  }
+
+  private void open() throws IOException {
+    file.getParentFile().mkdirs();
+    if (file.length() > 0 && !hasHeader())
+      roll();
+    appendedTo = file.length();
+    out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file, true)));
+    if (appendedTo == 0) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+  }
+
+  private boolean hasHeader() {
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(file));
+      return in.readInt() == MAGIC && in.readInt() == VERSION;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  private void roll() throws IOException {
+    close();
+    final File rolled = new File(file.getPath() + ".1");
+    if (rolled.exists() && !rolled.delete() || !file.renameTo(rolled))
+      throw new IOException("Unable to roll over " + file);
+  }
+
+  private synchronized void close() {
+    Closeables.closeQuietly(out);
+    out = null;
+  }
+
+  private static int idOf(Repository repository) {
+    final Integer id = repository.getId();
+    return id == null ? 0 : id;
+  }
+}
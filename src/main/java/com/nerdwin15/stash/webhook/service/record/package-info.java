@@ -0,0 +1,5 @@
+/**
+ * Opt-in recording of anonymized push and notification traffic to a compact
+ * binary log, so real traffic shapes can be replayed against a stub Jenkins.
+ */
+package com.nerdwin15.stash.webhook.service.record;
@@ -0,0 +1,86 @@
+package com.nerdwin15.stash.webhook.service.route;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.setting.Settings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.ResolvedSettings;
+
+/**
+ * Default implementation of the {@link RoutingService}. Routing rules are
+ * compiled once per distinct text, so every version of the settings of a
+ * repository, and every repository inheriting the same rules, shares one
+ * {@link RouteTable} and the states it interned.
+ */
+public class ConcreteRoutingService implements RoutingService {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(ConcreteRoutingService.class);
+
+  private static final int MAXIMUM_SIZE = 1000;
+
+  private final LoadingCache<String, RouteTable> tables = CacheBuilder
+      .newBuilder().maximumSize(MAXIMUM_SIZE)
+      .build(new CacheLoader<String, RouteTable>() {
+        @Override
+        public RouteTable load(String rules) {
+          try {
+            return RouteTable.compile(rules);
+          } catch (IllegalArgumentException e) {
+            LOGGER.warn("Ignoring invalid routing rules: {}",
+                e.getMessage());
+            return RouteTable.compile(null);
+          }
+        }
+      });
+
+  @Override
+  public Map<String, Collection<RefChange>> route(Settings settings,
+      Collection<RefChange> refChanges) {
+    final String base = settings.getString(Notifier.JENKINS_BASE);
+    final String jenkinsBase = base == null ? null
+        : base.replaceFirst("/$", "");
+    final String rules = settings.getString(Notifier.REF_ROUTES);
+    if (refChanges.isEmpty() || ResolvedSettings.isBlank(rules))
+      return Collections.singletonMap(jenkinsBase, refChanges);
+
+    final RouteTable table = getRouteTable(rules);
+    final Map<String, Collection<RefChange>> routes =
+        new LinkedHashMap<String, Collection<RefChange>>();
+    for (RefChange refChange : refChanges) {
+      final String routed = refChange.getRefId() == null ? null
+          : table.route(refChange.getRefId());
+      if (RouteTable.NONE.equals(routed))
+        continue;
+      final String target = routed == null ? jenkinsBase : routed;
+      Collection<RefChange> routedChanges = routes.get(target);
+      if (routedChanges == null) {
+        routedChanges = new ArrayList<RefChange>();
+        routes.put(target, routedChanges);
+      }
+      routedChanges.add(refChange);
+    }
+    return routes;
+  }
+
+  @Override
+  public RouteTable getRouteTable(String rules) {
+    try {
+      return tables.get(rules);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
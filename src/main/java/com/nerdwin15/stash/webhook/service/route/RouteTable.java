@@ -0,0 +1,299 @@
+package com.nerdwin15.stash.webhook.service.route;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable table of routing rules, compiled into an automaton matching
+ * ref ids. Each rule is a line holding a ref pattern and a target, either a
+ * Jenkins base URL or {@link #NONE}:
+ *
+ * <pre>
+ * release/*      https://release.jenkins.example.com
+ * feature/**     https://ci.example.com
+ * refs/tags/**   none
+ * </pre>
+ *
+ * In patterns, <code>*</code> matches any characters but <code>/</code>,
+ * <code>**</code> any characters and <code>?</code> a single character but
+ * <code>/</code>. Patterns not starting with <code>refs/</code> are branch
+ * names, matched under <code>refs/heads/</code>. When several rules match
+ * a ref, the first one listed wins. Blank lines and lines starting with
+ * <code>#</code> are ignored.
+ *
+ * The patterns are merged into a trie, which is run as a DFA built lazily:
+ * each state is the set of trie nodes a prefix of a ref reaches, and is
+ * interned along with its transitions the first time it is reached. Routing
+ * a ref therefore takes one transition lookup per character of the ref,
+ * whatever the number of rules. Past {@link #MAX_STATES} states, new states
+ * are no longer interned, so pathological rules cost time instead of
+ * memory.
+ */
+public final class RouteTable {
+
+  /**
+   * The target of the refs that aren't notified
+   */
+  public static final String NONE = "none";
+
+  /**
+   * The prefix of the branch names matched by patterns not starting with
+   * <code>refs/</code>
+   */
+  static final String BRANCH_PREFIX = "refs/heads/";
+
+  /**
+   * The most states interned per table
+   */
+  static final int MAX_STATES = 4096;
+
+  private static final int NO_RULE = Integer.MAX_VALUE;
+
+  private final List<String> targets;
+  private final Node[] nodes;
+  private final ConcurrentMap<BitSet, State> states =
+      new ConcurrentHashMap<BitSet, State>();
+  private final State start;
+
+  private RouteTable(List<String> targets, List<Node> nodes, Node root) {
+    this.targets = targets;
+    this.nodes = nodes.toArray(new Node[nodes.size()]);
+    final BitSet set = new BitSet(this.nodes.length);
+    root.addClosure(set);
+    this.start = intern(set);
+  }
+
+  /**
+   * Compile routing rules.
+   * @param rules The rules, one per line. May be null.
+   * @return The compiled table
+   * @throws IllegalArgumentException If a rule is invalid
+   */
+  public static RouteTable compile(String rules) {
+    final List<String> targets = new ArrayList<String>();
+    final List<Node> nodes = new ArrayList<Node>();
+    final Node root = new Node(nodes, Loop.NONE);
+    if (rules == null)
+      return new RouteTable(targets, nodes, root);
+
+    final String[] lines = rules.split("\r?\n");
+    for (int i = 0; i < lines.length; i++) {
+      final String line = lines[i].trim();
+      if (line.length() == 0 || line.startsWith("#"))
+        continue;
+      final String[] rule = line.split("\\s+");
+      if (rule.length != 2) {
+        throw new IllegalArgumentException("Rule " + (i + 1) + " must be a "
+            + "ref pattern followed by a Jenkins url or " + NONE);
+      }
+      final String target = parseTarget(rule[1]);
+      if (target == null) {
+        throw new IllegalArgumentException("The target of rule " + (i + 1)
+            + " must be an http or https url or " + NONE);
+      }
+      final String pattern = rule[0].startsWith("refs/") ? rule[0]
+          : BRANCH_PREFIX + rule[0];
+      root.add(pattern, 0, nodes).accept(targets.size());
+      targets.add(target);
+    }
+    return new RouteTable(targets, nodes, root);
+  }
+
+  /**
+   * Find the target of a ref.
+   * @param refId The ref id, such as <code>refs/heads/master</code>
+   * @return The target of the first rule matching the ref, {@link #NONE}
+   * if that rule drops the ref, or null if no rule matches it
+   */
+  public String route(String refId) {
+    State state = start;
+    for (int i = 0; i < refId.length() && !state.isDead(); i++) {
+      state = state.next(refId.charAt(i));
+    }
+    return state.rule == NO_RULE ? null : targets.get(state.rule);
+  }
+
+  /**
+   * Determine whether the table has no rules.
+   * @return True if no ref is matched
+   */
+  public boolean isEmpty() {
+    return targets.isEmpty();
+  }
+
+  /**
+   * Get the Jenkins base URLs the rules route refs to.
+   * @return The distinct targets other than {@link #NONE}, in the order
+   * their rules are listed
+   */
+  public List<String> getTargets() {
+    final List<String> urls = new ArrayList<String>();
+    for (String target : targets) {
+      if (!NONE.equals(target) && !urls.contains(target))
+        urls.add(target);
+    }
+    return urls;
+  }
+
+  /**
+   * Get the number of states interned so far.
+   * @return The number of states
+   */
+  int getStates() {
+    return states.size();
+  }
+
+  private static String parseTarget(String target) {
+    if (NONE.equalsIgnoreCase(target))
+      return NONE;
+    if (!target.matches("(?i)https?://[^/]+.*"))
+      return null;
+    return target.replaceFirst("/$", "");
+  }
+
+  private State intern(BitSet set) {
+    final State existing = states.get(set);
+    if (existing != null)
+      return existing;
+    int rule = NO_RULE;
+    for (int id = set.nextSetBit(0); id >= 0; id = set.nextSetBit(id + 1)) {
+      rule = Math.min(rule, nodes[id].rule);
+    }
+    final State created = new State(set, rule);
+    if (states.size() >= MAX_STATES)
+      return created;
+    final State raced = states.putIfAbsent(set, created);
+    return raced == null ? created : raced;
+  }
+
+  /**
+   * The characters a trie node matches again, for the nodes reached by a
+   * wildcard.
+   */
+  private enum Loop {
+    NONE, SEGMENT, ALL;
+
+    boolean matches(char c) {
+      return this == ALL || (this == SEGMENT && c != '/');
+    }
+  }
+
+  /**
+   * A node of the trie of patterns. Literal characters lead to children,
+   * while each wildcard leads to a single child that loops on the
+   * characters it matches.
+   */
+  private static class Node {
+
+    private final int id;
+    private final Loop loop;
+    private final Map<Character, Node> children =
+        new HashMap<Character, Node>();
+    private Node single;
+    private Node star;
+    private Node globstar;
+    private int rule = NO_RULE;
+
+    Node(List<Node> nodes, Loop loop) {
+      this.id = nodes.size();
+      this.loop = loop;
+      nodes.add(this);
+    }
+
+    /**
+     * Add the rest of a pattern below this node.
+     * @return The node the pattern ends at
+     */
+    Node add(String pattern, int index, List<Node> nodes) {
+      if (index == pattern.length())
+        return this;
+      final char c = pattern.charAt(index);
+      if (c == '*' && index + 1 < pattern.length()
+          && pattern.charAt(index + 1) == '*') {
+        if (globstar == null)
+          globstar = new Node(nodes, Loop.ALL);
+        return globstar.add(pattern, index + 2, nodes);
+      } else if (c == '*') {
+        if (star == null)
+          star = new Node(nodes, Loop.SEGMENT);
+        return star.add(pattern, index + 1, nodes);
+      } else if (c == '?') {
+        if (single == null)
+          single = new Node(nodes, Loop.NONE);
+        return single.add(pattern, index + 1, nodes);
+      }
+      Node child = children.get(c);
+      if (child == null) {
+        child = new Node(nodes, Loop.NONE);
+        children.put(c, child);
+      }
+      return child.add(pattern, index + 1, nodes);
+    }
+
+    void accept(int index) {
+      rule = Math.min(rule, index);
+    }
+
+    /**
+     * Add this node to a set, along with the wildcard nodes reached from it
+     * by matching nothing.
+     */
+    void addClosure(BitSet set) {
+      if (set.get(id))
+        return;
+      set.set(id);
+      if (star != null)
+        star.addClosure(set);
+      if (globstar != null)
+        globstar.addClosure(set);
+    }
+  }
+
+  /**
+   * A state of the DFA: the set of trie nodes reached, the first rule
+   * accepting there, and the transitions taken from it so far.
+   */
+  private final class State {
+
+    private final BitSet set;
+    private final int rule;
+    private final ConcurrentMap<Character, State> transitions =
+        new ConcurrentHashMap<Character, State>();
+
+    State(BitSet set, int rule) {
+      this.set = set;
+      this.rule = rule;
+    }
+
+    boolean isDead() {
+      return set.isEmpty();
+    }
+
+    State next(char c) {
+      final State cached = transitions.get(c);
+      if (cached != null)
+        return cached;
+      final BitSet next = new BitSet(nodes.length);
+      for (int id = set.nextSetBit(0); id >= 0;
+          id = set.nextSetBit(id + 1)) {
+        final Node node = nodes[id];
+        final Node child = node.children.get(c);
+        if (child != null)
+          child.addClosure(next);
+        if (node.single != null && c != '/')
+          node.single.addClosure(next);
+        if (node.loop.matches(c))
+          node.addClosure(next);
+      }
+      final State state = intern(next);
+      if (states.size() < MAX_STATES)
+        transitions.putIfAbsent(c, state);
+      return state;
+    }
+  }
+}
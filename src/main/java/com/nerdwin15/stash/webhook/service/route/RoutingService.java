@@ -0,0 +1,36 @@
+package com.nerdwin15.stash.webhook.service.route;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.setting.Settings;
+
+/**
+ * Service routing the refs of a push to the Jenkins instances configured
+ * for them by the routing rules of the hook settings. Each instance is sent
+ * its own notification, of the refs routed to it. Alternate Jenkins URLs
+ * only apply to the Jenkins base URL.
+ */
+public interface RoutingService {
+
+  /**
+   * Split the ref changes of a push by the Jenkins instance to notify of
+   * them. Refs no rule matches go to the Jenkins base URL of the settings,
+   * and refs routed to {@link RouteTable#NONE} aren't returned. A push
+   * without ref changes goes to the Jenkins base URL.
+   * @param settings The hook settings
+   * @param refChanges The ref changes of the push
+   * @return The ref changes of each Jenkins base URL to notify, in the
+   * order the first change of each was pushed
+   */
+  Map<String, Collection<RefChange>> route(Settings settings,
+      Collection<RefChange> refChanges);
+
+  /**
+   * Get the compiled routing rules.
+   * @param rules The routing rules
+   * @return The compiled rules, empty if they are invalid
+   */
+  RouteTable getRouteTable(String rules);
+}
@@ -0,0 +1,5 @@
+/**
+ * Routing of the refs of a push to the Jenkins instances configured for
+ * them, using rules compiled into an automaton.
+ */
+package com.nerdwin15.stash.webhook.service.route;
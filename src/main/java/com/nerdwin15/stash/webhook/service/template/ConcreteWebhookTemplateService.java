@@ -0,0 +1,56 @@
+package com.nerdwin15.stash.webhook.service.template;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.stash.setting.Settings;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.ResolvedSettings;
+
+/**
+ * Default implementation of the {@link WebhookTemplateService}. Webhooks are
+ * compiled once per distinct URL, headers and body, so every version of the
+ * settings of a repository, and every repository sharing the same
+ * templates, renders from one compiled plan.
+ */
+public class ConcreteWebhookTemplateService
+    implements WebhookTemplateService {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(ConcreteWebhookTemplateService.class);
+
+  private static final int MAXIMUM_SIZE = 1000;
+
+  private final LoadingCache<List<String>, Optional<WebhookTemplate>>
+      templates = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+          .build(new CacheLoader<List<String>, Optional<WebhookTemplate>>() {
+            @Override
+            public Optional<WebhookTemplate> load(List<String> key) {
+              try {
+                return Optional.of(WebhookTemplate.compile(key.get(0),
+                    key.get(1), key.get(2)));
+              } catch (IllegalArgumentException e) {
+                LOGGER.warn("Ignoring invalid webhook templates: {}",
+                    e.getMessage());
+                return Optional.absent();
+              }
+            }
+          });
+
+  @Override
+  public WebhookTemplate getTemplate(Settings settings) {
+    final String url = settings.getString(Notifier.WEBHOOK_URL);
+    if (ResolvedSettings.isBlank(url))
+      return null;
+    return templates.getUnchecked(Arrays.asList(url,
+        settings.getString(Notifier.WEBHOOK_HEADERS),
+        settings.getString(Notifier.WEBHOOK_BODY))).orNull();
+  }
+}
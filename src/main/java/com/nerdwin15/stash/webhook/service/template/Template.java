@@ -0,0 +1,451 @@
+package com.nerdwin15.stash.webhook.service.template;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashUser;
+import com.google.common.base.Charsets;
+
+/**
+ * A template over the fields of a push, compiled into a render plan. The
+ * text is parsed once into literal chunks and field lookups, so rendering
+ * only walks the plan and writes each chunk and escaped value straight to
+ * the output.
+ *
+ * Fields are written as <code>${field}</code>, or <code>${escape:field}</code>
+ * to override the default escaping with <code>raw</code>, <code>json</code>
+ * (the inside of a JSON string) or <code>url</code> (percent-encoded). The
+ * fields are <code>repository.id</code>, <code>repository.slug</code>,
+ * <code>repository.name</code>, <code>project.key</code>,
+ * <code>project.name</code>, <code>pusher.name</code>,
+ * <code>pusher.displayName</code>, <code>pusher.emailAddress</code>,
+ * <code>cloneUrl</code>, <code>ref.id</code>, <code>ref.displayId</code>,
+ * <code>ref.fromHash</code>, <code>ref.toHash</code> and
+ * <code>ref.type</code>. Missing values render empty.
+ *
+ * The part between <code>${each}</code> and <code>${end}</code> is repeated
+ * for every ref change, with the <code>ref.*</code> fields of that change;
+ * <code>${each:, }</code> puts <code>, </code> between repetitions. Outside
+ * of it, the <code>ref.*</code> fields are those of the first ref change.
+ * <code>$$</code> writes a single <code>$</code>.
+ */
+public final class Template {
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+  private static final String BRANCH_PREFIX = "refs/heads/";
+  private static final String TAG_PREFIX = "refs/tags/";
+
+  private final Part[] parts;
+
+  private Template(List<Part> parts) {
+    this.parts = parts.toArray(new Part[parts.size()]);
+  }
+
+  /**
+   * Compile a template.
+   * @param text The template text
+   * @param escape The escaping of the fields not overriding it
+   * @return The compiled template
+   * @throws IllegalArgumentException If the template is invalid
+   */
+  public static Template compile(String text, Escape escape) {
+    final List<Part> parts = new ArrayList<Part>();
+    List<Part> target = parts;
+    Each each = null;
+    final StringBuilder literal = new StringBuilder();
+    int i = 0;
+    while (i < text.length()) {
+      final char c = text.charAt(i);
+      if (c == '$' && i + 1 < text.length() && text.charAt(i + 1) == '$') {
+        literal.append('$');
+        i += 2;
+        continue;
+      }
+      if (c != '$' || i + 1 == text.length() || text.charAt(i + 1) != '{') {
+        literal.append(c);
+        i++;
+        continue;
+      }
+      final int close = text.indexOf('}', i);
+      if (close < 0) {
+        throw new IllegalArgumentException("Unclosed ${ at character "
+            + (i + 1));
+      }
+      addLiteral(target, literal);
+      final String raw = text.substring(i + 2, close);
+      final String tag = raw.trim();
+      i = close + 1;
+      if (tag.equals("each") || tag.startsWith("each:")) {
+        if (each != null)
+          throw new IllegalArgumentException("${each} can't be nested");
+        // The separator is kept as it is, whitespace included
+        each = new Each(tag.startsWith("each:")
+            ? raw.substring(raw.indexOf(':') + 1) : "");
+        parts.add(each);
+        target = each.parts;
+      } else if (tag.equals("end")) {
+        if (each == null)
+          throw new IllegalArgumentException("${end} without ${each}");
+        each.close();
+        each = null;
+        target = parts;
+      } else {
+        target.add(parseField(tag, escape));
+      }
+    }
+    if (each != null)
+      throw new IllegalArgumentException("${each} without ${end}");
+    addLiteral(target, literal);
+    return new Template(parts);
+  }
+
+  /**
+   * Render the template.
+   * @param context The push to render the template for
+   * @param out The writer to render to
+   * @throws IOException If the writer fails
+   */
+  public void render(TemplateContext context, Writer out) throws IOException {
+    final Iterator<RefChange> refs = context.getRefChanges().iterator();
+    render(parts, context, refs.hasNext() ? refs.next() : null, out);
+  }
+
+  /**
+   * Render the template to a string, for the short templates of URLs and
+   * headers.
+   * @param context The push to render the template for
+   * @return The rendered text
+   */
+  public String render(TemplateContext context) {
+    final StringWriter out = new StringWriter();
+    try {
+      render(context, out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Determine whether the template renders the same text for every push.
+   * @return True if the template has no fields
+   */
+  public boolean isConstant() {
+    for (Part part : parts) {
+      if (!(part instanceof Literal))
+        return false;
+    }
+    return true;
+  }
+
+  private static void render(Part[] parts, TemplateContext context,
+      RefChange ref, Writer out) throws IOException {
+    for (Part part : parts) {
+      part.render(context, ref, out);
+    }
+  }
+
+  private static void addLiteral(List<Part> target, StringBuilder literal) {
+    if (literal.length() == 0)
+      return;
+    target.add(new Literal(literal.toString()));
+    literal.setLength(0);
+  }
+
+  private static Part parseField(String tag, Escape escape) {
+    final int colon = tag.indexOf(':');
+    Escape fieldEscape = escape;
+    if (colon >= 0) {
+      fieldEscape = Escape.parse(tag.substring(0, colon).trim());
+      if (fieldEscape == null) {
+        throw new IllegalArgumentException("Unknown escaping '"
+            + tag.substring(0, colon).trim() + "'");
+      }
+    }
+    final String name = tag.substring(colon + 1).trim();
+    final Field field = Field.parse(name);
+    if (field == null)
+      throw new IllegalArgumentException("Unknown field '" + name + "'");
+    return new FieldPart(field, fieldEscape);
+  }
+
+  /**
+   * The escaping of the values of fields.
+   */
+  public enum Escape {
+
+    /**
+     * Values written as they are
+     */
+    RAW {
+      @Override
+      void write(String value, Writer out) throws IOException {
+        out.write(value);
+      }
+    },
+
+    /**
+     * Values escaped as the inside of a JSON string
+     */
+    JSON {
+      @Override
+      void write(String value, Writer out) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+          final char c = value.charAt(i);
+          if (c == '"' || c == '\\') {
+            out.write('\\');
+            out.write(c);
+          } else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+            out.write("\\u");
+            out.write(HEX[(c >> 12) & 0xF]);
+            out.write(HEX[(c >> 8) & 0xF]);
+            out.write(HEX[(c >> 4) & 0xF]);
+            out.write(HEX[c & 0xF]);
+          } else {
+            out.write(c);
+          }
+        }
+      }
+    },
+
+    /**
+     * Values percent-encoded as UTF-8, leaving only unreserved characters
+     */
+    URL {
+      @Override
+      void write(String value, Writer out) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+          final char c = value.charAt(i);
+          if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+              || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_'
+              || c == '~') {
+            out.write(c);
+            continue;
+          }
+          final int end = Character.isHighSurrogate(c)
+              && i + 1 < value.length() ? i + 2 : i + 1;
+          for (byte b : value.substring(i, end).getBytes(Charsets.UTF_8)) {
+            out.write('%');
+            out.write(HEX[(b >> 4) & 0xF]);
+            out.write(HEX[b & 0xF]);
+          }
+          i = end - 1;
+        }
+      }
+    };
+
+    abstract void write(String value, Writer out) throws IOException;
+
+    static Escape parse(String name) {
+      for (Escape escape : values()) {
+        if (escape.name().equalsIgnoreCase(name))
+          return escape;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The fields of a push a template can refer to.
+   */
+  private enum Field {
+    REPOSITORY_ID("repository.id") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        return context.getRepository().getId();
+      }
+    },
+    REPOSITORY_SLUG("repository.slug") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        return context.getRepository().getSlug();
+      }
+    },
+    REPOSITORY_NAME("repository.name") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        return context.getRepository().getName();
+      }
+    },
+    PROJECT_KEY("project.key") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        final Project project = context.getRepository().getProject();
+        return project == null ? null : project.getKey();
+      }
+    },
+    PROJECT_NAME("project.name") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        final Project project = context.getRepository().getProject();
+        return project == null ? null : project.getName();
+      }
+    },
+    PUSHER_NAME("pusher.name") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        final StashUser user = context.getUser();
+        return user == null ? null : user.getName();
+      }
+    },
+    PUSHER_DISPLAY_NAME("pusher.displayName") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        final StashUser user = context.getUser();
+        return user == null ? null : user.getDisplayName();
+      }
+    },
+    PUSHER_EMAIL_ADDRESS("pusher.emailAddress") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        final StashUser user = context.getUser();
+        return user == null ? null : user.getEmailAddress();
+      }
+    },
+    CLONE_URL("cloneUrl") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        return context.getCloneUrl();
+      }
+    },
+    REF_ID("ref.id") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        return ref == null ? null : ref.getRefId();
+      }
+    },
+    REF_DISPLAY_ID("ref.displayId") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        final String refId = ref == null ? null : ref.getRefId();
+        if (refId == null)
+          return null;
+        if (refId.startsWith(BRANCH_PREFIX))
+          return refId.substring(BRANCH_PREFIX.length());
+        if (refId.startsWith(TAG_PREFIX))
+          return refId.substring(TAG_PREFIX.length());
+        return refId;
+      }
+    },
+    REF_FROM_HASH("ref.fromHash") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        return ref == null ? null : ref.getFromHash();
+      }
+    },
+    REF_TO_HASH("ref.toHash") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        return ref == null ? null : ref.getToHash();
+      }
+    },
+    REF_TYPE("ref.type") {
+      @Override
+      Object value(TemplateContext context, RefChange ref) {
+        return ref == null || ref.getType() == null ? null
+            : ref.getType().name();
+      }
+    };
+
+    private final String name;
+
+    private Field(String name) {
+      this.name = name;
+    }
+
+    abstract Object value(TemplateContext context, RefChange ref);
+
+    static Field parse(String name) {
+      for (Field field : values()) {
+        if (field.name.equals(name))
+          return field;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A step of the render plan.
+   */
+  private interface Part {
+    void render(TemplateContext context, RefChange ref, Writer out)
+        throws IOException;
+  }
+
+  /**
+   * Text written as it is.
+   */
+  private static class Literal implements Part {
+
+    private final char[] text;
+
+    Literal(String text) {
+      this.text = text.toCharArray();
+    }
+
+    @Override
+    public void render(TemplateContext context, RefChange ref, Writer out)
+        throws IOException {
+      out.write(text);
+    }
+  }
+
+  /**
+   * The escaped value of a field.
+   */
+  private static class FieldPart implements Part {
+
+    private final Field field;
+    private final Escape escape;
+
+    FieldPart(Field field, Escape escape) {
+      this.field = field;
+      this.escape = escape;
+    }
+
+    @Override
+    public void render(TemplateContext context, RefChange ref, Writer out)
+        throws IOException {
+      final Object value = field.value(context, ref);
+      if (value != null)
+        escape.write(value.toString(), out);
+    }
+  }
+
+  /**
+   * Parts repeated for every ref change.
+   */
+  private static class Each implements Part {
+
+    private final char[] separator;
+    private final List<Part> parts = new ArrayList<Part>();
+    private Part[] plan;
+
+    Each(String separator) {
+      this.separator = separator.toCharArray();
+    }
+
+    void close() {
+      plan = parts.toArray(new Part[parts.size()]);
+    }
+
+    @Override
+    public void render(TemplateContext context, RefChange ref, Writer out)
+        throws IOException {
+      boolean first = true;
+      for (RefChange refChange : context.getRefChanges()) {
+        if (!first)
+          out.write(separator);
+        first = false;
+        Template.render(plan, context, refChange, out);
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.nerdwin15.stash.webhook.service.template;
+
+import java.util.Collection;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashUser;
+
+/**
+ * The push a {@link Template} is rendered for.
+ */
+public class TemplateContext {
+
+  private final Repository repository;
+  private final StashUser user;
+  private final Collection<RefChange> refChanges;
+  private final String cloneUrl;
+
+  /**
+   * Create a new instance
+   * @param repository The repository that was pushed to
+   * @param user The user that pushed. May be null.
+   * @param refChanges The refs that were changed
+   * @param cloneUrl The url used for cloning the repository. May be null.
+   */
+  public TemplateContext(Repository repository, StashUser user,
+      Collection<RefChange> refChanges, String cloneUrl) {
+    this.repository = repository;
+    this.user = user;
+    this.refChanges = refChanges;
+    this.cloneUrl = cloneUrl;
+  }
+
+  /**
+   * Get the repository that was pushed to.
+   * @return The repository
+   */
+  public Repository getRepository() {
+    return repository;
+  }
+
+  /**
+   * Get the user that pushed.
+   * @return The user, or null if unknown
+   */
+  public StashUser getUser() {
+    return user;
+  }
+
+  /**
+   * Get the refs that were changed.
+   * @return The ref changes
+   */
+  public Collection<RefChange> getRefChanges() {
+    return refChanges;
+  }
+
+  /**
+   * Get the url used for cloning the repository.
+   * @return The clone url, or null if not configured
+   */
+  public String getCloneUrl() {
+    return cloneUrl;
+  }
+}
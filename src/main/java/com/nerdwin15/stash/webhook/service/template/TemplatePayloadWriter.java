@@ -0,0 +1,56 @@
+package com.nerdwin15.stash.webhook.service.template;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashUser;
+import com.google.common.base.Charsets;
+import com.nerdwin15.stash.webhook.service.payload.PayloadWriter;
+
+/**
+ * A {@link PayloadWriter} rendering the body {@link Template} of a generic
+ * webhook straight into the request stream, encoded as UTF-8.
+ */
+public class TemplatePayloadWriter implements PayloadWriter {
+
+  private final Template body;
+  private final String contentType;
+  private final String cloneUrl;
+
+  /**
+   * Create a new instance
+   * @param body The compiled body template
+   * @param contentType The content type of the rendered body
+   * @param cloneUrl The url used for cloning the repository. May be null.
+   */
+  public TemplatePayloadWriter(Template body, String contentType,
+      String cloneUrl) {
+    this.body = body;
+    this.contentType = contentType;
+    this.cloneUrl = cloneUrl;
+  }
+
+  @Override
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * {@inheritDoc} Commits aren't available to templates, so the maximum
+   * number of commits is ignored.
+   */
+  @Override
+  public void write(Repository repository, StashUser user,
+      Collection<RefChange> refChanges, int maxCommits, OutputStream out)
+      throws IOException {
+    final Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+    body.render(new TemplateContext(repository, user, refChanges, cloneUrl),
+        writer);
+    writer.flush();
+  }
+}
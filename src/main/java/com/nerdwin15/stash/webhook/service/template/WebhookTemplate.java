@@ -0,0 +1,127 @@
+package com.nerdwin15.stash.webhook.service.template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.nerdwin15.stash.webhook.service.payload.PayloadEntity;
+import com.nerdwin15.stash.webhook.service.route.RouteTable;
+
+/**
+ * The compiled templates of a generic webhook target: its URL, headers and
+ * body. The webhook is notified after Jenkins, of every ref change of a push
+ * not routed to {@link RouteTable#NONE}. A webhook with a body is sent as a
+ * <code>POST</code> whose body is rendered while the request is written,
+ * and one without as a <code>GET</code>.
+ *
+ * Fields in the URL are percent-encoded unless they say otherwise, and
+ * fields in headers are written raw. Headers are given one per line, as
+ * <code>Name: value</code>. The body is sent as {@link #DEFAULT_CONTENT_TYPE}
+ * unless a <code>Content-Type</code> header is given, and its fields are
+ * escaped as the inside of JSON strings unless that header names a type
+ * other than JSON; <code>${raw:field}</code> writes a field as it is.
+ */
+public final class WebhookTemplate {
+
+  /**
+   * The content type of a body without a <code>Content-Type</code> header
+   */
+  public static final String DEFAULT_CONTENT_TYPE =
+      "application/json; charset=UTF-8";
+
+  private final Template url;
+  private final String[] headerNames;
+  private final Template[] headerValues;
+  private final Template body;
+  private final String contentType;
+
+  private WebhookTemplate(Template url, List<String> headerNames,
+      List<Template> headerValues, Template body, String contentType) {
+    this.url = url;
+    this.headerNames = headerNames.toArray(new String[headerNames.size()]);
+    this.headerValues =
+        headerValues.toArray(new Template[headerValues.size()]);
+    this.body = body;
+    this.contentType = contentType;
+  }
+
+  /**
+   * Compile the templates of a webhook.
+   * @param url The URL template
+   * @param headers The header templates, one per line. May be null.
+   * @param body The body template. May be null for a body-less webhook.
+   * @return The compiled webhook
+   * @throws IllegalArgumentException If a template is invalid
+   */
+  public static WebhookTemplate compile(String url, String headers,
+      String body) {
+    if (url == null || !url.trim().matches("(?i)https?://.*")) {
+      throw new IllegalArgumentException(
+          "The webhook url must start with http:// or https://");
+    }
+    final List<String> headerNames = new ArrayList<String>();
+    final List<Template> headerValues = new ArrayList<Template>();
+    String contentType = null;
+    if (headers != null) {
+      final String[] lines = headers.split("\r?\n");
+      for (int i = 0; i < lines.length; i++) {
+        final String line = lines[i].trim();
+        if (line.length() == 0)
+          continue;
+        final int colon = line.indexOf(':');
+        final String name = colon < 0 ? "" : line.substring(0, colon).trim();
+        if (!name.matches("[!#$%&'*+.^_`|~0-9A-Za-z-]+")) {
+          throw new IllegalArgumentException("Header " + (i + 1)
+              + " must be a name followed by a colon and a value");
+        }
+        final String value = line.substring(colon + 1).trim();
+        if (name.equalsIgnoreCase("Content-Type"))
+          contentType = value;
+        headerNames.add(name);
+        headerValues.add(Template.compile(value, Template.Escape.RAW));
+      }
+    }
+    if (contentType == null)
+      contentType = DEFAULT_CONTENT_TYPE;
+    final Template.Escape bodyEscape =
+        contentType.toLowerCase(Locale.ENGLISH).contains("json")
+            ? Template.Escape.JSON : Template.Escape.RAW;
+    return new WebhookTemplate(
+        Template.compile(url.trim(), Template.Escape.URL), headerNames,
+        headerValues, body == null || body.trim().length() == 0 ? null
+            : Template.compile(body, bodyEscape), contentType);
+  }
+
+  /**
+   * Create the request notifying the webhook of a push. Only the URL and
+   * headers are rendered now; the body is rendered when the request is
+   * sent.
+   * @param context The push
+   * @return The request
+   * @throws IllegalArgumentException If the rendered URL is invalid
+   */
+  public HttpUriRequest createRequest(TemplateContext context) {
+    final String uri = url.render(context);
+    final HttpUriRequest request;
+    if (body == null) {
+      request = new HttpGet(uri);
+    } else {
+      final HttpPost post = new HttpPost(uri);
+      post.setEntity(new PayloadEntity(new TemplatePayloadWriter(body,
+          contentType, context.getCloneUrl()),
+          context.getRepository(), context.getUser(),
+          context.getRefChanges(), 0));
+      request = post;
+    }
+    for (int i = 0; i < headerNames.length; i++) {
+      // Values may come from the push, so they can't start new headers
+      request.addHeader(headerNames[i],
+          headerValues[i].render(context).replaceAll("[\r\n]+", " "));
+    }
+    return request;
+  }
+}
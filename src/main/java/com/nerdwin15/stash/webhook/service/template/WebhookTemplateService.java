@@ -0,0 +1,17 @@
+package com.nerdwin15.stash.webhook.service.template;
+
+import com.atlassian.stash.setting.Settings;
+
+/**
+ * Service providing the compiled generic webhook of the hook settings.
+ */
+public interface WebhookTemplateService {
+
+  /**
+   * Get the generic webhook of the hook settings.
+   * @param settings The hook settings
+   * @return The compiled webhook, or null if none is configured or its
+   * templates are invalid
+   */
+  WebhookTemplate getTemplate(Settings settings);
+}
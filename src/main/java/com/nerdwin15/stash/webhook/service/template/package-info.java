@@ -0,0 +1,5 @@
+/**
+ * Generic webhook targets, whose URL, headers and body are rendered from
+ * templates over the fields of a push.
+ */
+package com.nerdwin15.stash.webhook.service.template;
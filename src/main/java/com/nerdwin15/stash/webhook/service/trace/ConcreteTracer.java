@@ -0,0 +1,220 @@
+package com.nerdwin15.stash.webhook.service.trace;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.atlassian.sal.api.ApplicationProperties;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * Default implementation of the {@link Tracer}.
+ *
+ * Traces are sampled by the ratio set with
+ * <code>jenkins.webhook.trace.rate</code>, decided from the trace ID so
+ * every span of a trace agrees. Ended spans of sampled traces are queued
+ * and handed to the {@link SpanExporter} by a background thread; spans are
+ * dropped when the queue is full rather than slowing down notifications.
+ *
+ * The exporter is chosen with <code>jenkins.webhook.trace.exporter</code>:
+ * <code>log</code> (the default), <code>file</code> for
+ * <code>log/jenkins-webhook-traces.log</code> in the Stash home directory,
+ * <code>none</code>, or the class name of another exporter.
+ */
+public class ConcreteTracer implements Tracer, DisposableBean {
+
+  /**
+   * Property holding the ratio of the traces that are sampled, from 0 to 1
+   */
+  public static final String RATE_PROPERTY = "jenkins.webhook.trace.rate";
+
+  /**
+   * Property holding the exporter of sampled spans
+   */
+  public static final String EXPORTER_PROPERTY =
+      "jenkins.webhook.trace.exporter";
+
+  /**
+   * Property holding the number of spans waiting to be exported
+   */
+  public static final String QUEUE_PROPERTY = "jenkins.webhook.trace.queue";
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(ConcreteTracer.class);
+  private static final long FILE_BYTES = 10L * 1024 * 1024;
+
+  private final long threshold;
+  private final SpanExporter exporter;
+  private final BlockingQueue<Span> queue;
+  private final ExecutorService worker;
+  private final AtomicLong dropped = new AtomicLong();
+  private final ThreadLocal<Span> current = new ThreadLocal<Span>();
+  private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
+
+  /**
+   * Create a new instance using the configured system properties
+   * @param applicationProperties Provides the Stash home directory
+   */
+  public ConcreteTracer(ApplicationProperties applicationProperties) {
+    this(PluginProperties.getDouble(RATE_PROPERTY, 0.01),
+        createExporter(PluginProperties.getString(EXPORTER_PROPERTY, "log"),
+            applicationProperties),
+        PluginProperties.getInt(QUEUE_PROPERTY, 1024));
+  }
+
+  /**
+   * Create a new instance
+   * @param rate The ratio of the traces that are sampled, from 0 to 1
+   * @param exporter The exporter of sampled spans. May be null, in which
+   * case nothing is sampled.
+   * @param queueSize The number of spans waiting to be exported
+   */
+  public ConcreteTracer(double rate, SpanExporter exporter, int queueSize) {
+    final double ratio = exporter == null ? 0 : Math.max(0, Math.min(1, rate));
+    this.threshold = ratio >= 1 ? Long.MAX_VALUE
+        : (long) (ratio * Long.MAX_VALUE);
+    this.exporter = exporter;
+    this.queue = new ArrayBlockingQueue<Span>(Math.max(1, queueSize));
+    this.worker = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("jenkins-webhook-trace").setDaemon(true).build());
+    if (exporter != null) {
+      worker.execute(new Runnable() {
+        @Override
+        public void run() {
+          drain();
+        }
+      });
+    }
+  }
+
+  @Override
+  public Span startTrace(String name) {
+    final Random generator = random.get();
+    final long high = generator.nextLong();
+    final long low = generator.nextLong();
+    final boolean sampled = threshold == Long.MAX_VALUE
+        || (low & Long.MAX_VALUE) < threshold;
+    return start(name, new TraceContext(high, low, spanId(generator),
+        sampled), 0);
+  }
+
+  @Override
+  public Span startSpan(String name) {
+    final Span parent = current.get();
+    return parent == null ? new Span(null, name, null, 0, null)
+        : child(parent.getContext(), name);
+  }
+
+  @Override
+  public Span resume(TraceContext parent, String name) {
+    return parent == null ? new Span(null, name, null, 0, null)
+        : child(parent, name);
+  }
+
+  @Override
+  public TraceContext currentContext() {
+    final Span span = current.get();
+    return span == null ? null : span.getContext();
+  }
+
+  /**
+   * Get the number of spans dropped because the export queue was full.
+   * @return The number of dropped spans
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  @Override
+  public void destroy() {
+    worker.shutdownNow();
+    if (exporter != null)
+      exporter.close();
+  }
+
+  /**
+   * Make the parent of an ended span current again, and queue the span for
+   * export if it is sampled.
+   * @param span The ended span
+   */
+  void end(Span span) {
+    if (current.get() == span) {
+      if (span.getPrevious() == null)
+        current.remove();
+      else
+        current.set(span.getPrevious());
+    }
+    if (span.isSampled() && !queue.offer(span))
+      dropped.incrementAndGet();
+  }
+
+  private Span child(TraceContext parent, String name) {
+    return start(name, new TraceContext(parent.getTraceIdHigh(),
+        parent.getTraceIdLow(), spanId(random.get()), parent.isSampled()),
+        parent.getSpanIdValue());
+  }
+
+  private Span start(String name, TraceContext context, long parentSpanId) {
+    final Span span = new Span(this, name, context, parentSpanId,
+        current.get());
+    current.set(span);
+    return span;
+  }
+
+  private void drain() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        final Span span = queue.take();
+        try {
+          exporter.export(span);
+        } catch (RuntimeException e) {
+          LOGGER.warn("Unable to export span {}", span.getName(), e);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static long spanId(Random generator) {
+    long id;
+    do {
+      id = generator.nextLong();
+    } while (id == 0);
+    return id;
+  }
+
+  private static SpanExporter createExporter(String name,
+      ApplicationProperties applicationProperties) {
+    if ("none".equalsIgnoreCase(name))
+      return null;
+    if ("log".equalsIgnoreCase(name))
+      return new LoggingSpanExporter();
+    if ("file".equalsIgnoreCase(name)) {
+      return new FileSpanExporter(new File(
+          applicationProperties.getHomeDirectory(),
+          "log/jenkins-webhook-traces.log"), FILE_BYTES);
+    }
+    try {
+      return (SpanExporter) Class.forName(name).newInstance();
+    } catch (Exception e) {
+      LOGGER.warn("Unable to create span exporter {}, tracing is disabled",
+          name, e);
+      return null;
+    }
+  }
+}
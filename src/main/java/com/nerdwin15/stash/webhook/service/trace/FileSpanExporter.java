@@ -0,0 +1,76 @@
+package com.nerdwin15.stash.webhook.service.trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+/**
+ * A {@link SpanExporter} appending each span as a line of JSON to a file.
+ * Once the file reaches its size cap it is renamed with a <code>.1</code>
+ * suffix, replacing the previous one, and a new file is started.
+ */
+public class FileSpanExporter implements SpanExporter {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(FileSpanExporter.class);
+
+  private final File file;
+  private final long maxBytes;
+  private Writer writer;
+  private long size;
+
+  /**
+   * Create a new instance
+   * @param file The file to append to
+   * @param maxBytes The size at which the file is rolled over
+   */
+  public FileSpanExporter(File file, long maxBytes) {
+    this.file = file;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public synchronized void export(Span span) {
+    final String line = LoggingSpanExporter.toJson(span) + "\n";
+    try {
+      if (writer == null)
+        open();
+      writer.write(line);
+      writer.flush();
+      size += line.length();
+      if (size >= maxBytes)
+        roll();
+    } catch (IOException e) {
+      LOGGER.warn("Unable to write span to " + file, e);
+      close();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    Closeables.closeQuietly(writer);
+    writer = null;
+  }
+
+  private void open() throws IOException {
+    file.getParentFile().mkdirs();
+    size = file.length();
+    writer = new OutputStreamWriter(new FileOutputStream(file, true),
+        Charsets.UTF_8);
+  }
+
+  private void roll() {
+    close();
+    final File rolled = new File(file.getPath() + ".1");
+    if (rolled.exists() && !rolled.delete() || !file.renameTo(rolled))
+      LOGGER.warn("Unable to roll over {}", file);
+  }
+}
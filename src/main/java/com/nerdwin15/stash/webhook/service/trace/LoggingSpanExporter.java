@@ -0,0 +1,71 @@
+package com.nerdwin15.stash.webhook.service.trace;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A {@link SpanExporter} logging each span as a line of JSON to the
+ * <code>com.nerdwin15.stash.webhook.trace</code> logger, at INFO level.
+ */
+public class LoggingSpanExporter implements SpanExporter {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger("com.nerdwin15.stash.webhook.trace");
+
+  @Override
+  public void export(Span span) {
+    if (LOGGER.isInfoEnabled())
+      LOGGER.info(toJson(span));
+  }
+
+  @Override
+  public void close() {
+  }
+
+  /**
+   * Format a span as a single line of JSON.
+   * @param span The span
+   * @return The JSON
+   */
+  static String toJson(Span span) {
+    final StringWriter out = new StringWriter(256);
+    final JsonWriter json = new JsonWriter(out);
+    try {
+      json.beginObject();
+      json.name("traceId").value(span.getContext().getTraceId());
+      json.name("spanId").value(span.getContext().getSpanId());
+      if (span.getParentSpanId() != null)
+        json.name("parentSpanId").value(span.getParentSpanId());
+      json.name("name").value(span.getName());
+      json.name("start").value(span.getStartMillis());
+      json.name("durationMicros").value(span.getDurationNanos() / 1000);
+      if (span.getError() != null)
+        json.name("error").value(span.getError());
+      if (!span.getAttributes().isEmpty()) {
+        json.name("attributes").beginObject();
+        for (Map.Entry<String, Object> entry
+            : span.getAttributes().entrySet()) {
+          json.name(entry.getKey());
+          if (entry.getValue() instanceof Number)
+            json.value((Number) entry.getValue());
+          else if (entry.getValue() instanceof Boolean)
+            json.value((Boolean) entry.getValue());
+          else
+            json.value(String.valueOf(entry.getValue()));
+        }
+        json.endObject();
+      }
+      json.endObject();
+      json.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
+}
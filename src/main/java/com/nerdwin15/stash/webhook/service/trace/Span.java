@@ -0,0 +1,160 @@
+package com.nerdwin15.stash.webhook.service.trace;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed stage of a trace. A span becomes the current span of its thread
+ * when started, and must be ended on that thread, usually in a finally
+ * block, which makes its parent current again.
+ *
+ * Spans of traces that aren't sampled only carry their identity, so they
+ * can still be propagated to Jenkins, and record nothing.
+ */
+public class Span {
+
+  private final ConcreteTracer tracer;
+  private final String name;
+  private final TraceContext context;
+  private final long parentSpanId;
+  private final Span previous;
+  private final long startMillis;
+  private final long startNanos;
+  private Map<String, Object> attributes;
+  private String error;
+  private long durationNanos = -1;
+
+  /**
+   * Create a new instance
+   * @param tracer The tracer the span is exported by. Null for a span that
+   * isn't part of a trace.
+   * @param name The name of the stage
+   * @param context The identity of the span. Null for a span that isn't part
+   * of a trace.
+   * @param parentSpanId The ID of the parent span, or 0 for a root span
+   * @param previous The span that was current when this one was started
+   */
+  Span(ConcreteTracer tracer, String name, TraceContext context,
+      long parentSpanId, Span previous) {
+    this.tracer = tracer;
+    this.name = name;
+    this.context = context;
+    this.parentSpanId = parentSpanId;
+    this.previous = previous;
+    final boolean sampled = isSampled();
+    this.startMillis = sampled ? System.currentTimeMillis() : 0;
+    this.startNanos = sampled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Get the name of the stage.
+   * @return The name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the identity of the span.
+   * @return The context, or null if the span isn't part of a trace
+   */
+  public TraceContext getContext() {
+    return context;
+  }
+
+  /**
+   * Get the ID of the parent span.
+   * @return The parent span ID as 16 hex digits, or null for a root span
+   */
+  public String getParentSpanId() {
+    return parentSpanId == 0 ? null : TraceContext.hex(parentSpanId);
+  }
+
+  /**
+   * Whether the span is recorded.
+   * @return True if the span is part of a sampled trace
+   */
+  public boolean isSampled() {
+    return context != null && context.isSampled();
+  }
+
+  /**
+   * Attach an attribute to the span. Ignored if the span isn't sampled.
+   * @param key The attribute name
+   * @param value The attribute value
+   * @return This span
+   */
+  public Span setAttribute(String key, Object value) {
+    if (isSampled()) {
+      if (attributes == null)
+        attributes = new LinkedHashMap<String, Object>();
+      attributes.put(key, value);
+    }
+    return this;
+  }
+
+  /**
+   * Mark the span as failed. Ignored if the span isn't sampled.
+   * @param error A description of the error
+   * @return This span
+   */
+  public Span setError(String error) {
+    if (isSampled())
+      this.error = error;
+    return this;
+  }
+
+  /**
+   * Get the attributes of the span.
+   * @return The attributes
+   */
+  public Map<String, Object> getAttributes() {
+    return attributes == null ? Collections.<String, Object>emptyMap()
+        : Collections.unmodifiableMap(attributes);
+  }
+
+  /**
+   * Get the error of the span.
+   * @return The error, or null if the stage succeeded
+   */
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * Get the time the span started.
+   * @return The time in milliseconds since the epoch, or 0 if not sampled
+   */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  /**
+   * Get the duration of the span.
+   * @return The duration in nanoseconds, -1 if it hasn't ended, or 0 if it
+   * isn't sampled
+   */
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  /**
+   * End the span, making its parent current again and exporting it if it
+   * is sampled. Ending a span twice has no effect.
+   */
+  public void end() {
+    if (tracer == null || durationNanos >= 0)
+      return;
+    durationNanos = isSampled() ? System.nanoTime() - startNanos : 0;
+    tracer.end(this);
+  }
+
+  /**
+   * Get the span that was current when this one was started.
+   * @return The previous span. May be null.
+   */
+  Span getPrevious() {
+    return previous;
+  }
+}
@@ -0,0 +1,21 @@
+package com.nerdwin15.stash.webhook.service.trace;
+
+/**
+ * A sink for ended spans. Implementations are called from a single
+ * background thread and need a public constructor without arguments to be
+ * selected by class name with the <code>jenkins.webhook.trace.exporter</code>
+ * property.
+ */
+public interface SpanExporter {
+
+  /**
+   * Export an ended span.
+   * @param span The span
+   */
+  void export(Span span);
+
+  /**
+   * Release the resources of the exporter when the plugin stops.
+   */
+  void close();
+}
@@ -0,0 +1,100 @@
+package com.nerdwin15.stash.webhook.service.trace;
+
+/**
+ * The identity of a span, as propagated to other threads and to Jenkins.
+ */
+public final class TraceContext {
+
+  /**
+   * Name of the W3C trace context header
+   */
+  public static final String TRACEPARENT = "traceparent";
+
+  private final long traceIdHigh;
+  private final long traceIdLow;
+  private final long spanId;
+  private final boolean sampled;
+
+  /**
+   * Create a new instance
+   * @param traceIdHigh The upper 64 bits of the trace ID
+   * @param traceIdLow The lower 64 bits of the trace ID
+   * @param spanId The span ID
+   * @param sampled Whether the trace is recorded
+   */
+  public TraceContext(long traceIdHigh, long traceIdLow, long spanId,
+      boolean sampled) {
+    this.traceIdHigh = traceIdHigh;
+    this.traceIdLow = traceIdLow;
+    this.spanId = spanId;
+    this.sampled = sampled;
+  }
+
+  /**
+   * Get the upper 64 bits of the trace ID.
+   * @return The upper bits
+   */
+  public long getTraceIdHigh() {
+    return traceIdHigh;
+  }
+
+  /**
+   * Get the lower 64 bits of the trace ID.
+   * @return The lower bits
+   */
+  public long getTraceIdLow() {
+    return traceIdLow;
+  }
+
+  /**
+   * Get the trace ID.
+   * @return The trace ID as 32 lowercase hex digits
+   */
+  public String getTraceId() {
+    return hex(traceIdHigh) + hex(traceIdLow);
+  }
+
+  /**
+   * Get the span ID.
+   * @return The span ID as 16 lowercase hex digits
+   */
+  public String getSpanId() {
+    return hex(spanId);
+  }
+
+  /**
+   * Get the span ID.
+   * @return The span ID
+   */
+  public long getSpanIdValue() {
+    return spanId;
+  }
+
+  /**
+   * Whether the trace is recorded.
+   * @return True if the spans of the trace are exported
+   */
+  public boolean isSampled() {
+    return sampled;
+  }
+
+  /**
+   * Get the value of the W3C <code>traceparent</code> header for a request
+   * made by this span.
+   * @return The header value
+   */
+  public String toTraceparent() {
+    return "00-" + getTraceId() + "-" + getSpanId() + (sampled ? "-01" : "-00");
+  }
+
+  /**
+   * Format a 64 bit ID.
+   * @param id The ID
+   * @return 16 lowercase hex digits
+   */
+  static String hex(long id) {
+    final String hex = Long.toHexString(id);
+    return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length())
+        + hex;
+  }
+}
@@ -0,0 +1,41 @@
+package com.nerdwin15.stash.webhook.service.trace;
+
+/**
+ * Defines the creation of the spans of the notification path. Only a
+ * sample of the traces is recorded; the others cost a few allocations.
+ */
+public interface Tracer {
+
+  /**
+   * Start a new trace, deciding whether it is sampled. Its root span becomes
+   * the current span.
+   * @param name The name of the root stage
+   * @return The root span
+   */
+  Span startTrace(String name);
+
+  /**
+   * Start a child of the current span. Outside of a trace, the returned
+   * span does nothing.
+   * @param name The name of the stage
+   * @return The span
+   */
+  Span startSpan(String name);
+
+  /**
+   * Continue a trace on another thread by starting a child of a span
+   * started there.
+   * @param parent The context of the parent span. May be null, in which
+   * case the returned span does nothing.
+   * @param name The name of the stage
+   * @return The span
+   */
+  Span resume(TraceContext parent, String name);
+
+  /**
+   * Get the context of the current span, to continue the trace on another
+   * thread.
+   * @return The context, or null outside of a trace
+   */
+  TraceContext currentContext();
+}
@@ -0,0 +1,5 @@
+/**
+ * Lightweight tracing of the notification path, from the refs changed event
+ * to the answer of Jenkins, with W3C trace context propagation.
+ */
+package com.nerdwin15.stash.webhook.service.trace;
@@ -72,14 +72,81 @@ define('plugin/jenkins/test', [
                     'gitRepoUrl': [$cloneUrl.val()],
                     'ignoreCerts': [$ignoreCerts.attr('checked') ? "TRUE" : "FALSE"]
                 }
-            }).always(function () {
-                setDeleteButtonEnabled(true)
-            }).success(function () {
-                setStatus("Success!", "green");
+            }).success(function (test) {
+                pollTest(test);
             }).error(function () {
+                setDeleteButtonEnabled(true);
                 setStatus("It didn't work!", "red");
             });
         });
+
+        var $historyButton = $("#historyButton"),
+            $historyTable = $("#historyTable"),
+            $historyMore = $("#historyMore");
+
+        function statusText(delivery) {
+            if (delivery.status == -1) {
+                return "Error";
+            } else if (delivery.status == 0) {
+                return "Dropped";
+            }
+            return "" + delivery.status;
+        }
+
+        function loadHistory(start) {
+            ajax.rest({
+                url: resourceUrl('history') + '?start=' + start + '&limit=10'
+            }).success(function (page) {
+                var $body = $historyTable.find("tbody");
+                if (start == 0) {
+                    $body.empty();
+                }
+                $.each(page.values, function (i, delivery) {
+                    $("<tr></tr>")
+                        .append($("<td></td>").text(new Date(delivery.timestamp).toLocaleString()))
+                        .append($("<td></td>").text(delivery.refs))
+                        .append($("<td></td>").text(statusText(delivery))
+                            .attr("title", delivery.url)
+                            .css("color", delivery.success ? "green" : "red"))
+                        .append($("<td></td>").text(delivery.latencyMillis + " ms"))
+                        .append($("<td></td>").text(delivery.response))
+                        .appendTo($body);
+                });
+                $historyTable.show();
+                $historyMore.toggle(!page.isLastPage).data("start", page.nextPageStart);
+            });
+        }
+
+        $historyButton.click(function () {
+            loadHistory(0);
+        });
+
+        $historyMore.click(function (e) {
+            e.preventDefault();
+            loadHistory($historyMore.data("start"));
+        });
+
+        function pollTest(test) {
+            if (test.state == "RUNNING") {
+                setTimeout(function () {
+                    ajax.rest({
+                        url: resourceUrl('test/' + test.id)
+                    }).success(pollTest).error(function () {
+                        setDeleteButtonEnabled(true);
+                        setStatus("It didn't work!", "red");
+                    });
+                }, 1000);
+                return;
+            }
+            setDeleteButtonEnabled(true);
+            if (test.state == "SUCCESS") {
+                setStatus("Success!", "green");
+            } else if (test.state == "TIMED_OUT") {
+                setStatus("Jenkins didn't answer in time!", "red");
+            } else {
+                setStatus("It didn't work!", "red");
+            }
+        }
     }
 
     exports.onReady = function () {
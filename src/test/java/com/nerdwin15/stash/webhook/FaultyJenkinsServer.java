@@ -0,0 +1,270 @@
+package com.nerdwin15.stash.webhook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A local server standing in for a failing Jenkins in tests. It speaks just
+ * enough HTTP to answer a request in the way of the configured
+ * {@link Fault}, and tracks the connections it holds open and the response
+ * bytes written to them.
+ *
+ * A black-holed connect is emulated by no longer accepting connections:
+ * once the small accept backlog is full, the connection attempts of the
+ * clients go unanswered until they time out.
+ */
+public class FaultyJenkinsServer {
+
+  /**
+   * The ways the server fails.
+   */
+  public enum Fault {
+    /** Connections are accepted, but no request is ever answered */
+    BLACK_HOLE,
+    /** A large body is announced, then sent one byte at a time */
+    SLOW_DRIP,
+    /** The connection is reset once the request is received */
+    RESET,
+    /** Every request is answered with a 503 */
+    ERROR_STORM,
+    /** Every request is answered with a multi-megabyte body */
+    HUGE_BODY
+  }
+
+  /**
+   * The size of the bodies announced by the server
+   */
+  public static final int HUGE_BODY_BYTES = 8 * 1024 * 1024;
+
+  private static final long DRIP_INTERVAL_MILLIS = 20;
+
+  private final ServerSocket server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Set<Socket> sockets =
+      Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+  private final AtomicInteger maxOpen = new AtomicInteger();
+  private final AtomicInteger connections = new AtomicInteger();
+  private final AtomicInteger maxBytesSent = new AtomicInteger();
+  private final Object acceptLock = new Object();
+  private volatile Fault fault = Fault.ERROR_STORM;
+  private volatile boolean accepting = true;
+  private volatile boolean stopped;
+
+  /**
+   * Start a server on a free local port.
+   * @throws IOException If the server can't be started
+   */
+  public FaultyJenkinsServer() throws IOException {
+    server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        acceptLoop();
+      }
+    });
+  }
+
+  /**
+   * Get the base URL of the server.
+   * @return The base URL
+   */
+  public String getBaseUrl() {
+    return "http://127.0.0.1:" + server.getLocalPort();
+  }
+
+  /**
+   * Set the way the next connections fail.
+   * @param fault The fault
+   */
+  public void setFault(Fault fault) {
+    this.fault = fault;
+  }
+
+  /**
+   * Stop or resume accepting connections.
+   * @param accepting False to leave connection attempts unanswered
+   */
+  public void setAccepting(boolean accepting) {
+    synchronized (acceptLock) {
+      this.accepting = accepting;
+      acceptLock.notifyAll();
+    }
+  }
+
+  /**
+   * Get the number of connections the server holds open.
+   * @return The number of open connections
+   */
+  public int getOpen() {
+    return sockets.size();
+  }
+
+  /**
+   * Get the highest number of connections held open at the same time.
+   * @return The maximum number of open connections
+   */
+  public int getMaxOpen() {
+    return maxOpen.get();
+  }
+
+  /**
+   * Get the number of connections accepted.
+   * @return The number of connections
+   */
+  public int getConnections() {
+    return connections.get();
+  }
+
+  /**
+   * Get the most response bytes written to a single connection before the
+   * client closed it.
+   * @return The number of bytes
+   */
+  public int getMaxBytesSent() {
+    return maxBytesSent.get();
+  }
+
+  /**
+   * Stop the server, closing every connection.
+   */
+  public void stop() {
+    stopped = true;
+    setAccepting(true);
+    try {
+      server.close();
+    } catch (IOException e) {
+      // Closing anyway
+    }
+    for (Socket socket : sockets) {
+      close(socket);
+    }
+    executor.shutdownNow();
+  }
+
+  private void acceptLoop() {
+    while (!stopped) {
+      try {
+        synchronized (acceptLock) {
+          while (!accepting) {
+            acceptLock.wait();
+          }
+        }
+        final Socket socket = server.accept();
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            handle(socket);
+          }
+        });
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException e) {
+        if (stopped)
+          return;
+      }
+    }
+  }
+
+  private void handle(Socket socket) {
+    connections.incrementAndGet();
+    sockets.add(socket);
+    raise(maxOpen, sockets.size());
+    int sent = 0;
+    try {
+      final InputStream in = socket.getInputStream();
+      final OutputStream out = socket.getOutputStream();
+      readRequest(in);
+      switch (fault) {
+      case BLACK_HOLE:
+        while (in.read() != -1) {
+          continue;
+        }
+        break;
+      case SLOW_DRIP:
+        out.write(headers(200, HUGE_BODY_BYTES));
+        while (sent < HUGE_BODY_BYTES && !stopped) {
+          out.write('x');
+          out.flush();
+          sent++;
+          TimeUnit.MILLISECONDS.sleep(DRIP_INTERVAL_MILLIS);
+        }
+        break;
+      case RESET:
+        socket.setSoLinger(true, 0);
+        break;
+      case ERROR_STORM:
+        final byte[] body = "Service Unavailable".getBytes(Charsets.UTF_8);
+        out.write(headers(503, body.length));
+        out.write(body);
+        sent = body.length;
+        break;
+      case HUGE_BODY:
+        out.write(headers(200, HUGE_BODY_BYTES));
+        final byte[] chunk = new byte[8192];
+        while (sent < HUGE_BODY_BYTES) {
+          out.write(chunk);
+          sent += chunk.length;
+        }
+        break;
+      default:
+        break;
+      }
+      out.flush();
+    } catch (IOException e) {
+      // The client gave up on the connection
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      raise(maxBytesSent, sent);
+      close(socket);
+      sockets.remove(socket);
+    }
+  }
+
+  private static void close(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Closing anyway
+    }
+  }
+
+  private static void raise(AtomicInteger maximum, int value) {
+    int current;
+    while (value > (current = maximum.get())
+        && !maximum.compareAndSet(current, value)) {
+      continue;
+    }
+  }
+
+  private static void readRequest(InputStream in) throws IOException {
+    int matched = 0;
+    int read;
+    while (matched < 4 && (read = in.read()) != -1) {
+      if (read == (matched % 2 == 0 ? '\r' : '\n'))
+        matched++;
+      else
+        matched = read == '\r' ? 1 : 0;
+    }
+  }
+
+  private static byte[] headers(int status, int length) {
+    return ("HTTP/1.1 " + status + " Fault\r\n"
+        + "Content-Type: text/plain\r\n"
+        + "Content-Length: " + length + "\r\n"
+        + "Connection: close\r\n\r\n").getBytes(Charsets.UTF_8);
+  }
+}
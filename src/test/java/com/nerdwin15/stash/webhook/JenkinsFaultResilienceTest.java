@@ -0,0 +1,326 @@
+package com.nerdwin15.stash.webhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.setting.Settings;
+import com.nerdwin15.stash.webhook.FaultyJenkinsServer.Fault;
+import com.nerdwin15.stash.webhook.service.ConcreteHttpClientFactory;
+import com.nerdwin15.stash.webhook.service.RecentRefChangeIndex;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.catchup.RefSnapshotStore;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetterStore;
+import com.nerdwin15.stash.webhook.service.deadletter.StoredRefChange;
+import com.nerdwin15.stash.webhook.service.dispatch.Bulkhead;
+import com.nerdwin15.stash.webhook.service.dispatch.ConcreteNotificationDispatcher;
+import com.nerdwin15.stash.webhook.service.dispatch.DispatcherConfiguration;
+import com.nerdwin15.stash.webhook.service.dispatch.FairShare;
+import com.nerdwin15.stash.webhook.service.dispatch.Lane;
+import com.nerdwin15.stash.webhook.service.eligibility.ConcreteEligibilityFilterChain;
+import com.nerdwin15.stash.webhook.service.eligibility.EligibilityFilter;
+import com.nerdwin15.stash.webhook.service.failover.ConcreteEndpointSelector;
+import com.nerdwin15.stash.webhook.service.health.HostHealthService;
+import com.nerdwin15.stash.webhook.service.history.ConcreteDeliveryHistory;
+import com.nerdwin15.stash.webhook.service.limit.ConcreteConcurrencyLimiterService;
+import com.nerdwin15.stash.webhook.service.payload.JsonPayloadWriter;
+import com.nerdwin15.stash.webhook.service.record.TrafficRecorder;
+import com.nerdwin15.stash.webhook.service.route.ConcreteRoutingService;
+import com.nerdwin15.stash.webhook.service.template.ConcreteWebhookTemplateService;
+import com.nerdwin15.stash.webhook.service.trace.ConcreteTracer;
+
+/**
+ * Resilience suite pushing to a {@link FaultyJenkinsServer} through the
+ * whole notification path. Whatever the failure of Jenkins, publishing a
+ * push must not block, and the notification threads, queued notifications,
+ * open connections and retained heap must stay within their bounds.
+ */
+public class JenkinsFaultResilienceTest {
+
+  private static final int THREADS = 2;
+  private static final int QUEUE = 4;
+  private static final int PUSHES = 40;
+  private static final int CONNECT_TIMEOUT_MILLIS = 500;
+  private static final int READ_TIMEOUT_MILLIS = 1000;
+  private static final long PUBLISH_BOUND_MILLIS = 250;
+  private static final long HEAP_BOUND_BYTES = 32L * 1024 * 1024;
+
+  private FaultyJenkinsServer server;
+  private File snapshotFile;
+  private File deadLetterFile;
+  private ConcreteTracer tracer;
+  private ConcreteHttpClientFactory httpClientFactory;
+  private DeadLetterStore deadLetterStore;
+  private RefSnapshotStore snapshotStore;
+  private ConcreteNotificationDispatcher dispatcher;
+  private RepositoryChangeListener listener;
+  private Repository[] repositories;
+
+  /**
+   * Setup tasks
+   * @throws Exception
+   */
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty(Notifier.RESPONSE_DEADLINE_PROPERTY, "1");
+    server = new FaultyJenkinsServer();
+    snapshotFile = File.createTempFile("ref-snapshot", ".dat");
+    deadLetterFile = File.createTempFile("dead-letters", ".dat");
+    snapshotFile.delete();
+    deadLetterFile.delete();
+
+    final Settings settings = mock(Settings.class);
+    when(settings.getString(Notifier.JENKINS_BASE))
+        .thenReturn(server.getBaseUrl());
+    when(settings.getString(eq(Notifier.JENKINS_BASE), anyString()))
+        .thenReturn(server.getBaseUrl());
+    when(settings.getString(Notifier.CLONE_URL))
+        .thenReturn("http://stash/scm/prj/repo.git");
+    when(settings.getBoolean(anyString(), anyBoolean())).thenReturn(false);
+    final RepositoryHook hook = mock(RepositoryHook.class);
+    when(hook.isEnabled()).thenReturn(true);
+    when(hook.isConfigured()).thenReturn(true);
+    final SettingsService settingsService = mock(SettingsService.class);
+    when(settingsService.getRepositoryHook(any(Repository.class)))
+        .thenReturn(hook);
+    when(settingsService.getSettings(any(Repository.class)))
+        .thenReturn(settings);
+
+    tracer = new ConcreteTracer(0, null, 1);
+    deadLetterStore = new DeadLetterStore(deadLetterFile, 1024 * 1024);
+    snapshotStore = new RefSnapshotStore(snapshotFile);
+    final TrafficRecorder recorder = new TrafficRecorder(null, 0);
+    httpClientFactory = new ConcreteHttpClientFactory() {
+      @Override
+      protected void applyTimeouts(HttpParams params) {
+        HttpConnectionParams.setConnectionTimeout(params,
+            CONNECT_TIMEOUT_MILLIS);
+        HttpConnectionParams.setSoTimeout(params, READ_TIMEOUT_MILLIS);
+      }
+    };
+    final Notifier notifier = new Notifier(settingsService,
+        httpClientFactory, new JsonPayloadWriter(null),
+        new ConcreteConcurrencyLimiterService(THREADS, 1, THREADS, 100),
+        new ConcreteDeliveryHistory(), deadLetterStore, tracer, recorder,
+        mock(HostHealthService.class), new ConcreteEndpointSelector(),
+        new ConcreteRoutingService(), new ConcreteWebhookTemplateService(),
+        snapshotStore);
+    dispatcher = new ConcreteNotificationDispatcher(notifier,
+        new DispatcherConfiguration(
+            Lane.parse(Lane.DEFAULT_SPEC), FairShare.parse(null), THREADS, 1,
+            QUEUE, 60000), tracer);
+    listener = new RepositoryChangeListener(
+        new ConcreteEligibilityFilterChain(new ArrayList<EligibilityFilter>(),
+            tracer),
+        dispatcher, settingsService, new RecentRefChangeIndex(),
+        snapshotStore, tracer, recorder);
+
+    final Project project = mock(Project.class);
+    when(project.getId()).thenReturn(1);
+    when(project.getKey()).thenReturn("PRJ");
+    repositories = new Repository[8];
+    for (int i = 0; i < repositories.length; i++) {
+      repositories[i] = mock(Repository.class);
+      when(repositories[i].getId()).thenReturn(i + 1);
+      when(repositories[i].getSlug()).thenReturn("repo-" + i);
+      when(repositories[i].getProject()).thenReturn(project);
+    }
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    System.clearProperty(Notifier.RESPONSE_DEADLINE_PROPERTY);
+    dispatcher.destroy();
+    httpClientFactory.destroy();
+    tracer.destroy();
+    deadLetterStore.destroy();
+    snapshotStore.destroy();
+    server.stop();
+    snapshotFile.delete();
+    deadLetterFile.delete();
+  }
+
+  /**
+   * Validate the bounds when Jenkins accepts connections but never answers.
+   * @throws Exception
+   */
+  @Test
+  public void shouldStayBoundedWhenJenkinsNeverAnswers() throws Exception {
+    server.setFault(Fault.BLACK_HOLE);
+    storm();
+  }
+
+  /**
+   * Validate the bounds when connection attempts to Jenkins go unanswered.
+   * @throws Exception
+   */
+  @Test
+  public void shouldStayBoundedWhenConnectsAreBlackHoled() throws Exception {
+    server.setAccepting(false);
+    storm();
+  }
+
+  /**
+   * Validate the bounds when Jenkins trickles a large response, and that the
+   * response is abandoned at the deadline.
+   * @throws Exception
+   */
+  @Test
+  public void shouldStayBoundedWhenJenkinsDripsItsResponse()
+      throws Exception {
+    server.setFault(Fault.SLOW_DRIP);
+    storm();
+    assertTrue(server.getMaxBytesSent() < FaultyJenkinsServer.HUGE_BODY_BYTES);
+  }
+
+  /**
+   * Validate the bounds when Jenkins resets every connection.
+   * @throws Exception
+   */
+  @Test
+  public void shouldStayBoundedWhenConnectionsAreReset() throws Exception {
+    server.setFault(Fault.RESET);
+    storm();
+  }
+
+  /**
+   * Validate the bounds when Jenkins answers every request with a 503.
+   * @throws Exception
+   */
+  @Test
+  public void shouldStayBoundedDuringErrorStorm() throws Exception {
+    server.setFault(Fault.ERROR_STORM);
+    storm();
+    assertTrue(server.getConnections() > 0);
+  }
+
+  /**
+   * Validate the bounds when Jenkins answers with multi-megabyte bodies, and
+   * that they aren't read in full.
+   * @throws Exception
+   */
+  @Test
+  public void shouldStayBoundedWithHugeResponses() throws Exception {
+    server.setFault(Fault.HUGE_BODY);
+    storm();
+    assertTrue(server.getConnections() > 0);
+    assertTrue(server.getMaxBytesSent() < FaultyJenkinsServer.HUGE_BODY_BYTES);
+  }
+
+  /**
+   * Publish a burst of pushes and check the bounds while and after they are
+   * notified.
+   * @throws Exception
+   */
+  private void storm() throws Exception {
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    System.gc();
+    final long heapBefore = memory.getHeapMemoryUsage().getUsed();
+    final int threadsBefore = notificationThreads();
+
+    long slowestPublish = 0;
+    int maxThreads = 0;
+    int maxQueued = 0;
+    for (int i = 0; i < PUSHES; i++) {
+      final RepositoryRefsChangedEvent event =
+          push(repositories[i % repositories.length], i);
+      final long start = System.nanoTime();
+      listener.onRefsChangedEvent(event);
+      slowestPublish = Math.max(slowestPublish, System.nanoTime() - start);
+      maxThreads = Math.max(maxThreads, notificationThreads());
+      maxQueued = Math.max(maxQueued, queued());
+    }
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+    while ((!drained() || server.getOpen() > 0)
+        && System.nanoTime() < deadline) {
+      maxThreads = Math.max(maxThreads, notificationThreads());
+      maxQueued = Math.max(maxQueued, queued());
+      Thread.sleep(50);
+    }
+
+    assertTrue("Publishing blocked for "
+        + TimeUnit.NANOSECONDS.toMillis(slowestPublish) + "ms",
+        slowestPublish < TimeUnit.MILLISECONDS.toNanos(PUBLISH_BOUND_MILLIS));
+    assertTrue("Notifications did not drain", drained());
+    assertTrue("Threads grew by " + (maxThreads - threadsBefore),
+        maxThreads - threadsBefore <= THREADS);
+    assertTrue("Queued " + maxQueued, maxQueued <= QUEUE);
+    // Each thread holds a single connection, but the server only notices a
+    // connection was closed on its next read or write
+    assertTrue("Opened " + server.getMaxOpen(),
+        server.getMaxOpen() <= 2 * THREADS);
+    assertEquals(0, server.getOpen());
+    System.gc();
+    final long heapGrowth = memory.getHeapMemoryUsage().getUsed()
+        - heapBefore;
+    assertTrue("Heap grew by " + heapGrowth + " bytes",
+        heapGrowth < HEAP_BOUND_BYTES);
+  }
+
+  private RepositoryRefsChangedEvent push(Repository repository, int index) {
+    final String hash = String.format("%040x", index);
+    final List<RefChange> refChanges = Arrays.<RefChange>asList(
+        new StoredRefChange("refs/heads/master", hash, hash,
+            RefChangeType.UPDATE));
+    final RepositoryRefsChangedEvent event =
+        mock(RepositoryRefsChangedEvent.class);
+    when(event.getRepository()).thenReturn(repository);
+    when(event.getRefChanges()).thenReturn(refChanges);
+    return event;
+  }
+
+  private int queued() {
+    int queued = 0;
+    for (Bulkhead bulkhead : dispatcher.getBulkheads()) {
+      queued += bulkhead.getQueue().size();
+    }
+    return queued;
+  }
+
+  private boolean drained() {
+    for (Bulkhead bulkhead : dispatcher.getBulkheads()) {
+      if (bulkhead.getActive() > 0 || !bulkhead.getQueue().isEmpty())
+        return false;
+    }
+    return true;
+  }
+
+  private static int notificationThreads() {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.isAlive() && thread.getName().matches("jenkins-webhook-\\d+"
+          + "-\\d+"))
+        count++;
+    }
+    return count;
+  }
+}
@@ -1,26 +1,71 @@
 package com.nerdwin15.stash.webhook;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.Settings;
 import com.nerdwin15.stash.webhook.service.HttpClientFactory;
 import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.catchup.RefSnapshotStore;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetter;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetterStore;
+import com.nerdwin15.stash.webhook.service.deadletter.StoredRefChange;
+import com.nerdwin15.stash.webhook.service.failover.ConcreteEndpointSelector;
+import com.nerdwin15.stash.webhook.service.failover.EndpointSelector;
+import com.nerdwin15.stash.webhook.service.health.HostHealthService;
+import com.nerdwin15.stash.webhook.service.history.ConcreteDeliveryHistory;
+import com.nerdwin15.stash.webhook.service.history.Delivery;
+import com.nerdwin15.stash.webhook.service.history.DeliveryHistory;
+import com.nerdwin15.stash.webhook.service.limit.ConcreteConcurrencyLimiterService;
+import com.nerdwin15.stash.webhook.service.limit.ConcurrencyLimiter;
+import com.nerdwin15.stash.webhook.service.limit.ConcurrencyLimiterService;
+import com.nerdwin15.stash.webhook.service.payload.PayloadEntity;
+import com.nerdwin15.stash.webhook.service.payload.PayloadWriter;
+import com.nerdwin15.stash.webhook.service.record.TrafficRecorder;
+import com.nerdwin15.stash.webhook.service.route.ConcreteRoutingService;
+import com.nerdwin15.stash.webhook.service.template.ConcreteWebhookTemplateService;
+import com.nerdwin15.stash.webhook.service.trace.ConcreteTracer;
+import com.nerdwin15.stash.webhook.service.trace.Span;
+import com.nerdwin15.stash.webhook.service.trace.TraceContext;
 
 /**
  * Test for the Notifier class
@@ -36,11 +81,18 @@ public class NotifierTest {
 
   private HttpClientFactory httpClientFactory;
   private HttpClient httpClient;
-  private ClientConnectionManager connectionManager;
   private Repository repo;
   private RepositoryHook repoHook;
   private Settings settings;
   private SettingsService settingsService;
+  private PayloadWriter payloadWriter;
+  private ConcurrencyLimiterService limiterService;
+  private DeliveryHistory deliveryHistory;
+  private DeadLetterStore deadLetterStore;
+  private ConcreteTracer tracer;
+  private HostHealthService healthService;
+  private EndpointSelector endpointSelector;
+  private RefSnapshotStore snapshotStore;
   private Notifier notifier;
 
   /**
@@ -50,13 +102,25 @@ public class NotifierTest {
   public void setup() throws Exception {
     httpClientFactory = mock(HttpClientFactory.class);
     settingsService = mock(SettingsService.class);
-    notifier = new Notifier(settingsService, httpClientFactory);
+    payloadWriter = mock(PayloadWriter.class);
+    limiterService = 
+        new ConcreteConcurrencyLimiterService(1, 1, 1, 1000);
+    deliveryHistory = new ConcreteDeliveryHistory(10, 1024 * 1024);
+    deadLetterStore = mock(DeadLetterStore.class);
+    tracer = new ConcreteTracer(0, null, 16);
+    healthService = mock(HostHealthService.class);
+    endpointSelector = new ConcreteEndpointSelector();
+    snapshotStore = mock(RefSnapshotStore.class);
+    notifier = new Notifier(settingsService, httpClientFactory, 
+        payloadWriter, limiterService, deliveryHistory, deadLetterStore,
+        tracer, mock(TrafficRecorder.class), healthService,
+        endpointSelector, new ConcreteRoutingService(),
+        new ConcreteWebhookTemplateService(), snapshotStore);
 
     repo = mock(Repository.class);
     repoHook = mock(RepositoryHook.class);
     settings = mock(Settings.class);
     httpClient = mock(HttpClient.class);
-    connectionManager = mock(ClientConnectionManager.class);
 
     when(repoHook.isEnabled()).thenReturn(true);
     when(settingsService.getRepositoryHook(repo)).thenReturn(repoHook);
@@ -64,7 +128,6 @@ public class NotifierTest {
     when(httpClientFactory
         .getHttpClient(any(Boolean.class), any(Boolean.class)))
         .thenReturn(httpClient);
-    when(httpClient.getConnectionManager()).thenReturn(connectionManager);
 
     when(settings.getString(Notifier.JENKINS_BASE))
       .thenReturn(JENKINS_BASE_URL);
@@ -120,7 +183,7 @@ public class NotifierTest {
 
     verify(httpClientFactory, times(1)).getHttpClient(false, false);
     verify(httpClient, times(1)).execute(captor.capture());
-    verify(connectionManager, times(1)).shutdown();
+    verify(httpClientFactory, times(1)).releaseHttpClient(httpClient);
 
     assertEquals("http://localhost.jenkins/git/notifyCommit?" 
         + "url=http%3A%2F%2Fsome.stash.com%2Fscm%2Ffoo%2Fbar.git",
@@ -142,7 +205,7 @@ public class NotifierTest {
 
     verify(httpClientFactory, times(1)).getHttpClient(true, false);
     verify(httpClient, times(1)).execute(captor.capture());
-    verify(connectionManager, times(1)).shutdown();
+    verify(httpClientFactory, times(1)).releaseHttpClient(httpClient);
 
     assertEquals("https://localhost.jenkins/git/notifyCommit?" 
         + "url=http%3A%2F%2Fsome.stash.com%2Fscm%2Ffoo%2Fbar.git",
@@ -166,7 +229,7 @@ public class NotifierTest {
 
     verify(httpClientFactory, times(1)).getHttpClient(true, true);
     verify(httpClient, times(1)).execute(captor.capture());
-    verify(connectionManager, times(1)).shutdown();
+    verify(httpClientFactory, times(1)).releaseHttpClient(httpClient);
 
     assertEquals("https://localhost.jenkins/git/notifyCommit?"
         + "url=http%3A%2F%2Fsome.stash.com%2Fscm%2Ffoo%2Fbar.git",
@@ -190,11 +253,451 @@ public class NotifierTest {
 
     verify(httpClientFactory, times(1)).getHttpClient(false, false);
     verify(httpClient, times(1)).execute(captor.capture());
-    verify(connectionManager, times(1)).shutdown();
+    verify(httpClientFactory, times(1)).releaseHttpClient(httpClient);
 
     assertEquals("http://localhost.jenkins/git/notifyCommit?"
         + "url=http%3A%2F%2Fsome.stash.com%2Fscm%2Ffoo%2Fbar.git",
         captor.getValue().getURI().toString());
   }
+
+  /**
+   * Validates that a POST carrying the payload is sent to the notifyCommit
+   * url when payloads are enabled without a custom path
+   * @throws Exception
+   */
+  @Test
+  public void shouldPostPayloadToNotifyCommitUrl() throws Exception {
+    when(settings.getBoolean(Notifier.POST_PAYLOAD, false)).thenReturn(true);
+
+    notifier.notify(repo);
+
+    ArgumentCaptor<HttpPost> captor = ArgumentCaptor.forClass(HttpPost.class);
+
+    verify(httpClient, times(1)).execute(captor.capture());
+    verify(httpClientFactory, times(1)).releaseHttpClient(httpClient);
+
+    assertEquals("http://localhost.jenkins/git/notifyCommit?"
+        + "url=http%3A%2F%2Fsome.stash.com%2Fscm%2Ffoo%2Fbar.git",
+        captor.getValue().getURI().toString());
+    assertTrue(captor.getValue().getEntity() instanceof PayloadEntity);
+    assertTrue(captor.getValue().getEntity().isChunked());
+  }
+
+  /**
+   * Validates that the payload is posted to the configured path
+   * @throws Exception
+   */
+  @Test
+  public void shouldPostPayloadToConfiguredPath() throws Exception {
+    when(settings.getBoolean(Notifier.POST_PAYLOAD, false)).thenReturn(true);
+    when(settings.getString(Notifier.PAYLOAD_PATH))
+      .thenReturn("generic-webhook-trigger/invoke");
+
+    notifier.notify(repo);
+
+    ArgumentCaptor<HttpPost> captor = ArgumentCaptor.forClass(HttpPost.class);
+
+    verify(httpClient, times(1)).execute(captor.capture());
+    assertEquals("http://localhost.jenkins/generic-webhook-trigger/invoke",
+        captor.getValue().getURI().toString());
+  }
+
+  /**
+   * Validates that a traced push carries its trace to Jenkins, and that
+   * other requests don't
+   * @throws Exception
+   */
+  @Test
+  public void shouldPropagateTraceContext() throws Exception {
+    Span trace = tracer.startTrace("test");
+    try {
+      notifier.notify(repo);
+    } finally {
+      trace.end();
+    }
+    notifier.notify(repo);
+
+    ArgumentCaptor<HttpGet> captor = ArgumentCaptor.forClass(HttpGet.class);
+    verify(httpClient, times(2)).execute(captor.capture());
+    String traceparent = captor.getAllValues().get(0)
+        .getFirstHeader(TraceContext.TRACEPARENT).getValue();
+    assertTrue(traceparent.matches("00-" + trace.getContext().getTraceId()
+        + "-[0-9a-f]{16}-00"));
+    assertNull(captor.getAllValues().get(1)
+        .getFirstHeader(TraceContext.TRACEPARENT));
+  }
+
+  /**
+   * Validates that the concurrency slot of the host is released after a
+   * failed request, and the failure is counted
+   * @throws Exception
+   */
+  @Test
+  public void shouldReleaseLimiterAfterFailure() throws Exception {
+    notifier.notify(repo);
+    notifier.notify(repo);
+
+    ConcurrencyLimiter limiter = 
+        limiterService.getLimiter("http://localhost.jenkins");
+    verify(httpClient, times(2)).execute(any(HttpGet.class));
+    assertEquals(0, limiter.getInFlight());
+    assertEquals(2, limiter.getFailures());
+  }
+
+  /**
+   * Validates that nothing is sent while the host is at its limit
+   * @throws Exception
+   */
+  @Test
+  public void shouldDropNotificationWhenLimitIsReached() throws Exception {
+    limiterService = new ConcreteConcurrencyLimiterService(1, 1, 1, 0);
+    notifier = new Notifier(settingsService, httpClientFactory, 
+        payloadWriter, limiterService, deliveryHistory, deadLetterStore,
+        tracer, mock(TrafficRecorder.class), healthService,
+        endpointSelector, new ConcreteRoutingService(),
+        new ConcreteWebhookTemplateService(), snapshotStore);
+    limiterService.getLimiter("http://localhost.jenkins")
+        .acquire(0, TimeUnit.MILLISECONDS);
+
+    notifier.notify(repo);
+
+    verify(httpClientFactory, never())
+      .getHttpClient(anyBoolean(), anyBoolean());
+    List<Delivery> deliveries = deliveryHistory.getDeliveries(repo, 0, 10);
+    assertEquals(1, deliveries.size());
+    assertEquals(Delivery.STATUS_DROPPED, deliveries.get(0).getStatus());
+  }
+
+  /**
+   * Validates that nothing is sent to a host known to be down, while
+   * connection tests still are
+   * @throws Exception
+   */
+  @Test
+  public void shouldSkipHostKnownToBeDown() throws Exception {
+    when(healthService.isDown("http://localhost.jenkins")).thenReturn(true);
+
+    notifier.notify(repo);
+
+    verify(httpClientFactory, never())
+      .getHttpClient(anyBoolean(), anyBoolean());
+    List<Delivery> deliveries = deliveryHistory.getDeliveries(repo, 0, 10);
+    assertEquals(1, deliveries.size());
+    assertEquals(Delivery.STATUS_DROPPED, deliveries.get(0).getStatus());
+
+    notifier.notify(repo, JENKINS_BASE_URL, false, CLONE_URL);
+    verify(httpClientFactory, times(1)).getHttpClient(false, false);
+  }
+
+  /**
+   * Validates that failed attempts are recorded in the delivery history and
+   * kept as dead letters, while connection tests aren't
+   * @throws Exception
+   */
+  @Test
+  public void shouldRecordFailedAttempt() throws Exception {
+    when(repo.getId()).thenReturn(1);
+    notifier.notify(repo);
+    notifier.notify(repo, JENKINS_BASE_URL, false, CLONE_URL);
+
+    List<Delivery> deliveries = deliveryHistory.getDeliveries(repo, 0, 10);
+    assertEquals(1, deliveries.size());
+    assertEquals(Delivery.STATUS_ERROR, deliveries.get(0).getStatus());
+    assertEquals("http://localhost.jenkins/git/notifyCommit?" 
+        + "url=http%3A%2F%2Fsome.stash.com%2Fscm%2Ffoo%2Fbar.git",
+        deliveries.get(0).getUrl());
+    verify(deadLetterStore, times(1)).add(eq(repo), anyCollection(),
+        eq(JENKINS_BASE_URL), startsWith(JENKINS_BASE_URL), anyString());
+  }
+
+  /**
+   * Validates that a notification fails over to an alternate endpoint when
+   * the preferred one is unreachable, and that only the last attempt is
+   * recorded
+   * @throws Exception
+   */
+  @Test
+  public void shouldFailOverToAlternateEndpoint() throws Exception {
+    when(settings.getString(Notifier.JENKINS_ALTERNATES))
+        .thenReturn(" http://alternate.jenkins/, " + JENKINS_BASE_URL);
+    when(httpClient.execute(any(HttpUriRequest.class)))
+        .thenAnswer(new Answer<HttpResponse>() {
+          @Override
+          public HttpResponse answer(InvocationOnMock invocation)
+              throws Throwable {
+            HttpUriRequest request =
+                (HttpUriRequest) invocation.getArguments()[0];
+            if (request.getURI().getHost().equals("localhost.jenkins"))
+              throw new IOException("Connection refused");
+            return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+          }
+        });
+
+    notifier.notify(repo, null, Collections.<RefChange>emptyList());
+
+    ArgumentCaptor<HttpGet> captor = ArgumentCaptor.forClass(HttpGet.class);
+    verify(httpClient, times(2)).execute(captor.capture());
+    assertEquals("http://localhost.jenkins",
+        Notifier.hostOf(captor.getAllValues().get(0).getURI()));
+    assertEquals("http://alternate.jenkins",
+        Notifier.hostOf(captor.getAllValues().get(1).getURI()));
+    List<Delivery> deliveries = deliveryHistory.getDeliveries(repo, 0, 10);
+    assertEquals(1, deliveries.size());
+    assertEquals(200, deliveries.get(0).getStatus());
+    assertTrue(deliveries.get(0).getUrl().startsWith(
+        "http://alternate.jenkins/git/notifyCommit"));
+    verify(deadLetterStore, never()).add(eq(repo), anyCollection(),
+        anyString(), anyString(), anyString());
+
+    notifier.notify(repo, null, Collections.<RefChange>emptyList());
+    verify(httpClient, times(3)).execute(captor.capture());
+    assertEquals("http://alternate.jenkins",
+        Notifier.hostOf(captor.getValue().getURI()));
+  }
+
+  /**
+   * Validates that alternates on the same host but under different paths
+   * are failed over to as distinct endpoints
+   * @throws Exception
+   */
+  @Test
+  public void shouldFailOverToAlternateOnSameHost() throws Exception {
+    when(settings.getString(Notifier.JENKINS_ALTERNATES))
+        .thenReturn("http://localhost.jenkins/backup");
+    when(httpClient.execute(any(HttpUriRequest.class)))
+        .thenAnswer(new Answer<HttpResponse>() {
+          @Override
+          public HttpResponse answer(InvocationOnMock invocation)
+              throws Throwable {
+            HttpUriRequest request =
+                (HttpUriRequest) invocation.getArguments()[0];
+            if (!request.getURI().getPath().startsWith("/backup"))
+              throw new IOException("Connection refused");
+            return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+          }
+        });
+
+    notifier.notify(repo, null, Collections.<RefChange>emptyList());
+
+    ArgumentCaptor<HttpGet> captor = ArgumentCaptor.forClass(HttpGet.class);
+    verify(httpClient, times(2)).execute(captor.capture());
+    assertEquals("http://localhost.jenkins/backup/git/notifyCommit",
+        Notifier.endpointOf(captor.getAllValues().get(1).getURI()));
+    List<Delivery> deliveries = deliveryHistory.getDeliveries(repo, 0, 10);
+    assertEquals(1, deliveries.size());
+    assertEquals(200, deliveries.get(0).getStatus());
+  }
+
+  /**
+   * Validates that each Jenkins a push is routed to is notified of its own
+   * ref changes, and that alternates only apply to the Jenkins base URL
+   * @throws Exception
+   */
+  @Test
+  public void shouldNotifyEachRoutedJenkins() throws Exception {
+    when(settings.getBoolean(Notifier.POST_PAYLOAD, false)).thenReturn(true);
+    when(settings.getString(Notifier.JENKINS_ALTERNATES))
+        .thenReturn("http://alternate.jenkins");
+    when(settings.getString(Notifier.REF_ROUTES))
+        .thenReturn("release/* http://release.jenkins\nrefs/tags/** none");
+    RefChange master = mock(RefChange.class);
+    when(master.getRefId()).thenReturn("refs/heads/master");
+    RefChange release = mock(RefChange.class);
+    when(release.getRefId()).thenReturn("refs/heads/release/1.0");
+    RefChange tag = mock(RefChange.class);
+    when(tag.getRefId()).thenReturn("refs/tags/v1.0");
+
+    notifier.notify(repo, null, Arrays.asList(master, release, tag));
+
+    ArgumentCaptor<HttpPost> captor = ArgumentCaptor.forClass(HttpPost.class);
+    verify(httpClient, times(3)).execute(captor.capture());
+    assertEquals("http://localhost.jenkins",
+        Notifier.hostOf(captor.getAllValues().get(0).getURI()));
+    assertEquals("http://alternate.jenkins",
+        Notifier.hostOf(captor.getAllValues().get(1).getURI()));
+    assertEquals("http://release.jenkins",
+        Notifier.hostOf(captor.getAllValues().get(2).getURI()));
+    verify(deadLetterStore).add(eq(repo), eq(Arrays.asList(master)),
+        eq("http://alternate.jenkins"),
+        eq(captor.getAllValues().get(1).getURI().toString()),
+        anyString());
+    verify(deadLetterStore).add(eq(repo), eq(Arrays.asList(release)),
+        eq("http://release.jenkins"),
+        eq(captor.getAllValues().get(2).getURI().toString()),
+        anyString());
+  }
+
+  /**
+   * Validates that the generic webhook is notified of the ref changes that
+   * weren't dropped, after Jenkins
+   * @throws Exception
+   */
+  @Test
+  public void shouldNotifyGenericWebhook() throws Exception {
+    when(repo.getSlug()).thenReturn("bar");
+    when(settings.getString(Notifier.REF_ROUTES))
+        .thenReturn("refs/tags/** none");
+    when(settings.getString(Notifier.WEBHOOK_URL))
+        .thenReturn("https://other.ci/build/${repository.slug}");
+    when(settings.getString(Notifier.WEBHOOK_BODY))
+        .thenReturn("${each:,}${ref.displayId}${end}");
+    RefChange master = mock(RefChange.class);
+    when(master.getRefId()).thenReturn("refs/heads/master");
+    RefChange tag = mock(RefChange.class);
+    when(tag.getRefId()).thenReturn("refs/tags/v1.0");
+
+    notifier.notify(repo, null, Arrays.asList(master, tag));
+
+    ArgumentCaptor<HttpUriRequest> captor =
+        ArgumentCaptor.forClass(HttpUriRequest.class);
+    verify(httpClient, times(2)).execute(captor.capture());
+    assertTrue(captor.getAllValues().get(0) instanceof HttpGet);
+    HttpPost webhook = (HttpPost) captor.getAllValues().get(1);
+    assertEquals("https://other.ci/build/bar", webhook.getURI().toString());
+    verify(httpClientFactory, times(1)).getHttpClient(true, false);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    webhook.getEntity().writeTo(body);
+    assertEquals("master", body.toString("UTF-8"));
+    List<Delivery> deliveries = deliveryHistory.getDeliveries(repo, 0, 10);
+    assertEquals(2, deliveries.size());
+  }
+
+  /**
+   * Validates that a dropped notification is recorded and kept as a dead
+   * letter without being sent
+   * @throws Exception
+   */
+  @Test
+  public void shouldRecordDroppedNotification() throws Exception {
+    Notifier.Target target = notifier.getTargets(repo, null,
+        Collections.<RefChange>emptyList()).get(0);
+
+    notifier.drop(repo, target, "Notification queue full");
+
+    verify(httpClientFactory, never())
+      .getHttpClient(anyBoolean(), anyBoolean());
+    List<Delivery> deliveries = deliveryHistory.getDeliveries(repo, 0, 10);
+    assertEquals(1, deliveries.size());
+    assertEquals(Delivery.STATUS_DROPPED, deliveries.get(0).getStatus());
+    verify(deadLetterStore).add(eq(repo), anyCollection(),
+        eq(JENKINS_BASE_URL), startsWith(JENKINS_BASE_URL),
+        eq("Notification queue full"));
+  }
+
+  /**
+   * Validates that a dead letter is only sent again to its own target, and
+   * that it only counts as replayed if the target accepted it
+   * @throws Exception
+   */
+  @Test
+  public void shouldReplayDeadLetterToItsTargetOnly() throws Exception {
+    when(repo.getSlug()).thenReturn("bar");
+    when(settings.getString(Notifier.REF_ROUTES))
+        .thenReturn("release/* http://release.jenkins");
+    when(settings.getString(Notifier.WEBHOOK_URL))
+        .thenReturn("https://other.ci/build/${repository.slug}");
+    RefChange release = new StoredRefChange("refs/heads/release/1.0", "a",
+        "b", RefChangeType.UPDATE);
+    when(httpClient.execute(any(HttpUriRequest.class))).thenReturn(
+        new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Unavailable"),
+        new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"));
+
+    DeadLetter jenkins = new DeadLetter(1, 0, 1, "FOO", "bar",
+        "http://release.jenkins", "http://release.jenkins/git/notifyCommit",
+        "HTTP 503", Arrays.asList(release));
+    Notifier.Target target = notifier.getTarget(repo, jenkins);
+    assertTrue(target.isJenkins());
+    assertEquals("http://release.jenkins", target.getHost());
+    assertNull(notifier.replay(repo, target));
+
+    DeadLetter webhook = new DeadLetter(2, 0, 1, "FOO", "bar",
+        "https://other.ci", "https://other.ci/build/bar", "HTTP 503",
+        Arrays.asList(release));
+    target = notifier.getTarget(repo, webhook);
+    assertFalse(target.isJenkins());
+    assertEquals("", notifier.replay(repo, target));
+
+    ArgumentCaptor<HttpUriRequest> captor =
+        ArgumentCaptor.forClass(HttpUriRequest.class);
+    verify(httpClient, times(2)).execute(captor.capture());
+    assertEquals("http://release.jenkins",
+        Notifier.hostOf(captor.getAllValues().get(0).getURI()));
+    assertEquals("https://other.ci/build/bar",
+        captor.getAllValues().get(1).getURI().toString());
+
+    DeadLetter removed = new DeadLetter(3, 0, 1, "FOO", "bar",
+        "http://removed.jenkins", "http://removed.jenkins/x", "HTTP 503",
+        Arrays.asList(release));
+    assertNull(notifier.getTarget(repo, removed));
+  }
+
+  /**
+   * Validates that only the ref changes Jenkins accepted are applied to the
+   * snapshot, and not those sent to the generic webhook
+   * @throws Exception
+   */
+  @Test
+  public void shouldApplyAcceptedRefChangesToSnapshot() throws Exception {
+    when(repo.getId()).thenReturn(1);
+    when(settings.getString(Notifier.REF_ROUTES))
+        .thenReturn("release/* http://release.jenkins");
+    when(settings.getString(Notifier.WEBHOOK_URL))
+        .thenReturn("https://other.ci/build");
+    RefChange master = mock(RefChange.class);
+    when(master.getRefId()).thenReturn("refs/heads/master");
+    RefChange release = mock(RefChange.class);
+    when(release.getRefId()).thenReturn("refs/heads/release/1.0");
+    when(httpClient.execute(any(HttpUriRequest.class)))
+        .thenAnswer(new Answer<HttpResponse>() {
+          @Override
+          public HttpResponse answer(InvocationOnMock invocation) {
+            HttpUriRequest request =
+                (HttpUriRequest) invocation.getArguments()[0];
+            return new BasicHttpResponse(HttpVersion.HTTP_1_1,
+                request.getURI().getHost().equals("release.jenkins")
+                    ? 503 : 200, "");
+          }
+        });
+
+    notifier.notify(repo, null, Arrays.asList(master, release));
+
+    verify(httpClient, times(3)).execute(any(HttpUriRequest.class));
+    verify(snapshotStore).apply(1, Arrays.asList(master));
+    verify(snapshotStore, times(1)).apply(anyInt(), anyCollection());
+  }
+
+  /**
+   * Validates the parsing of the Jenkins base URL and its alternates
+   */
+  @Test
+  public void shouldParseJenkinsBases() {
+    assertEquals(Arrays.asList("http://a"),
+        Notifier.parseJenkinsBases("http://a/", null));
+    assertEquals(Arrays.asList("http://a", "http://b", "https://c:8443"),
+        Notifier.parseJenkinsBases("http://a",
+            " http://b/,http://a\nhttps://c:8443 , "));
+  }
+
+  /**
+   * Validates the limiter key of request URIs
+   */
+  @Test
+  public void shouldKeyLimitersByHost() {
+    assertEquals("http://jenkins", 
+        Notifier.hostOf(URI.create("http://jenkins/job/x")));
+    assertEquals("https://jenkins:8443", 
+        Notifier.hostOf(URI.create("https://jenkins:8443/")));
+  }
+
+  /**
+   * Validates the parsing of the max commits setting
+   */
+  @Test
+  public void shouldParseMaxCommits() {
+    assertEquals(0, Notifier.parseMaxCommits(null));
+    assertEquals(0, Notifier.parseMaxCommits("abc"));
+    assertEquals(0, Notifier.parseMaxCommits("-5"));
+    assertEquals(25, Notifier.parseMaxCommits(" 25 "));
+  }
     
 }
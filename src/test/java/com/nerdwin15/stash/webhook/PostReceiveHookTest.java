@@ -7,6 +7,8 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -14,6 +16,7 @@ import com.atlassian.stash.hook.repository.RepositoryHookContext;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.Settings;
 import com.atlassian.stash.setting.SettingsValidationErrors;
+import com.nerdwin15.stash.webhook.service.DefaultSettingsService;
 
 /**
  * Test case for the PostReceiveHook class.
@@ -27,6 +30,7 @@ public class PostReceiveHookTest {
   private static final String CLONE_URL = 
       "http://some.stash.com/scm/foo/bar.git";
 
+  private DefaultSettingsService defaultSettingsService;
   private PostReceiveHook hook;
   private SettingsValidationErrors errors;
   private Settings settings;
@@ -37,7 +41,8 @@ public class PostReceiveHookTest {
    */
   @Before
   public void setup() throws Exception {
-    hook = new PostReceiveHook();
+    defaultSettingsService = mock(DefaultSettingsService.class);
+    hook = new PostReceiveHook(defaultSettingsService);
     settings = mock(Settings.class);
     errors = mock(SettingsValidationErrors.class);
     repo = mock(Repository.class);
@@ -68,6 +73,21 @@ public class PostReceiveHookTest {
     verify(errors).addFieldError(eq(Notifier.JENKINS_BASE), anyString());
   }
 
+  /**
+   * Validate that a blank Jenkins Base is accepted when it is inherited from
+   * the defaults
+   * @throws Exception
+   */
+  @Test
+  public void shouldNotAddErrorWhenJenkinsBaseInherited() throws Exception {
+    when(settings.getString(Notifier.JENKINS_BASE)).thenReturn("");
+    when(defaultSettingsService.getDefaults(repo)).thenReturn(
+        Collections.singletonMap(Notifier.JENKINS_BASE, JENKINS_BASE_URL));
+    hook.validate(settings, errors, repo);
+    verify(errors, never()).addFieldError(eq(Notifier.JENKINS_BASE), 
+        anyString());
+  }
+
   /**
    * Validate that an error is added when the repo clone url is null
    * @throws Exception
@@ -90,4 +110,43 @@ public class PostReceiveHookTest {
     verify(errors).addFieldError(eq(Notifier.CLONE_URL), anyString());
   }
 
+  /**
+   * Validate that an error is added when an alternate Jenkins url isn't an
+   * http url, and only then
+   * @throws Exception
+   */
+  @Test
+  public void shouldAddErrorWhenAlternateUrlInvalid() throws Exception {
+    when(settings.getString(Notifier.JENKINS_ALTERNATES))
+        .thenReturn("https://ci.example.com, http://jenkins:8080/");
+    hook.validate(settings, errors, repo);
+    verify(errors, never()).addFieldError(eq(Notifier.JENKINS_ALTERNATES),
+        anyString());
+
+    when(settings.getString(Notifier.JENKINS_ALTERNATES))
+        .thenReturn("https://ci.example.com jenkins:8080");
+    hook.validate(settings, errors, repo);
+    verify(errors).addFieldError(eq(Notifier.JENKINS_ALTERNATES),
+        anyString());
+  }
+
+  /**
+   * Validate that errors are added for invalid generic webhook templates
+   * @throws Exception
+   */
+  @Test
+  public void shouldAddErrorWhenWebhookTemplateInvalid() throws Exception {
+    when(settings.getString(Notifier.WEBHOOK_URL))
+        .thenReturn("https://ci/${repository.slug}");
+    when(settings.getString(Notifier.WEBHOOK_HEADERS))
+        .thenReturn("X-Ref ${ref.id}");
+    when(settings.getString(Notifier.WEBHOOK_BODY))
+        .thenReturn("${each}${ref.id}");
+    hook.validate(settings, errors, repo);
+    verify(errors, never()).addFieldError(eq(Notifier.WEBHOOK_URL),
+        anyString());
+    verify(errors).addFieldError(eq(Notifier.WEBHOOK_HEADERS), anyString());
+    verify(errors).addFieldError(eq(Notifier.WEBHOOK_BODY), anyString());
+  }
+
 }
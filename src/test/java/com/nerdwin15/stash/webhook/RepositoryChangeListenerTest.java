@@ -2,17 +2,28 @@ package com.nerdwin15.stash.webhook;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Collection;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.atlassian.stash.repository.RefChange;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.Settings;
+import com.google.common.base.Ticker;
+import com.nerdwin15.stash.webhook.service.RecentRefChangeIndex;
 import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.catchup.RefSnapshotStore;
+import com.nerdwin15.stash.webhook.service.dispatch.NotificationDispatcher;
 import com.nerdwin15.stash.webhook.service.eligibility.EligibilityFilterChain;
+import com.nerdwin15.stash.webhook.service.record.TrafficRecorder;
+import com.nerdwin15.stash.webhook.service.trace.ConcreteTracer;
 
 /**
  * Test case for the RepositoryChangeListener class.
@@ -21,25 +32,30 @@ import com.nerdwin15.stash.webhook.service.eligibility.EligibilityFilterChain;
  */
 public class RepositoryChangeListenerTest {
 
-  private Notifier notifier;
+  private NotificationDispatcher dispatcher;
   private EligibilityFilterChain filterChain;
   private RepositoryChangeListener listener;
   private SettingsService settingsService;
+  private RefSnapshotStore snapshotStore;
+  private Collection<RefChange> refChanges = new ArrayList<RefChange>();
 
   /**
    * Setup tasks
    */
   @Before
   public void setup() throws Exception {
-    notifier = mock(Notifier.class);
+    dispatcher = mock(NotificationDispatcher.class);
     filterChain = mock(EligibilityFilterChain.class);
     settingsService = mock(SettingsService.class);
-    listener = new RepositoryChangeListener(filterChain, notifier, 
-        settingsService);
+    snapshotStore = mock(RefSnapshotStore.class);
+    listener = new RepositoryChangeListener(filterChain, dispatcher, 
+        settingsService, new RecentRefChangeIndex(16, 60000, 
+            Ticker.systemTicker()), snapshotStore,
+        new ConcreteTracer(0, null, 1), mock(TrafficRecorder.class));
   }
 
   /**
-   * Validates that the notifier is used when the filter chain says ok
+   * Validates that the dispatcher is used when the filter chain says ok
    */
   @Test
   public void shouldNotifyWhenChainSaysOk() throws Exception {
@@ -48,16 +64,18 @@ public class RepositoryChangeListenerTest {
     Settings settings = mock(Settings.class);
 
     when(e.getRepository()).thenReturn(repo);
+    when(e.getRefChanges()).thenReturn(refChanges);
     when(settingsService.getSettings(repo)).thenReturn(settings);
     when(filterChain.shouldDeliverNotification(e)).thenReturn(true);
 
     listener.onRefsChangedEvent(e);
 
-    verify(notifier).notify(repo);
+    verify(dispatcher).dispatch(repo, null, refChanges);
+    verify(snapshotStore, never()).apply(repo.getId(), refChanges);
   }
 
   /**
-   * Validates that the notifier is not notified when the filter chain says no
+   * Validates that nothing is dispatched when the filter chain says no
    */
   @Test
   public void shouldNotifyWhenChainSaysCancel() throws Exception {
@@ -66,14 +84,42 @@ public class RepositoryChangeListenerTest {
     Settings settings = mock(Settings.class);
 
     when(e.getRepository()).thenReturn(repo);
+    when(e.getRefChanges()).thenReturn(refChanges);
     when(settingsService.getSettings(repo)).thenReturn(settings);
     when(filterChain.shouldDeliverNotification(e)).thenReturn(false);
 
     listener.onRefsChangedEvent(e);
 
-    verify(notifier, never()).notify(repo);
+    verify(dispatcher, never()).dispatch(repo, null, refChanges);
+    verify(snapshotStore).apply(repo.getId(), refChanges);
   }
   
+  /**
+   * Validates that a repeated event for the same ref changes is only 
+   * dispatched once
+   */
+  @Test
+  public void shouldNotNotifyDuplicateEvent() throws Exception {
+    RepositoryRefsChangedEvent e = mock(RepositoryRefsChangedEvent.class);
+    Repository repo = mock(Repository.class);
+    Settings settings = mock(Settings.class);
+    RefChange refChange = mock(RefChange.class);
+    refChanges.add(refChange);
+
+    when(repo.getId()).thenReturn(1);
+    when(refChange.getRefId()).thenReturn("refs/heads/master");
+    when(refChange.getToHash()).thenReturn("abc123");
+    when(e.getRepository()).thenReturn(repo);
+    when(e.getRefChanges()).thenReturn(refChanges);
+    when(settingsService.getSettings(repo)).thenReturn(settings);
+    when(filterChain.shouldDeliverNotification(e)).thenReturn(true);
+
+    listener.onRefsChangedEvent(e);
+    listener.onRefsChangedEvent(e);
+
+    verify(dispatcher, times(1)).dispatch(repo, null, refChanges);
+  }
+
   /**
    * Validates that if the repository has no settings set, execution stops
    * @throws Exception
@@ -84,10 +130,11 @@ public class RepositoryChangeListenerTest {
     Repository repo = mock(Repository.class);
 
     when(e.getRepository()).thenReturn(repo);
+    when(e.getRefChanges()).thenReturn(refChanges);
     when(settingsService.getSettings(repo)).thenReturn(null);
 
     listener.onRefsChangedEvent(e);
 
-    verify(notifier, never()).notify(repo);
+    verify(dispatcher, never()).dispatch(repo, null, refChanges);
   }
 }
@@ -0,0 +1,129 @@
+package com.nerdwin15.stash.webhook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for Jenkins in tests. Every request is
+ * answered with the configured status after the configured latency, and the
+ * number of concurrent requests is tracked.
+ */
+public class StubJenkinsServer {
+
+  static {
+    // The headers and body of a response are written separately, which
+    // Nagle's algorithm would delay on kept-alive connections
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final AtomicInteger concurrent = new AtomicInteger();
+  private final AtomicInteger maxConcurrent = new AtomicInteger();
+  private final AtomicInteger requests = new AtomicInteger();
+  private volatile long latencyMillis;
+  private volatile int status = 200;
+
+  /**
+   * Start a server on a free local port.
+   * @throws IOException If the server can't be started
+   */
+  public StubJenkinsServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        handleRequest(exchange);
+      }
+    });
+    server.start();
+  }
+
+  /**
+   * Get the base URL of the server.
+   * @return The base URL
+   */
+  public String getBaseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Set the time taken to answer each request.
+   * @param latencyMillis The latency in milliseconds
+   */
+  public void setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  /**
+   * Set the status code of the responses.
+   * @param status The HTTP status code
+   */
+  public void setStatus(int status) {
+    this.status = status;
+  }
+
+  /**
+   * Get the highest number of requests handled at the same time.
+   * @return The maximum concurrency
+   */
+  public int getMaxConcurrent() {
+    return maxConcurrent.get();
+  }
+
+  /**
+   * Forget the maximum concurrency observed so far.
+   */
+  public void resetMaxConcurrent() {
+    maxConcurrent.set(concurrent.get());
+  }
+
+  /**
+   * Get the number of requests received.
+   * @return The number of requests
+   */
+  public int getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Stop the server.
+   */
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handleRequest(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    final int running = concurrent.incrementAndGet();
+    int max;
+    while (running > (max = maxConcurrent.get()) 
+        && !maxConcurrent.compareAndSet(max, running)) {
+      continue;
+    }
+    try {
+      Thread.sleep(latencyMillis);
+      final byte[] body = "Scheduled polling".getBytes(Charsets.UTF_8);
+      exchange.sendResponseHeaders(status, body.length);
+      final OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      concurrent.decrementAndGet();
+      exchange.close();
+    }
+  }
+}
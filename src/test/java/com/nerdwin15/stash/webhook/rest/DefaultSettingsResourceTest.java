@@ -0,0 +1,89 @@
+package com.nerdwin15.stash.webhook.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.i18n.I18nService;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.user.PermissionValidationService;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.DefaultSettingsService;
+
+/**
+ * Test case for the {@link DefaultSettingsResource} class.
+ */
+public class DefaultSettingsResourceTest {
+
+  private DefaultSettingsService defaultSettingsService;
+  private DefaultSettingsResource resource;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    defaultSettingsService = mock(DefaultSettingsService.class);
+    ProjectService projectService = mock(ProjectService.class);
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn("KEY");
+    when(projectService.getByKey("KEY")).thenReturn(project);
+    resource = new DefaultSettingsResource(defaultSettingsService,
+        projectService, mock(PermissionValidationService.class),
+        mock(I18nService.class));
+  }
+
+  /**
+   * Validate that valid defaults are stored.
+   */
+  @Test
+  public void shouldStoreValidDefaults() {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put(Notifier.JENKINS_BASE, "http://jenkins.localhost");
+    values.put(Notifier.REF_ROUTES, "release/* http://release.localhost");
+
+    Response response = resource.setInstanceDefaults(values);
+
+    assertEquals(200, response.getStatus());
+    Map<String, String> expected = new HashMap<String, String>();
+    expected.put(Notifier.JENKINS_BASE, "http://jenkins.localhost");
+    expected.put(Notifier.REF_ROUTES, "release/* http://release.localhost");
+    verify(defaultSettingsService).setInstanceDefaults(expected);
+  }
+
+  /**
+   * Validate that invalid defaults are refused with the error of each
+   * invalid field, and aren't stored.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldRefuseInvalidDefaults() {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put(Notifier.JENKINS_BASE, "http://jenkins.localhost");
+    values.put(Notifier.REF_ROUTES, "release/* ftp://release.localhost");
+
+    Response response = resource.setProjectDefaults("KEY", values);
+
+    assertEquals(400, response.getStatus());
+    Map<String, String> errors = ((Map<String, Map<String, String>>)
+        response.getEntity()).get("errors");
+    assertEquals(1, errors.size());
+    assertTrue(errors.containsKey(Notifier.REF_ROUTES));
+    verify(defaultSettingsService, never()).setProjectDefaults(anyString(),
+        anyMap());
+  }
+}
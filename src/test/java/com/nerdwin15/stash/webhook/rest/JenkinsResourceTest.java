@@ -1,11 +1,15 @@
 package com.nerdwin15.stash.webhook.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import javax.ws.rs.core.Response;
@@ -14,15 +18,17 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.atlassian.stash.i18n.I18nService;
-import com.atlassian.stash.nav.NavBuilder;
-import com.atlassian.stash.nav.NavBuilder.Repo;
-import com.atlassian.stash.nav.NavBuilder.RepoClone;
 import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
 import com.atlassian.stash.repository.Repository;
-import com.atlassian.stash.ssh.api.SshCloneUrlResolver;
 import com.atlassian.stash.user.Permission;
 import com.atlassian.stash.user.PermissionValidationService;
-import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.CloneUrlService;
+import com.nerdwin15.stash.webhook.service.CloneUrls;
+import com.nerdwin15.stash.webhook.service.ConnectionTest;
+import com.nerdwin15.stash.webhook.service.ConnectionTestService;
+import com.nerdwin15.stash.webhook.service.history.ConcreteDeliveryHistory;
+import com.nerdwin15.stash.webhook.service.history.DeliveryHistory;
 import com.sun.jersey.api.client.ClientResponse.Status;
 
 /**
@@ -42,11 +48,11 @@ public class JenkinsResourceTest {
       "ssh://git@stash.localhost:7999/test/test.git";
   
   private JenkinsResource resource;
-  private Notifier notifier; 
+  private ConnectionTestService testService; 
   private PermissionValidationService permissionValidationService; 
   private I18nService i18nService;
-  private NavBuilder navBuilder;
-  private SshCloneUrlResolver sshCloneUrlResolver;
+  private CloneUrlService cloneUrlService;
+  private DeliveryHistory deliveryHistory;
   
   private Repository repository;
   
@@ -55,20 +61,21 @@ public class JenkinsResourceTest {
    */
   @Before
   public void setup() throws Exception {
-    notifier = mock(Notifier.class);
+    testService = mock(ConnectionTestService.class);
     permissionValidationService = mock(PermissionValidationService.class);
     i18nService = mock(I18nService.class);
-    navBuilder = mock(NavBuilder.class);
-    sshCloneUrlResolver = mock(SshCloneUrlResolver.class);
+    cloneUrlService = mock(CloneUrlService.class);
     
-    resource = new JenkinsResource(notifier, permissionValidationService, 
-        i18nService, navBuilder, sshCloneUrlResolver);
+    deliveryHistory = new ConcreteDeliveryHistory(3, 1024 * 1024);
+    resource = new JenkinsResource(testService, permissionValidationService, 
+        i18nService, cloneUrlService, deliveryHistory);
     
     repository = mock(Repository.class);
     Project project = mock(Project.class);
     when(repository.getProject()).thenReturn(project);
     when(project.getKey()).thenReturn("KEY");
     when(repository.getSlug()).thenReturn("SLUG");
+    when(repository.getId()).thenReturn(1);
   }
 
   /**
@@ -91,35 +98,58 @@ public class JenkinsResourceTest {
   }
   
   /**
-   * Validate that the test should fail if the notifier returns null.
+   * Validate that the test is started in the background and its ID returned.
    */
   @Test
-  public void shouldFailTestWhenNotifierReturnsNull() {
-    Response response = fireTest(null);
-    assertEquals(Status.OK.getStatusCode(), response.getStatus());
-    assertEquals("FAIL", response.getEntity());
+  @SuppressWarnings("unchecked")
+  public void shouldStartTestInBackground() {
+    ConnectionTest test = new ConnectionTest("abc", 1);
+    when(testService.start(repository, JENKINS_BASE, CLONE_URL, IGNORE_CERTS))
+      .thenReturn(test);
+
+    Response response = resource.test(repository, JENKINS_BASE, CLONE_URL, 
+        IGNORE_CERTS);
+
+    verify(permissionValidationService)
+      .validateForRepository(repository, Permission.REPO_ADMIN);
+    assertEquals(Status.ACCEPTED.getStatusCode(), response.getStatus());
+    Map<String, String> data = (Map<String, String>) response.getEntity();
+    assertEquals("abc", data.get("id"));
+    assertEquals("RUNNING", data.get("state"));
   }
-  
+
   /**
-   * Validate that the test should fail if the notifier returns something 
-   * unexpected.
+   * Validate that the result of a completed test is returned.
    */
   @Test
-  public void shouldFailTestWhenNotifierReturnsUnexpectedResult() {
-    Response response = fireTest("Something unexpected");
+  @SuppressWarnings("unchecked")
+  public void shouldReturnTestResult() {
+    ConnectionTest test = new ConnectionTest("abc", 1);
+    test.complete(ConnectionTest.State.SUCCESS, "Scheduled polling");
+    when(testService.getTest("abc")).thenReturn(test);
+
+    Response response = resource.testResult(repository, "abc");
+
+    verify(permissionValidationService)
+      .validateForRepository(repository, Permission.REPO_ADMIN);
     assertEquals(Status.OK.getStatusCode(), response.getStatus());
-    assertEquals("FAIL", response.getEntity());
+    Map<String, String> data = (Map<String, String>) response.getEntity();
+    assertEquals("SUCCESS", data.get("state"));
   }
-  
+
   /**
-   * Validate that the test should pass if the notifier returns the expected
-   * value.
+   * Validate that unknown tests, and tests of other repositories, aren't
+   * found.
    */
   @Test
-  public void shouldPassTestWhenNotifierReturnsExpectedResult() {
-    Response response = fireTest("Scheduled some sort of poll");
-    assertEquals(Status.OK.getStatusCode(), response.getStatus());
-    assertNull(response.getEntity());
+  public void shouldNotFindUnknownTest() {
+    when(testService.getTest("other")).thenReturn(new ConnectionTest("other",
+        2));
+
+    assertEquals(Status.NOT_FOUND.getStatusCode(), 
+        resource.testResult(repository, "abc").getStatus());
+    assertEquals(Status.NOT_FOUND.getStatusCode(), 
+        resource.testResult(repository, "other").getStatus());
   }
   
   /**
@@ -128,37 +158,69 @@ public class JenkinsResourceTest {
   @Test
   @SuppressWarnings("unchecked")
   public void testConfigResource() {
-    Repo repo = mock(Repo.class);
-    RepoClone repoClone = mock(RepoClone.class);
-    
-    when(navBuilder.repo(repository)).thenReturn(repo);
-    when(repo.clone("git")).thenReturn(repoClone);
-    when(repoClone.buildAbsoluteWithoutUsername()).thenReturn(HTTP_URL);
-    
-    when(sshCloneUrlResolver.getCloneUrl(repository)).thenReturn(SSH_URL);
+    CloneUrls urls = new CloneUrls(SSH_URL, HTTP_URL);
+    when(cloneUrlService.getCloneUrls(repository)).thenReturn(urls);
     
-    Response response = resource.config(repository);
+    Response response = resource.config(repository, null);
     assertEquals(Status.OK.getStatusCode(), response.getStatus());
     Map<String, String> data = (Map<String, String>) response.getEntity();
     assertEquals(data.get("ssh"), SSH_URL);
     assertEquals(data.get("http"), HTTP_URL);
-    
-    verify(sshCloneUrlResolver).getCloneUrl(repository);
-    verify(repoClone).buildAbsoluteWithoutUsername();
+    assertEquals(urls.getETag(), 
+        response.getMetadata().getFirst("ETag").toString());
   }
-  
-  private Response fireTest(String jenkinsResponse) {
-    when(notifier.notify(repository, JENKINS_BASE, IGNORE_CERTS, CLONE_URL))
-      .thenReturn(jenkinsResponse);
-    
-    Response response = resource.test(repository, JENKINS_BASE, CLONE_URL, 
-        IGNORE_CERTS);
-    
+
+  /**
+   * Validate that the config endpoint answers NOT_MODIFIED when the client
+   * already has the current urls.
+   */
+  @Test
+  public void shouldNotResendUnmodifiedConfig() {
+    CloneUrls urls = new CloneUrls(SSH_URL, HTTP_URL);
+    when(cloneUrlService.getCloneUrls(repository)).thenReturn(urls);
+
+    Response response = resource.config(repository, 
+        "\"stale\", " + urls.getETag());
+    assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+    assertNull(response.getEntity());
+
+    response = resource.config(repository, "\"stale\"");
+    assertEquals(Status.OK.getStatusCode(), response.getStatus());
+  }
+
+  /**
+   * Validate that the delivery history is paged newest first, and only
+   * keeps the most recent attempts.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldPageDeliveryHistory() {
+    RefChange refChange = mock(RefChange.class);
+    when(refChange.getRefId()).thenReturn("refs/heads/master");
+    for (int i = 0; i < 4; i++) {
+      deliveryHistory.record(repository, Collections.singleton(refChange),
+          JENKINS_BASE + "/" + i, 200, i, "Scheduled polling");
+    }
+
+    Response response = resource.history(repository, 0, 2);
     verify(permissionValidationService)
       .validateForRepository(repository, Permission.REPO_ADMIN);
-    verify(notifier).notify(repository, JENKINS_BASE, IGNORE_CERTS, CLONE_URL);
-    
-    return response;
+    Map<String, Object> data = (Map<String, Object>) response.getEntity();
+    List<Map<String, Object>> values =
+        (List<Map<String, Object>>) data.get("values");
+    assertEquals(2, values.size());
+    assertEquals(JENKINS_BASE + "/3", values.get(0).get("url"));
+    assertEquals("refs/heads/master", values.get(0).get("refs"));
+    assertEquals(true, values.get(0).get("success"));
+    assertFalse((Boolean) data.get("isLastPage"));
+    assertEquals(2, data.get("nextPageStart"));
+
+    data = (Map<String, Object>) resource.history(repository, 2, 2)
+        .getEntity();
+    values = (List<Map<String, Object>>) data.get("values");
+    assertEquals(1, values.size());
+    assertEquals(JENKINS_BASE + "/1", values.get(0).get("url"));
+    assertTrue((Boolean) data.get("isLastPage"));
   }
   
 }
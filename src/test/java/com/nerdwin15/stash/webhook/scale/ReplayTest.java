@@ -0,0 +1,148 @@
+package com.nerdwin15.stash.webhook.scale;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.scale.SyntheticPushGenerator.SyntheticRefChanges;
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+import com.nerdwin15.stash.webhook.service.record.TrafficLogReader;
+import com.nerdwin15.stash.webhook.service.record.TrafficRecord;
+
+/**
+ * Replays a traffic log recorded by the plugin through the notification
+ * path, against a stub Jenkins, keeping the recorded arrival times of the
+ * pushes. The measurements are written as a JSON baseline, along with the
+ * latencies recorded in production for comparison.
+ *
+ * Only the pushes that were dispatched to Jenkins when recorded are
+ * replayed. Run it with <code>mvn test -Pscale -Dreplay.log=traffic.rec</code>
+ * and these system properties:
+ * <ul>
+ * <li><code>replay.speed</code> - how many times faster than recorded the
+ * pushes are replayed (1)</li>
+ * <li><code>replay.jenkins.latency</code> - milliseconds the stub Jenkins
+ * takes to answer (the median recorded latency)</li>
+ * <li><code>replay.output</code> - the baseline file
+ * (target/replay-baseline.json)</li>
+ * </ul>
+ */
+public class ReplayTest {
+
+  private final String log = PluginProperties.getString("replay.log", null);
+  private final double speed = PluginProperties.getDouble("replay.speed", 1);
+  private final long latency =
+      PluginProperties.getLong("replay.jenkins.latency", -1);
+  private final File output = new File(PluginProperties.getString(
+      "replay.output", "target/replay-baseline.json"));
+
+  /**
+   * Replay the pushes of the log and write the baseline.
+   * @throws Exception
+   */
+  @Test
+  public void shouldNotifyEveryReplayedPush() throws Exception {
+    Assume.assumeNotNull(log);
+    final List<TrafficRecord> pushes = new ArrayList<TrafficRecord>();
+    final List<Integer> recorded = new ArrayList<Integer>();
+    for (TrafficRecord record : TrafficLogReader.readAll(new File(log))) {
+      if (record.getType() == TrafficRecord.EVENT
+          && "dispatched".equals(record.getOutcome()))
+        pushes.add(record);
+      else if (record.getType() == TrafficRecord.DELIVERY
+          && record.getStatus() > 0)
+        recorded.add(record.getLatencyMillis());
+    }
+    Assume.assumeTrue(!pushes.isEmpty());
+    Collections.sort(recorded);
+
+    final ScaleMetrics metrics = new ScaleMetrics();
+    final ScalePipeline pipeline = new ScalePipeline(latency >= 0 ? latency
+        : percentile(recorded, 50), false, null, metrics);
+    try {
+      metrics.start();
+      publish(pipeline, pushes);
+      pipeline.awaitNotified(metrics, pushes.size(),
+          TimeUnit.SECONDS.toMillis(60));
+      metrics.stop();
+
+      final long first = pushes.get(0).getTimestamp();
+      final long last = pushes.get(pushes.size() - 1).getTimestamp();
+      final Map<String, Number> configuration =
+          new LinkedHashMap<String, Number>();
+      configuration.put("speed", speed);
+      configuration.put("recordedSeconds", (last - first) / 1000.0);
+      configuration.put("jenkinsLatencyMillis", latency >= 0 ? latency
+          : percentile(recorded, 50));
+      final Map<String, Number> counters =
+          new LinkedHashMap<String, Number>();
+      counters.put("pushes", pushes.size());
+      counters.put("jenkinsRequests", pipeline.getServer().getRequests());
+      counters.put("jenkinsMaxConcurrent",
+          pipeline.getServer().getMaxConcurrent());
+      counters.put("recordedP50Millis", percentile(recorded, 50));
+      counters.put("recordedP99Millis", percentile(recorded, 99));
+      metrics.report(configuration, counters, output);
+
+      assertEquals(pushes.size(), metrics.getCount());
+    } finally {
+      pipeline.destroy();
+    }
+  }
+
+  private void publish(ScalePipeline pipeline, List<TrafficRecord> pushes)
+      throws InterruptedException {
+    final Map<Integer, Project> projects = new HashMap<Integer, Project>();
+    final Map<Integer, Repository> repositories =
+        new HashMap<Integer, Repository>();
+    final Random random = new Random(42);
+    final long first = pushes.get(0).getTimestamp();
+    final long start = System.nanoTime();
+    for (TrafficRecord push : pushes) {
+      final long wait = start + (long) (TimeUnit.MILLISECONDS.toNanos(
+          push.getTimestamp() - first) / speed) - System.nanoTime();
+      if (wait > 0)
+        TimeUnit.NANOSECONDS.sleep(wait);
+
+      Project project = projects.get(push.getProjectId());
+      if (project == null) {
+        project = SyntheticPushGenerator.project(push.getProjectId());
+        projects.put(push.getProjectId(), project);
+      }
+      Repository repository = repositories.get(push.getRepositoryId());
+      if (repository == null) {
+        repository = SyntheticPushGenerator.repository(
+            push.getRepositoryId(), project);
+        repositories.put(push.getRepositoryId(), repository);
+      }
+      final SyntheticRefChanges refChanges =
+          new SyntheticRefChanges(push.getRefCount());
+      for (int i = 0; i < push.getRefCount(); i++) {
+        refChanges.add(SyntheticPushGenerator.refChange(push.getRefId(i),
+            push.getRefType(i), random));
+      }
+      pipeline.getListener().onRefsChangedEvent(
+          SyntheticPushGenerator.event(repository, refChanges));
+    }
+  }
+
+  private static int percentile(List<Integer> sorted, double percentile) {
+    if (sorted.isEmpty())
+      return 0;
+    final int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+    return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+  }
+}
@@ -0,0 +1,170 @@
+package com.nerdwin15.stash.webhook.scale;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Collects the measurements of a scale run: the time from each push to
+ * the end of its notification, and the peak thread count and heap usage of
+ * the JVM. They are reported as a JSON baseline that can be compared across
+ * runs.
+ */
+class ScaleMetrics {
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private long[] latencies = new long[1024];
+  private int count;
+  private int startThreads;
+  private long startHeap;
+  private long startNanos;
+  private long endNanos;
+
+  /**
+   * Mark the start of the run, resetting the peak thread count and heap
+   * usage of the JVM.
+   */
+  void start() {
+    System.gc();
+    startThreads = threads.getThreadCount();
+    threads.resetPeakThreadCount();
+    startHeap = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        startHeap += pool.getUsage().getUsed();
+        pool.resetPeakUsage();
+      }
+    }
+    startNanos = System.nanoTime();
+  }
+
+  /**
+   * Mark the end of the run.
+   */
+  void stop() {
+    endNanos = System.nanoTime();
+  }
+
+  /**
+   * Record the time a push took to be notified.
+   * @param nanos The latency in nanoseconds
+   */
+  synchronized void record(long nanos) {
+    if (count == latencies.length)
+      latencies = Arrays.copyOf(latencies, count * 2);
+    latencies[count++] = nanos;
+  }
+
+  /**
+   * Get the number of notified pushes.
+   * @return The number of recorded latencies
+   */
+  synchronized int getCount() {
+    return count;
+  }
+
+  /**
+   * Get a latency percentile.
+   * @param percentile The percentile, from 0 to 100
+   * @return The latency in milliseconds, or 0 if nothing was recorded
+   */
+  synchronized double getPercentile(double percentile) {
+    if (count == 0)
+      return 0;
+    final long[] sorted = Arrays.copyOf(latencies, count);
+    Arrays.sort(sorted);
+    final int index = (int) Math.ceil(percentile / 100 * count) - 1;
+    return sorted[Math.max(0, Math.min(count - 1, index))] / 1000000.0;
+  }
+
+  /**
+   * Write the baseline of the run to a file.
+   * @param configuration The parameters of the run
+   * @param counters Additional counts to report
+   * @param output The baseline file
+   * @throws IOException If the baseline can't be written
+   */
+  void report(Map<String, ? extends Number> configuration,
+      Map<String, ? extends Number> counters, File output)
+      throws IOException {
+    final StringWriter baseline = new StringWriter();
+    writeBaseline(configuration, counters, baseline);
+    if (output.getParentFile() != null)
+      output.getParentFile().mkdirs();
+    final Writer out = new OutputStreamWriter(new FileOutputStream(output),
+        Charsets.UTF_8);
+    try {
+      out.write(baseline.toString());
+    } finally {
+      Closeables.closeQuietly(out);
+    }
+  }
+
+  /**
+   * Write the baseline of the run as JSON.
+   * @param configuration The parameters of the run
+   * @param counters Additional counts to report, such as the number of
+   * pushes and Jenkins requests
+   * @param out The writer to write to
+   * @throws IOException If the baseline can't be written
+   */
+  private void writeBaseline(Map<String, ? extends Number> configuration,
+      Map<String, ? extends Number> counters, Writer out)
+      throws IOException {
+    final double seconds = (endNanos - startNanos)
+        / (double) TimeUnit.SECONDS.toNanos(1);
+    long peakHeap = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP)
+        peakHeap += pool.getPeakUsage().getUsed();
+    }
+
+    final JsonWriter json = new JsonWriter(out);
+    json.setIndent("  ");
+    json.beginObject();
+    json.name("configuration").beginObject();
+    for (Map.Entry<String, ? extends Number> entry
+        : configuration.entrySet()) {
+      json.name(entry.getKey()).value(entry.getValue());
+    }
+    json.endObject();
+    for (Map.Entry<String, ? extends Number> entry : counters.entrySet()) {
+      json.name(entry.getKey()).value(entry.getValue());
+    }
+    json.name("notified").value(getCount());
+    json.name("elapsedSeconds").value(seconds);
+    json.name("throughputPerSecond").value(seconds > 0
+        ? getCount() / seconds : 0);
+    json.name("latencyMillis").beginObject();
+    json.name("p50").value(getPercentile(50));
+    json.name("p90").value(getPercentile(90));
+    json.name("p99").value(getPercentile(99));
+    json.name("p999").value(getPercentile(99.9));
+    json.name("max").value(getPercentile(100));
+    json.endObject();
+    json.name("threads").beginObject();
+    json.name("start").value(startThreads);
+    json.name("peak").value(threads.getPeakThreadCount());
+    json.endObject();
+    json.name("heapBytes").beginObject();
+    json.name("start").value(startHeap);
+    json.name("peak").value(peakHeap);
+    json.endObject();
+    json.endObject();
+    json.flush();
+  }
+}
@@ -0,0 +1,190 @@
+package com.nerdwin15.stash.webhook.scale;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.user.StashUser;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.RepositoryChangeListener;
+import com.nerdwin15.stash.webhook.StubJenkinsServer;
+import com.nerdwin15.stash.webhook.scale.SyntheticPushGenerator.SyntheticRefChanges;
+import com.nerdwin15.stash.webhook.service.ConcreteHttpClientFactory;
+import com.nerdwin15.stash.webhook.service.RecentRefChangeIndex;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.catchup.RefSnapshotStore;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetterStore;
+import com.nerdwin15.stash.webhook.service.dispatch.ConcreteNotificationDispatcher;
+import com.nerdwin15.stash.webhook.service.eligibility.ConcreteEligibilityFilterChain;
+import com.nerdwin15.stash.webhook.service.eligibility.EligibilityFilter;
+import com.nerdwin15.stash.webhook.service.failover.ConcreteEndpointSelector;
+import com.nerdwin15.stash.webhook.service.health.HostHealth;
+import com.nerdwin15.stash.webhook.service.health.HostHealthService;
+import com.nerdwin15.stash.webhook.service.history.ConcreteDeliveryHistory;
+import com.nerdwin15.stash.webhook.service.limit.ConcreteConcurrencyLimiterService;
+import com.nerdwin15.stash.webhook.service.payload.JsonPayloadWriter;
+import com.nerdwin15.stash.webhook.service.record.TrafficRecorder;
+import com.nerdwin15.stash.webhook.service.route.ConcreteRoutingService;
+import com.nerdwin15.stash.webhook.service.template.ConcreteWebhookTemplateService;
+import com.nerdwin15.stash.webhook.service.trace.ConcreteTracer;
+
+/**
+ * The notification path of the plugin, wired as in Stash to notify a
+ * {@link StubJenkinsServer}: listener, eligibility filter chain, dispatcher
+ * and notifier. Every repository has the hook enabled. The time from each
+ * synthetic push to the end of its notification is recorded in the
+ * {@link ScaleMetrics}.
+ */
+class ScalePipeline {
+
+  private final StubJenkinsServer server;
+  private final File snapshotFile;
+  private final File deadLetterFile;
+  private final ConcreteTracer tracer;
+  private final ConcreteHttpClientFactory httpClientFactory;
+  private final TrafficRecorder recorder;
+  private final ConcreteNotificationDispatcher dispatcher;
+  private final RepositoryChangeListener listener;
+
+  /**
+   * Start a stub Jenkins and wire the notification path to it.
+   * @param latencyMillis The time the stub Jenkins takes to answer
+   * @param payload Whether a JSON payload is posted to Jenkins
+   * @param recording The file to record the traffic to. May be null.
+   * @param metrics The metrics the notification latencies are recorded in
+   * @throws IOException If the stub Jenkins can't be started
+   */
+  ScalePipeline(long latencyMillis, boolean payload, File recording,
+      final ScaleMetrics metrics) throws IOException {
+    server = new StubJenkinsServer();
+    server.setLatencyMillis(latencyMillis);
+    snapshotFile = File.createTempFile("ref-snapshot", ".dat");
+    deadLetterFile = File.createTempFile("dead-letters", ".dat");
+    snapshotFile.delete();
+    deadLetterFile.delete();
+
+    final Map<String, Object> values = new HashMap<String, Object>();
+    values.put(Notifier.JENKINS_BASE, server.getBaseUrl());
+    values.put(Notifier.CLONE_URL, "http://stash/scm/prj/repo.git");
+    values.put(Notifier.POST_PAYLOAD, payload);
+    final Settings settings = Stubs.settings(Settings.class, values);
+    final Map<String, Object> enabled = new HashMap<String, Object>();
+    enabled.put("isEnabled", true);
+    enabled.put("isConfigured", true);
+    final RepositoryHook hook = Stubs.of(RepositoryHook.class, enabled);
+    final SettingsService settingsService = new SettingsService() {
+      @Override
+      public RepositoryHook getRepositoryHook(Repository repository) {
+        return hook;
+      }
+
+      @Override
+      public Settings getSettings(Repository repository) {
+        return settings;
+      }
+    };
+
+    final HostHealthService health = new HostHealthService() {
+      @Override
+      public boolean isDown(String host) {
+        return false;
+      }
+
+      @Override
+      public HostHealth getHealth(String host) {
+        return null;
+      }
+
+      @Override
+      public Collection<HostHealth> getHosts() {
+        return Collections.emptyList();
+      }
+    };
+
+    tracer = new ConcreteTracer(0, null, 1);
+    recorder = new TrafficRecorder(recording, Long.MAX_VALUE);
+    httpClientFactory = new ConcreteHttpClientFactory();
+    final RefSnapshotStore snapshotStore = new RefSnapshotStore(snapshotFile);
+    final Notifier notifier = new Notifier(settingsService,
+        httpClientFactory, new JsonPayloadWriter(null),
+        new ConcreteConcurrencyLimiterService(),
+        new ConcreteDeliveryHistory(),
+        new DeadLetterStore(deadLetterFile, 8L * 1024 * 1024), tracer,
+        recorder, health, new ConcreteEndpointSelector(),
+        new ConcreteRoutingService(), new ConcreteWebhookTemplateService(),
+        snapshotStore) {
+      @Override
+      public String notify(Repository repo, Target target) {
+        try {
+          return super.notify(repo, target);
+        } finally {
+          if (target.getRefChanges() instanceof SyntheticRefChanges) {
+            metrics.record(System.nanoTime() - ((SyntheticRefChanges)
+                target.getRefChanges()).getCreatedNanos());
+          }
+        }
+      }
+    };
+    dispatcher = new ConcreteNotificationDispatcher(notifier, tracer);
+    listener = new RepositoryChangeListener(
+        new ConcreteEligibilityFilterChain(new ArrayList<EligibilityFilter>(),
+            tracer),
+        dispatcher, settingsService, new RecentRefChangeIndex(),
+        snapshotStore, tracer, recorder);
+  }
+
+  /**
+   * Get the listener pushes are published to.
+   * @return The listener
+   */
+  RepositoryChangeListener getListener() {
+    return listener;
+  }
+
+  /**
+   * Get the stub Jenkins.
+   * @return The stub Jenkins
+   */
+  StubJenkinsServer getServer() {
+    return server;
+  }
+
+  /**
+   * Wait until the provided number of pushes were notified, or a timeout
+   * elapsed.
+   * @param metrics The metrics the notifications are recorded in
+   * @param pushes The number of pushes
+   * @param timeoutMillis The longest time to wait
+   * @throws InterruptedException If interrupted while waiting
+   */
+  void awaitNotified(ScaleMetrics metrics, int pushes, long timeoutMillis)
+      throws InterruptedException {
+    final long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (metrics.getCount() < pushes && System.nanoTime() < deadline) {
+      Thread.sleep(100);
+    }
+  }
+
+  /**
+   * Stop the dispatcher and the stub Jenkins, and delete the stores.
+   */
+  void destroy() {
+    dispatcher.destroy();
+    httpClientFactory.destroy();
+    tracer.destroy();
+    recorder.destroy();
+    server.stop();
+    snapshotFile.delete();
+    deadLetterFile.delete();
+  }
+}
@@ -0,0 +1,113 @@
+package com.nerdwin15.stash.webhook.scale;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nerdwin15.stash.webhook.service.PluginProperties;
+
+/**
+ * Scale run of the notification path. Synthetic pushes are published to the
+ * real listener, filter chain, dispatcher and notifier, which notify a stub
+ * Jenkins over HTTP. The measurements are written as a JSON baseline.
+ *
+ * Not part of the regular build; run it with <code>mvn test -Pscale</code>
+ * and tune it with these system properties:
+ * <ul>
+ * <li><code>scale.repositories</code> - repositories pushed to (20000)</li>
+ * <li><code>scale.projects</code> - projects they belong to (200)</li>
+ * <li><code>scale.refs</code> - refs changed by each push (1)</li>
+ * <li><code>scale.rate</code> - pushes per second (50)</li>
+ * <li><code>scale.duration</code> - seconds to push for (30)</li>
+ * <li><code>scale.jenkins.latency</code> - milliseconds Jenkins takes to
+ * answer (20)</li>
+ * <li><code>scale.payload</code> - whether a JSON payload is posted
+ * (false)</li>
+ * <li><code>scale.output</code> - the baseline file
+ * (target/scale-baseline.json)</li>
+ * <li><code>scale.record</code> - a file to record the traffic to, to be
+ * replayed by {@link ReplayTest} (none)</li>
+ * </ul>
+ * The <code>jenkins.webhook.*</code> properties of the plugin apply as
+ * well.
+ */
+public class ScaleTest {
+
+  private final int repositories =
+      PluginProperties.getInt("scale.repositories", 20000);
+  private final int projects = PluginProperties.getInt("scale.projects", 200);
+  private final int refs = PluginProperties.getInt("scale.refs", 1);
+  private final double rate = PluginProperties.getDouble("scale.rate", 50);
+  private final long duration = PluginProperties.getLong("scale.duration", 30);
+  private final long latency =
+      PluginProperties.getLong("scale.jenkins.latency", 20);
+  private final boolean payload =
+      PluginProperties.getBoolean("scale.payload", false);
+  private final File output = new File(PluginProperties.getString(
+      "scale.output", "target/scale-baseline.json"));
+
+  private final ScaleMetrics metrics = new ScaleMetrics();
+  private ScalePipeline pipeline;
+
+  /**
+   * Setup tasks
+   * @throws Exception
+   */
+  @Before
+  public void setUp() throws Exception {
+    final String recording = PluginProperties.getString("scale.record", null);
+    pipeline = new ScalePipeline(latency, payload,
+        recording == null ? null : new File(recording), metrics);
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    pipeline.destroy();
+  }
+
+  /**
+   * Publish pushes at the configured rate, wait for their notifications and
+   * write the baseline.
+   * @throws Exception
+   */
+  @Test
+  public void shouldNotifyEveryPush() throws Exception {
+    final SyntheticPushGenerator generator = new SyntheticPushGenerator(
+        repositories, projects, refs, 42);
+    metrics.start();
+    final int pushes = generator.publish(pipeline.getListener(), rate,
+        TimeUnit.SECONDS.toMillis(duration));
+    pipeline.awaitNotified(metrics, pushes,
+        TimeUnit.SECONDS.toMillis(Math.max(60, duration)));
+    metrics.stop();
+
+    final Map<String, Number> configuration =
+        new LinkedHashMap<String, Number>();
+    configuration.put("repositories", repositories);
+    configuration.put("projects", projects);
+    configuration.put("refsPerPush", refs);
+    configuration.put("rate", rate);
+    configuration.put("durationSeconds", duration);
+    configuration.put("jenkinsLatencyMillis", latency);
+    configuration.put("payload", payload ? 1 : 0);
+    final Map<String, Number> counters = new LinkedHashMap<String, Number>();
+    counters.put("pushes", pushes);
+    counters.put("jenkinsRequests", pipeline.getServer().getRequests());
+    counters.put("jenkinsMaxConcurrent",
+        pipeline.getServer().getMaxConcurrent());
+    metrics.report(configuration, counters, output);
+
+    assertEquals(pushes, metrics.getCount());
+    assertEquals(pushes, pipeline.getServer().getRequests());
+  }
+}
@@ -0,0 +1,88 @@
+package com.nerdwin15.stash.webhook.scale;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Lightweight stand-ins for the Stash API interfaces. Unlike mocks, they
+ * don't record their invocations, so they can be called millions of times
+ * without skewing the heap measurements of a scale run.
+ */
+final class Stubs {
+
+  private Stubs() {
+  }
+
+  /**
+   * Create an instance of an interface answering each method by its name.
+   * Methods without an answer return null, false or 0.
+   * @param type The interface
+   * @param answers The return value of each method, by method name
+   * @return The instance
+   */
+  static <T> T of(Class<T> type, final Map<String, ?> answers) {
+    return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(),
+        new Class<?>[] { type }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            final Object identity = identity(proxy, method, args);
+            if (identity != null)
+              return identity;
+            final Object answer = answers.get(method.getName());
+            return answer == null ? defaultValue(method.getReturnType())
+                : answer;
+          }
+        }));
+  }
+
+  /**
+   * Create an instance of a settings-like interface, answering each
+   * <code>get*(key)</code> and <code>get*(key, default)</code> method from
+   * the provided values.
+   * @param type The interface
+   * @param values The setting values, by key
+   * @return The instance
+   */
+  static <T> T settings(Class<T> type, final Map<String, ?> values) {
+    return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(),
+        new Class<?>[] { type }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            final Object identity = identity(proxy, method, args);
+            if (identity != null)
+              return identity;
+            if (args == null || args.length == 0)
+              return Collections.unmodifiableMap(values);
+            final Object value = values.get(args[0]);
+            if (value != null)
+              return value;
+            return args.length > 1 ? args[1]
+                : defaultValue(method.getReturnType());
+          }
+        }));
+  }
+
+  private static Object identity(Object proxy, Method method, Object[] args) {
+    if (method.getName().equals("equals") && args != null
+        && args.length == 1)
+      return proxy == args[0];
+    if (method.getName().equals("hashCode") && args == null)
+      return System.identityHashCode(proxy);
+    if (method.getName().equals("toString") && args == null)
+      return "Stub@" + Integer.toHexString(System.identityHashCode(proxy));
+    return null;
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class)
+      return false;
+    if (type == int.class)
+      return 0;
+    if (type == long.class)
+      return 0L;
+    return null;
+  }
+}
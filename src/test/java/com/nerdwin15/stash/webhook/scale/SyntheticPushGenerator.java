@@ -0,0 +1,182 @@
+package com.nerdwin15.stash.webhook.scale;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.RepositoryChangeListener;
+
+/**
+ * Generates synthetic pushes to a population of repositories at a fixed
+ * arrival rate, and publishes them to a {@link RepositoryChangeListener}.
+ * Each push changes a configurable number of branches of a randomly chosen
+ * repository to new commits.
+ */
+class SyntheticPushGenerator {
+
+  private final Repository[] repositories;
+  private final int refsPerPush;
+  private final Random random;
+
+  /**
+   * Create a new instance
+   * @param repositories The number of repositories pushed to
+   * @param projects The number of projects the repositories are spread over
+   * @param refsPerPush The number of refs changed by each push
+   * @param seed The seed of the random choices, for repeatable runs
+   */
+  SyntheticPushGenerator(int repositories, int projects, int refsPerPush,
+      long seed) {
+    this.repositories = new Repository[repositories];
+    this.refsPerPush = Math.max(1, refsPerPush);
+    this.random = new Random(seed);
+    final Project[] keys = new Project[Math.max(1, projects)];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = project(i + 1);
+    }
+    for (int i = 0; i < repositories; i++) {
+      this.repositories[i] = repository(i + 1, keys[i % keys.length]);
+    }
+  }
+
+  /**
+   * Create a project.
+   * @param id The project ID
+   * @return The project
+   */
+  static Project project(int id) {
+    final Map<String, Object> project = new HashMap<String, Object>();
+    project.put("getId", id);
+    project.put("getKey", "PRJ" + id);
+    project.put("getName", "Project " + id);
+    return Stubs.of(Project.class, project);
+  }
+
+  /**
+   * Create a repository.
+   * @param id The repository ID
+   * @param project The project of the repository
+   * @return The repository
+   */
+  static Repository repository(int id, Project project) {
+    final Map<String, Object> repository = new HashMap<String, Object>();
+    repository.put("getId", id);
+    repository.put("getSlug", "repo-" + id);
+    repository.put("getName", "Repository " + id);
+    repository.put("getProject", project);
+    return Stubs.of(Repository.class, repository);
+  }
+
+  /**
+   * Create a ref change.
+   * @param refId The ID of the changed ref
+   * @param type The type of the change
+   * @param random The source of the commit hashes
+   * @return The ref change
+   */
+  static RefChange refChange(String refId, RefChangeType type,
+      Random random) {
+    final Map<String, Object> refChange = new HashMap<String, Object>();
+    refChange.put("getRefId", refId);
+    refChange.put("getFromHash", hash(random));
+    refChange.put("getToHash", hash(random));
+    refChange.put("getType", type);
+    return Stubs.of(RefChange.class, refChange);
+  }
+
+  /**
+   * Create a refs changed event.
+   * @param repository The repository pushed to
+   * @param refChanges The changed refs
+   * @return The event
+   */
+  static RepositoryRefsChangedEvent event(Repository repository,
+      SyntheticRefChanges refChanges) {
+    final Map<String, Object> event = new HashMap<String, Object>();
+    event.put("getRepository", repository);
+    event.put("getRefChanges", refChanges);
+    return Stubs.of(RepositoryRefsChangedEvent.class, event);
+  }
+
+  /**
+   * Create the next push.
+   * @return The refs changed event of the push
+   */
+  RepositoryRefsChangedEvent next() {
+    final Repository repository =
+        repositories[random.nextInt(repositories.length)];
+    final SyntheticRefChanges refChanges =
+        new SyntheticRefChanges(refsPerPush);
+    for (int i = 0; i < refsPerPush; i++) {
+      refChanges.add(refChange("refs/heads/branch-" + i,
+          RefChangeType.UPDATE, random));
+    }
+    return event(repository, refChanges);
+  }
+
+  /**
+   * Publish pushes to a listener at a fixed rate, from the calling thread.
+   * When the listener falls behind, pushes are published back to back
+   * until the schedule is caught up.
+   * @param listener The listener
+   * @param rate The number of pushes per second
+   * @param durationMillis How long to publish for
+   * @return The number of pushes published
+   */
+  int publish(RepositoryChangeListener listener, double rate,
+      long durationMillis) throws InterruptedException {
+    final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    final long start = System.nanoTime();
+    final long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+    int published = 0;
+    long due = start;
+    while (due < end) {
+      final long wait = due - System.nanoTime();
+      if (wait > 0)
+        TimeUnit.NANOSECONDS.sleep(wait);
+      listener.onRefsChangedEvent(next());
+      published++;
+      due += intervalNanos;
+    }
+    return published;
+  }
+
+  private static String hash(Random random) {
+    return Long.toHexString(random.nextLong())
+        + Long.toHexString(random.nextLong());
+  }
+
+  /**
+   * The ref changes of a synthetic push, carrying the time the push was
+   * made so the time until Jenkins is notified can be measured.
+   */
+  static class SyntheticRefChanges extends ArrayList<RefChange> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long createdNanos = System.nanoTime();
+
+    /**
+     * Create an empty list of ref changes, made now.
+     * @param size The expected number of ref changes
+     */
+    SyntheticRefChanges(int size) {
+      super(size);
+    }
+
+    /**
+     * Get the time the push was made.
+     * @return The value of {@link System#nanoTime()} at creation
+     */
+    long getCreatedNanos() {
+      return createdNanos;
+    }
+  }
+}
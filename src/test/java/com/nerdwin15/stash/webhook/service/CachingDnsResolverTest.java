@@ -0,0 +1,169 @@
+package com.nerdwin15.stash.webhook.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Ticker;
+import com.nerdwin15.stash.webhook.StubJenkinsServer;
+
+/**
+ * Test case for the {@link CachingDnsResolver} class.
+ */
+public class CachingDnsResolverTest {
+
+  private static final String HOST = "jenkins.example.com";
+
+  private InetAddress[] first;
+  private InetAddress[] second;
+  private DnsResolver delegate;
+  private long now;
+  private CachingDnsResolver resolver;
+
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return now;
+    }
+  };
+
+  /**
+   * Setup tasks
+   * @throws Exception
+   */
+  @Before
+  public void setUp() throws Exception {
+    first = new InetAddress[] { InetAddress.getByName("10.0.0.1"),
+        InetAddress.getByName("::1") };
+    second = new InetAddress[] { InetAddress.getByName("10.0.0.2") };
+    delegate = mock(DnsResolver.class);
+    resolver = new CachingDnsResolver(delegate, 1000, 10000, ticker);
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    resolver.shutdown();
+  }
+
+  /**
+   * Validate that fresh addresses are served from the cache.
+   * @throws Exception
+   */
+  @Test
+  public void shouldServeFreshAddressesFromCache() throws Exception {
+    when(delegate.resolve(HOST)).thenReturn(first);
+
+    assertArrayEquals(first, resolver.resolve(HOST));
+    resolver.resolve(HOST)[0] = null;
+    now += TimeUnit.MILLISECONDS.toNanos(999);
+    assertArrayEquals(first, resolver.resolve(HOST));
+
+    verify(delegate, times(1)).resolve(HOST);
+  }
+
+  /**
+   * Validate that stale addresses are served while the host is resolved in
+   * the background, and kept when that fails.
+   * @throws Exception
+   */
+  @Test
+  public void shouldServeStaleAddressesWhileRefreshing() throws Exception {
+    final CountDownLatch resolving = new CountDownLatch(1);
+    final CountDownLatch resolved = new CountDownLatch(1);
+    when(delegate.resolve(HOST)).thenReturn(first)
+        .thenThrow(new UnknownHostException(HOST))
+        .thenAnswer(new Answer<InetAddress[]>() {
+          @Override
+          public InetAddress[] answer(InvocationOnMock invocation)
+              throws Throwable {
+            resolving.await();
+            resolved.countDown();
+            return second;
+          }
+        });
+    resolver.resolve(HOST);
+
+    now += TimeUnit.SECONDS.toNanos(2);
+    assertArrayEquals(first, resolver.resolve(HOST));
+    Thread.sleep(100);
+    assertArrayEquals(first, resolver.resolve(HOST));
+    resolving.countDown();
+    resolved.await(5, TimeUnit.SECONDS);
+    Thread.sleep(100);
+    assertArrayEquals(second, resolver.resolve(HOST));
+    verify(delegate, times(3)).resolve(HOST);
+  }
+
+  /**
+   * Validate that the host is resolved on the calling thread once its
+   * addresses are too old to serve.
+   * @throws Exception
+   */
+  @Test
+  public void shouldResolveAgainWhenTooOld() throws Exception {
+    when(delegate.resolve(HOST)).thenReturn(first)
+        .thenThrow(new UnknownHostException(HOST));
+    resolver.resolve(HOST);
+
+    now += TimeUnit.SECONDS.toNanos(11);
+    try {
+      resolver.resolve(HOST);
+      fail("Expected the host to be resolved again");
+    } catch (UnknownHostException e) {
+      assertEquals(HOST, e.getMessage());
+    }
+  }
+
+  /**
+   * Validate that a connection fails over to the next address of a host
+   * when connecting to the first is refused.
+   * @throws Exception
+   */
+  @Test
+  public void shouldFailOverAcrossAddresses() throws Exception {
+    final StubJenkinsServer server = new StubJenkinsServer();
+    final int port = URI.create(server.getBaseUrl()).getPort();
+    when(delegate.resolve(HOST)).thenReturn(new InetAddress[] {
+        InetAddress.getByName("127.0.0.2"),
+        InetAddress.getByName("127.0.0.1") });
+    final PoolingClientConnectionManager manager =
+        new PoolingClientConnectionManager(
+            SchemeRegistryFactory.createDefault(), resolver);
+    try {
+      final HttpResponse response = new DefaultHttpClient(manager)
+          .execute(new HttpGet("http://" + HOST + ":" + port + "/"));
+      EntityUtils.consume(response.getEntity());
+      assertEquals(200, response.getStatusLine().getStatusCode());
+      assertEquals(1, server.getRequests());
+    } finally {
+      manager.shutdown();
+      server.stop();
+    }
+  }
+}
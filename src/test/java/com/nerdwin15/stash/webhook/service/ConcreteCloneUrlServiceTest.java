@@ -0,0 +1,120 @@
+package com.nerdwin15.stash.webhook.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.event.RepositoryDeletedEvent;
+import com.atlassian.stash.event.RepositoryModifiedEvent;
+import com.atlassian.stash.nav.NavBuilder;
+import com.atlassian.stash.nav.NavBuilder.Repo;
+import com.atlassian.stash.nav.NavBuilder.RepoClone;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.ssh.api.SshCloneUrlResolver;
+
+/**
+ * Test case for the {@link ConcreteCloneUrlService} class.
+ */
+public class ConcreteCloneUrlServiceTest {
+
+  private static final String HTTP_URL = 
+      "https://stash.localhost/stash/scm/test/test.git";
+  private static final String SSH_URL = 
+      "ssh://git@stash.localhost:7999/test/test.git";
+
+  private NavBuilder navBuilder;
+  private SshCloneUrlResolver sshCloneUrlResolver;
+  private Repository repository;
+  private Project project;
+  private ConcreteCloneUrlService service;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    navBuilder = mock(NavBuilder.class);
+    sshCloneUrlResolver = mock(SshCloneUrlResolver.class);
+    repository = mock(Repository.class);
+    project = mock(Project.class);
+    Repo repo = mock(Repo.class);
+    RepoClone repoClone = mock(RepoClone.class);
+
+    when(repository.getId()).thenReturn(1);
+    when(repository.getSlug()).thenReturn("test");
+    when(repository.getProject()).thenReturn(project);
+    when(project.getKey()).thenReturn("TEST");
+    when(navBuilder.buildBaseUrl()).thenReturn("https://stash.localhost");
+    when(navBuilder.repo(repository)).thenReturn(repo);
+    when(repo.clone("git")).thenReturn(repoClone);
+    when(repoClone.buildAbsoluteWithoutUsername()).thenReturn(HTTP_URL);
+    when(sshCloneUrlResolver.getCloneUrl(repository)).thenReturn(SSH_URL);
+
+    service = new ConcreteCloneUrlService(navBuilder, sshCloneUrlResolver);
+  }
+
+  /**
+   * Validate that the urls are resolved once and then served from the cache.
+   */
+  @Test
+  public void shouldCacheResolvedUrls() {
+    CloneUrls urls = service.getCloneUrls(repository);
+    assertEquals(SSH_URL, urls.getSsh());
+    assertEquals(HTTP_URL, urls.getHttp());
+    assertSame(urls, service.getCloneUrls(repository));
+    verify(sshCloneUrlResolver, times(1)).getCloneUrl(repository);
+  }
+
+  /**
+   * Validate that a rename, a move or a base URL change resolves the urls
+   * again.
+   */
+  @Test
+  public void shouldResolveAgainWhenRepositoryOrBaseUrlChanges() {
+    service.getCloneUrls(repository);
+    when(repository.getSlug()).thenReturn("renamed");
+    service.getCloneUrls(repository);
+    when(project.getKey()).thenReturn("MOVED");
+    service.getCloneUrls(repository);
+    when(navBuilder.buildBaseUrl()).thenReturn("https://new.localhost");
+    service.getCloneUrls(repository);
+    verify(sshCloneUrlResolver, times(4)).getCloneUrl(repository);
+  }
+
+  /**
+   * Validate that repository events invalidate the cache.
+   */
+  @Test
+  public void shouldInvalidateOnRepositoryEvents() {
+    RepositoryModifiedEvent modified = mock(RepositoryModifiedEvent.class);
+    when(modified.getOldValue()).thenReturn(repository);
+    RepositoryDeletedEvent deleted = mock(RepositoryDeletedEvent.class);
+    when(deleted.getRepository()).thenReturn(repository);
+
+    service.getCloneUrls(repository);
+    service.onRepositoryModified(modified);
+    service.getCloneUrls(repository);
+    service.onRepositoryDeleted(deleted);
+    service.getCloneUrls(repository);
+    verify(sshCloneUrlResolver, times(3)).getCloneUrl(repository);
+  }
+
+  /**
+   * Validate that the entity tag changes with the urls.
+   */
+  @Test
+  public void shouldDeriveETagFromUrls() {
+    assertEquals(new CloneUrls(SSH_URL, HTTP_URL).getETag(),
+        new CloneUrls(SSH_URL, HTTP_URL).getETag());
+    assertFalse(new CloneUrls(SSH_URL, HTTP_URL).getETag()
+        .equals(new CloneUrls(SSH_URL, SSH_URL).getETag()));
+  }
+}
@@ -0,0 +1,163 @@
+package com.nerdwin15.stash.webhook.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.ConnectionTest.State;
+
+/**
+ * Test case for the {@link ConcreteConnectionTestService} class.
+ */
+public class ConcreteConnectionTestServiceTest {
+
+  private static final String JENKINS_BASE = "http://jenkins.localhost";
+  private static final String CLONE_URL = "ssh://git@stash:7999/test/test.git";
+
+  private Notifier notifier;
+  private Repository repository;
+  private HttpUriRequest request;
+  private ConcreteConnectionTestService service;
+  private CountDownLatch released = new CountDownLatch(1);
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    notifier = mock(Notifier.class);
+    repository = mock(Repository.class);
+    when(repository.getId()).thenReturn(1);
+    request = mock(HttpUriRequest.class);
+    when(notifier.createTestRequest(repository, JENKINS_BASE, CLONE_URL))
+        .thenReturn(request);
+    service = new ConcreteConnectionTestService(notifier, 200);
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    released.countDown();
+    service.destroy();
+  }
+
+  /**
+   * Validate that a scheduled poll completes the test successfully.
+   */
+  @Test
+  public void shouldSucceedWhenJenkinsSchedulesPoll() throws Exception {
+    when(notifier.notify(repository, request, false))
+        .thenReturn("Scheduled polling of test");
+
+    ConnectionTest test = await(service.start(repository, JENKINS_BASE, 
+        CLONE_URL, false));
+
+    assertEquals(State.SUCCESS, test.getState());
+    assertSame(test, service.getTest(test.getId()));
+  }
+
+  /**
+   * Validate that the test fails when Jenkins can't be notified.
+   */
+  @Test
+  public void shouldFailWhenNotifierReturnsNull() throws Exception {
+    ConnectionTest test = await(service.start(repository, JENKINS_BASE, 
+        CLONE_URL, false));
+
+    assertEquals(State.FAILED, test.getState());
+  }
+
+  /**
+   * Validate that a hanging Jenkins fails the test at the deadline and has
+   * its request aborted, and that repeated starts return the running test
+   * until then.
+   */
+  @Test
+  public void shouldTimeOutAndCoalesceRunningTests() throws Exception {
+    when(notifier.notify(repository, request, false))
+        .thenAnswer(new Answer<String>() {
+          @Override
+          public String answer(InvocationOnMock invocation) 
+              throws Throwable {
+            released.await(5, TimeUnit.SECONDS);
+            return "Scheduled";
+          }
+        });
+
+    ConnectionTest first = service.start(repository, JENKINS_BASE, 
+        CLONE_URL, false);
+    assertSame(first, service.start(repository, JENKINS_BASE, CLONE_URL, 
+        false));
+    await(first);
+    assertEquals(State.TIMED_OUT, first.getState());
+    verify(request, timeout(1000)).abort();
+
+    ConnectionTest second = service.start(repository, JENKINS_BASE, 
+        CLONE_URL, false);
+    assertNotSame(first, second);
+    verify(notifier, timeout(1000).times(2)).notify(repository, request,
+        false);
+  }
+
+  /**
+   * Validate that a test of other settings isn't coalesced with the test
+   * running for the repository.
+   */
+  @Test
+  public void shouldNotCoalesceTestsOfOtherSettings() {
+    when(notifier.notify(repository, request, false))
+        .thenAnswer(new Answer<String>() {
+          @Override
+          public String answer(InvocationOnMock invocation) 
+              throws Throwable {
+            released.await(5, TimeUnit.SECONDS);
+            return "Scheduled";
+          }
+        });
+    when(notifier.createTestRequest(repository, "http://other.localhost",
+        CLONE_URL)).thenReturn(request);
+
+    ConnectionTest first = service.start(repository, JENKINS_BASE, 
+        CLONE_URL, false);
+    assertNotSame(first, service.start(repository, "http://other.localhost",
+        CLONE_URL, false));
+    assertNotSame(first, service.start(repository, JENKINS_BASE, CLONE_URL,
+        true));
+  }
+
+  /**
+   * Validate that unknown tests aren't found.
+   */
+  @Test
+  public void shouldNotFindUnknownTest() {
+    assertNull(service.getTest("unknown"));
+    assertNull(service.getTest(null));
+  }
+
+  private ConnectionTest await(ConnectionTest test) throws Exception {
+    long deadline = System.currentTimeMillis() + 2000;
+    while (!test.isDone() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    return test;
+  }
+}
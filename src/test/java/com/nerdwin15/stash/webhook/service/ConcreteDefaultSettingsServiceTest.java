@@ -0,0 +1,127 @@
+package com.nerdwin15.stash.webhook.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.Notifier;
+
+/**
+ * Test case for the {@link ConcreteDefaultSettingsService} class.
+ */
+public class ConcreteDefaultSettingsServiceTest {
+
+  private PluginSettings pluginSettings;
+  private EventPublisher eventPublisher;
+  private ConcreteDefaultSettingsService service;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    pluginSettings = mock(PluginSettings.class);
+    eventPublisher = mock(EventPublisher.class);
+    PluginSettingsFactory factory = mock(PluginSettingsFactory.class);
+    when(factory.createGlobalSettings()).thenReturn(pluginSettings);
+    service = new ConcreteDefaultSettingsService(factory, eventPublisher);
+  }
+
+  /**
+   * Validate that only non-blank inheritable values are stored, and that
+   * the change is published.
+   */
+  @Test
+  public void shouldStoreInheritableValues() {
+    Map<String, String> values = new HashMap<String, String>();
+    values.put(Notifier.JENKINS_BASE, " http://jenkins ");
+    values.put(Notifier.IGNORE_COMMITTERS, "");
+    values.put(Notifier.CLONE_URL, "http://stash/scm/proj/repo.git");
+    service.setProjectDefaults("PROJ", values);
+
+    Map<String, String> stored = service.getProjectDefaults("PROJ");
+    assertEquals(1, stored.size());
+    assertEquals("http://jenkins", stored.get(Notifier.JENKINS_BASE));
+    verify(pluginSettings).put(eq(Notifier.KEY + ":defaults:PROJ"),
+        eq(stored));
+    verify(eventPublisher).publish(argThat(
+        new ArgumentMatcher<Object>() {
+      @Override
+      public boolean matches(Object event) {
+        return "PROJ".equals(
+            ((DefaultSettingsChangedEvent) event).getProjectKey());
+      }
+    }));
+  }
+
+  /**
+   * Validate that project defaults override the instance defaults, and that
+   * stored defaults are only read once.
+   */
+  @Test
+  public void shouldPreferProjectDefaults() {
+    Map<String, String> instance = new HashMap<String, String>();
+    instance.put(Notifier.JENKINS_BASE, "http://jenkins");
+    instance.put(Notifier.IGNORE_CERTS, "true");
+    when(pluginSettings.get(Notifier.KEY + ":defaults")).thenReturn(instance);
+    when(pluginSettings.get(Notifier.KEY + ":defaults:PROJ")).thenReturn(
+        singleton(Notifier.JENKINS_BASE, "http://other"));
+    Repository repository = mock(Repository.class);
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn("PROJ");
+    when(repository.getProject()).thenReturn(project);
+
+    Map<String, String> defaults = service.getDefaults(repository);
+    service.getDefaults(repository);
+
+    assertEquals("http://other", defaults.get(Notifier.JENKINS_BASE));
+    assertEquals("true", defaults.get(Notifier.IGNORE_CERTS));
+    verify(pluginSettings, times(1)).get(Notifier.KEY + ":defaults");
+    verify(pluginSettings, times(1)).get(Notifier.KEY + ":defaults:PROJ");
+  }
+
+  /**
+   * Validate that clearing the defaults removes them from storage.
+   */
+  @Test
+  public void shouldRemoveEmptyDefaults() {
+    service.setInstanceDefaults(new HashMap<String, String>());
+
+    assertTrue(service.getInstanceDefaults().isEmpty());
+    verify(pluginSettings).remove(Notifier.KEY + ":defaults");
+    verify(pluginSettings, times(0)).put(any(String.class), any());
+    verify(eventPublisher).publish(argThat(
+        new ArgumentMatcher<Object>() {
+      @Override
+      public boolean matches(Object event) {
+        return ((DefaultSettingsChangedEvent) event).getProjectKey() == null;
+      }
+    }));
+    assertNull(service.getInstanceDefaults().get(Notifier.JENKINS_BASE));
+  }
+
+  private static Map<String, String> singleton(String key, String value) {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put(key, value);
+    return map;
+  }
+}
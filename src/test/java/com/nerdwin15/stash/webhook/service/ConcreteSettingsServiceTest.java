@@ -1,18 +1,29 @@
 package com.nerdwin15.stash.webhook.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.atlassian.stash.event.hook.RepositoryHookSettingsChangedEvent;
 import com.atlassian.stash.hook.repository.RepositoryHook;
 import com.atlassian.stash.hook.repository.RepositoryHookService;
+import com.atlassian.stash.project.Project;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.Settings;
 import com.atlassian.stash.user.Permission;
@@ -27,9 +38,12 @@ import com.nerdwin15.stash.webhook.Notifier;
  */
 public class ConcreteSettingsServiceTest {
 
+  private static final String CLONE_URL = "http://stash/scm/proj/repo.git";
+
   private ConcreteSettingsService settingsService;
   private RepositoryHookService hookService;
   private SecurityService securityService;
+  private DefaultSettingsService defaultSettingsService;
   private Repository repository;
   
   /**
@@ -39,8 +53,9 @@ public class ConcreteSettingsServiceTest {
   public void setUp() {
     hookService = mock(RepositoryHookService.class);
     securityService = mock(SecurityService.class);
+    defaultSettingsService = mock(DefaultSettingsService.class);
     settingsService = new ConcreteSettingsService(hookService, 
-        securityService);
+        securityService, defaultSettingsService);
     
     repository = mock(Repository.class);
   }
@@ -86,4 +101,105 @@ public class ConcreteSettingsServiceTest {
     verify(hookService, times(1)).getSettings(repository, Notifier.KEY);
     assertEquals(settings, returnValue);
   }
+
+  /**
+   * Validate that blank fields are inherited from the defaults, and that the
+   * effective settings are only resolved once.
+   */
+  @Test
+  public void shouldInheritAndCacheEffectiveSettings() throws Throwable {
+    elevate();
+    stored(repository(1, "PROJ"), "");
+
+    Settings settings = settingsService.getSettings(repository);
+    assertEquals("http://jenkins", settings.getString(Notifier.JENKINS_BASE));
+    assertEquals(CLONE_URL, settings.getString(Notifier.CLONE_URL));
+    assertSame(settings, settingsService.getSettings(repository));
+    verify(hookService, times(1)).getSettings(repository, Notifier.KEY);
+  }
+
+  /**
+   * Validate that a repository's own value overrides the defaults.
+   */
+  @Test
+  public void shouldPreferRepositoryValue() throws Throwable {
+    elevate();
+    stored(repository(1, "PROJ"), "http://other");
+
+    assertEquals("http://other", settingsService.getSettings(repository)
+        .getString(Notifier.JENKINS_BASE));
+  }
+
+  /**
+   * Validate that only the repositories of a project whose defaults changed
+   * are resolved again.
+   */
+  @Test
+  public void shouldResolveAgainWhenProjectDefaultsChange() throws Throwable {
+    elevate();
+    stored(repository(1, "PROJ"), "");
+    settingsService.getSettings(repository);
+
+    settingsService.onDefaultsChanged(new DefaultSettingsChangedEvent("OTHR"));
+    settingsService.getSettings(repository);
+    verify(hookService, times(1)).getSettings(repository, Notifier.KEY);
+
+    settingsService.onDefaultsChanged(new DefaultSettingsChangedEvent("PROJ"));
+    settingsService.getSettings(repository);
+    verify(hookService, times(2)).getSettings(repository, Notifier.KEY);
+
+    settingsService.onDefaultsChanged(new DefaultSettingsChangedEvent(null));
+    settingsService.getSettings(repository);
+    verify(hookService, times(3)).getSettings(repository, Notifier.KEY);
+  }
+
+  /**
+   * Validate that a repository is resolved again once its settings change.
+   */
+  @Test
+  public void shouldResolveAgainWhenSettingsChange() throws Throwable {
+    elevate();
+    stored(repository(1, "PROJ"), "");
+    settingsService.getSettings(repository);
+
+    RepositoryHookSettingsChangedEvent event = 
+        mock(RepositoryHookSettingsChangedEvent.class);
+    when(event.getRepository()).thenReturn(repository);
+    when(event.getRepositoryHookKey()).thenReturn(Notifier.KEY);
+    settingsService.onSettingsChanged(event);
+    settingsService.getSettings(repository);
+    verify(hookService, times(2)).getSettings(repository, Notifier.KEY);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void elevate() throws Throwable {
+    when(securityService.doWithPermission(anyString(), 
+        eq(Permission.REPO_ADMIN), any(Operation.class)))
+        .thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return ((Operation<?, ?>) invocation.getArguments()[2]).perform();
+      }
+    });
+  }
+
+  private Repository repository(int id, String projectKey) {
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn(projectKey);
+    when(repository.getId()).thenReturn(id);
+    when(repository.getProject()).thenReturn(project);
+    when(defaultSettingsService.getDefaults(repository)).thenReturn(
+        Collections.singletonMap(Notifier.JENKINS_BASE, "http://jenkins"));
+    return repository;
+  }
+
+  private void stored(Repository repository, String jenkinsBase) {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put(Notifier.JENKINS_BASE, jenkinsBase);
+    values.put(Notifier.CLONE_URL, CLONE_URL);
+    Settings settings = mock(Settings.class);
+    when(settings.asMap()).thenReturn(values);
+    when(hookService.getSettings(repository, Notifier.KEY))
+        .thenReturn(settings);
+  }
 }
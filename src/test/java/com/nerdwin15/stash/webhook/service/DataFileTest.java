@@ -0,0 +1,118 @@
+package com.nerdwin15.stash.webhook.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for the {@link DataFile} class.
+ */
+public class DataFileTest {
+
+  private File file;
+  private File backup;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("data-file", ".dat");
+    file.delete();
+    backup = new File(file.getPath() + ".bak");
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    file.delete();
+    backup.delete();
+    new File(file.getPath() + ".tmp").delete();
+  }
+
+  /**
+   * Validate that written contents are read back and replace the previous
+   * ones.
+   */
+  @Test
+  public void shouldReplaceContents() throws Exception {
+    DataFile dataFile = new DataFile(file, 1, 1);
+    assertFalse(dataFile.read(new ValueReader()));
+
+    dataFile.write(new ValueWriter(7));
+    dataFile.write(new ValueWriter(8));
+
+    ValueReader reader = new ValueReader();
+    assertTrue(dataFile.read(reader));
+    assertEquals(8, reader.value);
+    assertFalse(backup.exists());
+  }
+
+  /**
+   * Validate that the backup is read when a replacement was interrupted
+   * after the file was moved aside.
+   */
+  @Test
+  public void shouldReadBackupWhenFileIsMissing() throws Exception {
+    DataFile dataFile = new DataFile(file, 1, 1);
+    dataFile.write(new ValueWriter(7));
+    assertTrue(file.renameTo(backup));
+
+    ValueReader reader = new ValueReader();
+    assertTrue(dataFile.read(reader));
+    assertEquals(7, reader.value);
+
+    dataFile.write(new ValueWriter(8));
+    assertTrue(dataFile.read(reader));
+    assertEquals(8, reader.value);
+    assertFalse(backup.exists());
+  }
+
+  /**
+   * Validate that a file of another format isn't read.
+   */
+  @Test
+  public void shouldRejectOtherFormat() throws Exception {
+    new DataFile(file, 1, 1).write(new ValueWriter(7));
+    try {
+      new DataFile(file, 1, 2).read(new ValueReader());
+      fail("Expected the version to be rejected");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private static class ValueWriter implements DataFile.Writer {
+    private final int value;
+
+    ValueWriter(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException {
+      out.writeInt(value);
+    }
+  }
+
+  private static class ValueReader implements DataFile.Reader {
+    private int value;
+
+    @Override
+    public void readFrom(DataInputStream in) throws IOException {
+      value = in.readInt();
+    }
+  }
+}
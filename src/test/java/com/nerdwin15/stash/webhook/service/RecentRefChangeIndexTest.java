@@ -0,0 +1,125 @@
+package com.nerdwin15.stash.webhook.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.google.common.base.Ticker;
+
+/**
+ * Test case for the {@link RecentRefChangeIndex} class.
+ */
+public class RecentRefChangeIndexTest {
+
+  private long now = -TimeUnit.HOURS.toNanos(1);
+  private RecentRefChangeIndex index;
+  private Repository repository;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    index = new RecentRefChangeIndex(64, 1000, new Ticker() {
+      @Override
+      public long read() {
+        return now;
+      }
+    });
+    repository = repository(1);
+  }
+
+  /**
+   * Validate that an event is only new if one of its ref changes is.
+   */
+  @Test
+  public void shouldSuppressEventsWithOnlyKnownRefChanges() {
+    RefChange master = refChange("refs/heads/master", "aaa");
+    RefChange feature = refChange("refs/heads/feature", "bbb");
+
+    assertTrue(index.markNew(repository, Arrays.asList(master)));
+    assertFalse(index.markNew(repository, Arrays.asList(master)));
+    assertTrue(index.markNew(repository, Arrays.asList(master, feature)));
+    assertFalse(index.markNew(repository, Arrays.asList(feature, master)));
+    assertTrue(index.markNew(repository, 
+        Arrays.asList(refChange("refs/heads/master", "ccc"))));
+    assertTrue(index.markNew(repository(2), Arrays.asList(master)));
+    assertEquals(2, index.getSuppressed());
+  }
+
+  /**
+   * Validate that ref changes are forgotten once the window has passed.
+   */
+  @Test
+  public void shouldForgetRefChangesAfterWindow() {
+    Collection<RefChange> refChanges = 
+        Arrays.asList(refChange("refs/heads/master", "aaa"));
+    assertTrue(index.markNew(repository, refChanges));
+    now += TimeUnit.MILLISECONDS.toNanos(999);
+    assertFalse(index.markNew(repository, refChanges));
+    now += TimeUnit.MILLISECONDS.toNanos(1);
+    assertTrue(index.markNew(repository, refChanges));
+  }
+
+  /**
+   * Validate that events without ref changes or repository IDs are never
+   * suppressed.
+   */
+  @Test
+  public void shouldAlwaysAcceptUnidentifiableEvents() {
+    Collection<RefChange> none = Collections.emptyList();
+    assertTrue(index.markNew(repository, none));
+    assertTrue(index.markNew(repository, none));
+    Repository unsaved = mock(Repository.class);
+    when(unsaved.getId()).thenReturn(null);
+    Collection<RefChange> refChanges = 
+        Arrays.asList(refChange("refs/heads/master", "aaa"));
+    assertTrue(index.markNew(unsaved, refChanges));
+    assertTrue(index.markNew(unsaved, refChanges));
+  }
+
+  /**
+   * Validate that the index stays bounded, evicting the oldest entries.
+   */
+  @Test
+  public void shouldStayBoundedUnderManyRepositories() {
+    Collection<RefChange> refChanges = 
+        Arrays.asList(refChange("refs/heads/master", "aaa"));
+    for (int i = 0; i < 2000; i++) {
+      now++;
+      assertTrue(index.markNew(repository(i), refChanges));
+    }
+    Collection<Integer> remembered = new ArrayList<Integer>();
+    for (int i = 1990; i < 2000; i++) {
+      if (!index.markNew(repository(i), refChanges))
+        remembered.add(i);
+    }
+    assertEquals(10, remembered.size());
+  }
+
+  private Repository repository(int id) {
+    Repository repository = mock(Repository.class);
+    when(repository.getId()).thenReturn(id);
+    return repository;
+  }
+
+  private RefChange refChange(String refId, String toHash) {
+    RefChange refChange = mock(RefChange.class);
+    when(refChange.getRefId()).thenReturn(refId);
+    when(refChange.getToHash()).thenReturn(toHash);
+    return refChange;
+  }
+}
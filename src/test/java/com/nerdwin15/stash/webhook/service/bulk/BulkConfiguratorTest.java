@@ -0,0 +1,276 @@
+package com.nerdwin15.stash.webhook.service.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import com.atlassian.stash.hook.repository.RepositoryHookService;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.setting.SettingsBuilder;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.Operation;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.CloneUrlService;
+import com.nerdwin15.stash.webhook.service.CloneUrls;
+import com.nerdwin15.stash.webhook.service.DefaultSettingsService;
+import com.nerdwin15.stash.webhook.service.RepositoryEnumerator;
+
+/**
+ * Test case for the {@link BulkConfigurator} class.
+ */
+public class BulkConfiguratorTest {
+
+  private static final String JENKINS_BASE = "http://jenkins.example.com";
+
+  private RepositoryHookService hookService;
+  private TransactionTemplate transactionTemplate;
+  private CloneUrlService cloneUrlService;
+  private BulkConfigurator configurator;
+  private List<Repository> repositories = new ArrayList<Repository>();
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Throwable {
+    hookService = mock(RepositoryHookService.class);
+    transactionTemplate = mock(TransactionTemplate.class);
+    cloneUrlService = mock(CloneUrlService.class);
+    SecurityService securityService = mock(SecurityService.class);
+    when(securityService.doWithPermission(anyString(),
+        eq(Permission.REPO_ADMIN), any(Operation.class)))
+        .thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return ((Operation<?, ?>) invocation.getArguments()[2]).perform();
+      }
+    });
+    when(transactionTemplate.execute(any(TransactionCallback.class)))
+        .thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        return ((TransactionCallback<?>) invocation.getArguments()[0])
+            .doInTransaction();
+      }
+    });
+    when(hookService.createSettingsBuilder()).thenAnswer(
+        new Answer<SettingsBuilder>() {
+      @Override
+      public SettingsBuilder answer(InvocationOnMock invocation) {
+        return new MapSettingsBuilder();
+      }
+    });
+
+    RepositoryService repositoryService = mock(RepositoryService.class);
+    Page<Repository> page = mock(Page.class);
+    when(page.getValues()).thenReturn(repositories);
+    when(page.getIsLastPage()).thenReturn(true);
+    when(repositoryService.findAllByProjectKey(eq("PROJ"),
+        any(PageRequest.class))).thenReturn(page);
+    configurator = new BulkConfigurator(new RepositoryEnumerator(
+        mock(ProjectService.class), repositoryService), hookService,
+        securityService, transactionTemplate, cloneUrlService,
+        mock(DefaultSettingsService.class));
+  }
+
+  /**
+   * Validate that the repositories are saved in batches, each with its own
+   * clone url and the existing values the template doesn't override.
+   */
+  @Test
+  public void shouldSaveBatchesWithDerivedCloneUrls() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      repository(i);
+    }
+    Settings existing = mock(Settings.class);
+    when(existing.asMap()).thenReturn(Collections.<String, Object>singletonMap(
+        Notifier.IGNORE_COMMITTERS, "build"));
+    when(hookService.getSettings(repositories.get(0), Notifier.KEY))
+        .thenReturn(existing);
+
+    ProgressWriter progress = new ProgressWriter(new ByteArrayOutputStream());
+    configurator.configure("PROJ", template(ConfigTemplate.CloneType.HTTP,
+        JENKINS_BASE), 2, 2, progress);
+
+    assertEquals(5, progress.getCount(BulkConfigurator.UPDATED));
+    verify(transactionTemplate, times(3)).execute(
+        any(TransactionCallback.class));
+    verify(hookService).setSettings(eq(repositories.get(0)), eq(Notifier.KEY),
+        settingsWith(Notifier.IGNORE_COMMITTERS, "build"));
+    for (int i = 0; i < 5; i++) {
+      verify(hookService).setSettings(eq(repositories.get(i)),
+          eq(Notifier.KEY), settingsWith(Notifier.CLONE_URL,
+              "http://stash/scm/proj/repo" + i + ".git"));
+    }
+  }
+
+  /**
+   * Validate that the repositories of a failed batch are retried one by
+   * one, so only the broken repository fails.
+   */
+  @Test
+  public void shouldRetryFailedBatchOneByOne() throws Exception {
+    Repository ok = repository(1);
+    Repository broken = repository(2);
+    doThrow(new IllegalStateException("Locked")).when(hookService)
+        .setSettings(eq(broken), eq(Notifier.KEY), any(Settings.class));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ProgressWriter progress = new ProgressWriter(out);
+    configurator.configure("PROJ", template(ConfigTemplate.CloneType.HTTP,
+        JENKINS_BASE), 1, 10, progress);
+
+    assertEquals(1, progress.getCount(BulkConfigurator.UPDATED));
+    assertEquals(1, progress.getCount(BulkConfigurator.FAILED));
+    verify(hookService, times(2)).setSettings(eq(ok), eq(Notifier.KEY),
+        any(Settings.class));
+    assertTrue(out.toString("UTF-8").contains("{\"repository\":\"PROJ/repo2\","
+        + "\"status\":\"FAILED\",\"message\":\"Locked\"}"));
+  }
+
+  /**
+   * Validate that repositories without a clone url of the requested type
+   * are reported as invalid and left untouched.
+   */
+  @Test
+  public void shouldNotSaveInvalidSettings() throws Exception {
+    Repository repository = repository(1);
+    when(cloneUrlService.getCloneUrls(repository)).thenReturn(
+        new CloneUrls(null, "http://stash/scm/proj/repo1.git"));
+
+    ProgressWriter progress = new ProgressWriter(new ByteArrayOutputStream());
+    configurator.configure(Collections.singletonList(repository),
+        template(ConfigTemplate.CloneType.SSH, JENKINS_BASE), 1, 10,
+        progress);
+
+    assertEquals(1, progress.getCount(BulkConfigurator.INVALID));
+    verify(hookService, never()).setSettings(any(Repository.class),
+        anyString(), any(Settings.class));
+  }
+
+  /**
+   * Validate that the values of the template itself are validated up front.
+   */
+  @Test
+  public void shouldValidateTemplate() {
+    Map<String, Object> settings = new HashMap<String, Object>();
+    settings.put(Notifier.JENKINS_BASE, "");
+    settings.put(Notifier.CLONE_URL, "");
+    settings.put(Notifier.MAX_COMMITS, "many");
+    Map<String, String> errors = configurator.validate(
+        new ConfigTemplate(settings, null, true, false));
+
+    // A blank Jenkins url may be inherited from the defaults
+    assertEquals(2, errors.size());
+    assertTrue(errors.containsKey(Notifier.CLONE_URL));
+    assertTrue(errors.containsKey(Notifier.MAX_COMMITS));
+    assertTrue(configurator.validate(template(ConfigTemplate.CloneType.SSH,
+        JENKINS_BASE)).isEmpty());
+  }
+
+  private ConfigTemplate template(ConfigTemplate.CloneType cloneType,
+      String jenkinsBase) {
+    return new ConfigTemplate(Collections.singletonMap(Notifier.JENKINS_BASE,
+        jenkinsBase), cloneType, true, false);
+  }
+
+  private Repository repository(int id) {
+    Repository repository = mock(Repository.class);
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn("PROJ");
+    when(repository.getId()).thenReturn(id);
+    when(repository.getSlug()).thenReturn("repo" + id);
+    when(repository.getProject()).thenReturn(project);
+    when(cloneUrlService.getCloneUrls(repository)).thenReturn(new CloneUrls(
+        "ssh://git@stash:7999/proj/repo" + id + ".git",
+        "http://stash/scm/proj/repo" + id + ".git"));
+    repositories.add(repository);
+    return repository;
+  }
+
+  private static Settings settingsWith(final String field,
+      final Object value) {
+    return argThat(new ArgumentMatcher<Settings>() {
+      @Override
+      public boolean matches(Object argument) {
+        return value.equals(((Settings) argument).asMap().get(field));
+      }
+    });
+  }
+
+  /**
+   * A settings builder collecting the values into a map.
+   */
+  private static class MapSettingsBuilder implements SettingsBuilder {
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    @Override
+    public SettingsBuilder add(String key, String value) {
+      values.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SettingsBuilder add(String key, boolean value) {
+      values.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SettingsBuilder add(String key, int value) {
+      values.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SettingsBuilder add(String key, long value) {
+      values.put(key, value);
+      return this;
+    }
+
+    @Override
+    public SettingsBuilder addAll(Map<String, ?> map) {
+      values.putAll(map);
+      return this;
+    }
+
+    @Override
+    public Settings build() {
+      Settings settings = mock(Settings.class);
+      when(settings.asMap()).thenReturn(values);
+      return settings;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.nerdwin15.stash.webhook.service.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.RepositoryEnumerator;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+
+/**
+ * Test case for the {@link BulkNotifier} class.
+ */
+public class BulkNotifierTest {
+
+  private SettingsService settingsService;
+  private Notifier notifier;
+  private ProjectService projectService;
+  private BulkNotifier bulkNotifier;
+  private List<Repository> repositories = new ArrayList<Repository>();
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    settingsService = mock(SettingsService.class);
+    notifier = mock(Notifier.class);
+    projectService = mock(ProjectService.class);
+    RepositoryService repositoryService = mock(RepositoryService.class);
+    Page<Repository> page = mock(Page.class);
+    when(page.getValues()).thenReturn(repositories);
+    when(page.getIsLastPage()).thenReturn(true);
+    when(repositoryService.findAllByProjectKey(eq("PROJ"), 
+        any(PageRequest.class))).thenReturn(page);
+    when(projectService.findAllKeys()).thenReturn(Arrays.asList("PROJ"));
+    bulkNotifier = new BulkNotifier(new RepositoryEnumerator(projectService,
+        repositoryService), settingsService, notifier);
+  }
+
+  /**
+   * Validate that every enabled repository is notified and its outcome
+   * streamed, followed by a summary.
+   */
+  @Test
+  public void shouldStreamOutcomeOfEnabledRepositories() throws Exception {
+    Repository scheduled = repository(1, true, "Scheduled polling of x");
+    Repository failed = repository(2, true, null);
+    Repository notScheduled = repository(3, true, "No git jobs using x\n");
+    Repository disabled = repository(4, false, "Scheduled");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ProgressWriter progress = new ProgressWriter(out);
+    bulkNotifier.notifyAll(null, 2, 1000, progress);
+
+    verify(notifier).notify(scheduled);
+    verify(notifier).notify(failed);
+    verify(notifier).notify(notScheduled);
+    verify(notifier, never()).notify(disabled);
+    assertEquals(1, progress.getCount(BulkNotifier.SCHEDULED));
+    assertEquals(1, progress.getCount(BulkNotifier.FAILED));
+    assertEquals(1, progress.getCount(BulkNotifier.NOT_SCHEDULED));
+
+    String[] lines = out.toString("UTF-8").split("\n");
+    assertEquals(4, lines.length);
+    assertTrue(out.toString("UTF-8"), out.toString("UTF-8").contains(
+        "{\"repository\":\"PROJ/repo3\",\"status\":\"NOT_SCHEDULED\","
+        + "\"message\":\"No git jobs using x\"}"));
+    assertTrue(lines[3].startsWith("{\"completed\":true,"));
+    assertTrue(lines[3].contains("\"SCHEDULED\":1"));
+  }
+
+  /**
+   * Validate that the operation stops once the client has gone away.
+   */
+  @Test
+  public void shouldStopWhenClientGoesAway() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      repository(i, true, "Scheduled");
+    }
+    ProgressWriter progress = new ProgressWriter(new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Broken pipe");
+      }
+    });
+    bulkNotifier.notifyAll("PROJ", 1, 1000, progress);
+
+    assertTrue(progress.isClosed());
+    assertTrue(progress.getCount(BulkNotifier.SCHEDULED) < 20);
+  }
+
+  private Repository repository(int id, boolean enabled, String response) {
+    Repository repository = mock(Repository.class);
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn("PROJ");
+    when(repository.getId()).thenReturn(id);
+    when(repository.getSlug()).thenReturn("repo" + id);
+    when(repository.getProject()).thenReturn(project);
+    RepositoryHook hook = mock(RepositoryHook.class);
+    when(hook.isEnabled()).thenReturn(enabled);
+    when(settingsService.getRepositoryHook(repository)).thenReturn(hook);
+    when(notifier.notify(repository)).thenReturn(response);
+    repositories.add(repository);
+    return repository;
+  }
+}
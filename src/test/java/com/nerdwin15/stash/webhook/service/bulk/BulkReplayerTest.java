@@ -0,0 +1,166 @@
+package com.nerdwin15.stash.webhook.service.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryService;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetter;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetterStore;
+import com.nerdwin15.stash.webhook.service.deadletter.StoredRefChange;
+
+/**
+ * Test case for the {@link BulkReplayer} class.
+ */
+public class BulkReplayerTest {
+
+  private File file;
+  private DeadLetterStore store;
+  private RepositoryService repositoryService;
+  private SettingsService settingsService;
+  private Notifier notifier;
+  private BulkReplayer replayer;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("dead-letters", ".dat");
+    file.delete();
+    store = new DeadLetterStore(file, 1024 * 1024);
+    repositoryService = mock(RepositoryService.class);
+    settingsService = mock(SettingsService.class);
+    notifier = mock(Notifier.class);
+    replayer = new BulkReplayer(store, repositoryService, settingsService,
+        notifier);
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Validate that dead letters are replayed with their ref changes and
+   * removed, and that those of deleted repositories are dropped.
+   */
+  @Test
+  public void shouldReplayAndRemoveDeadLetters() throws Exception {
+    Repository repository = repository(1, true);
+    Notifier.Target target = new Notifier.Target(
+        Collections.<HttpUriRequest>singletonList(
+            new HttpGet("http://jenkins/x")), false,
+        Collections.<RefChange>emptyList(), true);
+    when(notifier.getTarget(eq(repository), any(DeadLetter.class)))
+        .thenReturn(target);
+    when(notifier.replay(repository, target))
+        .thenReturn("Scheduled polling of x");
+    DeadLetter replayed = store.add(repository, Arrays.<RefChange>asList(
+        new StoredRefChange("refs/heads/master", "aaa", "bbb",
+            RefChangeType.UPDATE)), "http://jenkins", "http://jenkins/x",
+        "Connection refused");
+    Repository deleted = repository(2, true);
+    DeadLetter dropped = store.add(deleted,
+        Collections.<RefChange>emptyList(), "http://jenkins",
+        "http://jenkins/x", "Connection refused");
+    when(repositoryService.getById(2)).thenReturn(null);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ProgressWriter progress = new ProgressWriter(out);
+    replayer.replay("http://jenkins", null, 2, 1000, progress);
+
+    ArgumentCaptor<DeadLetter> captor =
+        ArgumentCaptor.forClass(DeadLetter.class);
+    verify(notifier).getTarget(eq(repository), captor.capture());
+    assertEquals(replayed.getId(), captor.getValue().getId());
+    verify(notifier).replay(repository, target);
+    assertEquals(1, progress.getCount(BulkReplayer.DELIVERED));
+    assertEquals(1, progress.getCount(BulkReplayer.DROPPED));
+    assertNull(store.get(replayed.getId()));
+    assertNull(store.get(dropped.getId()));
+    assertEquals(3, out.toString("UTF-8").split("\n").length);
+  }
+
+  /**
+   * Validate that dead letters of repositories with a disabled hook are
+   * kept.
+   */
+  @Test
+  public void shouldKeepDeadLettersOfDisabledHooks() throws Exception {
+    Repository repository = repository(1, false);
+    DeadLetter kept = store.add(repository,
+        Collections.<RefChange>emptyList(), "http://jenkins",
+        "http://jenkins/x", "Connection refused");
+
+    ProgressWriter progress = new ProgressWriter(new ByteArrayOutputStream());
+    replayer.replay(null, "PROJ", 1, 1000, progress);
+
+    verify(notifier, never()).replay(any(Repository.class),
+        any(Notifier.Target.class));
+    assertEquals(1, progress.getCount(BulkReplayer.SKIPPED));
+    assertNotNull(store.get(kept.getId()));
+  }
+
+  /**
+   * Validate that dead letters whose target is no longer configured are
+   * kept.
+   */
+  @Test
+  public void shouldKeepDeadLettersWithoutTarget() throws Exception {
+    Repository repository = repository(1, true);
+    DeadLetter kept = store.add(repository,
+        Collections.<RefChange>emptyList(), "http://jenkins",
+        "http://jenkins/x", "Connection refused");
+
+    ProgressWriter progress = new ProgressWriter(new ByteArrayOutputStream());
+    replayer.replay(null, "PROJ", 1, 1000, progress);
+
+    verify(notifier, never()).replay(any(Repository.class),
+        any(Notifier.Target.class));
+    assertEquals(1, progress.getCount(BulkReplayer.SKIPPED));
+    assertNotNull(store.get(kept.getId()));
+  }
+
+  private Repository repository(int id, boolean enabled) {
+    Repository repository = mock(Repository.class);
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn("PROJ");
+    when(repository.getProject()).thenReturn(project);
+    when(repository.getSlug()).thenReturn("repo" + id);
+    when(repository.getId()).thenReturn(id);
+    RepositoryHook hook = mock(RepositoryHook.class);
+    when(hook.isEnabled()).thenReturn(enabled);
+    when(settingsService.getRepositoryHook(repository)).thenReturn(hook);
+    when(repositoryService.getById(id)).thenReturn(repository);
+    return repository;
+  }
+}
@@ -0,0 +1,188 @@
+package com.nerdwin15.stash.webhook.service.catchup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.project.ProjectService;
+import com.atlassian.stash.repository.Branch;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefOrder;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.repository.RepositoryMetadataService;
+import com.atlassian.stash.repository.RepositoryService;
+import com.atlassian.stash.repository.Tag;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.Operation;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.atlassian.stash.user.StashUser;
+import com.nerdwin15.stash.webhook.service.RepositoryEnumerator;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.dispatch.NotificationDispatcher;
+
+/**
+ * Test case for the {@link CatchUpScanner} class.
+ */
+public class CatchUpScannerTest {
+
+  private File file;
+  private RepositoryMetadataService metadataService;
+  private SettingsService settingsService;
+  private NotificationDispatcher dispatcher;
+  private RefSnapshotStore store;
+  private CatchUpScanner scanner;
+  private List<Repository> repositories = new ArrayList<Repository>();
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Throwable {
+    file = File.createTempFile("ref-snapshot", ".dat");
+    file.delete();
+    ProjectService projectService = mock(ProjectService.class);
+    RepositoryService repositoryService = mock(RepositoryService.class);
+    SecurityService securityService = mock(SecurityService.class);
+    metadataService = mock(RepositoryMetadataService.class);
+    settingsService = mock(SettingsService.class);
+    dispatcher = mock(NotificationDispatcher.class);
+    store = new RefSnapshotStore(file);
+
+    when(projectService.findAllKeys()).thenReturn(Arrays.asList("PROJ"));
+    Page<Repository> page = mock(Page.class);
+    when(page.getValues()).thenReturn(repositories);
+    when(page.getIsLastPage()).thenReturn(true);
+    when(repositoryService.findAllByProjectKey(eq("PROJ"), 
+        any(PageRequest.class))).thenReturn(page);
+    when(securityService.doWithPermission(anyString(), 
+        any(Permission.class), any(Operation.class)))
+        .thenAnswer(new Answer<Object>() {
+          @Override
+          public Object answer(InvocationOnMock invocation) 
+              throws Throwable {
+            return ((Operation<?, ?>) invocation.getArguments()[2])
+                .perform();
+          }
+        });
+    Page<Tag> tags = mock(Page.class);
+    when(tags.getValues()).thenReturn(Collections.<Tag>emptyList());
+    when(tags.getIsLastPage()).thenReturn(true);
+    when(metadataService.getTags(any(Repository.class), 
+        any(PageRequest.class), anyString(), any(RefOrder.class)))
+        .thenReturn(tags);
+
+    scanner = new CatchUpScanner(new RepositoryEnumerator(projectService, 
+        repositoryService), metadataService, securityService, 
+        settingsService, dispatcher, store, 2, new Throttle(1000));
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Validate that the first scan only records snapshots.
+   */
+  @Test
+  public void shouldRecordBaselineOnFirstScan() throws Exception {
+    repository(1, true, "aaa");
+
+    assertEquals(0, scanner.scan());
+
+    assertNotNull(store.get(1));
+    verify(dispatcher, never()).dispatch(any(Repository.class), 
+        any(StashUser.class), anyCollectionOf(RefChange.class));
+    assertEquals(store.get(1), new RefSnapshotStore(file).get(1));
+  }
+
+  /**
+   * Validate that only the repositories whose refs changed are notified.
+   */
+  @Test
+  public void shouldNotifyDivergedRepositories() throws Exception {
+    Repository unchanged = repository(1, true, "aaa");
+    Repository diverged = repository(2, true, "bbb");
+    scanner.scan();
+
+    branches(diverged, "ccc");
+    assertEquals(1, scanner.scan());
+
+    verify(dispatcher).dispatch(diverged, null, 
+        Collections.<RefChange>emptyList());
+    verify(dispatcher, never()).dispatch(unchanged, null, 
+        Collections.<RefChange>emptyList());
+    assertEquals(0, scanner.scan());
+  }
+
+  /**
+   * Validate that repositories without the hook enabled are skipped and 
+   * their snapshots dropped.
+   */
+  @Test
+  public void shouldSkipDisabledRepositories() throws Exception {
+    store.put(3, 1L);
+    Repository disabled = repository(3, false, "aaa");
+
+    assertEquals(0, scanner.scan());
+
+    assertNull(store.get(3));
+    verify(dispatcher, never()).dispatch(disabled, null, 
+        Collections.<RefChange>emptyList());
+  }
+
+  private Repository repository(int id, boolean enabled, String hash) {
+    Repository repository = mock(Repository.class);
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn("PROJ");
+    when(repository.getId()).thenReturn(id);
+    when(repository.getSlug()).thenReturn("repo" + id);
+    when(repository.getProject()).thenReturn(project);
+    RepositoryHook hook = mock(RepositoryHook.class);
+    when(hook.isEnabled()).thenReturn(enabled);
+    when(settingsService.getRepositoryHook(repository)).thenReturn(hook);
+    branches(repository, hash);
+    repositories.add(repository);
+    return repository;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void branches(Repository repository, String hash) {
+    Branch branch = mock(Branch.class);
+    when(branch.getId()).thenReturn("refs/heads/master");
+    when(branch.getLatestChangeset()).thenReturn(hash);
+    Page<Branch> page = mock(Page.class);
+    when(page.getValues()).thenReturn(Arrays.asList(branch));
+    when(page.getIsLastPage()).thenReturn(true);
+    when(metadataService.getBranches(eq(repository), any(PageRequest.class),
+        anyString(), any(RefOrder.class))).thenReturn(page);
+  }
+}
@@ -0,0 +1,102 @@
+package com.nerdwin15.stash.webhook.service.catchup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.repository.RefChange;
+import com.nerdwin15.stash.webhook.service.ChangesetScanner;
+
+/**
+ * Test case for the {@link RefSnapshotStore} and {@link RefDigest} classes.
+ */
+public class RefSnapshotStoreTest {
+
+  private File file;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("ref-snapshot", ".dat");
+    file.delete();
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Validate that the snapshot survives a restart.
+   */
+  @Test
+  public void shouldPersistSnapshots() {
+    RefSnapshotStore store = new RefSnapshotStore(file);
+    store.put(1, 42L);
+    store.put(2, -7L);
+    store.save();
+
+    RefSnapshotStore reloaded = new RefSnapshotStore(file);
+    assertEquals(2, reloaded.size());
+    assertEquals(Long.valueOf(42L), reloaded.get(1));
+    assertEquals(Long.valueOf(-7L), reloaded.get(2));
+    assertEquals(8 + 4 + 2 * 12, file.length());
+  }
+
+  /**
+   * Validate that applying ref changes gives the digest of the new refs.
+   */
+  @Test
+  public void shouldApplyRefChangesIncrementally() {
+    long before = RefDigest.of("refs/heads/master", "aaa")
+        ^ RefDigest.of("refs/heads/old", "bbb");
+    long after = RefDigest.of("refs/heads/master", "ccc")
+        ^ RefDigest.of("refs/tags/v1", "ddd");
+
+    RefSnapshotStore store = new RefSnapshotStore(file);
+    store.put(1, before);
+    store.apply(1, Arrays.asList(
+        refChange("refs/heads/master", "aaa", "ccc"),
+        refChange("refs/heads/old", "bbb", ChangesetScanner.ZERO_HASH),
+        refChange("refs/tags/v1", ChangesetScanner.ZERO_HASH, "ddd")));
+    assertEquals(Long.valueOf(after), store.get(1));
+
+    store.apply(2, Arrays.asList(refChange("refs/heads/x", "aaa", "bbb")));
+    assertNull(store.get(2));
+  }
+
+  /**
+   * Validate that snapshots of repositories no longer scanned are dropped.
+   */
+  @Test
+  public void shouldRetainOnlyProvidedRepositories() {
+    RefSnapshotStore store = new RefSnapshotStore(file);
+    store.put(1, 1L);
+    store.put(2, 2L);
+    store.retain(Collections.singleton(2));
+    assertNull(store.get(1));
+    assertEquals(Long.valueOf(2L), store.get(2));
+  }
+
+  private RefChange refChange(String refId, String from, String to) {
+    RefChange refChange = mock(RefChange.class);
+    when(refChange.getRefId()).thenReturn(refId);
+    when(refChange.getFromHash()).thenReturn(from);
+    when(refChange.getToHash()).thenReturn(to);
+    return refChange;
+  }
+}
@@ -0,0 +1,133 @@
+package com.nerdwin15.stash.webhook.service.deadletter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+
+/**
+ * Test case for the {@link DeadLetterStore} class.
+ */
+public class DeadLetterStoreTest {
+
+  private static final String FROM = "0123456789abcdef0123456789abcdef01234567";
+  private static final String TO = "fedcba9876543210fedcba9876543210fedcba98";
+
+  private File file;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("dead-letters", ".dat");
+    file.delete();
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Validate that dead letters and their ref changes survive a restart.
+   */
+  @Test
+  public void shouldPersistDeadLetters() {
+    DeadLetterStore store = new DeadLetterStore(file, 1024 * 1024);
+    store.add(repository(1, "PROJ"), Arrays.<RefChange>asList(
+        new StoredRefChange("refs/heads/master", FROM, TO,
+            RefChangeType.UPDATE)),
+        "http://jenkins", "http://jenkins/git/notifyCommit", "HTTP 503: x");
+    store.save();
+
+    DeadLetterStore reloaded = new DeadLetterStore(file, 1024 * 1024);
+    List<DeadLetter> letters = reloaded.find(null, null, 0, 10);
+    assertEquals(1, letters.size());
+    DeadLetter letter = letters.get(0);
+    assertEquals(1, letter.getRepositoryId());
+    assertEquals("PROJ", letter.getProjectKey());
+    assertEquals("HTTP 503: x", letter.getError());
+    RefChange refChange = letter.getRefChanges().get(0);
+    assertEquals("refs/heads/master", refChange.getRefId());
+    assertEquals(FROM, refChange.getFromHash());
+    assertEquals(TO, refChange.getToHash());
+    assertEquals(RefChangeType.UPDATE, refChange.getType());
+
+    reloaded.add(repository(2, "PROJ"), Collections.<RefChange>emptyList(),
+        "http://jenkins", "http://jenkins", null);
+    assertEquals(letter.getId() + 1,
+        reloaded.find(null, null, 1, 1).get(0).getId());
+  }
+
+  /**
+   * Validate that the oldest dead letters are evicted once the size cap is
+   * reached.
+   */
+  @Test
+  public void shouldEvictOldestWhenFull() {
+    DeadLetterStore store = new DeadLetterStore(file, 1024 * 1024);
+    DeadLetter first = add(store, 1, "PROJ", "http://a");
+    long size = store.getBytes();
+
+    store = new DeadLetterStore(file, size * 2);
+    first = add(store, 1, "PROJ", "http://a");
+    add(store, 2, "PROJ", "http://a");
+    add(store, 3, "PROJ", "http://a");
+
+    assertEquals(2, store.count(null, null));
+    assertEquals(1, store.getEvicted());
+    assertNull(store.get(first.getId()));
+  }
+
+  /**
+   * Validate that dead letters are filtered by host and project.
+   */
+  @Test
+  public void shouldFilterByHostAndProject() {
+    DeadLetterStore store = new DeadLetterStore(file, 1024 * 1024);
+    add(store, 1, "ONE", "http://a");
+    add(store, 2, "TWO", "http://a");
+    DeadLetter other = add(store, 3, "ONE", "http://b");
+
+    assertEquals(2, store.count("http://a", null));
+    assertEquals(2, store.count(null, "one"));
+    assertEquals(other.getId(),
+        store.find("http://b", "ONE", 0, 10).get(0).getId());
+    assertEquals(1, store.find(null, "ONE", 1, 10).size());
+  }
+
+  private static DeadLetter add(DeadLetterStore store, int repositoryId,
+      String projectKey, String host) {
+    return store.add(repository(repositoryId, projectKey),
+        Collections.<RefChange>emptyList(), host, host + "/git/notifyCommit",
+        "java.net.ConnectException: Connection refused");
+  }
+
+  private static Repository repository(int id, String projectKey) {
+    Repository repository = mock(Repository.class);
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn(projectKey);
+    when(repository.getId()).thenReturn(id);
+    when(repository.getSlug()).thenReturn("repo" + id);
+    when(repository.getProject()).thenReturn(project);
+    return repository;
+  }
+}
@@ -0,0 +1,240 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.trace.ConcreteTracer;
+
+/**
+ * Test case for the {@link ConcreteNotificationDispatcher} class.
+ */
+public class ConcreteNotificationDispatcherTest {
+
+  private Notifier notifier;
+  private ConcreteNotificationDispatcher dispatcher;
+  private Collection<RefChange> refChanges = new ArrayList<RefChange>();
+  private CountDownLatch blocked = new CountDownLatch(1);
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    notifier = mock(Notifier.class);
+    dispatcher = new ConcreteNotificationDispatcher(notifier,
+        new DispatcherConfiguration(Lane.parse(Lane.DEFAULT_SPEC),
+            FairShare.parse(null), 1, 1, 1, 60000),
+        new ConcreteTracer(0, null, 1));
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    blocked.countDown();
+    dispatcher.destroy();
+  }
+
+  /**
+   * Validate that a blocked Jenkins instance only saturates its own bulkhead
+   * while other instances are still notified.
+   */
+  @Test
+  public void shouldIsolateJenkinsInstances() throws Exception {
+    Repository broken = repository(1, "http://broken.jenkins/");
+    final Repository healthy = repository(2, "http://healthy.jenkins");
+    Repository other = repository(3, "http://broken.jenkins");
+    when(notifier.notify(any(Repository.class), any(Notifier.Target.class)))
+        .thenAnswer(new Answer<String>() {
+          @Override
+          public String answer(InvocationOnMock invocation) throws Throwable {
+            if (invocation.getArguments()[0] != healthy)
+              blocked.await(5, TimeUnit.SECONDS);
+            return "Scheduled";
+          }
+        });
+
+    dispatcher.dispatch(broken, null, refChanges);
+    verify(notifier, timeout(1000)).notify(eq(broken),
+        any(Notifier.Target.class));
+    dispatcher.dispatch(other, null, refChanges);
+    dispatcher.dispatch(other, null, refChanges);
+    dispatcher.dispatch(healthy, null, refChanges);
+
+    verify(notifier, timeout(1000)).notify(eq(healthy),
+        any(Notifier.Target.class));
+    assertEquals(2, dispatcher.getBulkheads().size());
+    for (Bulkhead bulkhead : dispatcher.getBulkheads()) {
+      if (bulkhead.getKey().equals("http://broken.jenkins")) {
+        assertEquals(1, bulkhead.getQueue().size());
+        assertEquals(1, bulkhead.getRejected());
+        verify(notifier).drop(eq(other), any(Notifier.Target.class),
+            anyString());
+      } else {
+        assertEquals(0, bulkhead.getRejected());
+      }
+    }
+  }
+
+  /**
+   * Validate that each target of a push is handed to the bulkhead of its
+   * own host, so a blocked target doesn't hold up the others.
+   */
+  @Test
+  public void shouldDispatchEachTargetToItsHost() throws Exception {
+    final Notifier.Target release = target("http://release.jenkins");
+    Notifier.Target primary = target("http://primary.jenkins/");
+    Repository repository = repository(1, "http://primary.jenkins");
+    when(notifier.getTargets(repository, null, refChanges))
+        .thenReturn(Arrays.asList(release, primary));
+    when(notifier.notify(any(Repository.class), any(Notifier.Target.class)))
+        .thenAnswer(new Answer<String>() {
+          @Override
+          public String answer(InvocationOnMock invocation) throws Throwable {
+            if (invocation.getArguments()[1] == release)
+              blocked.await(5, TimeUnit.SECONDS);
+            return "Scheduled";
+          }
+        });
+
+    dispatcher.dispatch(repository, null, refChanges);
+
+    verify(notifier, timeout(1000)).notify(repository, release);
+    verify(notifier, timeout(1000)).notify(repository, primary);
+    assertEquals(2, dispatcher.getBulkheads().size());
+  }
+
+  /**
+   * Validate that idle bulkheads are reclaimed.
+   */
+  @Test
+  public void shouldReclaimIdleBulkheads() throws Exception {
+    Repository repository = repository(1, "http://jenkins");
+    dispatcher.dispatch(repository, null, refChanges);
+    verify(notifier, timeout(1000)).notify(eq(repository),
+        any(Notifier.Target.class));
+    assertEquals(1, dispatcher.getBulkheads().size());
+
+    dispatcher.reclaimIdle(60000);
+    assertEquals(1, dispatcher.getBulkheads().size());
+
+    long deadline = System.currentTimeMillis() + 1000;
+    while (!dispatcher.getBulkheads().isEmpty() 
+        && System.currentTimeMillis() < deadline) {
+      dispatcher.reclaimIdle(0);
+      Thread.sleep(10);
+    }
+    assertTrue(dispatcher.getBulkheads().isEmpty());
+  }
+
+  /**
+   * Validate that no notification is lost when idle bulkheads are reclaimed
+   * while notifications are being dispatched to them.
+   */
+  @Test
+  public void shouldNotLoseNotificationsWhileReclaiming() throws Exception {
+    dispatcher.destroy();
+    dispatcher = new ConcreteNotificationDispatcher(notifier,
+        new DispatcherConfiguration(Lane.parse(Lane.DEFAULT_SPEC),
+            FairShare.parse(null), 2, 1000, 1000, 60000),
+        new ConcreteTracer(0, null, 1));
+    final AtomicInteger delivered = new AtomicInteger();
+    when(notifier.notify(any(Repository.class), any(Notifier.Target.class)))
+        .thenAnswer(new Answer<String>() {
+          @Override
+          public String answer(InvocationOnMock invocation) throws Throwable {
+            delivered.incrementAndGet();
+            return "Scheduled";
+          }
+        });
+    final Repository repository = repository(1, "http://jenkins");
+
+    final AtomicBoolean dispatching = new AtomicBoolean(true);
+    Thread reaper = new Thread() {
+      @Override
+      public void run() {
+        while (dispatching.get()) {
+          dispatcher.reclaimIdle(0);
+        }
+      }
+    };
+    reaper.start();
+    final int perThread = 500;
+    Thread[] dispatchers = new Thread[4];
+    for (int i = 0; i < dispatchers.length; i++) {
+      dispatchers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < perThread; j++) {
+            dispatcher.dispatch(repository, null, refChanges);
+          }
+        }
+      };
+      dispatchers[i].start();
+    }
+    for (Thread thread : dispatchers) {
+      thread.join();
+    }
+    dispatching.set(false);
+    reaper.join();
+
+    final int expected = perThread * dispatchers.length;
+    long deadline = System.currentTimeMillis() + 5000;
+    while (delivered.get() < expected 
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    long rejected = 0;
+    for (Bulkhead bulkhead : dispatcher.getBulkheads()) {
+      rejected += bulkhead.getRejected();
+    }
+    assertEquals(0, rejected);
+    assertEquals(expected, delivered.get());
+  }
+
+  private Repository repository(int id, String jenkinsBase) {
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn("KEY");
+    Repository repository = mock(Repository.class);
+    when(repository.getId()).thenReturn(id);
+    when(repository.getSlug()).thenReturn("repo" + id);
+    when(repository.getProject()).thenReturn(project);
+    when(notifier.getTargets(repository, null, refChanges)).thenReturn(
+        Arrays.asList(target(jenkinsBase)));
+    return repository;
+  }
+
+  private Notifier.Target target(String base) {
+    return new Notifier.Target(Collections.<HttpUriRequest>singletonList(
+        new HttpGet(base)), false, refChanges, true);
+  }
+}
@@ -0,0 +1,242 @@
+package com.nerdwin15.stash.webhook.service.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.service.trace.ConcreteTracer;
+
+/**
+ * Test case for the {@link LaneQueue}, {@link FairQueue} and {@link Lane}
+ * classes.
+ */
+public class LaneQueueTest {
+
+  private List<Lane> lanes;
+  private LaneStatistics statistics;
+  private FairShare share = FairShare.parse(null);
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    lanes = Lane.parse("high:3:refs/heads/master;low:1:*");
+    statistics = new LaneStatistics(lanes.get(0));
+  }
+
+  /**
+   * Validate the parsing and matching of lane specifications.
+   */
+  @Test
+  public void shouldParseAndMatchLanes() {
+    List<Lane> parsed = Lane.parse(Lane.DEFAULT_SPEC);
+    assertEquals(2, parsed.size());
+    assertEquals("high", parsed.get(0).getName());
+    assertEquals(4, parsed.get(0).getWeight());
+    assertTrue(parsed.get(0).matches("refs/heads/master"));
+    assertTrue(parsed.get(0).matches("refs/heads/release/1.0"));
+    assertFalse(parsed.get(0).matches("refs/heads/feature/master"));
+    assertTrue(parsed.get(1).matches("refs/heads/feature/x"));
+  }
+
+  /**
+   * Validate that a malformed specification is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectInvalidWeight() {
+    Lane.parse("high:zero:refs/heads/master");
+  }
+
+  /**
+   * Validate that lanes are drained in proportion to their weights, without
+   * starving the low priority lane.
+   */
+  @Test
+  public void shouldDrainLanesByWeight() {
+    LaneQueue queue = new LaneQueue(lanes, share, 100, 10);
+    for (int i = 0; i < 8; i++) {
+      queue.offer(task(0));
+      queue.offer(task(1));
+    }
+
+    List<Integer> order = new ArrayList<Integer>();
+    for (int i = 0; i < 8; i++) {
+      order.add(((NotificationTask) queue.poll()).getLane());
+    }
+    assertEquals(6, Collections.frequency(order, 0));
+    assertEquals(2, Collections.frequency(order, 1));
+    assertEquals(Arrays.asList(0, 0, 1, 0), order.subList(0, 4));
+    assertEquals(8, queue.size());
+  }
+
+  /**
+   * Validate that the capacity of the queue is honoured.
+   */
+  @Test
+  public void shouldRejectWhenFull() {
+    LaneQueue queue = new LaneQueue(lanes, share, 1, 10);
+    assertTrue(queue.offer(task(1)));
+    assertFalse(queue.offer(task(0)));
+    assertEquals(0, queue.remainingCapacity());
+  }
+
+  /**
+   * Validate that a timed poll on an empty queue returns null.
+   */
+  @Test
+  public void shouldTimeOutOnEmptyQueue() throws Exception {
+    LaneQueue queue = new LaneQueue(lanes, share, 1, 10);
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Validate that the dispatcher classifies pushes by their ref IDs.
+   */
+  @Test
+  public void shouldClassifyByRefIds() {
+    ConcreteNotificationDispatcher dispatcher = 
+        new ConcreteNotificationDispatcher(mock(Notifier.class),
+            new DispatcherConfiguration(lanes, share, 1, 1, 10, 60000),
+            new ConcreteTracer(0, null, 1));
+    try {
+      assertEquals(0, dispatcher.classify(Arrays.asList(
+          refChange("refs/heads/feature"), refChange("refs/heads/master"))));
+      assertEquals(1, dispatcher.classify(Arrays.asList(
+          refChange("refs/heads/feature"))));
+      assertEquals(1, dispatcher.classify(new ArrayList<RefChange>()));
+    } finally {
+      dispatcher.destroy();
+    }
+  }
+
+  /**
+   * Validate that a repository flooding the queue doesn't delay the
+   * notifications of other repositories.
+   */
+  @Test
+  public void shouldServeRepositoriesFairly() {
+    LaneQueue queue = new LaneQueue(lanes, share, 100, 10);
+    Repository noisy = repository(1, "A", "noisy");
+    Repository quiet = repository(2, "A", "quiet");
+    for (int i = 0; i < 10; i++) {
+      queue.offer(task(noisy));
+    }
+    queue.offer(task(quiet));
+    queue.offer(task(quiet));
+
+    List<Integer> order = new ArrayList<Integer>();
+    for (int i = 0; i < 4; i++) {
+      order.add(((NotificationTask) queue.poll()).getRepositoryId());
+    }
+    assertEquals(Arrays.asList(1, 2, 1, 2), order);
+  }
+
+  /**
+   * Validate that projects are weighted against each other.
+   */
+  @Test
+  public void shouldWeighProjects() {
+    LaneQueue queue = new LaneQueue(lanes, FairShare.parse("BIG=2"), 100, 10);
+    Repository big = repository(1, "BIG", "repo");
+    Repository small = repository(2, "SMALL", "repo");
+    for (int i = 0; i < 6; i++) {
+      queue.offer(task(big));
+      queue.offer(task(small));
+    }
+
+    List<Integer> order = new ArrayList<Integer>();
+    for (int i = 0; i < 6; i++) {
+      order.add(((NotificationTask) queue.poll()).getRepositoryId());
+    }
+    assertEquals(4, Collections.frequency(order, 1));
+    assertEquals(2, Collections.frequency(order, 2));
+  }
+
+  /**
+   * Validate that a repository at its in-flight limit is skipped until one of
+   * its notifications is released, and that the backlog is reported.
+   */
+  @Test
+  public void shouldApplyInFlightLimit() {
+    LaneQueue queue = new LaneQueue(lanes, share, 100, 1);
+    Repository noisy = repository(1, "A", "noisy");
+    queue.offer(task(noisy));
+    queue.offer(task(noisy));
+    queue.offer(task(noisy));
+
+    Runnable first = queue.poll();
+    assertNull(queue.poll());
+
+    List<RepositoryBacklog> backlog = queue.getBacklog(10);
+    assertEquals(1, backlog.size());
+    assertEquals("A/noisy", backlog.get(0).getRepository());
+    assertEquals(2, backlog.get(0).getQueued());
+    assertEquals(1, backlog.get(0).getInFlight());
+
+    queue.release(first);
+    assertNotNull(queue.poll());
+    assertNull(queue.poll());
+  }
+
+  /**
+   * Validate that a repository with nothing queued but work in flight is
+   * still reported under its PROJECT/slug label.
+   */
+  @Test
+  public void shouldLabelRepositoryThatIsOnlyInFlight() {
+    LaneQueue queue = new LaneQueue(lanes, share, 100, 1);
+    queue.offer(task(repository(1, "A", "busy")));
+    assertNotNull(queue.poll());
+
+    List<RepositoryBacklog> backlog = queue.getBacklog(10);
+    assertEquals(1, backlog.size());
+    assertEquals("A/busy", backlog.get(0).getRepository());
+    assertEquals(0, backlog.get(0).getQueued());
+    assertEquals(1, backlog.get(0).getInFlight());
+  }
+
+  private NotificationTask task(int lane) {
+    return new NotificationTask(mock(Notifier.class), 
+        mock(Repository.class), null, lane, statistics, new ConcreteTracer(0, null, 1), null);
+  }
+
+  private NotificationTask task(Repository repository) {
+    return new NotificationTask(mock(Notifier.class), repository, null, 1,
+        statistics,
+        new ConcreteTracer(0, null, 1), null);
+  }
+
+  private Repository repository(int id, String projectKey, String slug) {
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn(projectKey);
+    Repository repository = mock(Repository.class);
+    when(repository.getId()).thenReturn(id);
+    when(repository.getSlug()).thenReturn(slug);
+    when(repository.getProject()).thenReturn(project);
+    return repository;
+  }
+
+  private RefChange refChange(String refId) {
+    RefChange refChange = mock(RefChange.class);
+    when(refChange.getRefId()).thenReturn(refId);
+    return refChange;
+  }
+}
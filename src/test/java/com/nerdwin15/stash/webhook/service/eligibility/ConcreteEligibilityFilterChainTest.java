@@ -12,6 +12,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.nerdwin15.stash.webhook.service.trace.ConcreteTracer;
 
 /**
  * Test case for the {@link ConcreteEligibilityFilterChain} class.
@@ -33,7 +34,8 @@ public class ConcreteEligibilityFilterChainTest {
   public void setUp() throws Exception {
     filter = mock(EligibilityFilter.class);
     filters.add(filter);
-    filterChain = new ConcreteEligibilityFilterChain(filters);
+    filterChain = new ConcreteEligibilityFilterChain(filters,
+        new ConcreteTracer(0, null, 1));
     event = mock(RepositoryRefsChangedEvent.class);
   }
   
@@ -3,12 +3,16 @@ package com.nerdwin15.stash.webhook.service.eligibility;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.atlassian.stash.event.hook.RepositoryHookSettingsChangedEvent;
 import com.atlassian.stash.repository.Repository;
 import com.atlassian.stash.setting.Settings;
 import com.atlassian.stash.user.StashUser;
@@ -23,6 +27,7 @@ import com.nerdwin15.stash.webhook.service.SettingsService;
 public class IgnoreCommittersEligibilityFilterTest {
 
   private SettingsService settingsService;
+  private UserGroupIndex groupIndex;
   private IgnoreCommittersEligibilityFilter filter;
   private Settings settings;
   private Repository repo;
@@ -36,7 +41,9 @@ public class IgnoreCommittersEligibilityFilterTest {
   public void setUp() throws Exception {
     settingsService = mock(SettingsService.class);
     repo = mock(Repository.class);
-    filter = new IgnoreCommittersEligibilityFilter(settingsService);
+    groupIndex = mock(UserGroupIndex.class);
+    filter = new IgnoreCommittersEligibilityFilter(settingsService, 
+        groupIndex);
     settings = mock(Settings.class);
     when(settingsService.getSettings(repo)).thenReturn(settings);
     
@@ -106,4 +113,48 @@ public class IgnoreCommittersEligibilityFilterTest {
     ((MockedPullRequestMergedEvent) event).setUser(user);
     assertTrue(filter.shouldDeliverNotification(event));
   }
+
+  /**
+   * Validate that the filter should cancel if the user is a member of an 
+   * ignored group
+   * @throws Exception
+   */
+  @Test
+  public void shouldCancelWhenIgnoredGroupMatches() throws Exception {
+    when(settings.getString(Notifier.IGNORE_COMMITTERS))
+        .thenReturn("user1 group:bots");
+    when(user.getName()).thenReturn("builder");
+    when(groupIndex.isMember("builder", "bots")).thenReturn(true);
+    assertFalse(filter.shouldDeliverNotification(event));
+  }
+
+  /**
+   * Validate that the filter should still allow delivery when the user isn't
+   * a member of any ignored group
+   * @throws Exception
+   */
+  @Test
+  public void shouldAllowWhenIgnoredGroupDoesntMatch() throws Exception {
+    when(settings.getString(Notifier.IGNORE_COMMITTERS))
+        .thenReturn("group:bots");
+    when(user.getName()).thenReturn("user0");
+    assertTrue(filter.shouldDeliverNotification(event));
+  }
+
+  /**
+   * Validate that the ignored groups of saved settings are preloaded into
+   * the group index
+   * @throws Exception
+   */
+  @Test
+  public void shouldPreloadIgnoredGroupsOfSavedSettings() throws Exception {
+    when(settings.getString(Notifier.IGNORE_COMMITTERS))
+        .thenReturn("builder group:bots group:release");
+    RepositoryHookSettingsChangedEvent changed =
+        mock(RepositoryHookSettingsChangedEvent.class);
+    when(changed.getRepository()).thenReturn(repo);
+    when(changed.getRepositoryHookKey()).thenReturn(Notifier.KEY);
+    filter.onSettingsChanged(changed);
+    verify(groupIndex).preload(Arrays.asList("bots", "release"));
+  }
 }
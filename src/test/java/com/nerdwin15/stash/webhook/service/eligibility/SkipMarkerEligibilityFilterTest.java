@@ -0,0 +1,124 @@
+package com.nerdwin15.stash.webhook.service.eligibility;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.content.Changeset;
+import com.atlassian.stash.event.RepositoryRefsChangedEvent;
+import com.atlassian.stash.history.HistoryService;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.nerdwin15.stash.webhook.service.ChangesetScanner;
+
+/**
+ * Test case for the {@link SkipMarkerEligibilityFilter} class.
+ */
+public class SkipMarkerEligibilityFilterTest {
+
+  private HistoryService historyService;
+  private SkipMarkerEligibilityFilter filter;
+  private Repository repository;
+  private RefChange refChange;
+  private RepositoryRefsChangedEvent event;
+  private List<Changeset> changesets = new ArrayList<Changeset>();
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    historyService = mock(HistoryService.class);
+    filter = new SkipMarkerEligibilityFilter(
+        new ChangesetScanner(historyService),
+        Arrays.asList("[ci skip]", "[skip jenkins]"), 3, 1000);
+
+    repository = mock(Repository.class);
+    when(repository.getId()).thenReturn(1);
+    refChange = mock(RefChange.class);
+    when(refChange.getType()).thenReturn(RefChangeType.UPDATE);
+    when(refChange.getFromHash()).thenReturn("abc");
+    when(refChange.getToHash()).thenReturn("def");
+    event = mock(RepositoryRefsChangedEvent.class);
+    when(event.getRepository()).thenReturn(repository);
+    when(event.getRefChanges()).thenReturn(Collections.singleton(refChange));
+
+    Page<Changeset> page = mock(Page.class);
+    when(page.getValues()).thenReturn(changesets);
+    when(page.getIsLastPage()).thenReturn(true);
+    when(historyService.getChangesetsBetween(eq(repository), anyString(),
+        anyString(), any(PageRequest.class))).thenReturn(page);
+  }
+
+  /**
+   * Validate that a push whose commits are all marked is cancelled, and
+   * that the outcome is remembered.
+   */
+  @Test
+  public void shouldCancelWhenEveryCommitIsSkipped() {
+    commits("Fix typo [CI SKIP]", "Bump version [skip jenkins]");
+
+    assertFalse(filter.shouldDeliverNotification(event));
+    assertFalse(filter.shouldDeliverNotification(event));
+    verify(historyService, times(1)).getChangesetsBetween(eq(repository),
+        anyString(), anyString(), any(PageRequest.class));
+  }
+
+  /**
+   * Validate that a push with a commit without marker is delivered.
+   */
+  @Test
+  public void shouldAllowWhenACommitIsNotSkipped() {
+    commits("Fix typo [ci skip]", "Real change", "Docs [ci skip]");
+    assertTrue(filter.shouldDeliverNotification(event));
+  }
+
+  /**
+   * Validate that a push with more commits than the scan may read is
+   * delivered.
+   */
+  @Test
+  public void shouldAllowWhenCommitCapIsReached() {
+    commits("[ci skip]", "[ci skip]", "[ci skip]", "[ci skip]");
+    assertTrue(filter.shouldDeliverNotification(event));
+  }
+
+  /**
+   * Validate that a deleted ref is delivered without scanning.
+   */
+  @Test
+  public void shouldAllowDeletedRef() {
+    when(refChange.getType()).thenReturn(RefChangeType.DELETE);
+    assertTrue(filter.shouldDeliverNotification(event));
+    verify(historyService, never()).getChangesetsBetween(
+        any(Repository.class), anyString(), anyString(),
+        any(PageRequest.class));
+  }
+
+  private void commits(String... messages) {
+    for (String message : messages) {
+      Changeset changeset = mock(Changeset.class);
+      when(changeset.getMessage()).thenReturn(message);
+      changesets.add(changeset);
+    }
+  }
+}
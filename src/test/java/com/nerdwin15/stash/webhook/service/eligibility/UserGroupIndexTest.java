@@ -0,0 +1,195 @@
+package com.nerdwin15.stash.webhook.service.eligibility;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.crowd.event.group.GroupMembershipCreatedEvent;
+import com.atlassian.crowd.event.group.GroupMembershipDeletedEvent;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.user.UserService;
+import com.atlassian.stash.util.Operation;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+
+/**
+ * Test case for the {@link UserGroupIndex} class.
+ */
+public class UserGroupIndexTest {
+
+  private UserService userService;
+  private SecurityService securityService;
+  private UserGroupIndex index;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Throwable {
+    userService = mock(UserService.class);
+    securityService = mock(SecurityService.class);
+    when(securityService.doWithPermission(anyString(), eq(Permission.ADMIN),
+        any(Operation.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return ((Operation<?, ?>) invocation.getArguments()[2]).perform();
+      }
+    });
+    index = new UserGroupIndex(userService, securityService, 60000, 60000,
+        100, 1000);
+  }
+
+  /**
+   * Tear down tasks
+   */
+  @After
+  public void tearDown() {
+    index.destroy();
+  }
+
+  /**
+   * Validate that a group that isn't indexed yet is loaded on its first
+   * lookup, so the first push after a restart is matched.
+   */
+  @Test
+  public void shouldLoadUnknownGroupOnFirstLookup() {
+    members("bots", "Builder", "release");
+
+    assertTrue(index.isMember("builder", "bots"));
+    assertTrue(index.isMember("RELEASE", "BOTS"));
+    assertFalse(index.isMember("developer", "bots"));
+    verify(userService, times(1)).findUsersByGroup(eq("bots"),
+        any(PageRequest.class));
+  }
+
+  /**
+   * Validate that preloaded groups are indexed in the background.
+   */
+  @Test
+  public void shouldPreloadGroups() throws Exception {
+    members("bots", "builder");
+
+    index.preload(Arrays.asList("Bots"));
+    verify(userService, timeout(5000)).findUsersByGroup(eq("bots"),
+        any(PageRequest.class));
+    assertTrue(index.isMember("builder", "bots"));
+    verify(userService, times(1)).findUsersByGroup(eq("bots"),
+        any(PageRequest.class));
+  }
+
+  /**
+   * Validate that membership events update the indexed groups.
+   */
+  @Test
+  public void shouldApplyMembershipEvents() {
+    members("bots", "builder");
+    members("developers", "builder");
+    assertTrue(index.isMember("builder", "bots"));
+    assertTrue(index.isMember("builder", "developers"));
+
+    GroupMembershipCreatedEvent created =
+        mock(GroupMembershipCreatedEvent.class);
+    when(created.getEntityName()).thenReturn("releaser");
+    when(created.getGroupName()).thenReturn("bots");
+    index.onMembershipCreated(created);
+    assertTrue(index.isMember("releaser", "bots"));
+
+    GroupMembershipDeletedEvent deleted =
+        mock(GroupMembershipDeletedEvent.class);
+    when(deleted.getEntityName()).thenReturn("builder");
+    when(deleted.getGroupName()).thenReturn("developers");
+    index.onMembershipDeleted(deleted);
+    assertFalse(index.isMember("builder", "developers"));
+  }
+
+  /**
+   * Validate that a refresh picks up changed memberships.
+   */
+  @Test
+  public void shouldReloadOnRefresh() {
+    members("bots", "builder");
+    assertFalse(index.isMember("releaser", "bots"));
+
+    members("bots", "builder", "releaser");
+    index.refresh();
+    assertTrue(index.isMember("releaser", "bots"));
+  }
+
+  /**
+   * Validate that membership events received while a group is reloaded
+   * aren't lost when the reloaded members replace the indexed ones.
+   */
+  @Test
+  public void shouldKeepMembershipEventsDuringRefresh() {
+    members("bots", "builder");
+    assertTrue(index.isMember("builder", "bots"));
+
+    final Page<StashUser> stale = userService.findUsersByGroup("bots",
+        null);
+    final GroupMembershipDeletedEvent deleted =
+        mock(GroupMembershipDeletedEvent.class);
+    when(deleted.getEntityName()).thenReturn("builder");
+    when(deleted.getGroupName()).thenReturn("bots");
+    when(userService.findUsersByGroup(eq("bots"), any(PageRequest.class)))
+        .thenAnswer(new Answer<Page<StashUser>>() {
+          @Override
+          public Page<StashUser> answer(InvocationOnMock invocation) {
+            index.onMembershipDeleted(deleted);
+            return stale;
+          }
+        });
+
+    index.refresh();
+    assertFalse(index.isMember("builder", "bots"));
+  }
+
+  /**
+   * Validate that only the configured number of members is indexed per
+   * group.
+   */
+  @Test
+  public void shouldBoundMembersPerGroup() {
+    index.destroy();
+    index = new UserGroupIndex(userService, securityService, 60000, 60000,
+        100, 2);
+    members("everyone", "a", "b", "c");
+
+    assertTrue(index.isMember("b", "everyone"));
+    assertFalse(index.isMember("c", "everyone"));
+  }
+
+  @SuppressWarnings("unchecked")
+  private void members(String group, String... names) {
+    List<StashUser> users = new ArrayList<StashUser>();
+    for (String name : names) {
+      StashUser user = mock(StashUser.class);
+      when(user.getName()).thenReturn(name);
+      users.add(user);
+    }
+    Page<StashUser> page = mock(Page.class);
+    when(page.getValues()).thenReturn(users);
+    when(page.getIsLastPage()).thenReturn(true);
+    when(userService.findUsersByGroup(eq(group), any(PageRequest.class)))
+        .thenReturn(page);
+  }
+}
@@ -0,0 +1,129 @@
+package com.nerdwin15.stash.webhook.service.failover;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Test case for the {@link ConcreteEndpointSelector} class.
+ */
+public class ConcreteEndpointSelectorTest {
+
+  private static final String DIRECT = "http://jenkins:8080";
+  private static final String BALANCED = "https://ci.example.com";
+  private static final List<String> ENDPOINTS =
+      Arrays.asList(DIRECT, BALANCED);
+
+  private long now;
+  private ConcreteEndpointSelector selector;
+
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return now;
+    }
+  };
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    selector = new ConcreteEndpointSelector(0.5, 2, 1000, 3.0, ticker);
+  }
+
+  /**
+   * Validate that endpoints not measured yet are tried first in their
+   * configured order, then the fastest.
+   */
+  @Test
+  public void shouldPreferUnmeasuredThenFastestEndpoints() {
+    assertEquals(ENDPOINTS, selector.order(ENDPOINTS));
+
+    selector.recordSuccess(DIRECT, millis(80));
+    assertEquals(Arrays.asList(BALANCED, DIRECT), selector.order(ENDPOINTS));
+
+    selector.recordSuccess(BALANCED, millis(100));
+    assertEquals(ENDPOINTS, selector.order(ENDPOINTS));
+
+    selector.recordSuccess(DIRECT, millis(200));
+    assertEquals(140, score(DIRECT).getLatencyMillis());
+    assertEquals(Arrays.asList(BALANCED, DIRECT), selector.order(ENDPOINTS));
+  }
+
+  /**
+   * Validate that an endpoint that failed comes after the others, and is
+   * ejected for longer each time it fails too often in a row until it is
+   * readmitted and answers again.
+   */
+  @Test
+  public void shouldEjectFailingEndpoint() {
+    selector.recordSuccess(DIRECT, millis(10));
+    selector.recordSuccess(BALANCED, millis(20));
+    selector.recordFailure(DIRECT);
+    assertFalse(score(DIRECT).isEjected());
+    assertEquals(Arrays.asList(BALANCED, DIRECT), selector.order(ENDPOINTS));
+
+    selector.recordFailure(DIRECT);
+    assertTrue(score(DIRECT).isEjected());
+    now += millis(999);
+    assertEquals(Arrays.asList(BALANCED, DIRECT), selector.order(ENDPOINTS));
+    now += millis(1);
+    assertEquals(ENDPOINTS, selector.order(ENDPOINTS));
+    assertFalse(score(DIRECT).isMeasured());
+
+    selector.recordFailure(DIRECT);
+    selector.recordFailure(DIRECT);
+    assertEquals(2, score(DIRECT).getEjections());
+    now += millis(1999);
+    assertEquals(Arrays.asList(BALANCED, DIRECT), selector.order(ENDPOINTS));
+    now += millis(1);
+    assertEquals(ENDPOINTS, selector.order(ENDPOINTS));
+
+    selector.recordSuccess(DIRECT, millis(10));
+    assertEquals(0, score(DIRECT).getEjections());
+    assertEquals(1, score(BALANCED).getSuccesses());
+    assertEquals(4, score(DIRECT).getFailures());
+  }
+
+  /**
+   * Validate that an endpoint lagging far behind the fastest one is ejected,
+   * while jitter between fast endpoints isn't.
+   */
+  @Test
+  public void shouldEjectLatencyOutliers() {
+    selector.recordSuccess(DIRECT, millis(2));
+    selector.recordSuccess(BALANCED, millis(10));
+    assertEquals(ENDPOINTS, selector.order(ENDPOINTS));
+    assertFalse(score(BALANCED).isEjected());
+
+    selector.recordSuccess(BALANCED, millis(500));
+    assertEquals(ENDPOINTS, selector.order(ENDPOINTS));
+    assertTrue(score(BALANCED).isEjected());
+
+    selector.recordFailure(DIRECT);
+    selector.recordFailure(DIRECT);
+    assertEquals(Arrays.asList(DIRECT, BALANCED), selector.order(ENDPOINTS));
+  }
+
+  private EndpointScore score(String endpoint) {
+    for (EndpointScore score : selector.getEndpoints()) {
+      if (score.getEndpoint().equals(endpoint))
+        return score;
+    }
+    throw new AssertionError("No score for " + endpoint);
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
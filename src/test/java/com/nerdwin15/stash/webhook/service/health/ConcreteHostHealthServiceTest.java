@@ -0,0 +1,238 @@
+package com.nerdwin15.stash.webhook.service.health;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.user.Permission;
+import com.atlassian.stash.user.SecurityService;
+import com.atlassian.stash.util.Operation;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.StubJenkinsServer;
+import com.nerdwin15.stash.webhook.service.ConcreteHttpClientFactory;
+import com.nerdwin15.stash.webhook.service.RepositoryEnumerator;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+
+/**
+ * Test case for the {@link ConcreteHostHealthService} class.
+ */
+public class ConcreteHostHealthServiceTest {
+
+  private StubJenkinsServer server;
+  private SettingsService settingsService;
+  private ConcreteHttpClientFactory httpClientFactory;
+  private ConcreteHostHealthService healthService;
+  private final List<Repository> repositories = new ArrayList<Repository>();
+
+  /**
+   * Setup tasks
+   * @throws Throwable
+   */
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Throwable {
+    server = new StubJenkinsServer();
+    settingsService = mock(SettingsService.class);
+    final RepositoryEnumerator enumerator = mock(RepositoryEnumerator.class);
+    when(enumerator.forEach(any(RepositoryEnumerator.Callback.class)))
+        .thenAnswer(new Answer<Boolean>() {
+          @Override
+          public Boolean answer(InvocationOnMock invocation) {
+            RepositoryEnumerator.Callback callback =
+                (RepositoryEnumerator.Callback) invocation.getArguments()[0];
+            for (Repository repository : repositories) {
+              callback.onRepository(repository);
+            }
+            return true;
+          }
+        });
+    final SecurityService securityService = mock(SecurityService.class);
+    when(securityService.doWithPermission(anyString(),
+        any(Permission.class), any(Operation.class)))
+        .thenAnswer(new Answer<Object>() {
+          @Override
+          public Object answer(InvocationOnMock invocation)
+              throws Throwable {
+            return ((Operation<?, ?>) invocation.getArguments()[2])
+                .perform();
+          }
+        });
+    httpClientFactory = new ConcreteHttpClientFactory();
+    healthService = new ConcreteHostHealthService(enumerator,
+        securityService, settingsService, httpClientFactory, 60000, 60000,
+        1000, 2, 2);
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    healthService.destroy();
+    httpClientFactory.destroy();
+    server.stop();
+  }
+
+  /**
+   * Validate that the distinct hosts of the enabled hooks are discovered,
+   * and that hosts no longer configured are forgotten.
+   */
+  @Test
+  public void shouldDiscoverDistinctEnabledHosts() {
+    repository(true, server.getBaseUrl());
+    repository(true, server.getBaseUrl() + "/");
+    repository(false, "http://disabled.jenkins");
+    repository(true, "not a url");
+
+    healthService.discover();
+
+    assertEquals(1, healthService.getHosts().size());
+    HostHealth health = healthService.getHealth(server.getBaseUrl());
+    assertNotNull(health);
+    assertEquals(server.getBaseUrl(), health.getJenkinsBase());
+    assertFalse(healthService.isDown(server.getBaseUrl()));
+
+    repositories.clear();
+    healthService.discover();
+    assertNull(healthService.getHealth(server.getBaseUrl()));
+  }
+
+  /**
+   * Validate that the alternates, the routing targets and the webhook host
+   * of a hook are discovered along with its Jenkins base URL.
+   */
+  @Test
+  public void shouldDiscoverEveryNotifiedHost() {
+    Settings settings = settingsService.getSettings(
+        repository(true, server.getBaseUrl()));
+    when(settings.getString(Notifier.JENKINS_ALTERNATES))
+        .thenReturn("http://alternate.jenkins/, " + server.getBaseUrl());
+    when(settings.getString(Notifier.REF_ROUTES))
+        .thenReturn("release/* https://release.jenkins:8443\n"
+            + "refs/tags/** none");
+    when(settings.getString(Notifier.WEBHOOK_URL))
+        .thenReturn("https://other.ci/build/${repository.slug}");
+
+    healthService.discover();
+
+    assertEquals(4, healthService.getHosts().size());
+    assertNotNull(healthService.getHealth("http://alternate.jenkins"));
+    assertEquals("https://release.jenkins:8443", healthService
+        .getHealth("https://release.jenkins:8443").getJenkinsBase());
+    assertEquals("https://other.ci",
+        healthService.getHealth("https://other.ci").getJenkinsBase());
+  }
+
+  /**
+   * Validate that a host is down after failing its probes in a row, and up
+   * again after a successful probe, and that each probe sends a request per
+   * warm connection.
+   * @throws Exception
+   */
+  @Test
+  public void shouldMarkHostDownAfterFailedProbes() throws Exception {
+    repository(true, server.getBaseUrl());
+    healthService.discover();
+    server.setStatus(503);
+
+    healthService.probe();
+    assertFalse(healthService.isDown(server.getBaseUrl()));
+    healthService.probe();
+    assertTrue(healthService.isDown(server.getBaseUrl()));
+    HostHealth health = healthService.getHealth(server.getBaseUrl());
+    assertEquals(503, health.getStatus());
+    assertEquals(2, health.getFailures());
+
+    server.setStatus(403);
+    healthService.probe();
+    assertFalse(healthService.isDown(server.getBaseUrl()));
+    assertEquals(0, health.getFailures());
+    assertNull(health.getError());
+    assertEquals(6, server.getRequests());
+  }
+
+  /**
+   * Validate that an unreachable host is down with the connection error.
+   * @throws Exception
+   */
+  @Test
+  public void shouldMarkUnreachableHostDown() throws Exception {
+    final String base = server.getBaseUrl();
+    repository(true, base);
+    healthService.discover();
+    server.stop();
+
+    healthService.probe();
+    healthService.probe();
+
+    assertTrue(healthService.isDown(base));
+    assertEquals(0, healthService.getHealth(base).getStatus());
+    assertNotNull(healthService.getHealth(base).getError());
+  }
+
+  /**
+   * Validate that a host that never answers is down after the probe
+   * timeout, without delaying the health of the other hosts.
+   * @throws Exception
+   */
+  @Test
+  public void shouldNotWaitOnBlackHoledHost() throws Exception {
+    // Connections are accepted by the backlog but never answered
+    final ServerSocket blackHole =
+        new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    try {
+      final String blackHoled = "http://127.0.0.1:" + blackHole.getLocalPort();
+      repository(true, blackHoled);
+      repository(true, server.getBaseUrl());
+      healthService.discover();
+      server.setStatus(503);
+      healthService.probe();
+      server.setStatus(200);
+
+      final long start = System.currentTimeMillis();
+      healthService.probe();
+      final long elapsed = System.currentTimeMillis() - start;
+
+      assertTrue("Took " + elapsed + "ms", elapsed < 3000);
+      assertFalse(healthService.isDown(server.getBaseUrl()));
+      assertEquals(200, healthService.getHealth(server.getBaseUrl())
+          .getStatus());
+      assertTrue(healthService.isDown(blackHoled));
+      assertNotNull(healthService.getHealth(blackHoled).getError());
+    } finally {
+      blackHole.close();
+    }
+  }
+
+  private Repository repository(boolean enabled, String jenkinsBase) {
+    Repository repository = mock(Repository.class);
+    RepositoryHook hook = mock(RepositoryHook.class);
+    when(hook.isEnabled()).thenReturn(enabled);
+    Settings settings = mock(Settings.class);
+    when(settings.getString(Notifier.JENKINS_BASE)).thenReturn(jenkinsBase);
+    when(settingsService.getRepositoryHook(repository)).thenReturn(hook);
+    when(settingsService.getSettings(repository)).thenReturn(settings);
+    repositories.add(repository);
+    return repository;
+  }
+}
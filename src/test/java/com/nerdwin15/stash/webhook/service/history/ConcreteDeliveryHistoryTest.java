@@ -0,0 +1,75 @@
+package com.nerdwin15.stash.webhook.service.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.atlassian.stash.event.RepositoryDeletedEvent;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+
+/**
+ * Test case for the {@link ConcreteDeliveryHistory} class.
+ */
+public class ConcreteDeliveryHistoryTest {
+
+  /**
+   * Validate that text fields are cut, and that a ring only keeps its most
+   * recent attempts.
+   */
+  @Test
+  public void shouldCutFieldsAndOverwriteOldest() {
+    ConcreteDeliveryHistory history = new ConcreteDeliveryHistory(2,
+        1024 * 1024);
+    Repository repository = repository(1);
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      body.append('x');
+    }
+
+    for (int i = 0; i < 3; i++) {
+      history.record(repository, Collections.<RefChange>emptyList(),
+          "http://jenkins/" + i, 500, 10, body.toString());
+    }
+
+    assertEquals(2, history.getSize(repository));
+    Delivery newest = history.getDeliveries(repository, 0, 10).get(0);
+    assertEquals("http://jenkins/2", newest.getUrl());
+    assertEquals(ConcreteDeliveryHistory.MAX_RESPONSE,
+        newest.getResponse().length());
+    assertEquals("http://jenkins/1",
+        history.getDeliveries(repository, 1, 10).get(0).getUrl());
+  }
+
+  /**
+   * Validate that the memory budget bounds the number of repositories, and
+   * that the history of a deleted repository is dropped.
+   */
+  @Test
+  public void shouldBoundRepositoriesByMemory() {
+    ConcreteDeliveryHistory history = new ConcreteDeliveryHistory(1,
+        ConcreteDeliveryHistory.ENTRY_BYTES);
+    Repository first = repository(1);
+    Repository second = repository(2);
+
+    history.record(first, null, "http://jenkins", 200, 1, "");
+    history.record(second, null, "http://jenkins", 200, 1, "");
+    assertEquals(0, history.getSize(first));
+    assertEquals(1, history.getSize(second));
+
+    RepositoryDeletedEvent event = mock(RepositoryDeletedEvent.class);
+    when(event.getRepository()).thenReturn(second);
+    history.onRepositoryDeleted(event);
+    assertEquals(0, history.getSize(second));
+  }
+
+  private static Repository repository(int id) {
+    Repository repository = mock(Repository.class);
+    when(repository.getId()).thenReturn(id);
+    return repository;
+  }
+}
@@ -0,0 +1,213 @@
+package com.nerdwin15.stash.webhook.service.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.atlassian.stash.hook.repository.RepositoryHook;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.setting.Settings;
+import com.google.common.base.Ticker;
+import com.nerdwin15.stash.webhook.Notifier;
+import com.nerdwin15.stash.webhook.StubJenkinsServer;
+import com.nerdwin15.stash.webhook.service.ConcreteHttpClientFactory;
+import com.nerdwin15.stash.webhook.service.SettingsService;
+import com.nerdwin15.stash.webhook.service.catchup.RefSnapshotStore;
+import com.nerdwin15.stash.webhook.service.deadletter.DeadLetterStore;
+import com.nerdwin15.stash.webhook.service.failover.ConcreteEndpointSelector;
+import com.nerdwin15.stash.webhook.service.health.HostHealthService;
+import com.nerdwin15.stash.webhook.service.history.DeliveryHistory;
+import com.nerdwin15.stash.webhook.service.payload.PayloadWriter;
+import com.nerdwin15.stash.webhook.service.record.TrafficRecorder;
+import com.nerdwin15.stash.webhook.service.route.ConcreteRoutingService;
+import com.nerdwin15.stash.webhook.service.template.ConcreteWebhookTemplateService;
+import com.nerdwin15.stash.webhook.service.trace.ConcreteTracer;
+
+/**
+ * Test case for the {@link ConcurrencyLimiter} class.
+ */
+public class ConcurrencyLimiterTest {
+
+  private static final long MILLIS = 1000000L;
+
+  private long now;
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return now;
+    }
+  };
+
+  /**
+   * Validate that no more than the limit can be acquired.
+   */
+  @Test
+  public void shouldBlockAtLimit() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("host", 2, 1, 10,
+        ticker);
+    assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+    assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+    assertFalse(limiter.acquire(10, TimeUnit.MILLISECONDS));
+    limiter.release(10 * MILLIS, true);
+    assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Validate that the limit grows while latency stays flat.
+   */
+  @Test
+  public void shouldIncreaseWhileLatencyIsFlat() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("host", 2, 1, 10,
+        ticker);
+    for (int i = 0; i < 50; i++) {
+      saturate(limiter, 10 * MILLIS, true);
+    }
+    assertEquals(10, limiter.getLimit());
+    assertEquals(10.0, limiter.getMinRttMillis(), 0.01);
+  }
+
+  /**
+   * Validate that the limit doesn't grow when it isn't being used.
+   */
+  @Test
+  public void shouldNotIncreaseWhenIdle() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("host", 8, 1, 32,
+        ticker);
+    for (int i = 0; i < 50; i++) {
+      limiter.acquire(0, TimeUnit.MILLISECONDS);
+      now += 10 * MILLIS;
+      limiter.release(10 * MILLIS, true);
+    }
+    assertEquals(8, limiter.getLimit());
+  }
+
+  /**
+   * Validate that the limit backs off once per round trip while latency is
+   * well above the minimum.
+   */
+  @Test
+  public void shouldDecreaseWhenLatencyClimbs() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("host", 10, 1, 10,
+        ticker);
+    saturate(limiter, 10 * MILLIS, true);
+    for (int i = 0; i < 5; i++) {
+      saturate(limiter, 100 * MILLIS, true);
+    }
+    assertEquals(5, limiter.getLimit());
+    assertTrue(limiter.getRttMillis() > 20);
+  }
+
+  /**
+   * Validate that failures halve the limit, but never below the minimum.
+   */
+  @Test
+  public void shouldHalveOnFailure() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("host", 8, 2, 10,
+        ticker);
+    limiter.acquire(0, TimeUnit.MILLISECONDS);
+    limiter.release(10 * MILLIS, false);
+    assertEquals(4, limiter.getLimit());
+    for (int i = 0; i < 5; i++) {
+      now += 100 * MILLIS;
+      limiter.acquire(0, TimeUnit.MILLISECONDS);
+      limiter.release(10 * MILLIS, false);
+    }
+    assertEquals(2, limiter.getLimit());
+    assertEquals(6, limiter.getFailures());
+  }
+
+  /**
+   * Validate the limiter adapts to the latency of a real server: it opens 
+   * up while Jenkins answers quickly and backs off once it slows down.
+   */
+  @Test
+  public void shouldAdaptToStubServerLatency() throws Exception {
+    StubJenkinsServer server = new StubJenkinsServer();
+    try {
+      final ConcurrencyLimiterService limiterService = 
+          new ConcreteConcurrencyLimiterService(2, 1, 16, 10000);
+      final Repository repository = mock(Repository.class);
+      final Notifier notifier = createNotifier(server, repository, 
+          limiterService);
+      final ConcurrencyLimiter limiter = 
+          limiterService.getLimiter(server.getBaseUrl());
+
+      server.setLatencyMillis(20);
+      notifyConcurrently(notifier, repository, 8, 10);
+      final int fastLimit = limiter.getLimit();
+      assertTrue("Limit should grow, was " + fastLimit, fastLimit > 2);
+      assertTrue(server.getMaxConcurrent() <= 16);
+
+      server.setLatencyMillis(250);
+      notifyConcurrently(notifier, repository, 8, 3);
+      assertTrue("Limit should shrink, was " + limiter.getLimit(),
+          limiter.getLimit() < fastLimit);
+      assertEquals(0, limiter.getInFlight());
+      assertEquals(0, limiter.getFailures());
+    } finally {
+      server.stop();
+    }
+  }
+
+  private void saturate(ConcurrencyLimiter limiter, long rttNanos, 
+      boolean success) throws Exception {
+    int acquired = 0;
+    while (limiter.acquire(0, TimeUnit.MILLISECONDS)) {
+      acquired++;
+    }
+    now += rttNanos;
+    for (int i = 0; i < acquired; i++) {
+      limiter.release(rttNanos, success);
+    }
+  }
+
+  private Notifier createNotifier(StubJenkinsServer server, 
+      Repository repository, ConcurrencyLimiterService limiterService) {
+    SettingsService settingsService = mock(SettingsService.class);
+    RepositoryHook hook = mock(RepositoryHook.class);
+    Settings settings = mock(Settings.class);
+    when(hook.isEnabled()).thenReturn(true);
+    when(settingsService.getRepositoryHook(repository)).thenReturn(hook);
+    when(settingsService.getSettings(repository)).thenReturn(settings);
+    when(settings.getString(Notifier.JENKINS_BASE))
+        .thenReturn(server.getBaseUrl());
+    when(settings.getString(Notifier.CLONE_URL))
+        .thenReturn("http://stash/scm/foo/bar.git");
+    return new Notifier(settingsService, new ConcreteHttpClientFactory(),
+        mock(PayloadWriter.class), limiterService,
+        mock(DeliveryHistory.class), mock(DeadLetterStore.class),
+        new ConcreteTracer(0, null, 1), mock(TrafficRecorder.class),
+        mock(HostHealthService.class), new ConcreteEndpointSelector(),
+        new ConcreteRoutingService(), new ConcreteWebhookTemplateService(),
+        mock(RefSnapshotStore.class));
+  }
+
+  private void notifyConcurrently(final Notifier notifier, 
+      final Repository repository, int threads, final int requests) 
+      throws InterruptedException {
+    List<Thread> workers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      Thread worker = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < requests; j++) {
+            notifier.notify(repository);
+          }
+        }
+      };
+      worker.start();
+      workers.add(worker);
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.nerdwin15.stash.webhook.service.payload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.content.Changeset;
+import com.atlassian.stash.history.HistoryService;
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashUser;
+import com.atlassian.stash.util.Page;
+import com.atlassian.stash.util.PageRequest;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.nerdwin15.stash.webhook.service.ChangesetScanner;
+
+/**
+ * Test case for the {@link JsonPayloadWriter} class.
+ */
+public class JsonPayloadWriterTest {
+
+  private HistoryService historyService;
+  private JsonPayloadWriter writer;
+  private Repository repository;
+  private StashUser user;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    historyService = mock(HistoryService.class);
+    writer = new JsonPayloadWriter(new ChangesetScanner(historyService));
+
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn("KEY");
+    repository = mock(Repository.class);
+    when(repository.getId()).thenReturn(42);
+    when(repository.getSlug()).thenReturn("slug");
+    when(repository.getProject()).thenReturn(project);
+
+    user = mock(StashUser.class);
+    when(user.getName()).thenReturn("pusher");
+
+    List<Changeset> changesets = new ArrayList<Changeset>();
+    for (int i = 0; i < 3; i++) {
+      Changeset changeset = mock(Changeset.class);
+      when(changeset.getId()).thenReturn("c" + i);
+      when(changeset.getMessage()).thenReturn("message " + i);
+      changesets.add(changeset);
+    }
+    Page<Changeset> page = mock(Page.class);
+    when(page.getValues()).thenReturn(changesets);
+    when(page.getIsLastPage()).thenReturn(true);
+    when(historyService.getChangesetsBetween(eq(repository), anyString(),
+        anyString(), any(PageRequest.class))).thenReturn(page);
+  }
+
+  /**
+   * Validate that the repository, pusher and ref changes are written without
+   * commits when none are requested.
+   */
+  @Test
+  public void shouldWritePushWithoutCommits() throws Exception {
+    JsonObject json = write(0, refChange("refs/heads/master",
+        RefChangeType.UPDATE));
+
+    assertEquals(42, json.getAsJsonObject("repository").get("id").getAsInt());
+    assertEquals("KEY", json.getAsJsonObject("repository")
+        .getAsJsonObject("project").get("key").getAsString());
+    assertEquals("pusher", json.getAsJsonObject("pusher").get("name")
+        .getAsString());
+
+    JsonObject refChange = json.getAsJsonArray("refChanges").get(0)
+        .getAsJsonObject();
+    assertEquals("refs/heads/master", refChange.get("refId").getAsString());
+    assertEquals("UPDATE", refChange.get("type").getAsString());
+    assertFalse(refChange.has("commits"));
+    verify(historyService, never()).getChangesetsBetween(
+        any(Repository.class), anyString(), anyString(),
+        any(PageRequest.class));
+  }
+
+  /**
+   * Validate that the commit budget is shared across all ref changes.
+   */
+  @Test
+  public void shouldBoundCommitsAcrossRefChanges() throws Exception {
+    JsonObject json = write(4,
+        refChange("refs/heads/master", RefChangeType.UPDATE),
+        refChange("refs/heads/feature", RefChangeType.UPDATE));
+
+    JsonArray refChanges = json.getAsJsonArray("refChanges");
+    JsonObject first = refChanges.get(0).getAsJsonObject();
+    JsonObject second = refChanges.get(1).getAsJsonObject();
+    assertEquals(3, first.getAsJsonArray("commits").size());
+    assertFalse(first.get("commitsTruncated").getAsBoolean());
+    assertEquals(1, second.getAsJsonArray("commits").size());
+    assertTrue(second.get("commitsTruncated").getAsBoolean());
+  }
+
+  /**
+   * Validate that a ref whose commits exactly fill the budget is not reported
+   * as truncated.
+   */
+  @Test
+  public void shouldNotFlagRefThatExactlyFitsBudget() throws Exception {
+    JsonObject json = write(3, refChange("refs/heads/master",
+        RefChangeType.UPDATE));
+
+    JsonObject refChange = json.getAsJsonArray("refChanges").get(0)
+        .getAsJsonObject();
+    assertEquals(3, refChange.getAsJsonArray("commits").size());
+    assertFalse(refChange.get("commitsTruncated").getAsBoolean());
+  }
+
+  /**
+   * Validate that refs listed after the budget ran out still carry an empty
+   * commit list flagged as truncated.
+   */
+  @Test
+  public void shouldFlagRefsAfterBudgetIsExhausted() throws Exception {
+    JsonObject json = write(3,
+        refChange("refs/heads/master", RefChangeType.UPDATE),
+        refChange("refs/heads/feature", RefChangeType.UPDATE),
+        refChange("refs/heads/gone", RefChangeType.DELETE));
+
+    JsonArray refChanges = json.getAsJsonArray("refChanges");
+    JsonObject second = refChanges.get(1).getAsJsonObject();
+    assertEquals(0, second.getAsJsonArray("commits").size());
+    assertTrue(second.get("commitsTruncated").getAsBoolean());
+    JsonObject third = refChanges.get(2).getAsJsonObject();
+    assertEquals(0, third.getAsJsonArray("commits").size());
+    assertFalse(third.get("commitsTruncated").getAsBoolean());
+  }
+
+  /**
+   * Validate that deleted refs list no commits and a null pusher is allowed.
+   */
+  @Test
+  public void shouldNotScanDeletedRefs() throws Exception {
+    user = null;
+    JsonObject json = write(10, refChange("refs/heads/gone",
+        RefChangeType.DELETE));
+
+    assertTrue(json.get("pusher").isJsonNull());
+    assertEquals(0, json.getAsJsonArray("refChanges").get(0)
+        .getAsJsonObject().getAsJsonArray("commits").size());
+  }
+
+  private JsonObject write(int maxCommits, RefChange... refChanges)
+      throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(repository, user, Arrays.asList(refChanges), maxCommits,
+        out);
+    return new JsonParser().parse(out.toString("UTF-8")).getAsJsonObject();
+  }
+
+  private RefChange refChange(String refId, RefChangeType type) {
+    RefChange refChange = mock(RefChange.class);
+    when(refChange.getRefId()).thenReturn(refId);
+    when(refChange.getFromHash()).thenReturn("aaaa");
+    when(refChange.getToHash()).thenReturn("bbbb");
+    when(refChange.getType()).thenReturn(type);
+    return refChange;
+  }
+}
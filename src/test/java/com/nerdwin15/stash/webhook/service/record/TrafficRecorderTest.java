@@ -0,0 +1,128 @@
+package com.nerdwin15.stash.webhook.service.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+import com.nerdwin15.stash.webhook.service.deadletter.StoredRefChange;
+
+/**
+ * Test case for the {@link TrafficRecorder} class.
+ */
+public class TrafficRecorderTest {
+
+  private static final String HASH = "0123456789abcdef0123456789abcdef01234567";
+
+  private File file;
+  private File rolled;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("traffic", ".rec");
+    file.delete();
+    rolled = new File(file.getPath() + ".1");
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    file.delete();
+    rolled.delete();
+  }
+
+  /**
+   * Validate that events and attempts are read back anonymized, and that a
+   * record cut short is ignored.
+   * @throws Exception
+   */
+  @Test
+  public void shouldRecordAnonymizedTraffic() throws Exception {
+    TrafficRecorder recorder = new TrafficRecorder(file, 1024 * 1024);
+    Repository repository = repository(7, 3);
+    recorder.recordEvent(repository, Arrays.<RefChange>asList(
+        new StoredRefChange("refs/heads/secret-feature", HASH, HASH,
+            RefChangeType.UPDATE),
+        new StoredRefChange("refs/tags/v1.0", HASH, HASH,
+            RefChangeType.ADD)), "dispatched");
+    recorder.recordDelivery(repository, "http://jenkins.internal:8080", 503,
+        42);
+    recorder.destroy();
+
+    List<TrafficRecord> records = TrafficLogReader.readAll(file);
+    assertEquals(2, records.size());
+    TrafficRecord event = records.get(0);
+    assertEquals(TrafficRecord.EVENT, event.getType());
+    assertEquals(7, event.getRepositoryId());
+    assertEquals(3, event.getProjectId());
+    assertEquals("dispatched", event.getOutcome());
+    assertEquals(2, event.getRefCount());
+    assertTrue(event.getRefId(0).startsWith("refs/heads/"));
+    assertFalse(event.getRefId(0).contains("secret"));
+    assertEquals(RefChangeType.UPDATE, event.getRefType(0));
+    assertTrue(event.getRefId(1).startsWith("refs/tags/"));
+    assertEquals(RefChangeType.ADD, event.getRefType(1));
+    TrafficRecord delivery = records.get(1);
+    assertEquals(TrafficRecord.DELIVERY, delivery.getType());
+    assertFalse(delivery.getHost().contains("jenkins"));
+    assertEquals(503, delivery.getStatus());
+    assertEquals(42, delivery.getLatencyMillis());
+
+    RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+    truncated.setLength(file.length() - 3);
+    truncated.close();
+    assertEquals(1, TrafficLogReader.readAll(file).size());
+  }
+
+  /**
+   * Validate that the log rolls over at its size cap, and that nothing is
+   * recorded when disabled.
+   * @throws Exception
+   */
+  @Test
+  public void shouldRollOverAtSizeCap() throws Exception {
+    TrafficRecorder recorder = new TrafficRecorder(file, 8 + 23 * 2);
+    Repository repository = repository(1, 1);
+    for (int i = 0; i < 3; i++) {
+      recorder.recordDelivery(repository, "http://jenkins", 200, i);
+    }
+    recorder.destroy();
+
+    assertEquals(2, TrafficLogReader.readAll(rolled).size());
+    List<TrafficRecord> records = TrafficLogReader.readAll(file);
+    assertEquals(1, records.size());
+    assertEquals(2, records.get(0).getLatencyMillis());
+
+    TrafficRecorder disabled = new TrafficRecorder(null, 0);
+    disabled.recordDelivery(repository, "http://jenkins", 200, 1);
+    assertFalse(disabled.isEnabled());
+  }
+
+  private static Repository repository(int id, int projectId) {
+    Project project = mock(Project.class);
+    when(project.getId()).thenReturn(projectId);
+    Repository repository = mock(Repository.class);
+    when(repository.getId()).thenReturn(id);
+    when(repository.getProject()).thenReturn(project);
+    return repository;
+  }
+}
@@ -0,0 +1,106 @@
+package com.nerdwin15.stash.webhook.service.route;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.setting.Settings;
+import com.nerdwin15.stash.webhook.Notifier;
+
+/**
+ * Test case for the {@link ConcreteRoutingService} class.
+ */
+public class ConcreteRoutingServiceTest {
+
+  private static final String JENKINS_BASE = "http://jenkins";
+  private static final String RELEASE = "http://release.jenkins";
+
+  private Settings settings;
+  private ConcreteRoutingService routingService;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    settings = mock(Settings.class);
+    when(settings.getString(Notifier.JENKINS_BASE))
+        .thenReturn(JENKINS_BASE + "/");
+    when(settings.getString(Notifier.REF_ROUTES)).thenReturn(
+        "release/* " + RELEASE + "\nrefs/tags/** none");
+    routingService = new ConcreteRoutingService();
+  }
+
+  /**
+   * Validate that ref changes are split by target, with unmatched refs sent
+   * to the Jenkins base URL and dropped refs left out.
+   */
+  @Test
+  public void shouldSplitRefChangesByTarget() {
+    RefChange master = refChange("refs/heads/master");
+    RefChange release = refChange("refs/heads/release/2.0");
+    RefChange tag = refChange("refs/tags/v2.0");
+    RefChange develop = refChange("refs/heads/develop");
+
+    Map<String, Collection<RefChange>> routes = routingService.route(
+        settings, Arrays.asList(master, release, tag, develop));
+
+    assertEquals(Arrays.asList(JENKINS_BASE, RELEASE),
+        new ArrayList<String>(routes.keySet()));
+    assertEquals(Arrays.asList(master, develop),
+        routes.get(JENKINS_BASE));
+    assertEquals(Arrays.asList(release), routes.get(RELEASE));
+
+    assertTrue(routingService.route(settings,
+        Arrays.asList(tag)).isEmpty());
+  }
+
+  /**
+   * Validate that every change goes to the Jenkins base URL without rules,
+   * with invalid rules, or when the push has no ref changes.
+   */
+  @Test
+  public void shouldRouteToJenkinsBaseByDefault() {
+    List<RefChange> tags = Arrays.asList(refChange("refs/tags/v1"));
+    List<RefChange> none = Collections.emptyList();
+    assertEquals(Collections.singletonMap(JENKINS_BASE, none),
+        routingService.route(settings, none));
+
+    when(settings.getString(Notifier.REF_ROUTES)).thenReturn("release/*");
+    assertEquals(Collections.singletonMap(JENKINS_BASE, tags),
+        routingService.route(settings, tags));
+
+    when(settings.getString(Notifier.REF_ROUTES)).thenReturn(" ");
+    assertEquals(Collections.singletonMap(JENKINS_BASE, tags),
+        routingService.route(settings, tags));
+  }
+
+  /**
+   * Validate that rules are compiled once per distinct text.
+   */
+  @Test
+  public void shouldCacheCompiledRules() {
+    RouteTable table = routingService.getRouteTable("** " + RELEASE);
+    assertSame(table, routingService.getRouteTable("** " + RELEASE));
+    assertTrue(routingService.getRouteTable("** ftp://x").isEmpty());
+  }
+
+  private static RefChange refChange(String refId) {
+    RefChange refChange = mock(RefChange.class);
+    when(refChange.getRefId()).thenReturn(refId);
+    return refChange;
+  }
+}
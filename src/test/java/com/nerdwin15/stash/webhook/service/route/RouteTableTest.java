@@ -0,0 +1,104 @@
+package com.nerdwin15.stash.webhook.service.route;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Test case for the {@link RouteTable} class.
+ */
+public class RouteTableTest {
+
+  private static final String RELEASE = "https://release.jenkins";
+  private static final String CI = "https://ci.jenkins";
+
+  /**
+   * Validate that branch patterns, full ref patterns and wildcards match
+   * the refs they should.
+   */
+  @Test
+  public void shouldRouteRefsByPattern() {
+    RouteTable table = RouteTable.compile("# Routing\n"
+        + "release/*  " + RELEASE + "/\n"
+        + "\n"
+        + "feature/**\t" + CI + "\r\n"
+        + "hotfix-?   " + CI + "\n"
+        + "refs/tags/**  NONE\n");
+
+    assertEquals(RELEASE, table.route("refs/heads/release/1.0"));
+    assertNull(table.route("refs/heads/release/1.0/rc"));
+    assertNull(table.route("refs/heads/release"));
+    assertEquals(CI, table.route("refs/heads/feature/a/b"));
+    assertEquals(CI, table.route("refs/heads/feature/"));
+    assertEquals(CI, table.route("refs/heads/hotfix-1"));
+    assertNull(table.route("refs/heads/hotfix-12"));
+    assertEquals(RouteTable.NONE, table.route("refs/tags/v1.0"));
+    assertNull(table.route("refs/heads/master"));
+    assertNull(table.route("release/1.0"));
+  }
+
+  /**
+   * Validate that the first rule listed wins when several match a ref.
+   */
+  @Test
+  public void shouldPreferFirstMatchingRule() {
+    assertEquals(RELEASE, RouteTable.compile("release/** " + RELEASE
+        + "\nrelease/1.* " + CI).route("refs/heads/release/1.0"));
+    assertEquals(CI, RouteTable.compile("release/1.* " + CI
+        + "\nrelease/** " + RELEASE).route("refs/heads/release/1.0"));
+    assertEquals(RELEASE, RouteTable.compile("refs/** " + RELEASE
+        + "\n** none").route("refs/heads/master"));
+  }
+
+  /**
+   * Validate that invalid rules are rejected with the line at fault.
+   */
+  @Test
+  public void shouldRejectInvalidRules() {
+    assertTrue(RouteTable.compile(null).isEmpty());
+    assertTrue(RouteTable.compile(" \n# nothing\n").isEmpty());
+    assertInvalid("release/*", "Rule 1");
+    assertInvalid("master " + CI + "\nrelease/* " + CI + " extra", "Rule 2");
+    assertInvalid("release/* ftp://jenkins", "rule 1");
+  }
+
+  /**
+   * Validate that many rules are told apart, and that routing a ref again
+   * reuses the states interned the first time.
+   */
+  @Test
+  public void shouldRouteWithManyRules() {
+    StringBuilder rules = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      rules.append("team-").append(i).append("/* https://jenkins-")
+          .append(i).append('\n');
+    }
+    rules.append("team-*/** ").append(CI);
+    RouteTable table = RouteTable.compile(rules.toString());
+
+    for (int i = 0; i < 1000; i += 7) {
+      assertEquals("https://jenkins-" + i,
+          table.route("refs/heads/team-" + i + "/topic"));
+    }
+    assertEquals(CI, table.route("refs/heads/team-1000/topic"));
+    assertEquals(CI, table.route("refs/heads/team-1/topic/nested"));
+
+    int states = table.getStates();
+    assertEquals("https://jenkins-42",
+        table.route("refs/heads/team-42/topic"));
+    assertEquals(states, table.getStates());
+    assertTrue(states < RouteTable.MAX_STATES);
+  }
+
+  private static void assertInvalid(String rules, String message) {
+    try {
+      RouteTable.compile(rules);
+      fail("Expected invalid rules: " + rules);
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package com.nerdwin15.stash.webhook.service.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.setting.Settings;
+import com.atlassian.stash.user.StashUser;
+import com.google.common.base.Charsets;
+import com.nerdwin15.stash.webhook.Notifier;
+
+/**
+ * Test case for the {@link ConcreteWebhookTemplateService} class and the
+ * requests of the {@link WebhookTemplate} it compiles.
+ */
+public class ConcreteWebhookTemplateServiceTest {
+
+  private Settings settings;
+  private Repository repository;
+  private RefChange refChange;
+  private ConcreteWebhookTemplateService templateService;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    settings = mock(Settings.class);
+    repository = mock(Repository.class);
+    when(repository.getSlug()).thenReturn("repo");
+    refChange = mock(RefChange.class);
+    when(refChange.getRefId()).thenReturn("refs/heads/master");
+    templateService = new ConcreteWebhookTemplateService();
+  }
+
+  /**
+   * Validate that a webhook with a body is posted with its rendered
+   * headers, and its body rendered when written.
+   * @throws Exception
+   */
+  @Test
+  public void shouldPostRenderedBody() throws Exception {
+    when(settings.getString(Notifier.WEBHOOK_URL))
+        .thenReturn(" https://ci.example.com/hook/${repository.slug} ");
+    when(settings.getString(Notifier.WEBHOOK_HEADERS)).thenReturn(
+        "X-Token: secret\n\nX-Ref: ${ref.id}\nContent-Type: text/plain");
+    when(settings.getString(Notifier.WEBHOOK_BODY))
+        .thenReturn("${each:\n}${ref.displayId}${end}");
+
+    HttpUriRequest request = templateService.getTemplate(settings)
+        .createRequest(new TemplateContext(repository, null,
+            Arrays.asList(refChange, refChange), null));
+
+    assertTrue(request instanceof HttpPost);
+    assertEquals("https://ci.example.com/hook/repo",
+        request.getURI().toString());
+    assertEquals("secret", request.getFirstHeader("X-Token").getValue());
+    assertEquals("refs/heads/master",
+        request.getFirstHeader("X-Ref").getValue());
+    assertEquals("text/plain",
+        request.getFirstHeader("Content-Type").getValue());
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    ((HttpPost) request).getEntity().writeTo(body);
+    assertEquals("master\nmaster", new String(body.toByteArray(),
+        Charsets.UTF_8));
+    assertTrue(((HttpPost) request).getEntity().isChunked());
+  }
+
+  /**
+   * Validate that the fields of a JSON body are escaped by default, unless
+   * they ask to be written raw.
+   * @throws Exception
+   */
+  @Test
+  public void shouldEscapeFieldsOfJsonBody() throws Exception {
+    when(settings.getString(Notifier.WEBHOOK_URL)).thenReturn("http://ci");
+    when(settings.getString(Notifier.WEBHOOK_BODY)).thenReturn(
+        "{\"user\": \"${pusher.name}\", \"id\": ${raw:repository.id}}");
+    StashUser user = mock(StashUser.class);
+    when(user.getName()).thenReturn("o\"neil\\");
+    when(repository.getId()).thenReturn(7);
+
+    HttpPost request = (HttpPost) templateService.getTemplate(settings)
+        .createRequest(new TemplateContext(repository, user,
+            Arrays.asList(refChange), null));
+
+    assertEquals(WebhookTemplate.DEFAULT_CONTENT_TYPE,
+        request.getEntity().getContentType().getValue());
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    request.getEntity().writeTo(body);
+    assertEquals("{\"user\": \"o\\\"neil\\\\\", \"id\": 7}",
+        new String(body.toByteArray(), Charsets.UTF_8));
+  }
+
+  /**
+   * Validate that a webhook without a body is a GET, and that values
+   * can't start new headers.
+   */
+  @Test
+  public void shouldGetWithoutBody() {
+    when(settings.getString(Notifier.WEBHOOK_URL))
+        .thenReturn("http://ci/${raw:ref.id}");
+    when(settings.getString(Notifier.WEBHOOK_HEADERS))
+        .thenReturn("X-Repo: ${repository.slug}");
+    when(settings.getString(Notifier.WEBHOOK_BODY)).thenReturn(" ");
+    when(repository.getSlug()).thenReturn("repo\r\nX-Evil: 1");
+
+    HttpUriRequest request = templateService.getTemplate(settings)
+        .createRequest(new TemplateContext(repository, null,
+            Arrays.asList(refChange), null));
+
+    assertTrue(request instanceof HttpGet);
+    assertEquals("http://ci/refs/heads/master", request.getURI().toString());
+    assertEquals("repo X-Evil: 1", request.getFirstHeader("X-Repo")
+        .getValue());
+    assertNull(request.getFirstHeader("X-Evil"));
+  }
+
+  /**
+   * Validate that webhooks are compiled once per distinct templates, and
+   * that missing or invalid ones are ignored.
+   */
+  @Test
+  public void shouldCacheCompiledWebhooks() {
+    assertNull(templateService.getTemplate(settings));
+
+    when(settings.getString(Notifier.WEBHOOK_URL)).thenReturn("http://ci");
+    WebhookTemplate webhook = templateService.getTemplate(settings);
+    assertSame(webhook, templateService.getTemplate(settings));
+
+    when(settings.getString(Notifier.WEBHOOK_HEADERS)).thenReturn("X-A 1");
+    assertNull(templateService.getTemplate(settings));
+    when(settings.getString(Notifier.WEBHOOK_HEADERS)).thenReturn(null);
+    when(settings.getString(Notifier.WEBHOOK_URL)).thenReturn("ci/hook");
+    assertNull(templateService.getTemplate(settings));
+  }
+}
@@ -0,0 +1,133 @@
+package com.nerdwin15.stash.webhook.service.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.stash.project.Project;
+import com.atlassian.stash.repository.RefChange;
+import com.atlassian.stash.repository.RefChangeType;
+import com.atlassian.stash.repository.Repository;
+import com.atlassian.stash.user.StashUser;
+
+/**
+ * Test case for the {@link Template} class.
+ */
+public class TemplateTest {
+
+  private Repository repository;
+  private StashUser user;
+  private RefChange master;
+  private RefChange tag;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    Project project = mock(Project.class);
+    when(project.getKey()).thenReturn("PRJ");
+    repository = mock(Repository.class);
+    when(repository.getId()).thenReturn(7);
+    when(repository.getSlug()).thenReturn("my-repo");
+    when(repository.getProject()).thenReturn(project);
+    user = mock(StashUser.class);
+    when(user.getName()).thenReturn("jdoe");
+    when(user.getDisplayName()).thenReturn("Jane \"JD\" Doe");
+    master = refChange("refs/heads/feature/a b", RefChangeType.UPDATE);
+    tag = refChange("refs/tags/v1.0", RefChangeType.ADD);
+  }
+
+  /**
+   * Validate that fields are rendered with the default escaping or the one
+   * they ask for, and that the ref fields outside of a repetition are those
+   * of the first ref change.
+   */
+  @Test
+  public void shouldRenderFieldsWithEscaping() {
+    Template template = Template.compile("https://ci/${project.key}/"
+        + "${repository.slug}?branch=${ref.displayId}&by=${raw:pusher.name}"
+        + "&id=${repository.id}$$", Template.Escape.URL);
+
+    assertEquals("https://ci/PRJ/my-repo?branch=feature%2Fa%20b&by=jdoe"
+        + "&id=7$", template.render(context(master, tag)));
+    assertFalse(template.isConstant());
+
+    assertEquals("\"Jane \\\"JD\\\" Doe\" \u00e9%C3%A9",
+        Template.compile("\"${json:pusher.displayName}\" ${raw:cloneUrl}"
+            + "${url:cloneUrl}", Template.Escape.RAW)
+            .render(new TemplateContext(repository, user,
+                Collections.<RefChange>emptyList(), "\u00e9")));
+  }
+
+  /**
+   * Validate that a repetition renders every ref change with its separator,
+   * straight into the writer.
+   * @throws Exception
+   */
+  @Test
+  public void shouldRepeatForEachRefChange() throws Exception {
+    Template template = Template.compile("{\"refs\": [${each:, }{\"id\": "
+        + "\"${json:ref.id}\", \"type\": \"${ref.type}\", \"to\": "
+        + "\"${ref.toHash}\"}${end}], \"pusher\": \"${pusher.emailAddress}\"}",
+        Template.Escape.RAW);
+
+    StringWriter out = new StringWriter();
+    template.render(context(master, tag), out);
+    assertEquals("{\"refs\": [{\"id\": \"refs/heads/feature/a b\", \"type\": "
+        + "\"UPDATE\", \"to\": \"2222\"}, {\"id\": \"refs/tags/v1.0\", "
+        + "\"type\": \"ADD\", \"to\": \"2222\"}], \"pusher\": \"\"}",
+        out.toString());
+
+    assertEquals("{\"refs\": [], \"pusher\": \"\"}",
+        template.render(context()));
+  }
+
+  /**
+   * Validate that invalid templates are rejected.
+   */
+  @Test
+  public void shouldRejectInvalidTemplates() {
+    assertTrue(Template.compile("plain $ text {}", Template.Escape.RAW)
+        .isConstant());
+    assertInvalid("${repository.slug", "Unclosed");
+    assertInvalid("${repository.owner}", "Unknown field");
+    assertInvalid("${html:repository.slug}", "Unknown escaping");
+    assertInvalid("${each}${each}${end}${end}", "nested");
+    assertInvalid("${end}", "without ${each}");
+    assertInvalid("${each:,}${ref.id}", "without ${end}");
+  }
+
+  private TemplateContext context(RefChange... refChanges) {
+    return new TemplateContext(repository, user, Arrays.asList(refChanges),
+        null);
+  }
+
+  private static RefChange refChange(String refId, RefChangeType type) {
+    RefChange refChange = mock(RefChange.class);
+    when(refChange.getRefId()).thenReturn(refId);
+    when(refChange.getFromHash()).thenReturn("1111");
+    when(refChange.getToHash()).thenReturn("2222");
+    when(refChange.getType()).thenReturn(type);
+    return refChange;
+  }
+
+  private static void assertInvalid(String text, String message) {
+    try {
+      Template.compile(text, Template.Escape.RAW);
+      fail("Expected an invalid template: " + text);
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package com.nerdwin15.stash.webhook.service.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for the {@link ConcreteTracer} class.
+ */
+public class ConcreteTracerTest {
+
+  private BlockingQueue<Span> exported = new LinkedBlockingQueue<Span>();
+  private ConcreteTracer tracer;
+
+  /**
+   * Setup tasks
+   */
+  @Before
+  public void setUp() {
+    tracer = new ConcreteTracer(1, new SpanExporter() {
+      @Override
+      public void export(Span span) {
+        exported.add(span);
+      }
+
+      @Override
+      public void close() {
+      }
+    }, 16);
+  }
+
+  /**
+   * Teardown tasks
+   */
+  @After
+  public void tearDown() {
+    tracer.destroy();
+  }
+
+  /**
+   * Validate that child spans share the trace of their parent, that ending
+   * a span makes its parent current again, and that ended spans are
+   * exported.
+   * @throws Exception
+   */
+  @Test
+  public void shouldNestAndExportSpans() throws Exception {
+    Span root = tracer.startTrace("root").setAttribute("repository", 1);
+    Span child = tracer.startSpan("child");
+    assertEquals(child.getContext(), tracer.currentContext());
+    child.end();
+    assertEquals(root.getContext(), tracer.currentContext());
+    root.end();
+    assertNull(tracer.currentContext());
+
+    Span first = exported.poll(5, TimeUnit.SECONDS);
+    Span second = exported.poll(5, TimeUnit.SECONDS);
+    assertEquals("child", first.getName());
+    assertEquals("root", second.getName());
+    assertEquals(root.getContext().getTraceId(),
+        first.getContext().getTraceId());
+    assertEquals(root.getContext().getSpanId(), first.getParentSpanId());
+    assertNull(second.getParentSpanId());
+    assertTrue(second.getDurationNanos() >= first.getDurationNanos());
+    assertTrue(LoggingSpanExporter.toJson(second)
+        .contains("\"attributes\":{\"repository\":1}"));
+  }
+
+  /**
+   * Validate that a trace can be continued on another thread, and that no
+   * span is recorded outside of a trace.
+   * @throws Exception
+   */
+  @Test
+  public void shouldResumeTraceOnAnotherThread() throws Exception {
+    Span root = tracer.startTrace("root");
+    final TraceContext context = tracer.currentContext();
+    root.end();
+    Thread worker = new Thread() {
+      @Override
+      public void run() {
+        tracer.resume(context, "worker").end();
+        tracer.resume(null, "ignored").end();
+        tracer.startSpan("ignored").end();
+      }
+    };
+    worker.start();
+    worker.join();
+
+    assertEquals("root", exported.poll(5, TimeUnit.SECONDS).getName());
+    Span resumed = exported.poll(5, TimeUnit.SECONDS);
+    assertEquals("worker", resumed.getName());
+    assertEquals(context.getSpanId(), resumed.getParentSpanId());
+    assertNull(exported.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Validate that unsampled traces are still propagated, but not exported.
+   * @throws Exception
+   */
+  @Test
+  public void shouldPropagateUnsampledTraces() throws Exception {
+    tracer.destroy();
+    tracer = new ConcreteTracer(0, new LoggingSpanExporter(), 16);
+    Span root = tracer.startTrace("root").setAttribute("repository", 1);
+    TraceContext context = root.getContext();
+    root.end();
+
+    assertNotNull(context);
+    assertFalse(root.isSampled());
+    assertTrue(root.getAttributes().isEmpty());
+    assertTrue(context.toTraceparent().matches("00-[0-9a-f]{32}-"
+        + context.getSpanId() + "-00"));
+  }
+
+  /**
+   * Validate the format of the IDs.
+   */
+  @Test
+  public void shouldFormatTraceparent() {
+    TraceContext context = new TraceContext(0x4bf92f3577b34da6L,
+        0xa3ce929d0e0e4736L, 0xf067aa0ba902b7L, true);
+    assertEquals("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01",
+        context.toTraceparent());
+  }
+}